@@ -33,7 +33,7 @@ public class SpringBeanProxyInterceptor {
      * {@link org.springframework.beans.factory.support.AbstractAutowireCapableBeanFactory#initializeBean(String, Object, RootBeanDefinition)}
      * to check whether an original bean is replaced with a proxy.
      */
-    @Advice(AdviceKind.AFTER_RETURN)
+    @Advice(value = AdviceKind.AFTER_RETURN, scope = AdviceScope.SINGLETON)
     public void interceptInitializeBean(@This AbstractAutowireCapableBeanFactory factory,
             @Argument(0) String beanName,
             @Argument(1) Object originalBean,
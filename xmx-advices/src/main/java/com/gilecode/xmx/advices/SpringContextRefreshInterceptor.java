@@ -4,6 +4,7 @@ package com.gilecode.xmx.advices;
 
 import com.gilecode.xmx.aop.Advice;
 import com.gilecode.xmx.aop.AdviceKind;
+import com.gilecode.xmx.aop.AdviceScope;
 import com.gilecode.xmx.aop.This;
 import com.gilecode.xmx.boot.XmxProxy;
 import org.springframework.context.support.AbstractApplicationContext;
@@ -16,17 +17,17 @@ public class SpringContextRefreshInterceptor {
 
 //    private static final IAdviceLogger logger = LoggerFactory.getLogger(SpringContextRefreshInterceptor.class);
 
-    @Advice(AdviceKind.BEFORE)
+    @Advice(value = AdviceKind.BEFORE, scope = AdviceScope.SINGLETON)
     public void before(@This AbstractApplicationContext ctx) {
         XmxProxy.fireAdviceEvent(AdvicesConstants.PLUGIN_SPRING, "CtxRefreshStart", ctx);
     }
 
-    @Advice(AdviceKind.AFTER_RETURN)
+    @Advice(value = AdviceKind.AFTER_RETURN, scope = AdviceScope.SINGLETON)
     public void afterRet(@This AbstractApplicationContext ctx) {
         XmxProxy.fireAdviceEvent(AdvicesConstants.PLUGIN_SPRING, "CtxRefreshEnd", ctx);
     }
 
-    @Advice(AdviceKind.AFTER_THROW)
+    @Advice(value = AdviceKind.AFTER_THROW, scope = AdviceScope.SINGLETON)
     public void afterThrow(@This AbstractApplicationContext ctx) {
         XmxProxy.fireAdviceEvent(AdvicesConstants.PLUGIN_SPRING, "CtxRefreshEnd", ctx);
     }
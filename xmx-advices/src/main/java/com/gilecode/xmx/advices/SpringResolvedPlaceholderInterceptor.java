@@ -4,6 +4,7 @@ package com.gilecode.xmx.advices;
 
 import com.gilecode.xmx.aop.Advice;
 import com.gilecode.xmx.aop.AdviceKind;
+import com.gilecode.xmx.aop.AdviceScope;
 import com.gilecode.xmx.aop.Argument;
 import com.gilecode.xmx.aop.RetVal;
 import com.gilecode.xmx.boot.XmxProxy;
@@ -18,7 +19,7 @@ public class SpringResolvedPlaceholderInterceptor {
      * {@link PropertyPlaceholderHelper#replacePlaceholders(String, PropertyPlaceholderHelper.PlaceholderResolver)}
      * to track resolved placeholders and properties.
      */
-    @Advice(AdviceKind.AFTER_RETURN)
+    @Advice(value = AdviceKind.AFTER_RETURN, scope = AdviceScope.SINGLETON)
     public void intercept(@Argument(0) String value, @RetVal String resolved) {
         if (resolved != null && value != null && !resolved.equals(value)) {
             XmxProxy.fireAdviceEvent(AdvicesConstants.PLUGIN_SPRING, "ResolvedPlaceholder", value, resolved);
@@ -4,6 +4,7 @@ package com.gilecode.xmx.advices;
 
 import com.gilecode.xmx.aop.Advice;
 import com.gilecode.xmx.aop.AdviceKind;
+import com.gilecode.xmx.aop.AdviceScope;
 import com.gilecode.xmx.aop.Argument;
 import com.gilecode.xmx.aop.RetVal;
 import com.gilecode.xmx.aop.log.IAdviceLogger;
@@ -17,6 +18,7 @@ public class SpringResolvedPropertyInterceptor {
 
 //    private static final IXmxSpringProxyAware proxyRegistrator = XmxProxy.getSpringProxyRegistrator();
 
+    // the last reported property, kept across the calls by the singleton advice instance
     private String lastKey, lastResolved;
 
     /**
@@ -24,7 +26,7 @@ public class SpringResolvedPropertyInterceptor {
      * {@link PropertySourcesPropertyResolver#getProperty(String, Class, boolean)}
      * to track resolved properties.
      */
-    @Advice(AdviceKind.AFTER_RETURN)
+    @Advice(value = AdviceKind.AFTER_RETURN, scope = AdviceScope.SINGLETON)
     public void intercept(@Argument(0) String key, @RetVal Object resolved) {
         if (resolved != null && key != null && !resolved.equals(key)) {
             String resolvedStr = resolved.toString();
@@ -6,13 +6,21 @@ import com.gilecode.xmx.boot.XmxProxy;
 
 import java.io.*;
 import java.lang.instrument.Instrumentation;
+import java.net.JarURLConnection;
 import java.net.URL;
+import java.net.URLConnection;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
@@ -22,6 +30,13 @@ public class XmxAgent {
 	private static final String XMX_TEMP_HOME_NAME = "xmx_temp_home";
 	private static final String XMX_DISTR_RES = "xmx-distribution.zip";
 
+	/**
+	 * The name of the file created in the extracted distribution after the extraction is completed.
+	 */
+	private static final String EXTRACTED_MARKER = ".extracted";
+
+	private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
 	// use: -javaagent:path\xmx-agent.jar[=override_props]
 	// override_props::=override_prop[,override_prop]*
 	// override_prop::=name=val
@@ -33,6 +48,35 @@ public class XmxAgent {
 	// -javaagent:path\xmx-agent.jar=enabled=true,embeddedwebserver.enabled=true,EmbeddedWebServer.Port=8082
 	
 	public static void premain(String agentArgs, Instrumentation instr) {
+		start(agentArgs, instr, false);
+	}
+
+	// use: load xmx-agent.jar into a running JVM with the Attach API, e.g.
+	// VirtualMachine.attach(pid).loadAgent("path/xmx-agent.jar", "EmbeddedWebServer.Port=8082")
+	// the agent arguments are the same as for -javaagent
+	public static void agentmain(String agentArgs, Instrumentation instr) {
+		start(agentArgs, instr, true);
+	}
+
+	/**
+	 * Whether XMX is already started by this agent. Prevents repeated initialization if the
+	 * agent is attached several times.
+	 */
+	private static boolean started;
+
+	/**
+	 * Starts XMX.
+	 *
+	 * @param agentArgs the agent arguments
+	 * @param instr the instrumentation
+	 * @param attached whether the agent is attached to a running JVM, so the classes loaded before the start
+	 *                 shall be re-transformed
+	 */
+	private static synchronized void start(String agentArgs, Instrumentation instr, boolean attached) {
+		if (started) {
+			System.err.println("XmxAgent is already started");
+			return;
+		}
 		Map<String,String> agentProperties = parseArguments(agentArgs);
 		if ("false".equalsIgnoreCase(agentProperties.get("enabled"))) {
 			// fast path of disabling XMX
@@ -40,7 +84,8 @@ public class XmxAgent {
 		}
 		
 		// TODO: support pre-set XMX_HOME dir
-		
+
+		started = true;
 		long copyStart = System.currentTimeMillis();
 		
 		try {
@@ -48,21 +93,19 @@ public class XmxAgent {
 			File agentHomeDir;
 			
 			// check if agent is ran from xmx-agent-all.jar (with integrated distr)
-			InputStream distrImageStream = XmxAgent.class.getClassLoader().getResourceAsStream(XMX_DISTR_RES);
-			if (distrImageStream != null) {
-				try (ZipInputStream distrImageZip = new ZipInputStream(new BufferedInputStream(distrImageStream))) {
-					agentHomeDir = new File(System.getProperty("java.io.tmpdir") + File.separator + XMX_TEMP_HOME_NAME);
-					
-					// in order to prevent versioning and corruption problems, try delete previous if exists
-					if ((agentHomeDir.exists() && !deleteRecursively(agentHomeDir)) || !agentHomeDir.mkdir()) {
-						// if deletion or creation failed - use new temp folder instead
-						agentHomeDir = Files.createTempDirectory(XMX_TEMP_HOME_NAME).toFile();
-					}
-					
-					copyContents(distrImageZip, agentHomeDir);
-//					double delta = (System.currentTimeMillis() - copyStart) / 1000.0;
-//					System.err.println("XMX distribution extraction completed in " + delta + " sec");
+			URL distrImageUrl = XmxAgent.class.getClassLoader().getResource(XMX_DISTR_RES);
+			if (distrImageUrl != null) {
+				File tempHomesDir = new File(System.getProperty("java.io.tmpdir") + File.separator + XMX_TEMP_HOME_NAME);
+				try {
+					agentHomeDir = getOrExtractDistribution(distrImageUrl, tempHomesDir);
+				} catch (IOException e) {
+					// if the shared extraction failed - use new temp folder instead
+					System.err.println("Failed to extract XMX distribution to " + tempHomesDir + ": " + e);
+					agentHomeDir = Files.createTempDirectory(XMX_TEMP_HOME_NAME).toFile();
+					extractDistribution(distrImageUrl, agentHomeDir);
 				}
+//				double delta = (System.currentTimeMillis() - copyStart) / 1000.0;
+//				System.err.println("XMX distribution extraction completed in " + delta + " sec");
 			} else {
 				// normal xmx-agent.jar run, check if run in XMX_HOME/bin
 				URL jarLocation = XmxAgent.class.getProtectionDomain().getCodeSource().getLocation();
@@ -79,8 +122,12 @@ public class XmxAgent {
 			// from this moment we can use xmx-boot classes
 			boolean success = initializeLoader(agentProperties, agentHomeDir.getAbsoluteFile(), xmxVersion);
 			if (success) {
-				// initialize transformer
-				instr.addTransformer(new XmxClassTransformer());
+				// initialize transformer; re-transformation is used to add/remove instances registration
+				instr.addTransformer(new XmxClassTransformer(), true);
+				XmxProxy.setInstrumentation(instr);
+				if (attached) {
+					XmxProxy.retransformLoadedClasses();
+				}
 			}
 		} catch (Exception e) {
 			System.err.println("Failed to start XmxAgent");
@@ -210,11 +257,127 @@ public class XmxAgent {
 		return !dir.exists();
 	}
 
-	// TODO support starting agent after VM startup
-	public static void agentmain(String agentArgs, Instrumentation instr) {
-		System.err.println("NOT IMPLEMENTED YET: XmxAgent agentmain");
+	/**
+	 * Returns the directory with the extracted distribution, extracting it if needed.
+	 * <p/>
+	 * The distributions are extracted into the sub-directories of the base directory named by the hash of
+	 * the distribution archive, and are re-used by the subsequent starts of any JVMs. A marker file is created
+	 * after the extraction is completed, so the incomplete extractions are detected and repeated. The concurrent
+	 * extractions of the same distribution are prevented by the file lock. After a new extraction, the
+	 * extractions of other distributions (e.g. of older XMX versions) are removed, unless locked.
+	 *
+	 * @param distrUrl the URL of the distribution ZIP archive
+	 * @param baseDir the base directory for the extracted distributions
+	 */
+	static File getOrExtractDistribution(URL distrUrl, File baseDir) throws IOException {
+		String key = getDistributionKey(distrUrl);
+		File homeDir = new File(baseDir, key);
+		File marker = new File(homeDir, EXTRACTED_MARKER);
+		if (marker.isFile()) {
+			// fast path, already extracted
+			return homeDir;
+		}
+
+		if (!baseDir.isDirectory() && !baseDir.mkdirs()) {
+			throw new IOException("Failed to create directory " + baseDir);
+		}
+		try (FileChannel lockChannel = new RandomAccessFile(new File(baseDir, key + ".lock"), "rw").getChannel();
+		     FileLock ignored = lockChannel.lock()) {
+			// re-check, as may be extracted by another JVM while waiting for the lock
+			if (!marker.isFile()) {
+				// remove the remains of an incomplete extraction, if any
+				if (homeDir.exists() && !deleteRecursively(homeDir)) {
+					throw new IOException("Failed to delete incomplete distribution " + homeDir);
+				}
+				extractDistribution(distrUrl, homeDir);
+				if (!marker.createNewFile()) {
+					throw new IOException("Failed to create " + marker);
+				}
+				deleteStaleDistributions(baseDir, key);
+			}
+		}
+		return homeDir;
 	}
-	
+
+	/**
+	 * Deletes the extracted distributions other than the current one. Only the directories with the
+	 * lock files are considered, and those being extracted by other JVMs are skipped. The failures are
+	 * reported but ignored, e.g. if the files are in use on Windows.
+	 */
+	private static void deleteStaleDistributions(File baseDir, String currentKey) {
+		File[] lockFiles = baseDir.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(".lock");
+			}
+		});
+		if (lockFiles == null) {
+			return;
+		}
+		for (File lockFile : lockFiles) {
+			String key = lockFile.getName().substring(0, lockFile.getName().length() - ".lock".length());
+			if (key.equals(currentKey)) {
+				continue;
+			}
+			File homeDir = new File(baseDir, key);
+			if (!homeDir.exists()) {
+				continue;
+			}
+			// NOTE: the empty lock file is kept, as another JVM may be waiting for it
+			try (FileChannel lockChannel = new RandomAccessFile(lockFile, "rw").getChannel();
+			     FileLock lock = lockChannel.tryLock()) {
+				if (lock != null) {
+					deleteRecursively(homeDir);
+				}
+			} catch (OverlappingFileLockException e) {
+				// locked by this JVM
+			} catch (IOException e) {
+				System.err.println("Failed to delete stale XMX distribution " + homeDir + ": " + e);
+			}
+		}
+	}
+
+	/**
+	 * Returns the string which identifies the contents of the distribution archive. The CRC and size of
+	 * the archive are used if available from the directory of the agent JAR, otherwise the archive
+	 * contents are hashed.
+	 */
+	static String getDistributionKey(URL distrUrl) throws IOException {
+		URLConnection conn = distrUrl.openConnection();
+		if (conn instanceof JarURLConnection) {
+			JarEntry entry = ((JarURLConnection) conn).getJarEntry();
+			if (entry != null && entry.getCrc() != -1 && entry.getSize() != -1) {
+				return Long.toHexString(entry.getCrc()) + "-" + Long.toHexString(entry.getSize());
+			}
+		}
+
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+		byte[] buf = new byte[COPY_BUFFER_SIZE];
+		try (InputStream in = distrUrl.openStream()) {
+			int read;
+			while ((read = in.read(buf)) > 0) {
+				md.update(buf, 0, read);
+			}
+		}
+		StringBuilder sb = new StringBuilder();
+		for (byte b : md.digest()) {
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+
+	private static void extractDistribution(URL distrUrl, File dir) throws IOException {
+		try (ZipInputStream distrImageZip = new ZipInputStream(new BufferedInputStream(distrUrl.openStream(),
+				COPY_BUFFER_SIZE))) {
+			copyContents(distrImageZip, dir);
+		}
+	}
+
 	/**
 	 * Copies all file entries from ZIP archive to the specified directory. 
 	 * 
@@ -226,7 +389,7 @@ public class XmxAgent {
 	private static void copyContents(ZipInputStream zipStream, File dir) throws IOException {
 		ZipEntry nextEntry;
 		// TODO: check whether Maven archiver on Linux use "\" or  "/" as separators in entry names
-		byte[] buf = new byte[8192];
+		byte[] buf = new byte[COPY_BUFFER_SIZE];
 		while ((nextEntry = zipStream.getNextEntry()) != null) {
 			String name = nextEntry.getName();
 			if (!name.endsWith("/")) { // if not a folder
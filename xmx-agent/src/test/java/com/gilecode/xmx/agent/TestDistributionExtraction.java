@@ -0,0 +1,185 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.agent;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+public class TestDistributionExtraction {
+
+	private static final long TIMEOUT_MS = 30000;
+
+	private File tempDir;
+	private File baseDir;
+	private URL distrUrl;
+
+	@Before
+	public void setUp() throws IOException {
+		tempDir = Files.createTempDirectory("xmx-test").toFile();
+		baseDir = new File(tempDir, "homes");
+		File distrFile = new File(tempDir, "xmx-distribution.zip");
+		try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(distrFile))) {
+			out.putNextEntry(new ZipEntry("lib/"));
+			out.putNextEntry(new ZipEntry("lib/xmx-core.jar"));
+			out.write("core".getBytes(StandardCharsets.UTF_8));
+			out.putNextEntry(new ZipEntry("config/xmx.ini"));
+			out.write("[System]".getBytes(StandardCharsets.UTF_8));
+		}
+		distrUrl = distrFile.toURI().toURL();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		Files.walkFileTree(tempDir.toPath(), new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	@Test
+	public void testExtractionReused() throws IOException {
+		File homeDir = XmxAgent.getOrExtractDistribution(distrUrl, baseDir);
+		assertEquals(new File(baseDir, XmxAgent.getDistributionKey(distrUrl)), homeDir);
+		assertEquals("core", read(new File(homeDir, "lib/xmx-core.jar")));
+		assertEquals("[System]", read(new File(homeDir, "config/xmx.ini")));
+		assertTrue(new File(homeDir, ".extracted").isFile());
+
+		// the completed extraction is not repeated
+		write(new File(homeDir, "lib/xmx-core.jar"), "modified");
+		assertEquals(homeDir, XmxAgent.getOrExtractDistribution(distrUrl, baseDir));
+		assertEquals("modified", read(new File(homeDir, "lib/xmx-core.jar")));
+	}
+
+	@Test
+	public void testIncompleteExtractionRepeated() throws IOException {
+		File homeDir = new File(baseDir, XmxAgent.getDistributionKey(distrUrl));
+		write(new File(homeDir, "lib/xmx-core.jar"), "partial");
+		write(new File(homeDir, "lib/stale.jar"), "stale");
+
+		assertEquals(homeDir, XmxAgent.getOrExtractDistribution(distrUrl, baseDir));
+		assertEquals("core", read(new File(homeDir, "lib/xmx-core.jar")));
+		assertFalse(new File(homeDir, "lib/stale.jar").exists());
+		assertTrue(new File(homeDir, ".extracted").isFile());
+	}
+
+	@Test
+	public void testStaleExtractionsDeleted() throws IOException {
+		File staleDir = new File(baseDir, "stale");
+		write(new File(staleDir, "lib/xmx-core.jar"), "old");
+		File staleLockFile = new File(baseDir, "stale.lock");
+		assertTrue(staleLockFile.createNewFile());
+		File lockedDir = new File(baseDir, "locked");
+		write(new File(lockedDir, "lib/xmx-core.jar"), "old");
+		File lockedLockFile = new File(baseDir, "locked.lock");
+		File unrelatedDir = new File(baseDir, "unrelated");
+		write(new File(unrelatedDir, "file.txt"), "unrelated");
+
+		File homeDir;
+		try (FileChannel lockChannel = new RandomAccessFile(lockedLockFile, "rw").getChannel();
+		     FileLock ignored = lockChannel.lock()) {
+			homeDir = XmxAgent.getOrExtractDistribution(distrUrl, baseDir);
+		}
+		assertTrue(new File(homeDir, ".extracted").isFile());
+
+		// the old extractions are deleted, unless locked; the directories without lock files are skipped
+		assertFalse(staleDir.exists());
+		assertEquals("old", read(new File(lockedDir, "lib/xmx-core.jar")));
+		assertEquals("unrelated", read(new File(unrelatedDir, "file.txt")));
+		assertTrue(new File(baseDir, homeDir.getName() + ".lock").exists());
+
+		// the reused extraction does not delete anything
+		write(new File(staleDir, "lib/xmx-core.jar"), "old");
+		assertEquals(homeDir, XmxAgent.getOrExtractDistribution(distrUrl, baseDir));
+		assertTrue(staleDir.exists());
+	}
+
+	@Test
+	public void testConcurrentStartWaitsForLock() throws Exception {
+		String key = XmxAgent.getDistributionKey(distrUrl);
+		File homeDir = new File(baseDir, key);
+		assertTrue(baseDir.mkdirs());
+
+		Process process;
+		try (FileChannel lockChannel = new RandomAccessFile(new File(baseDir, key + ".lock"), "rw").getChannel();
+		     FileLock ignored = lockChannel.lock()) {
+			// the file locks are held by the whole JVM, so the concurrent start is simulated by another process
+			process = startExtractionProcess();
+			Thread.sleep(500);
+			try {
+				fail("The extraction is not blocked by the lock, exit code " + process.exitValue());
+			} catch (IllegalThreadStateException expected) {
+			}
+
+			// simulate the extraction completed by the lock holder
+			write(new File(homeDir, "lib/xmx-core.jar"), "extracted by another JVM");
+			assertTrue(new File(homeDir, ".extracted").createNewFile());
+		}
+
+		BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream(),
+				StandardCharsets.UTF_8));
+		assertEquals(homeDir.getCanonicalPath(), new File(in.readLine()).getCanonicalPath());
+		assertEquals(0, process.waitFor());
+		assertEquals("extracted by another JVM", read(new File(homeDir, "lib/xmx-core.jar")));
+	}
+
+	private Process startExtractionProcess() throws IOException {
+		String javaExe = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		return new ProcessBuilder(javaExe, "-cp", System.getProperty("java.class.path"),
+				ExtractionMain.class.getName(), distrUrl.toString(), baseDir.getPath())
+				.redirectError(ProcessBuilder.Redirect.INHERIT)
+				.start();
+	}
+
+	/**
+	 * Extracts the distribution in a separate JVM and prints the home directory.
+	 */
+	public static class ExtractionMain {
+		public static void main(String[] args) throws Exception {
+			Thread watchdog = new Thread() {
+				@Override
+				public void run() {
+					try {
+						Thread.sleep(TIMEOUT_MS);
+					} catch (InterruptedException e) {
+						return;
+					}
+					System.exit(2);
+				}
+			};
+			watchdog.setDaemon(true);
+			watchdog.start();
+			System.out.println(XmxAgent.getOrExtractDistribution(new URL(args[0]), new File(args[1])).getPath());
+		}
+	}
+
+	private static String read(File file) throws IOException {
+		return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+	}
+
+	private static void write(File file, String content) throws IOException {
+		Files.createDirectories(file.getParentFile().toPath());
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+	}
+}
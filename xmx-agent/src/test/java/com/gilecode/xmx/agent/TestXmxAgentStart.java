@@ -0,0 +1,67 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.agent;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.lang.instrument.Instrumentation;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TestXmxAgentStart {
+
+	private final List<String> instrumentationCalls = new ArrayList<>();
+
+	private final Instrumentation instr = (Instrumentation) Proxy.newProxyInstance(getClass().getClassLoader(),
+			new Class<?>[]{Instrumentation.class}, new InvocationHandler() {
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) {
+					instrumentationCalls.add(method.getName());
+					throw new UnsupportedOperationException(method.getName());
+				}
+			});
+
+	@After
+	public void tearDown() throws Exception {
+		setStarted(false);
+	}
+
+	private static Field getStartedField() throws NoSuchFieldException {
+		Field startedField = XmxAgent.class.getDeclaredField("started");
+		startedField.setAccessible(true);
+		return startedField;
+	}
+
+	private static void setStarted(boolean started) throws Exception {
+		getStartedField().setBoolean(null, started);
+	}
+
+	private static boolean isStarted() throws Exception {
+		return getStartedField().getBoolean(null);
+	}
+
+	@Test
+	public void testRepeatedStartIgnored() throws Exception {
+		// the state after the agent is loaded on JVM start or attached
+		setStarted(true);
+
+		XmxAgent.agentmain("enabled=true", instr);
+		XmxAgent.premain(null, instr);
+		assertTrue(isStarted());
+		assertTrue(instrumentationCalls.isEmpty());
+	}
+
+	@Test
+	public void testDisabledStartIgnored() throws Exception {
+		XmxAgent.agentmain("enabled=false", instr);
+		assertFalse(isStarted());
+		assertTrue(instrumentationCalls.isEmpty());
+	}
+}
@@ -8,13 +8,16 @@ import java.lang.annotation.*;
  * Specifies that a method is an AOP 'advice' which shall be invoked when a call to a managed method is intercepted.
  * The correspondence of target method(s) and advices are specified in XMX configuration.
  * <p/>
- * The annotated advices method may be either static or instance methods. If non-static, then a new instance of the
- * advice class will be created any time an intercepted method is invoked. This is only needed for implementing stateful
- * 'AROUND' aspect logic, like checking the execution times.
+ * The annotated advices method may be either static or instance methods. If non-static, then the instance of the
+ * advice class is obtained according to the advice {@link #scope()}. By default, a new instance of the advice class
+ * will be created any time an intercepted method is invoked. As this requires allocations on each call, prefer
+ * static advices, or the {@link AdviceScope#SINGLETON} or {@link AdviceScope#PER_THREAD} scopes, for the advices
+ * of frequently called methods.
  * <p/>
- * Consequently, any longer term state (like counters) shall be saved elsewhere. Moreover, if the advice class is used
- * for intercepting methods from several classes, loaded with different class loaders, XMX will load the advice class
- * several times, using the corresponding class loaders (derived to contain the advices JAR).
+ * Any longer term state (like counters) shall be saved in static fields or in singleton instances. Moreover, if
+ * the advice class is used for intercepting methods from several classes, loaded with different class loaders, XMX
+ * will load the advice class several times, using the corresponding class loaders (derived to contain the advices
+ * JAR), so each copy of the class has its own singleton instance.
  */
 @Target({ElementType.METHOD})
 @Retention(RetentionPolicy.RUNTIME)
@@ -22,4 +25,9 @@ import java.lang.annotation.*;
 public @interface Advice {
 
 	AdviceKind value();
+
+	/**
+	 * The scope of the advice class instance used to invoke this advice, if the advice method is not static.
+	 */
+	AdviceScope scope() default AdviceScope.PER_CALL;
 }
@@ -20,5 +20,21 @@ public enum AdviceKind {
 	/**
 	 * Invoked on an abrupt method exit by an explicit or implicit throw.
 	 */
-	AFTER_THROW;
+	AFTER_THROW,
+
+	/**
+	 * Invoked instead of the method, with the {@link IProceedHandle} passed as the {@link Proceed}-annotated
+	 * parameter. The original method code is invoked by {@link IProceedHandle#proceed()}, which may be called
+	 * any number of times, e.g. once to measure the latency, several times to retry the failed invocations, or
+	 * not at all to short-circuit the call. The value returned by the advice is used as the method's result, so
+	 * the advice shall return either {@code Object}, or the exact type of the target method result. If the method
+	 * returns a primitive value, the advice which returns the exact type and proceeds by the typed variant of
+	 * {@code proceed}, like {@link IProceedHandle#proceedInt()}, avoids boxing of the result.
+	 * <p/>
+	 * If several 'around' advices are applied to a method, each of them proceeds to the next one, and the last one
+	 * proceeds to the original method code. The 'before' and 'after' advices are invoked outside of all 'around'
+	 * advices. Unlike other advices, the exceptions thrown by 'around' advices are not ignored, but propagated to
+	 * the caller, as they are mostly thrown by the method itself. Not applicable to constructors.
+	 */
+	AROUND;
 }
@@ -0,0 +1,32 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.aop;
+
+/**
+ * The scope of the instances of the advice class used to invoke non-static advice methods. Ignored for static
+ * advices.
+ * <p/>
+ * The instances are shared by all advices of the same class with the same scope, so, for example, a 'BEFORE' and
+ * an 'AFTER_RETURN' advice may keep a state in the per-call instance. The instances are created with the no-arg
+ * constructor, separately for each loaded copy of the advice class.
+ */
+public enum AdviceScope {
+
+	/**
+	 * A single instance of the advice class is used for all intercepted calls, from all threads. The advice
+	 * methods shall be thread-safe.
+	 */
+	SINGLETON,
+
+	/**
+	 * A separate instance of the advice class is used in each thread. The instance lives as long as the thread,
+	 * so the advices with this scope are not recommended for short-lived threads.
+	 */
+	PER_THREAD,
+
+	/**
+	 * A new instance of the advice class is created for each intercepted call. This is only needed for
+	 * implementing stateful 'AROUND' aspect logic, like checking the execution times.
+	 */
+	PER_CALL
+}
@@ -10,7 +10,8 @@ import java.lang.annotation.*;
  *
  * <p/>
  * NOTE: the type of the annotated parameter shall be either {@code Object}, or equal to the corresponding parameter
- * of the target method.
+ * of the target method. The primitive arguments are passed without boxing if the advices are invoked directly, and
+ * all advices declare the argument with the same primitive type.
  */
 @Target({ElementType.PARAMETER})
 @Retention(RetentionPolicy.RUNTIME)
@@ -0,0 +1,81 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.aop;
+
+/**
+ * Invokes the original code of the intercepted method from the {@link AdviceKind#AROUND} advices, with the
+ * original arguments.
+ * <p/>
+ * The handles are re-used by the subsequent invocations of the intercepted method in the same thread, so they
+ * shall not be used after the advice returns, or from other threads.
+ * <p/>
+ * The advices of the methods which return primitive values shall use the variant of {@code proceed} for the
+ * returned type, e.g. {@link #proceedLong()}, and return the exact type, so that the results are not boxed.
+ */
+public interface IProceedHandle {
+
+	/**
+	 * Invokes the next 'around' advice, or the original code of the intercepted method if there are no more
+	 * advices.
+	 *
+	 * @return the result of the method, boxed if primitive, or {@code null} for void methods
+	 * @throws Throwable any exception thrown by the method
+	 */
+	Object proceed() throws Throwable;
+
+	/**
+	 * Same as {@link #proceed()}, for the methods which return {@code boolean}, without boxing.
+	 *
+	 * @throws IllegalStateException if the intercepted method does not return {@code boolean}
+	 */
+	boolean proceedBoolean() throws Throwable;
+
+	/**
+	 * Same as {@link #proceed()}, for the methods which return {@code byte}, without boxing.
+	 *
+	 * @throws IllegalStateException if the intercepted method does not return {@code byte}
+	 */
+	byte proceedByte() throws Throwable;
+
+	/**
+	 * Same as {@link #proceed()}, for the methods which return {@code char}, without boxing.
+	 *
+	 * @throws IllegalStateException if the intercepted method does not return {@code char}
+	 */
+	char proceedChar() throws Throwable;
+
+	/**
+	 * Same as {@link #proceed()}, for the methods which return {@code short}, without boxing.
+	 *
+	 * @throws IllegalStateException if the intercepted method does not return {@code short}
+	 */
+	short proceedShort() throws Throwable;
+
+	/**
+	 * Same as {@link #proceed()}, for the methods which return {@code int}, without boxing.
+	 *
+	 * @throws IllegalStateException if the intercepted method does not return {@code int}
+	 */
+	int proceedInt() throws Throwable;
+
+	/**
+	 * Same as {@link #proceed()}, for the methods which return {@code long}, without boxing.
+	 *
+	 * @throws IllegalStateException if the intercepted method does not return {@code long}
+	 */
+	long proceedLong() throws Throwable;
+
+	/**
+	 * Same as {@link #proceed()}, for the methods which return {@code float}, without boxing.
+	 *
+	 * @throws IllegalStateException if the intercepted method does not return {@code float}
+	 */
+	float proceedFloat() throws Throwable;
+
+	/**
+	 * Same as {@link #proceed()}, for the methods which return {@code double}, without boxing.
+	 *
+	 * @throws IllegalStateException if the intercepted method does not return {@code double}
+	 */
+	double proceedDouble() throws Throwable;
+}
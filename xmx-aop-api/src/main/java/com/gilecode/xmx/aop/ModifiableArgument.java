@@ -7,9 +7,14 @@ import java.lang.annotation.*;
 /**
  * This annotation allows to replace the original argument of the target method with another value.
  * <p/>
- * The argument is passed to the advice as one-element array with the component type either @code Object}, or equal to
+ * The argument is passed to the advice as one-element array with the component type either {@code Object}, or equal to
  * the corresponding parameter of the target method. The original value is passed as the first element of that array.
  * If needed, a new value may be stored to that array element; in that case, the argument is replaced to the new one.
+ * <p/>
+ * Alternatively, the parameter may be declared as a typed holder from {@link com.gilecode.xmx.aop.holder}, e.g.
+ * {@link com.gilecode.xmx.aop.holder.LongHolder LongHolder} for {@code long} arguments, or
+ * {@link com.gilecode.xmx.aop.holder.ObjectHolder ObjectHolder} for arguments of any type. In that case, the original
+ * and the new values are kept in the 'value' field of the holder.
  */
 @Target({ElementType.PARAMETER})
 @Retention(RetentionPolicy.RUNTIME)
@@ -0,0 +1,17 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.aop;
+
+import java.lang.annotation.*;
+
+/**
+ * Used to pass the handle which invokes the original code of the intercepted method to the
+ * {@link AdviceKind#AROUND} advices.
+ * <br/>
+ * The advice parameter must have the type {@link IProceedHandle}.
+ */
+@Target({ElementType.PARAMETER})
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface Proceed {
+}
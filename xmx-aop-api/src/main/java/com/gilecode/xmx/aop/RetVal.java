@@ -6,6 +6,11 @@ import java.lang.annotation.*;
 
 /**
  * Specifies that this advice parameter holds the return value of the intercepted method.
+ * <p/>
+ * NOTE: the type of the annotated parameter shall be either {@code Object}, or equal to the return type of the target
+ * method, or the corresponding boxed type. The primitive return values are passed without boxing if the advices are
+ * invoked directly, and all advices declare the return value (and the overridden return value, if any) with the same
+ * primitive type.
  */
 @Target({ElementType.PARAMETER})
 @Retention(RetentionPolicy.RUNTIME)
@@ -0,0 +1,24 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.aop.holder;
+
+/**
+ * The holder of a {@code boolean} value, which may be used for {@link com.gilecode.xmx.aop.ModifiableArgument}
+ * parameters of advices instead of one-element arrays.
+ */
+public final class BooleanHolder {
+
+	public boolean value;
+
+	public BooleanHolder() {
+	}
+
+	public BooleanHolder(boolean value) {
+		this.value = value;
+	}
+
+	@Override
+	public String toString() {
+		return String.valueOf(value);
+	}
+}
@@ -0,0 +1,24 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.aop.holder;
+
+/**
+ * The holder of a {@code byte} value, which may be used for {@link com.gilecode.xmx.aop.ModifiableArgument}
+ * parameters of advices instead of one-element arrays.
+ */
+public final class ByteHolder {
+
+	public byte value;
+
+	public ByteHolder() {
+	}
+
+	public ByteHolder(byte value) {
+		this.value = value;
+	}
+
+	@Override
+	public String toString() {
+		return String.valueOf(value);
+	}
+}
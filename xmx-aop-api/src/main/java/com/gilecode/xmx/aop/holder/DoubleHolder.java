@@ -0,0 +1,24 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.aop.holder;
+
+/**
+ * The holder of a {@code double} value, which may be used for {@link com.gilecode.xmx.aop.ModifiableArgument}
+ * parameters of advices instead of one-element arrays.
+ */
+public final class DoubleHolder {
+
+	public double value;
+
+	public DoubleHolder() {
+	}
+
+	public DoubleHolder(double value) {
+		this.value = value;
+	}
+
+	@Override
+	public String toString() {
+		return String.valueOf(value);
+	}
+}
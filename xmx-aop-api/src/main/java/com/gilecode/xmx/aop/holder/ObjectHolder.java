@@ -0,0 +1,26 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.aop.holder;
+
+/**
+ * The holder of an object value, which may be used for {@link com.gilecode.xmx.aop.ModifiableArgument}
+ * parameters of advices instead of one-element arrays.
+ *
+ * @param <T> the type of the value
+ */
+public final class ObjectHolder<T> {
+
+	public T value;
+
+	public ObjectHolder() {
+	}
+
+	public ObjectHolder(T value) {
+		this.value = value;
+	}
+
+	@Override
+	public String toString() {
+		return String.valueOf(value);
+	}
+}
@@ -0,0 +1,87 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.boot;
+
+/**
+ * Invokes all advices of a single join point. Used by the advised methods instead of {@link XmxAopProxy}
+ * calls, if the direct invocation of advices is enabled.
+ * <p/>
+ * Each join point has its own bridge instance, so the calls of the bridge methods from an advised method are
+ * monomorphic, and the whole path to the advice methods may be inlined by JIT.
+ * <p/>
+ * Up to {@link #PRIMITIVE_SLOTS} intercepted primitive arguments, which are not modified and are not required by
+ * the advices in the boxed form, are passed in the 'slot' parameters instead of the array of intercepted
+ * arguments. The slots contain the raw bits of the values, i.e. the integral values are widened to {@code long},
+ * and the floating-point values are converted with {@link Float#floatToRawIntBits(float)} and
+ * {@link Double#doubleToRawLongBits(double)}. The unused slots are 0. The positions of such arguments in the array
+ * are left empty, and if no other arguments are intercepted, an empty array is passed.
+ */
+public interface IXmxAdviceBridge {
+
+	/**
+	 * The number of slots for the primitive arguments.
+	 */
+	int PRIMITIVE_SLOTS = 4;
+
+	/**
+	 * The value returned by {@link #around(Object, Object[], long, long, long, long)} if the advised method shall
+	 * invoke its original code directly, instead of the 'around' advices.
+	 */
+	Object PROCEED = new Object();
+
+	/**
+	 * Invokes the 'before' advices.
+	 *
+	 * @param thisArg 'this' argument of the target method, or {@code null} for static methods
+	 * @param interceptedArgs the intercepted target arguments, which may be modified by the advices
+	 * @param p0 the slots with the intercepted primitive arguments
+	 *
+	 * @return the advice instances which shall be passed to the 'after' advices
+	 */
+	Object before(Object thisArg, Object[] interceptedArgs, long p0, long p1, long p2, long p3);
+
+	/**
+	 * Invokes the 'after return' advices.
+	 *
+	 * @return the return value to use, which may be overridden by the advices
+	 */
+	Object afterReturn(Object retVal, Object adviceInstances, Object thisArg, Object[] interceptedArgs,
+	                   long p0, long p1, long p2, long p3);
+
+	/**
+	 * Invokes the 'after return' advices of the join point with the primitive return value passed without boxing,
+	 * in the same form as the primitive arguments.
+	 *
+	 * @return the return value to use, which may be overridden by the advices
+	 */
+	long afterReturnPrimitive(long retVal, Object adviceInstances, Object thisArg, Object[] interceptedArgs,
+	                          long p0, long p1, long p2, long p3);
+
+	/**
+	 * Invokes the 'after throw' advices.
+	 */
+	void afterThrow(Throwable ex, Object adviceInstances, Object thisArg, Object[] interceptedArgs,
+	                long p0, long p1, long p2, long p3);
+
+	/**
+	 * Invokes the 'around' advices, which invoke the original code of the advised method through the proceed
+	 * handle. All arguments of the advised method are intercepted. Used for the methods which do not return
+	 * primitive values.
+	 *
+	 * @return the result of the advised method, {@code null} for void methods, or {@link #PROCEED}
+	 * @throws Throwable any exception thrown by the 'around' advices or by the original code
+	 */
+	Object around(Object thisArg, Object[] interceptedArgs, long p0, long p1, long p2, long p3) throws Throwable;
+
+	/**
+	 * Same as {@link #around(Object, Object[], long, long, long, long)}, for the methods which return primitive
+	 * values. The result is returned as the raw bits, in the same form as the primitive arguments. As the result
+	 * cannot be {@link #PROCEED}, the advised method invokes its original code directly only if the bridge is
+	 * {@link XmxAopProxy#NOP_BRIDGE}.
+	 *
+	 * @return the raw bits of the result of the advised method
+	 * @throws Throwable any exception thrown by the 'around' advices or by the original code
+	 */
+	long aroundPrimitive(Object thisArg, Object[] interceptedArgs, long p0, long p1, long p2, long p3)
+			throws Throwable;
+}
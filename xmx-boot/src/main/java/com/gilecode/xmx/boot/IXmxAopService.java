@@ -13,4 +13,14 @@ public interface IXmxAopService {
 
 	void afterThrow(int joinPointId, Map<Class<?>, Object> adviceInstances,
 	                Object thisArg, Object[] interestedArgs, Throwable ex);
+
+	/**
+	 * Creates the bridge which invokes the advices of the join point directly.
+	 * <p/>
+	 * The caller references the bridge weakly, so the service shall keep it reachable while the advised
+	 * class is alive.
+	 *
+	 * @return the bridge, or {@code null} if the join point is unknown
+	 */
+	IXmxAdviceBridge createAdviceBridge(int joinPointId);
 }
@@ -4,6 +4,8 @@ package com.gilecode.xmx.boot;
 
 import com.gilecode.xmx.aop.log.IAdviceLogger;
 
+import java.lang.instrument.Instrumentation;
+
 /**
  * Provides bootstrap functionality for the agent and transformed classes, including the
  * class transformation method and registering of beans.
@@ -23,15 +25,36 @@ public interface IXmxBootService {
 	 * @param classBeingRedefined in case of the hot code replacement, the class which is 
 	 * 	modified; otherwise, {@code null} 
 	 * 
-	 * @return the resulting bytecode, either transformed or left intact
+	 * @return the transformed bytecode, or {@code null} if the class is not transformed
 	 */
 	byte[] transformClassIfInterested(ClassLoader classLoader, String className, byte[] classBuffer, 
 			Class<?> classBeingRedefined);
 	
+	/**
+	 * Provides the instrumentation instance, which may be used to re-transform the
+	 * managed classes. Invoked by the agent after the XMX class transformer is added.
+	 */
+	void setInstrumentation(Instrumentation instrumentation);
+
+	/**
+	 * Re-transforms the already loaded classes which are configured to be managed or advised.
+	 * Invoked by the agent when XMX is attached to a running JVM, after the instrumentation is set.
+	 * <p/>
+	 * The re-transformation is performed asynchronously.
+	 */
+	void retransformLoadedClasses();
+
 	/**
 	 * Registers a newly created object, so that it becomes managed by XMX.
+	 * <p/>
+	 * Invoked only from the constructors of the exact class of the object.
+	 *
+	 * @param obj the object to register
+	 * @param registrationToken the value of the synthetic registration token field of the class,
+	 *    or {@code null} if not bound yet
+	 * @param classId the internal ID of the managed class
 	 */
-	void registerObject(Object obj, int classId);
+	void registerObject(Object obj, Object registrationToken, int classId);
 
 	/**
 	 * Registers a proxy object (e.g. Spring bean proxy) to a target managed object.
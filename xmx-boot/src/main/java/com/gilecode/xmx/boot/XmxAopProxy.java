@@ -2,13 +2,50 @@
 
 package com.gilecode.xmx.boot;
 
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
 import java.util.Map;
 
 public class XmxAopProxy {
 
+	/**
+	 * The shared empty array of intercepted arguments, used by the weaved methods if no arguments are intercepted.
+	 */
+	public static final Object[] NO_ARGS = new Object[0];
+
+	/**
+	 * The marker array of intercepted arguments, used by the weaved methods if the join point is disabled on the
+	 * method enter. The 'after' methods of the proxy invoke no advices for such arguments.
+	 */
+	public static final Object[] DISABLED_ARGS = new Object[0];
+
+	/**
+	 * The bridge which invokes no advices, used by the weaved methods if the join point is disabled on the
+	 * method enter.
+	 */
+	public static final IXmxAdviceBridge NOP_BRIDGE = NopAdviceBridge.INSTANCE;
+
 	private static IXmxAopService aopService;
+
+	/**
+	 * The created advice bridges, by join point IDs. The bridges are referenced weakly, so that they do not
+	 * prevent unloading of the advice and target classes. The array is replaced on growth, but the
+	 * elements are set in-place, so the readers may miss the new elements and get them under the lock.
+	 */
+	private static volatile WeakReference<?>[] adviceBridges = new WeakReference<?>[0];
+
+	/**
+	 * The flags of the disabled join points, by join point IDs. The array is copied on each change, so that
+	 * the readers see the consistent state after a single volatile read.
+	 */
+	private static volatile boolean[] disabledJoinPoints = new boolean[0];
+
 	static void setAopService(IXmxAopService aopService) {
-		XmxAopProxy.aopService = aopService;
+		synchronized (XmxAopProxy.class) {
+			XmxAopProxy.aopService = aopService;
+			adviceBridges = new WeakReference<?>[0];
+			disabledJoinPoints = new boolean[0];
+		}
 	}
 
 	public static Map<Class<?>, Object> before(int joinPointId, Object thisArg, Object[] interestedArgs) {
@@ -20,7 +57,7 @@ public class XmxAopProxy {
 
 	public static Object afterReturn(Object retVal, int joinPointId, Map<Class<?>, Object> adviceInstances,
 	                                 Object thisArg, Object[] interestedArgs) {
-		if (aopService != null) {
+		if (interestedArgs != DISABLED_ARGS && aopService != null) {
 			return aopService.afterReturn(joinPointId, adviceInstances, thisArg, interestedArgs, retVal);
 		}
 		return retVal;
@@ -28,8 +65,148 @@ public class XmxAopProxy {
 
 	public static void afterThrow(Throwable ex, int joinPointId, Map<Class<?>, Object> adviceInstances,
 	                              Object thisArg, Object[] interestedArgs) {
-		if (aopService != null) {
+		if (interestedArgs != DISABLED_ARGS && aopService != null) {
 			aopService.afterThrow(joinPointId, adviceInstances, thisArg, interestedArgs, ex);
 		}
 	}
+
+	/**
+	 * Returns whether the advices of the join point shall be invoked. Checked by the weaved methods once on
+	 * the method enter, so the disabled join point costs a volatile read, and no advice arguments are prepared.
+	 */
+	public static boolean isJoinPointEnabled(int joinPointId) {
+		boolean[] disabled = disabledJoinPoints;
+		return joinPointId >= disabled.length || !disabled[joinPointId];
+	}
+
+	/**
+	 * Enables or disables the invocation of the advices of the join point. The change affects the invocations
+	 * of the advised method started after it.
+	 */
+	public static void setJoinPointEnabled(int joinPointId, boolean enabled) {
+		synchronized (XmxAopProxy.class) {
+			boolean[] disabled = disabledJoinPoints;
+			if (isJoinPointEnabled(joinPointId) == enabled) {
+				return;
+			}
+			if (joinPointId >= disabled.length) {
+				disabled = Arrays.copyOf(disabled, joinPointId + 1);
+			} else {
+				disabled = disabled.clone();
+			}
+			disabled[joinPointId] = !enabled;
+			disabledJoinPoints = disabled;
+		}
+	}
+
+	/**
+	 * Clears the advice bridges and the flags of the join points which are no more used, e.g. after the target
+	 * class is re-transformed or unloaded. The join point IDs are never re-used, so the invocations of the obsolete
+	 * code which are still in progress skip the advices.
+	 */
+	public static void removeJoinPoints(int[] joinPointIds) {
+		synchronized (XmxAopProxy.class) {
+			WeakReference<?>[] bridges = adviceBridges;
+			boolean[] disabled = disabledJoinPoints;
+			boolean disabledChanged = false;
+			for (int joinPointId : joinPointIds) {
+				if (joinPointId < bridges.length) {
+					bridges[joinPointId] = null;
+				}
+				if (joinPointId < disabled.length && disabled[joinPointId]) {
+					if (!disabledChanged) {
+						disabled = disabled.clone();
+						disabledChanged = true;
+					}
+					disabled[joinPointId] = false;
+				}
+			}
+			if (disabledChanged) {
+				disabledJoinPoints = disabled;
+			}
+		}
+	}
+
+	/**
+	 * Returns the bridge which invokes the advices of the join point directly, creating it on the first use.
+	 */
+	public static IXmxAdviceBridge getAdviceBridge(int joinPointId) {
+		WeakReference<?>[] bridges = adviceBridges;
+		if (joinPointId < bridges.length) {
+			WeakReference<?> ref = bridges[joinPointId];
+			Object bridge = ref == null ? null : ref.get();
+			if (bridge != null) {
+				return (IXmxAdviceBridge) bridge;
+			}
+		}
+		return createAdviceBridge(joinPointId);
+	}
+
+	private static IXmxAdviceBridge createAdviceBridge(int joinPointId) {
+		IXmxAopService service = aopService;
+		// the bridge is created out of the lock, as it may load classes
+		IXmxAdviceBridge bridge = service == null ? null : service.createAdviceBridge(joinPointId);
+		if (bridge == null) {
+			return NopAdviceBridge.INSTANCE;
+		}
+		synchronized (XmxAopProxy.class) {
+			if (service != aopService) {
+				return bridge;
+			}
+			WeakReference<?>[] bridges = adviceBridges;
+			if (joinPointId >= bridges.length) {
+				bridges = Arrays.copyOf(bridges, Math.max(joinPointId + 1, bridges.length * 2));
+			} else {
+				// use the first created bridge if created concurrently
+				WeakReference<?> ref = bridges[joinPointId];
+				Object existingBridge = ref == null ? null : ref.get();
+				if (existingBridge != null) {
+					return (IXmxAdviceBridge) existingBridge;
+				}
+			}
+			bridges[joinPointId] = new WeakReference<>(bridge);
+			adviceBridges = bridges;
+		}
+		return bridge;
+	}
+
+	/**
+	 * The bridge used when the AOP service is not available.
+	 */
+	private static class NopAdviceBridge implements IXmxAdviceBridge {
+		static final NopAdviceBridge INSTANCE = new NopAdviceBridge();
+
+		@Override
+		public Object before(Object thisArg, Object[] interceptedArgs, long p0, long p1, long p2, long p3) {
+			return null;
+		}
+
+		@Override
+		public Object afterReturn(Object retVal, Object adviceInstances, Object thisArg, Object[] interceptedArgs,
+		                          long p0, long p1, long p2, long p3) {
+			return retVal;
+		}
+
+		@Override
+		public long afterReturnPrimitive(long retVal, Object adviceInstances, Object thisArg, Object[] interceptedArgs,
+		                                 long p0, long p1, long p2, long p3) {
+			return retVal;
+		}
+
+		@Override
+		public void afterThrow(Throwable ex, Object adviceInstances, Object thisArg, Object[] interceptedArgs,
+		                       long p0, long p1, long p2, long p3) {
+		}
+
+		@Override
+		public Object around(Object thisArg, Object[] interceptedArgs, long p0, long p1, long p2, long p3) {
+			return PROCEED;
+		}
+
+		@Override
+		public long aroundPrimitive(Object thisArg, Object[] interceptedArgs, long p0, long p1, long p2, long p3) {
+			// the advised methods check for this bridge, and invoke the original code directly
+			throw new UnsupportedOperationException();
+		}
+	}
 }
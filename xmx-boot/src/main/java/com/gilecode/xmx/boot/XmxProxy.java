@@ -5,6 +5,7 @@ package com.gilecode.xmx.boot;
 import com.gilecode.xmx.aop.log.IAdviceLogger;
 
 import java.io.File;
+import java.lang.instrument.Instrumentation;
 import java.lang.reflect.Method;
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -160,14 +161,32 @@ public class XmxProxy {
 		if (xmxService != null) {
 			return xmxService.transformClassIfInterested(classLoader, className, classBuffer, classBeingRedefined);
 		} else {
-			return classBuffer;
+			return null;
+		}
+	}
+
+	/**
+	 * Passes the instrumentation to XMX core, which allows re-transformation of the managed classes.
+	 */
+	public static void setInstrumentation(Instrumentation instrumentation) {
+		if (xmxService != null) {
+			xmxService.setInstrumentation(instrumentation);
+		}
+	}
+
+	/**
+	 * Re-transforms the classes loaded before XMX was attached to the running JVM.
+	 */
+	public static void retransformLoadedClasses() {
+		if (xmxService != null) {
+			xmxService.retransformLoadedClasses();
 		}
 	}
 
 	@SuppressWarnings("unused")
-	public static void registerObject(Object obj, int classId) {
+	public static void registerObject(Object obj, Object registrationToken, int classId) {
 		if (xmxService != null) {
-			xmxService.registerObject(obj, classId);
+			xmxService.registerObject(obj, registrationToken, classId);
 		}
 	}
 
@@ -17,11 +17,20 @@ public class AdviceClassInfo {
     // used for debugging aims, not really needed
     private final String classDesc;
 
+    // identifies the version of the advice class, e.g. by the JAR file size and modification time
+    private final String sourceVersion;
+
     public AdviceClassInfo(WeakCachedSupplier<Class<?>> classSupplier, List<MethodDeclarationInfo> adviceMethods,
             String classDesc) {
+        this(classSupplier, adviceMethods, classDesc, "");
+    }
+
+    public AdviceClassInfo(WeakCachedSupplier<Class<?>> classSupplier, List<MethodDeclarationInfo> adviceMethods,
+            String classDesc, String sourceVersion) {
         this.classSupplier = classSupplier;
         this.adviceMethods = adviceMethods;
         this.classDesc = classDesc;
+        this.sourceVersion = sourceVersion;
     }
 
     public WeakCachedSupplier<Class<?>> getClassSupplier() {
@@ -36,6 +45,10 @@ public class AdviceClassInfo {
         return classDesc;
     }
 
+    public String getSourceVersion() {
+        return sourceVersion;
+    }
+
     @Override
     public String toString() {
         return classDesc;
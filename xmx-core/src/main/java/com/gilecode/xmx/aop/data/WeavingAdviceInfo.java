@@ -3,6 +3,7 @@
 package com.gilecode.xmx.aop.data;
 
 import com.gilecode.xmx.aop.AdviceKind;
+import com.gilecode.xmx.aop.AdviceScope;
 import com.gilecode.xmx.aop.BadAdviceException;
 import com.gilecode.xmx.aop.ISupplier;
 import com.gilecode.xmx.aop.impl.AdviceArgument;
@@ -32,6 +33,11 @@ public class WeavingAdviceInfo {
 	 */
 	private final AdviceKind adviceKind;
 
+	/**
+	 * The scope of the advice class instance, used if the advice method is not static.
+	 */
+	private final AdviceScope adviceScope;
+
 	/**
 	 * The arguments required for calling advice methods.
 	 */
@@ -44,11 +50,12 @@ public class WeavingAdviceInfo {
 	// only for debugging/logging aims
 	private final String methodDesc;
 
-	public WeavingAdviceInfo(WeavingContext context, ISupplier<Method> adviceSupplier, AdviceKind adviceKind, List<AdviceArgument> adviceArguments,
-			boolean hasOverrideRetVal, String methodDesc) {
+	public WeavingAdviceInfo(WeavingContext context, ISupplier<Method> adviceSupplier, AdviceKind adviceKind,
+			AdviceScope adviceScope, List<AdviceArgument> adviceArguments, boolean hasOverrideRetVal, String methodDesc) {
 		this.context = context;
 		this.adviceSupplier = adviceSupplier;
 		this.adviceKind = adviceKind;
+		this.adviceScope = adviceScope;
 		this.adviceArguments = adviceArguments;
 		this.hasOverrideRetVal = hasOverrideRetVal;
 		this.methodDesc = methodDesc;
@@ -75,6 +82,10 @@ public class WeavingAdviceInfo {
 		return adviceKind;
 	}
 
+	public AdviceScope getAdviceScope() {
+		return adviceScope;
+	}
+
 	public List<AdviceArgument> getAdviceArguments() {
 		return adviceArguments;
 	}
@@ -0,0 +1,145 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.aop.impl;
+
+import com.gilecode.xmx.boot.IXmxAdviceBridge;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+
+/**
+ * The base class for the generated advice bridges, see {@link AdviceBridgeGenerator}. Shall be public, as the
+ * bridges are defined by separate class loaders.
+ */
+public abstract class AdviceBridge implements IXmxAdviceBridge {
+
+	private final static Logger logger = LoggerFactory.getLogger(AdviceBridge.class);
+
+	private final WeavingContext ctx;
+
+	/**
+	 * All advice methods invoked by the bridge, used for logging.
+	 */
+	private final Method[] advices;
+
+	/**
+	 * The singleton instances of the advice classes, and the thread locals with the per-thread instances,
+	 * in the order of use by the generated code.
+	 */
+	protected final Object[] scopedInstances;
+
+	/**
+	 * The original code of the advised method, if the join point has 'around' advices, see
+	 * {@link AdviceProceedHandle#findOriginalMethod(WeavingContext)}.
+	 */
+	private final MethodHandle originalMethod;
+
+	/**
+	 * The proceed handles for the 'around' advices, by threads. The handles are referenced weakly, so that the
+	 * thread locals do not prevent unloading of the advice and target classes, and are re-created after GC.
+	 */
+	private final ThreadLocal<WeakReference<AdviceProceedHandle>> proceedHandles = new ThreadLocal<>();
+
+	protected AdviceBridge(WeavingContext ctx, Method[] advices, Object[] scopedInstances)
+			throws ReflectiveOperationException {
+		this.ctx = ctx;
+		this.advices = advices;
+		this.scopedInstances = scopedInstances;
+		this.originalMethod = ctx.hasAroundAdvices() ? AdviceProceedHandle.findOriginalMethod(ctx) : null;
+	}
+
+	WeavingContext getContext() {
+		return ctx;
+	}
+
+	MethodHandle getOriginalMethod() {
+		return originalMethod;
+	}
+
+	/**
+	 * Returns the target method, for @TargetMethod arguments.
+	 */
+	protected final Method getTargetMethod() {
+		return ctx.getTargetMethodSupplier().getSilently();
+	}
+
+	/**
+	 * Logs the failure of the advice invocation.
+	 *
+	 * @param e the exception thrown by the advice or by the preparation of its arguments
+	 * @param adviceIdx the index of the advice in the bridge
+	 */
+	protected final void adviceFailed(Throwable e, int adviceIdx) {
+		logger.warn("Failed to invoke advice " + advices[adviceIdx], e);
+	}
+
+	/**
+	 * Overridden by the generated bridge, unless the return value of the join point is passed without boxing.
+	 */
+	@Override
+	public Object afterReturn(Object retVal, Object adviceInstances, Object thisArg, Object[] interceptedArgs,
+	                          long p0, long p1, long p2, long p3) {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Overridden by the generated bridge, if the return value of the join point is passed without boxing.
+	 */
+	@Override
+	public long afterReturnPrimitive(long retVal, Object adviceInstances, Object thisArg, Object[] interceptedArgs,
+	                                 long p0, long p1, long p2, long p3) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public Object around(Object thisArg, Object[] interceptedArgs, long p0, long p1, long p2, long p3)
+			throws Throwable {
+		AdviceProceedHandle handle = getProceedHandle();
+		handle.enter(thisArg, interceptedArgs, p0, p1, p2, p3);
+		try {
+			return handle.proceed();
+		} finally {
+			handle.exit();
+		}
+	}
+
+	@Override
+	public long aroundPrimitive(Object thisArg, Object[] interceptedArgs, long p0, long p1, long p2, long p3)
+			throws Throwable {
+		AdviceProceedHandle handle = getProceedHandle();
+		handle.enter(thisArg, interceptedArgs, p0, p1, p2, p3);
+		try {
+			return handle.proceedPrimitive();
+		} finally {
+			handle.exit();
+		}
+	}
+
+	private AdviceProceedHandle getProceedHandle() {
+		WeakReference<AdviceProceedHandle> handleRef = proceedHandles.get();
+		AdviceProceedHandle handle = handleRef == null ? null : handleRef.get();
+		if (handle == null) {
+			handle = newProceedHandle();
+			proceedHandles.set(new WeakReference<>(handle));
+		} else if (handle.isActive()) {
+			// recursive invocation of the advised method, while the handle is used by the outer one
+			handle = newProceedHandle();
+		}
+		return handle;
+	}
+
+	/**
+	 * Overridden by the generated bridge, if the join point has 'around' advices.
+	 */
+	protected AdviceProceedHandle newProceedHandle() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + " for join point " + ctx.getJoinpointId();
+	}
+}
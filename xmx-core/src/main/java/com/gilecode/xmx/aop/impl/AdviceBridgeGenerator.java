@@ -0,0 +1,770 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.aop.impl;
+
+import com.gilecode.xmx.aop.AdviceKind;
+import com.gilecode.xmx.aop.AdviceScope;
+import com.gilecode.xmx.aop.data.WeavingAdviceInfo;
+import com.gilecode.xmx.boot.IXmxAdviceBridge;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.GeneratorAdapter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.*;
+
+/**
+ * Generates the advice bridge class for a join point, which invokes the advice methods directly, with the
+ * arguments converted to the exact types of the advice parameters.
+ * <p/>
+ * The generated code is equivalent to the reflective invocation of the advices by {@link XmxAopManager}: the
+ * advices are invoked in the same order, the instances of the advice classes are obtained according to the
+ * advice scopes, and the failures of the advices are logged and ignored. The singleton instances and the thread
+ * locals of the per-thread instances are resolved once and passed to the bridge constructor, and the array of
+ * per-call instances is only created if there are per-call advices, so that the common cases allocate nothing.
+ * The primitive arguments and return values passed in the slots are converted to the advice parameter types
+ * without boxing.
+ * <p/>
+ * For the join points with 'around' advices, the proceed handle class is generated as well. It invokes the 'around'
+ * advices in the same way, and the original code through the exact invocation of its method handle, with the
+ * reference types erased to {@code Object}, so that the arguments are passed to the original code without boxing.
+ * If the advised method returns a primitive value, the handle also has the variants of these methods which return
+ * the result as the raw bits, so that it is not boxed either.
+ * <p/>
+ * Each bridge class, along with its proceed handle class, is defined by its own class loader, which resolves the advice classes and their dependencies
+ * through the advice class loaders, so the advice methods and types shall be public. Otherwise, the bridge
+ * is not generated.
+ * <p/>
+ * The generated classes have version 1.5, so that no stack map frames are needed.
+ */
+class AdviceBridgeGenerator {
+
+	private final static Logger logger = LoggerFactory.getLogger(AdviceBridgeGenerator.class);
+
+	private static final String BRIDGE_CLASS_PREFIX = "com.gilecode.xmx.aop.bridge.AdviceBridge$";
+	private static final String HANDLE_CLASS_PREFIX = "com.gilecode.xmx.aop.bridge.ProceedHandle$";
+
+	private static final Type BASE_TYPE = Type.getType(AdviceBridge.class);
+	private static final Type HANDLE_BASE_TYPE = Type.getType(AdviceProceedHandle.class);
+	private static final Type METHOD_HANDLE_TYPE = Type.getType(MethodHandle.class);
+	private static final Type OBJECT_TYPE = Type.getType(Object.class);
+	private static final Type OBJECT_ARRAY_TYPE = Type.getType(Object[].class);
+	private static final Type THROWABLE_TYPE = Type.getType(Throwable.class);
+	private static final Type METHOD_TYPE = Type.getType(Method.class);
+	private static final Type METHOD_ARRAY_TYPE = Type.getType(Method[].class);
+	private static final Type WEAVING_CONTEXT_TYPE = Type.getType(WeavingContext.class);
+	private static final Type THREAD_LOCAL_TYPE = Type.getType(ThreadLocal.class);
+	private static final Type SLOT = Type.LONG_TYPE;
+
+	private static final org.objectweb.asm.commons.Method CONSTRUCTOR = new org.objectweb.asm.commons.Method(
+			"<init>", Type.VOID_TYPE, new Type[]{WEAVING_CONTEXT_TYPE, METHOD_ARRAY_TYPE, OBJECT_ARRAY_TYPE});
+	private static final org.objectweb.asm.commons.Method DEFAULT_CONSTRUCTOR = new org.objectweb.asm.commons.Method(
+			"<init>", Type.VOID_TYPE, new Type[0]);
+	private static final org.objectweb.asm.commons.Method BEFORE = new org.objectweb.asm.commons.Method(
+			"before", OBJECT_TYPE, new Type[]{OBJECT_TYPE, OBJECT_ARRAY_TYPE,
+			SLOT, SLOT, SLOT, SLOT});
+	private static final org.objectweb.asm.commons.Method AFTER_RETURN = new org.objectweb.asm.commons.Method(
+			"afterReturn", OBJECT_TYPE, new Type[]{OBJECT_TYPE, OBJECT_TYPE, OBJECT_TYPE, OBJECT_ARRAY_TYPE,
+			SLOT, SLOT, SLOT, SLOT});
+	private static final org.objectweb.asm.commons.Method AFTER_RETURN_PRIMITIVE = new org.objectweb.asm.commons.Method(
+			"afterReturnPrimitive", SLOT, new Type[]{SLOT, OBJECT_TYPE, OBJECT_TYPE, OBJECT_ARRAY_TYPE,
+			SLOT, SLOT, SLOT, SLOT});
+	private static final org.objectweb.asm.commons.Method AFTER_THROW = new org.objectweb.asm.commons.Method(
+			"afterThrow", Type.VOID_TYPE, new Type[]{THROWABLE_TYPE, OBJECT_TYPE, OBJECT_TYPE, OBJECT_ARRAY_TYPE,
+			SLOT, SLOT, SLOT, SLOT});
+	private static final org.objectweb.asm.commons.Method GET_TARGET_METHOD = new org.objectweb.asm.commons.Method(
+			"getTargetMethod", METHOD_TYPE, new Type[0]);
+	private static final org.objectweb.asm.commons.Method THREAD_LOCAL_GET = new org.objectweb.asm.commons.Method(
+			"get", OBJECT_TYPE, new Type[0]);
+	private static final org.objectweb.asm.commons.Method ADVICE_FAILED = new org.objectweb.asm.commons.Method(
+			"adviceFailed", Type.VOID_TYPE, new Type[]{THROWABLE_TYPE, Type.INT_TYPE});
+	private static final org.objectweb.asm.commons.Method NEW_PROCEED_HANDLE = new org.objectweb.asm.commons.Method(
+			"newProceedHandle", HANDLE_BASE_TYPE, new Type[0]);
+	private static final org.objectweb.asm.commons.Method HANDLE_CONSTRUCTOR = new org.objectweb.asm.commons.Method(
+			"<init>", Type.VOID_TYPE, new Type[]{BASE_TYPE});
+	private static final org.objectweb.asm.commons.Method INVOKE_ADVICE = new org.objectweb.asm.commons.Method(
+			"invokeAdvice", OBJECT_TYPE, new Type[]{Type.INT_TYPE});
+	private static final org.objectweb.asm.commons.Method INVOKE_ORIGINAL = new org.objectweb.asm.commons.Method(
+			"invokeOriginal", OBJECT_TYPE, new Type[0]);
+	private static final org.objectweb.asm.commons.Method INVOKE_ADVICE_PRIMITIVE =
+			new org.objectweb.asm.commons.Method("invokeAdvicePrimitive", SLOT, new Type[]{Type.INT_TYPE});
+	private static final org.objectweb.asm.commons.Method INVOKE_ORIGINAL_PRIMITIVE =
+			new org.objectweb.asm.commons.Method("invokeOriginalPrimitive", SLOT, new Type[0]);
+
+	private static final AdviceKind[] SUPPORTED_KINDS = {
+			AdviceKind.BEFORE, AdviceKind.AFTER_RETURN, AdviceKind.AFTER_THROW, AdviceKind.AROUND};
+
+	private final WeavingContext ctx;
+
+	private final Type bridgeType;
+
+	/**
+	 * The type of the generated proceed handle, or {@code null} if there are no 'around' advices.
+	 */
+	private final Type handleType;
+
+	/**
+	 * All advices of the join point, in the order of kinds, and the corresponding advice methods.
+	 */
+	private final List<WeavingAdviceInfo> advices = new ArrayList<>();
+	private final List<Method> adviceMethods = new ArrayList<>();
+
+	/**
+	 * The indices of the instances of the advice classes with non-static per-call advices in the array of
+	 * per-call advice instances.
+	 */
+	private final Map<Class<?>, Integer> perCallIndices = new LinkedHashMap<>();
+
+	/**
+	 * The indices of the singleton instances, and of the thread locals with the per-thread instances,
+	 * in the array of scoped instances.
+	 */
+	private final Map<Class<?>, Integer> singletonIndices = new HashMap<>();
+	private final Map<Class<?>, Integer> perThreadIndices = new HashMap<>();
+	private final List<Object> scopedInstances = new ArrayList<>();
+
+	private AdviceBridgeGenerator(WeavingContext ctx, ScopedAdviceInstances instances) {
+		this.ctx = ctx;
+		this.bridgeType = Type.getObjectType((BRIDGE_CLASS_PREFIX + ctx.getJoinpointId()).replace('.', '/'));
+		this.handleType = ctx.hasAroundAdvices() ?
+				Type.getObjectType((HANDLE_CLASS_PREFIX + ctx.getJoinpointId()).replace('.', '/')) : null;
+		for (AdviceKind kind : SUPPORTED_KINDS) {
+			for (WeavingAdviceInfo info : getAdvices(kind)) {
+				Method m = info.getAdvice();
+				advices.add(info);
+				adviceMethods.add(m);
+				if (Modifier.isStatic(m.getModifiers())) {
+					continue;
+				}
+				Class<?> adviceClass = m.getDeclaringClass();
+				switch (info.getAdviceScope()) {
+				case SINGLETON:
+					if (!singletonIndices.containsKey(adviceClass)) {
+						singletonIndices.put(adviceClass, scopedInstances.size());
+						scopedInstances.add(instances.getSingleton(adviceClass));
+					}
+					break;
+				case PER_THREAD:
+					if (!perThreadIndices.containsKey(adviceClass)) {
+						perThreadIndices.put(adviceClass, scopedInstances.size());
+						scopedInstances.add(instances.getPerThreadInstance(adviceClass));
+					}
+					break;
+				default:
+					// the per-call instances for 'around' advices are created by the proceed handle
+					if (info.getAdviceKind() != AdviceKind.AROUND && !perCallIndices.containsKey(adviceClass)) {
+						perCallIndices.put(adviceClass, perCallIndices.size());
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Generates and instantiates the advice bridge for the join point.
+	 *
+	 * @return the bridge, or {@code null} if the advices cannot be invoked directly
+	 */
+	static IXmxAdviceBridge generate(WeavingContext ctx, ScopedAdviceInstances instances)
+			throws ReflectiveOperationException {
+		AdviceBridgeGenerator generator = new AdviceBridgeGenerator(ctx, instances);
+		if (!generator.isAccessible()) {
+			logger.debug("The advices of join point {} are not public, so invoked by reflection",
+					ctx.getJoinpointId());
+			return null;
+		}
+		BridgeClassLoader loader = new BridgeClassLoader(generator.adviceMethods);
+		if (generator.handleType != null) {
+			loader.defineBridgeClass(generator.handleType.getClassName(), generator.generateProceedHandleBytecode());
+		}
+		Class<?> bridgeClass = loader.defineBridgeClass(generator.bridgeType.getClassName(),
+				generator.generateBytecode());
+		Method[] adviceMethods = generator.adviceMethods.toArray(new Method[0]);
+		return (IXmxAdviceBridge) bridgeClass.getConstructor(WeavingContext.class, Method[].class, Object[].class)
+				.newInstance(ctx, adviceMethods, generator.scopedInstances.toArray());
+	}
+
+	private List<WeavingAdviceInfo> getAdvices(AdviceKind kind) {
+		List<WeavingAdviceInfo> kindAdvices = ctx.getAdviceInfoByKind().get(kind);
+		return kindAdvices == null ? Collections.<WeavingAdviceInfo>emptyList() : kindAdvices;
+	}
+
+	private boolean isAccessible() {
+		for (Method m : adviceMethods) {
+			Class<?> adviceClass = m.getDeclaringClass();
+			if (!isPublicType(adviceClass) || !Modifier.isPublic(m.getModifiers())) {
+				return false;
+			}
+			if (!Modifier.isStatic(m.getModifiers()) && !hasPublicDefaultConstructor(adviceClass)) {
+				return false;
+			}
+			for (Class<?> paramType : m.getParameterTypes()) {
+				if (!isPublicType(paramType)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private static boolean isPublicType(Class<?> c) {
+		while (c.isArray()) {
+			c = c.getComponentType();
+		}
+		return c.isPrimitive() || Modifier.isPublic(c.getModifiers());
+	}
+
+	private static boolean hasPublicDefaultConstructor(Class<?> c) {
+		if (Modifier.isAbstract(c.getModifiers())) {
+			return false;
+		}
+		try {
+			c.getConstructor();
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+	private byte[] generateBytecode() {
+		ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+		cw.visit(Opcodes.V1_5, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER | Opcodes.ACC_SYNTHETIC,
+				bridgeType.getInternalName(), null, BASE_TYPE.getInternalName(), null);
+
+		GeneratorAdapter mg = new GeneratorAdapter(Opcodes.ACC_PUBLIC, CONSTRUCTOR, null, null, cw);
+		mg.visitCode();
+		mg.loadThis();
+		mg.loadArgs();
+		mg.invokeConstructor(BASE_TYPE, CONSTRUCTOR);
+		mg.returnValue();
+		mg.endMethod();
+
+		generateAdvicesInvocation(cw, AdviceKind.BEFORE, BEFORE);
+		generateAdvicesInvocation(cw, AdviceKind.AFTER_RETURN,
+				ctx.getPrimitiveReturnType() == null ? AFTER_RETURN : AFTER_RETURN_PRIMITIVE);
+		generateAdvicesInvocation(cw, AdviceKind.AFTER_THROW, AFTER_THROW);
+
+		if (handleType != null) {
+			mg = new GeneratorAdapter(Opcodes.ACC_PROTECTED, NEW_PROCEED_HANDLE, null, null, cw);
+			mg.visitCode();
+			mg.newInstance(handleType);
+			mg.dup();
+			mg.loadThis();
+			mg.invokeConstructor(handleType, HANDLE_CONSTRUCTOR);
+			mg.returnValue();
+			mg.endMethod();
+		}
+
+		cw.visitEnd();
+		return cw.toByteArray();
+	}
+
+	private byte[] generateProceedHandleBytecode() {
+		Method target = ctx.getTargetMethodSupplier().getSilently();
+		if (target == null) {
+			throw new IllegalStateException("Target method is not found for join point " + ctx.getJoinpointId());
+		}
+		Type returnType = Type.getReturnType(target);
+
+		ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+		cw.visit(Opcodes.V1_5, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER | Opcodes.ACC_SYNTHETIC,
+				handleType.getInternalName(), null, HANDLE_BASE_TYPE.getInternalName(), null);
+
+		GeneratorAdapter mg = new GeneratorAdapter(Opcodes.ACC_PUBLIC, HANDLE_CONSTRUCTOR, null, null, cw);
+		mg.visitCode();
+		mg.loadThis();
+		mg.loadArgs();
+		mg.invokeConstructor(HANDLE_BASE_TYPE, HANDLE_CONSTRUCTOR);
+		mg.returnValue();
+		mg.endMethod();
+
+		generateAroundAdvicesInvocation(cw, INVOKE_ADVICE, returnType);
+		generateOriginalInvocation(cw, INVOKE_ORIGINAL, target);
+		if (PrimitiveSlots.isSlotType(returnType)) {
+			generateAroundAdvicesInvocation(cw, INVOKE_ADVICE_PRIMITIVE, returnType);
+			generateOriginalInvocation(cw, INVOKE_ORIGINAL_PRIMITIVE, target);
+		}
+
+		cw.visitEnd();
+		return cw.toByteArray();
+	}
+
+	/**
+	 * Generates the method of the proceed handle which invokes the 'around' advice by its index, with the
+	 * arguments taken from the fields of the handle. The exceptions thrown by the advices are propagated.
+	 *
+	 * @param method either {@link #INVOKE_ADVICE}, or {@link #INVOKE_ADVICE_PRIMITIVE} which returns the raw bits
+	 *               of the result converted to the primitive return type of the advised method
+	 * @param returnType the return type of the advised method
+	 */
+	private void generateAroundAdvicesInvocation(ClassWriter cw, org.objectweb.asm.commons.Method method,
+	                                             Type returnType) {
+		GeneratorAdapter mg = new GeneratorAdapter(Opcodes.ACC_PROTECTED, method, null, null, cw);
+		mg.visitCode();
+
+		List<Integer> aroundAdvices = new ArrayList<>();
+		for (int adviceIdx = 0; adviceIdx < advices.size(); adviceIdx++) {
+			if (advices.get(adviceIdx).getAdviceKind() == AdviceKind.AROUND) {
+				aroundAdvices.add(adviceIdx);
+			}
+		}
+		Label[] labels = new Label[aroundAdvices.size()];
+		for (int i = 0; i < labels.length; i++) {
+			labels[i] = mg.newLabel();
+		}
+		Label unknownIdx = mg.newLabel();
+		mg.loadArg(0);
+		mg.visitTableSwitchInsn(0, labels.length - 1, unknownIdx, labels);
+
+		for (int i = 0; i < labels.length; i++) {
+			mg.mark(labels[i]);
+			WeavingAdviceInfo info = advices.get(aroundAdvices.get(i));
+			Method advice = adviceMethods.get(aroundAdvices.get(i));
+			Type[] paramTypes = Type.getArgumentTypes(advice);
+			List<AdviceArgument> arguments = info.getAdviceArguments();
+
+			boolean isStatic = Modifier.isStatic(advice.getModifiers());
+			if (!isStatic) {
+				loadAdviceInstance(mg, handleType, info.getAdviceScope(), -1, advice.getDeclaringClass());
+			}
+			for (int argIdx = 0; argIdx < arguments.size(); argIdx++) {
+				AdviceArgument arg = arguments.get(argIdx);
+				Type paramType = paramTypes[argIdx];
+				switch (arg.getKind()) {
+				case ARGUMENT:
+					loadHandleArgument(mg, arg.getInterceptedArgument(), paramType);
+					break;
+				case ALL_ARGUMENTS:
+					mg.loadThis();
+					mg.getField(handleType, "interceptedArgs", OBJECT_ARRAY_TYPE);
+					break;
+				case THIS:
+					mg.loadThis();
+					mg.getField(handleType, "thisArg", OBJECT_TYPE);
+					mg.unbox(paramType);
+					break;
+				case TARGET:
+					mg.loadThis();
+					mg.invokeVirtual(handleType, GET_TARGET_METHOD);
+					break;
+				case PROCEED:
+					mg.loadThis();
+					break;
+				default:
+					throw new IllegalStateException("Unknown argument kind: " + arg.getKind());
+				}
+			}
+
+			org.objectweb.asm.commons.Method adviceMethod = org.objectweb.asm.commons.Method.getMethod(advice);
+			if (isStatic) {
+				mg.invokeStatic(Type.getType(advice.getDeclaringClass()), adviceMethod);
+			} else {
+				mg.invokeVirtual(Type.getType(advice.getDeclaringClass()), adviceMethod);
+			}
+			if (method == INVOKE_ADVICE_PRIMITIVE) {
+				convertToPrimitive(mg, adviceMethod.getReturnType(), returnType);
+			} else {
+				mg.box(adviceMethod.getReturnType());
+			}
+			mg.returnValue();
+		}
+
+		mg.mark(unknownIdx);
+		mg.throwException(Type.getType(IllegalArgumentException.class), "Unknown 'around' advice index");
+		mg.endMethod();
+	}
+
+	/**
+	 * Generates the method of the proceed handle which invokes the original code with the arguments taken from
+	 * the fields of the handle.
+	 *
+	 * @param method either {@link #INVOKE_ORIGINAL}, or {@link #INVOKE_ORIGINAL_PRIMITIVE} which returns the raw
+	 *               bits of the primitive result
+	 */
+	private void generateOriginalInvocation(ClassWriter cw, org.objectweb.asm.commons.Method method, Method target) {
+		GeneratorAdapter mg = new GeneratorAdapter(Opcodes.ACC_PROTECTED, method, null, null, cw);
+		mg.visitCode();
+
+		mg.loadThis();
+		mg.getField(handleType, "original", METHOD_HANDLE_TYPE);
+		List<Type> erasedParamTypes = new ArrayList<>();
+		if (!Modifier.isStatic(target.getModifiers())) {
+			mg.loadThis();
+			mg.getField(handleType, "thisArg", OBJECT_TYPE);
+			erasedParamTypes.add(OBJECT_TYPE);
+		}
+		Type[] targetParamTypes = Type.getArgumentTypes(target);
+		for (int i = 0; i < targetParamTypes.length; i++) {
+			Type erasedType = erase(targetParamTypes[i]);
+			loadHandleArgument(mg, ctx.findInterceptedArgument(i), erasedType);
+			erasedParamTypes.add(erasedType);
+		}
+		Type erasedReturnType = erase(Type.getReturnType(target));
+		mg.visitMethodInsn(Opcodes.INVOKEVIRTUAL, METHOD_HANDLE_TYPE.getInternalName(), "invokeExact",
+				Type.getMethodDescriptor(erasedReturnType, erasedParamTypes.toArray(new Type[0])), false);
+		if (method == INVOKE_ORIGINAL_PRIMITIVE) {
+			PrimitiveSlots.encode(mg, erasedReturnType);
+		} else {
+			mg.box(erasedReturnType);
+		}
+		mg.returnValue();
+		mg.endMethod();
+	}
+
+	/**
+	 * Converts the result of the 'around' advice on the stack to the raw bits of the primitive return type of the
+	 * advised method. The result is only boxed if the advice returns another primitive type.
+	 */
+	private static void convertToPrimitive(GeneratorAdapter mg, Type adviceReturnType, Type returnType) {
+		if (adviceReturnType.getSort() != returnType.getSort()) {
+			mg.box(adviceReturnType);
+			mg.unbox(returnType);
+		}
+		PrimitiveSlots.encode(mg, returnType);
+	}
+
+	/**
+	 * Loads the intercepted argument from the slot or the array field of the proceed handle.
+	 */
+	private void loadHandleArgument(GeneratorAdapter mg, InterceptedArgument interceptedArgument, Type type) {
+		mg.loadThis();
+		if (interceptedArgument.getPrimitiveSlot() >= 0) {
+			mg.getField(handleType, "p" + interceptedArgument.getPrimitiveSlot(), SLOT);
+			PrimitiveSlots.decode(mg, type);
+		} else {
+			mg.getField(handleType, "interceptedArgs", OBJECT_ARRAY_TYPE);
+			mg.push(interceptedArgument.getIdxInProxyArgsArray());
+			mg.arrayLoad(OBJECT_TYPE);
+			mg.unbox(type);
+		}
+	}
+
+	/**
+	 * Erases the reference type to {@code Object}, same as {@link java.lang.invoke.MethodType#erase()}.
+	 */
+	private static Type erase(Type type) {
+		return type.getSort() == Type.OBJECT || type.getSort() == Type.ARRAY ? OBJECT_TYPE : type;
+	}
+
+	/**
+	 * Generates the bridge method which invokes all advices of the specified kind.
+	 */
+	private void generateAdvicesInvocation(ClassWriter cw, AdviceKind kind, org.objectweb.asm.commons.Method method) {
+		GeneratorAdapter mg = new GeneratorAdapter(Opcodes.ACC_PUBLIC, method, null, null, cw);
+		mg.visitCode();
+
+		// the indices of the arguments of the bridge method
+		boolean isBefore = kind == AdviceKind.BEFORE;
+		int thisArg = isBefore ? 0 : 2;
+		int interceptedArgsArg = isBefore ? 1 : 3;
+		int slotsArg = isBefore ? 2 : 4;
+		int afterArg = 0;
+		int adviceInstancesArg = 1;
+		boolean primitiveRetVal = method == AFTER_RETURN_PRIMITIVE;
+
+		boolean needInstances = false;
+		for (int i = 0; i < advices.size(); i++) {
+			WeavingAdviceInfo info = advices.get(i);
+			if (info.getAdviceKind() == kind && info.getAdviceScope() == AdviceScope.PER_CALL &&
+					!Modifier.isStatic(adviceMethods.get(i).getModifiers())) {
+				needInstances = true;
+			}
+		}
+
+		int instancesLocal = -1;
+		if (needInstances) {
+			// the array of advice instances is created by 'before' advices, or on demand
+			instancesLocal = mg.newLocal(OBJECT_ARRAY_TYPE);
+			if (isBefore) {
+				mg.push(perCallIndices.size());
+				mg.newArray(OBJECT_TYPE);
+			} else {
+				Label ready = mg.newLabel();
+				mg.loadArg(adviceInstancesArg);
+				mg.dup();
+				mg.ifNonNull(ready);
+				mg.pop();
+				mg.push(perCallIndices.size());
+				mg.newArray(OBJECT_TYPE);
+				mg.mark(ready);
+				mg.checkCast(OBJECT_ARRAY_TYPE);
+			}
+			mg.storeLocal(instancesLocal);
+		}
+
+		for (int adviceIdx = 0; adviceIdx < advices.size(); adviceIdx++) {
+			WeavingAdviceInfo info = advices.get(adviceIdx);
+			if (info.getAdviceKind() != kind) {
+				continue;
+			}
+			Method advice = adviceMethods.get(adviceIdx);
+			Type adviceClassType = Type.getType(advice.getDeclaringClass());
+			Type[] paramTypes = Type.getArgumentTypes(advice);
+			List<AdviceArgument> arguments = info.getAdviceArguments();
+			int[] modifiableArgLocals = new int[arguments.size()];
+
+			Label start = mg.mark();
+			boolean isStatic = Modifier.isStatic(advice.getModifiers());
+			if (!isStatic) {
+				loadAdviceInstance(mg, bridgeType, info.getAdviceScope(), instancesLocal, advice.getDeclaringClass());
+			}
+
+			for (int i = 0; i < arguments.size(); i++) {
+				AdviceArgument arg = arguments.get(i);
+				Type paramType = paramTypes[i];
+				modifiableArgLocals[i] = -1;
+				switch (arg.getKind()) {
+				case ARGUMENT:
+					InterceptedArgument interceptedArgument = arg.getInterceptedArgument();
+					int idxInArray = interceptedArgument.getIdxInProxyArgsArray();
+					if (arg.isModifiable()) {
+						// wrap into array or holder of the exact type, which is written back after 'before' advices
+						wrapModifiableArgument(mg, paramType, interceptedArgsArg, idxInArray);
+						if (isBefore) {
+							mg.dup();
+							modifiableArgLocals[i] = mg.newLocal(paramType);
+							mg.storeLocal(modifiableArgLocals[i]);
+						}
+					} else if (interceptedArgument.getPrimitiveSlot() >= 0) {
+						mg.loadArg(slotsArg + interceptedArgument.getPrimitiveSlot());
+						PrimitiveSlots.decode(mg, paramType);
+					} else {
+						loadInterceptedArgument(mg, interceptedArgsArg, idxInArray, paramType);
+					}
+					break;
+				case ALL_ARGUMENTS:
+					mg.loadArg(interceptedArgsArg);
+					break;
+				case THIS:
+					mg.loadArg(thisArg);
+					mg.unbox(paramType);
+					break;
+				case RETVAL:
+					mg.loadArg(afterArg);
+					if (primitiveRetVal) {
+						PrimitiveSlots.decode(mg, paramType);
+					} else {
+						mg.unbox(paramType);
+					}
+					break;
+				case THROWN:
+					mg.loadArg(afterArg);
+					mg.unbox(paramType);
+					break;
+				case TARGET:
+					mg.loadThis();
+					mg.invokeVirtual(bridgeType, GET_TARGET_METHOD);
+					break;
+				default:
+					throw new IllegalStateException("Unknown argument kind: " + arg.getKind());
+				}
+			}
+
+			org.objectweb.asm.commons.Method adviceMethod = org.objectweb.asm.commons.Method.getMethod(advice);
+			if (isStatic) {
+				mg.invokeStatic(adviceClassType, adviceMethod);
+			} else {
+				mg.invokeVirtual(adviceClassType, adviceMethod);
+			}
+
+			Type returnType = adviceMethod.getReturnType();
+			if (kind == AdviceKind.AFTER_RETURN && info.hasOverrideRetVal()) {
+				if (primitiveRetVal) {
+					PrimitiveSlots.encode(mg, returnType);
+				} else {
+					mg.box(returnType);
+				}
+				mg.storeArg(afterArg);
+			} else if (returnType.getSize() == 2) {
+				mg.pop2();
+			} else if (returnType.getSize() == 1) {
+				mg.pop();
+			}
+
+			for (int i = 0; i < arguments.size(); i++) {
+				if (modifiableArgLocals[i] >= 0) {
+					mg.loadArg(interceptedArgsArg);
+					mg.push(arguments.get(i).getInterceptedArgument().getIdxInProxyArgsArray());
+					mg.loadLocal(modifiableArgLocals[i]);
+					unwrapModifiableArgument(mg, paramTypes[i]);
+					mg.arrayStore(OBJECT_TYPE);
+				}
+			}
+
+			Label end = mg.mark();
+			Label next = mg.newLabel();
+			mg.goTo(next);
+
+			mg.catchException(start, end, THROWABLE_TYPE);
+			mg.loadThis();
+			mg.swap();
+			mg.push(adviceIdx);
+			mg.invokeVirtual(bridgeType, ADVICE_FAILED);
+			if (kind == AdviceKind.AFTER_RETURN) {
+				// same as for the reflective invocation
+				if (primitiveRetVal) {
+					mg.push(0L);
+				} else {
+					mg.visitInsn(Opcodes.ACONST_NULL);
+				}
+				mg.returnValue();
+			}
+			mg.mark(next);
+		}
+
+		if (isBefore) {
+			if (needInstances) {
+				mg.loadLocal(instancesLocal);
+			} else {
+				mg.visitInsn(Opcodes.ACONST_NULL);
+			}
+		} else if (kind == AdviceKind.AFTER_RETURN) {
+			mg.loadArg(afterArg);
+		}
+		mg.returnValue();
+		mg.endMethod();
+	}
+
+	private static void loadInterceptedArgument(GeneratorAdapter mg, int interceptedArgsArg, int idx, Type type) {
+		mg.loadArg(interceptedArgsArg);
+		mg.push(idx);
+		mg.arrayLoad(OBJECT_TYPE);
+		mg.unbox(type);
+	}
+
+	/**
+	 * Creates the one-element array or the holder of the specified type, with the intercepted argument as the value.
+	 */
+	private static void wrapModifiableArgument(GeneratorAdapter mg, Type holderType, int interceptedArgsArg, int idx) {
+		Type valueType = ArgumentHolders.getValueType(holderType);
+		if (holderType.getSort() == Type.ARRAY) {
+			mg.push(1);
+			mg.newArray(valueType);
+			mg.dup();
+			mg.push(0);
+			loadInterceptedArgument(mg, interceptedArgsArg, idx, valueType);
+			mg.arrayStore(valueType);
+		} else {
+			mg.newInstance(holderType);
+			mg.dup();
+			mg.invokeConstructor(holderType, DEFAULT_CONSTRUCTOR);
+			mg.dup();
+			loadInterceptedArgument(mg, interceptedArgsArg, idx, valueType);
+			mg.putField(holderType, ArgumentHolders.VALUE_FIELD, valueType);
+		}
+	}
+
+	/**
+	 * Replaces the array or the holder on the stack with its boxed value.
+	 */
+	private static void unwrapModifiableArgument(GeneratorAdapter mg, Type holderType) {
+		Type valueType = ArgumentHolders.getValueType(holderType);
+		if (holderType.getSort() == Type.ARRAY) {
+			mg.push(0);
+			mg.arrayLoad(valueType);
+		} else {
+			mg.getField(holderType, ArgumentHolders.VALUE_FIELD, valueType);
+		}
+		mg.box(valueType);
+	}
+
+	/**
+	 * Loads the instance of the advice class according to the scope. The per-call instances are loaded from
+	 * the array of instances, and created if missing, or always created if there is no such array.
+	 *
+	 * @param ownerType the type of the generated bridge or proceed handle, which holds the scoped instances
+	 */
+	private void loadAdviceInstance(GeneratorAdapter mg, Type ownerType, AdviceScope scope, int instancesLocal,
+	                                Class<?> adviceClass) {
+		Type adviceClassType = Type.getType(adviceClass);
+		if (scope == AdviceScope.SINGLETON || scope == AdviceScope.PER_THREAD) {
+			boolean isSingleton = scope == AdviceScope.SINGLETON;
+			mg.loadThis();
+			mg.getField(ownerType, "scopedInstances", OBJECT_ARRAY_TYPE);
+			mg.push((isSingleton ? singletonIndices : perThreadIndices).get(adviceClass));
+			mg.arrayLoad(OBJECT_TYPE);
+			if (!isSingleton) {
+				mg.checkCast(THREAD_LOCAL_TYPE);
+				mg.invokeVirtual(THREAD_LOCAL_TYPE, THREAD_LOCAL_GET);
+			}
+			mg.checkCast(adviceClassType);
+			return;
+		}
+		if (instancesLocal < 0) {
+			mg.newInstance(adviceClassType);
+			mg.dup();
+			mg.invokeConstructor(adviceClassType, DEFAULT_CONSTRUCTOR);
+			return;
+		}
+
+		int instanceIdx = perCallIndices.get(adviceClass);
+		Label ready = mg.newLabel();
+		mg.loadLocal(instancesLocal);
+		mg.push(instanceIdx);
+		mg.arrayLoad(OBJECT_TYPE);
+		mg.dup();
+		mg.ifNonNull(ready);
+		mg.pop();
+		mg.loadLocal(instancesLocal);
+		mg.push(instanceIdx);
+		mg.newInstance(adviceClassType);
+		mg.dup();
+		mg.invokeConstructor(adviceClassType, DEFAULT_CONSTRUCTOR);
+		mg.dupX2();
+		mg.arrayStore(OBJECT_TYPE);
+		mg.mark(ready);
+		mg.checkCast(adviceClassType);
+	}
+
+	/**
+	 * The class loader of a single bridge class. Resolves the advice classes and all other types through
+	 * the class loaders of the advice classes, and the base bridge types through the XMX class loader.
+	 */
+	private static class BridgeClassLoader extends ClassLoader {
+
+		private final Map<String, Class<?>> knownClasses = new HashMap<>();
+		private final Set<ClassLoader> adviceLoaders = new LinkedHashSet<>();
+
+		BridgeClassLoader(Collection<Method> adviceMethods) {
+			super(AdviceBridge.class.getClassLoader());
+			knownClasses.put(AdviceBridge.class.getName(), AdviceBridge.class);
+			knownClasses.put(AdviceProceedHandle.class.getName(), AdviceProceedHandle.class);
+			knownClasses.put(WeavingContext.class.getName(), WeavingContext.class);
+			for (Method m : adviceMethods) {
+				Class<?> c = m.getDeclaringClass();
+				knownClasses.put(c.getName(), c);
+				if (c.getClassLoader() != null) {
+					adviceLoaders.add(c.getClassLoader());
+				}
+			}
+		}
+
+		@Override
+		protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+			Class<?> c = knownClasses.get(name);
+			if (c != null) {
+				return c;
+			}
+			for (ClassLoader adviceLoader : adviceLoaders) {
+				try {
+					return Class.forName(name, false, adviceLoader);
+				} catch (ClassNotFoundException e) {
+					// try next
+				}
+			}
+			return super.loadClass(name, resolve);
+		}
+
+		Class<?> defineBridgeClass(String name, byte[] bytecode) {
+			Class<?> c = defineClass(name, bytecode, 0, bytecode.length);
+			knownClasses.put(name, c);
+			return c;
+		}
+	}
+}
@@ -0,0 +1,336 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.aop.impl;
+
+import com.gilecode.xmx.aop.BadAdviceException;
+import com.gilecode.xmx.aop.data.MethodDeclarationInfo;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.commons.ClassRemapper;
+import org.objectweb.asm.commons.Remapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * The catalog of the advice JARs, shared by all managed class loaders.
+ * <p/>
+ * Each JAR is indexed once per its version, i.e. its size and modification time: the names of its class
+ * entries are read and the JAR file is closed. The advice classes are verified at most once per the version
+ * of the JAR, and the results of the verification, either the advice methods or the error, are cached.
+ * If a JAR is modified, it is re-indexed on the next use.
+ * <p/>
+ * In addition, the external types referenced by the JAR may be collected, which allows to find the class
+ * loaders sufficient to load the advice classes.
+ */
+class AdviceJarCatalog {
+
+	private final static Logger logger = LoggerFactory.getLogger(AdviceJarCatalog.class);
+
+	/**
+	 * The indexed version of an advice JAR with the cached verification results.
+	 */
+	static final class JarInfo {
+		private final File file;
+		private final long length;
+		private final long lastModified;
+		private final Set<String> classEntryNames;
+
+		/**
+		 * The verification results for the advice classes, by class names. Each result is either
+		 * {@code List<MethodDeclarationInfo>} or {@link BadAdviceException}.
+		 */
+		private final ConcurrentMap<String, Object> verificationResults = new ConcurrentHashMap<>();
+
+		/**
+		 * The internal names of the types referenced by the classes of the JAR, but not defined in it, excluding
+		 * the core JDK types. Computed lazily.
+		 */
+		private volatile Set<String> externalTypes;
+
+		JarInfo(File file, long length, long lastModified, Set<String> classEntryNames) {
+			this.file = file;
+			this.length = length;
+			this.lastModified = lastModified;
+			this.classEntryNames = classEntryNames;
+		}
+
+		boolean isUpToDate(File f) {
+			return f.length() == length && f.lastModified() == lastModified;
+		}
+
+		File getFile() {
+			return file;
+		}
+
+		/**
+		 * Returns the string which identifies this version of the JAR.
+		 */
+		String getVersion() {
+			return file.getAbsolutePath() + "|" + length + "|" + lastModified;
+		}
+	}
+
+	private final AdviceVerifier adviceVerifier;
+
+	/**
+	 * The directory for advices JARs under XMX Home.
+	 */
+	private final File homeAdvicesDir;
+
+	/**
+	 * The directory for advices JARs under XMX Configuration.
+	 */
+	private final File configAdvicesDir;
+
+	/**
+	 * The indexed JARs, by absolute paths.
+	 */
+	private final ConcurrentMap<String, JarInfo> jarsByPath = new ConcurrentHashMap<>();
+
+	AdviceJarCatalog(AdviceVerifier adviceVerifier, File homeAdvicesDir, File configAdvicesDir) {
+		this.adviceVerifier = adviceVerifier;
+		this.homeAdvicesDir = homeAdvicesDir;
+		this.configAdvicesDir = configAdvicesDir;
+	}
+
+	/**
+	 * Finds the advice JAR by its name, and returns its current indexed version.
+	 *
+	 * @param jarName the name or path to the advices JAR file
+	 *
+	 * @throws BadAdviceException if the JAR is not found or cannot be read
+	 */
+	JarInfo getJar(String jarName) throws BadAdviceException {
+		File f = getJarFile(jarName);
+		String path = f.getAbsolutePath();
+		JarInfo info = jarsByPath.get(path);
+		if (info != null && info.isUpToDate(f)) {
+			return info;
+		}
+
+		// concurrent indexing of the same JAR is harmless, the last result wins
+		JarInfo newInfo = indexJar(f);
+		jarsByPath.put(path, newInfo);
+		return newInfo;
+	}
+
+	private static JarInfo indexJar(File f) throws BadAdviceException {
+		// the size and time are read before the contents, so that concurrent modifications cause re-indexing
+		long length = f.length();
+		long lastModified = f.lastModified();
+		Set<String> classEntryNames = new HashSet<>();
+		try (JarFile jf = new JarFile(f)) {
+			Enumeration<JarEntry> entries = jf.entries();
+			while (entries.hasMoreElements()) {
+				String name = entries.nextElement().getName();
+				if (name.endsWith(".class")) {
+					classEntryNames.add(name);
+				}
+			}
+		} catch (IOException e) {
+			throw new BadAdviceException("Failed to read the JAR file " + f, e);
+		}
+		logger.debug("Indexed advice JAR {} with {} classes", f, classEntryNames.size());
+		return new JarInfo(f, length, lastModified, classEntryNames);
+	}
+
+	/**
+	 * Returns the advice methods of the class from the JAR, verifying the class if not verified yet.
+	 *
+	 * @param jar the indexed JAR
+	 * @param className the name of the advice class
+	 * @param desc the advice descriptor, used for error messages
+	 *
+	 * @throws BadAdviceException if the class is missing or is not a valid advice class
+	 */
+	@SuppressWarnings("unchecked")
+	List<MethodDeclarationInfo> getAdviceMethods(JarInfo jar, String className, String desc) throws BadAdviceException {
+		Object result = jar.verificationResults.get(className);
+		if (result == null) {
+			try {
+				result = verifyAdviceClass(jar, className, desc);
+			} catch (BadAdviceException e) {
+				result = e;
+			}
+			Object prev = jar.verificationResults.putIfAbsent(className, result);
+			if (prev != null) {
+				result = prev;
+			}
+		}
+		if (result instanceof BadAdviceException) {
+			throw (BadAdviceException) result;
+		}
+		return (List<MethodDeclarationInfo>) result;
+	}
+
+	private List<MethodDeclarationInfo> verifyAdviceClass(JarInfo jar, String className, String desc)
+			throws BadAdviceException {
+		String entryName = className.replace('.', '/') + ".class";
+		if (!jar.classEntryNames.contains(entryName)) {
+			throw new BadAdviceException("Entry " + entryName + " is not found in the JAR file");
+		}
+		try (JarFile jf = new JarFile(jar.getFile())) {
+			JarEntry classEntry = jf.getJarEntry(entryName);
+			if (classEntry == null) {
+				throw new BadAdviceException("Entry " + entryName + " is not found in the JAR file");
+			}
+			try (InputStream is = jf.getInputStream(classEntry)) {
+				return Collections.unmodifiableList(adviceVerifier.verifyAdviceClass(is, desc));
+			}
+		} catch (IOException e) {
+			throw new BadAdviceException("Failed to read the class file from JAR", e);
+		}
+	}
+
+	/**
+	 * Returns the internal names of the types referenced by the classes of the JAR, which are not defined
+	 * in the JAR itself, and are not core JDK types.
+	 *
+	 * @throws BadAdviceException if the JAR cannot be read
+	 */
+	Set<String> getExternalTypes(JarInfo jar) throws BadAdviceException {
+		Set<String> result = jar.externalTypes;
+		if (result == null) {
+			result = collectExternalTypes(jar);
+			jar.externalTypes = result;
+		}
+		return result;
+	}
+
+	private static Set<String> collectExternalTypes(JarInfo jar) throws BadAdviceException {
+		final Set<String> referencedTypes = new HashSet<>();
+		Remapper collector = new Remapper() {
+			@Override
+			public String map(String internalName) {
+				referencedTypes.add(internalName);
+				return internalName;
+			}
+		};
+		try (JarFile jf = new JarFile(jar.getFile())) {
+			for (String entryName : jar.classEntryNames) {
+				JarEntry entry = jf.getJarEntry(entryName);
+				if (entry != null) {
+					try (InputStream is = jf.getInputStream(entry)) {
+						new ClassReader(is).accept(new ClassRemapper(new NopClassVisitor(), collector),
+								ClassReader.SKIP_FRAMES);
+					}
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			throw new BadAdviceException("Failed to read the classes of the JAR file " + jar.getFile(), e);
+		}
+
+		Set<String> result = new HashSet<>();
+		for (String type : referencedTypes) {
+			if (!jar.classEntryNames.contains(type + ".class") && !type.startsWith("java/")) {
+				result.add(type);
+			}
+		}
+		return Collections.unmodifiableSet(result);
+	}
+
+	/**
+	 * The class visitor which visits all parts of the class, including the code, but does nothing. The
+	 * adapters skip the parts of the class which are not visited by the next visitor, so it is required
+	 * for the full traversal.
+	 */
+	private static class NopClassVisitor extends ClassVisitor {
+		NopClassVisitor() {
+			super(Opcodes.ASM5);
+		}
+
+		@Override
+		public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+			return new NopAnnotationVisitor();
+		}
+
+		@Override
+		public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+			return new FieldVisitor(Opcodes.ASM5) {
+				@Override
+				public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+					return new NopAnnotationVisitor();
+				}
+			};
+		}
+
+		@Override
+		public MethodVisitor visitMethod(int access, String name, String descriptor, String signature,
+				String[] exceptions) {
+			return new MethodVisitor(Opcodes.ASM5) {
+				@Override
+				public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+					return new NopAnnotationVisitor();
+				}
+
+				@Override
+				public AnnotationVisitor visitParameterAnnotation(int parameter, String descriptor, boolean visible) {
+					return new NopAnnotationVisitor();
+				}
+			};
+		}
+	}
+
+	private static class NopAnnotationVisitor extends AnnotationVisitor {
+		NopAnnotationVisitor() {
+			super(Opcodes.ASM5);
+		}
+
+		@Override
+		public AnnotationVisitor visitAnnotation(String name, String descriptor) {
+			return this;
+		}
+
+		@Override
+		public AnnotationVisitor visitArray(String name) {
+			return this;
+		}
+	}
+
+	/**
+	 * Finds a JAR file by its name. If file is missing, throws exception.
+	 * The JAR file is searched by name in XMX_HOME/lib/advices/ and XMX_CONFIG_HOME/advices
+	 *
+	 * @param jarName the name or path to advices JAR file
+	 *
+	 * @return the found JAR file
+	 *
+	 * @throws BadAdviceException if not found
+	 */
+	File getJarFile(String jarName) throws BadAdviceException {
+		List<File> candidateFiles = new ArrayList<>();
+		boolean isPath = jarName.contains("/") || jarName.contains(File.separator);
+		if (isPath) {
+			// look by absolute path
+			candidateFiles.add(new File(jarName));
+		} else {
+			// look in <xmx_home>/lib/advices and in <xmx_config>/advices
+			candidateFiles.add(new File(homeAdvicesDir, jarName));
+			candidateFiles.add(new File(configAdvicesDir, jarName));
+		}
+		for (File candidate : candidateFiles) {
+			if (candidate.isFile()) {
+				return candidate;
+			}
+		}
+		// not found
+		String message = "Jar file '" + jarName + "' is not found!";
+		if (!isPath) {
+			message += " It may be added either to " + homeAdvicesDir + " or to " + configAdvicesDir + " directory.";
+		}
+		throw new BadAdviceException(message);
+	}
+}
@@ -0,0 +1,235 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.aop.impl;
+
+import com.gilecode.xmx.aop.AdviceKind;
+import com.gilecode.xmx.aop.IProceedHandle;
+import org.objectweb.asm.Type;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+
+/**
+ * The base class for the generated proceed handles of the join points with 'around' advices, see
+ * {@link AdviceBridgeGenerator}. Shall be public, as the handles are defined by the class loaders of the bridges.
+ * <p/>
+ * The handle holds the arguments of the current invocation of the advised method, so that the 'around' advices
+ * and the original code are invoked without allocations. The handles are re-used by the subsequent invocations
+ * in the same thread, see {@link AdviceBridge#around(Object, Object[], long, long, long, long)}.
+ * <p/>
+ * If the advised method returns a primitive value, the generated handle also implements the variants of the
+ * invocation methods which return the raw bits of the result, used by the typed variants of {@code proceed}
+ * and by {@link AdviceBridge#aroundPrimitive(Object, Object[], long, long, long, long)}.
+ */
+public abstract class AdviceProceedHandle implements IProceedHandle {
+
+	private final WeavingContext ctx;
+
+	/**
+	 * The number of the 'around' advices of the join point.
+	 */
+	private final int advicesCount;
+
+	/**
+	 * The original code of the advised method, with all reference types erased to {@code Object}.
+	 */
+	protected final MethodHandle original;
+
+	/**
+	 * The return type of the advised method.
+	 */
+	private final Type returnType;
+
+	/**
+	 * The scoped instances of the advice classes, same as in the bridge.
+	 */
+	protected final Object[] scopedInstances;
+
+	/**
+	 * The arguments of the current invocation, in the same form as passed to the bridge.
+	 */
+	protected Object thisArg;
+	protected Object[] interceptedArgs;
+	protected long p0, p1, p2, p3;
+
+	/**
+	 * The index of the 'around' advice to be invoked by {@link #proceed()}, or the number of advices if the
+	 * original code shall be invoked.
+	 */
+	private int nextAdvice;
+
+	/**
+	 * Whether the handle is used by an invocation of the advised method.
+	 */
+	private boolean active;
+
+	protected AdviceProceedHandle(AdviceBridge bridge) {
+		this.ctx = bridge.getContext();
+		this.advicesCount = ctx.getAdviceInfoByKind().get(AdviceKind.AROUND).size();
+		this.original = bridge.getOriginalMethod();
+		this.returnType = Type.getType(original.type().returnType());
+		this.scopedInstances = bridge.scopedInstances;
+	}
+
+	/**
+	 * Finds the synthetic method with the original code of the target method, and returns its handle with all
+	 * reference types erased to {@code Object}, so that it may be invoked exactly without access to the target types.
+	 */
+	static MethodHandle findOriginalMethod(WeavingContext ctx) throws ReflectiveOperationException {
+		Method target = ctx.getTargetMethodSupplier().getSilently();
+		if (target == null) {
+			throw new NoSuchMethodException("Target method is not found for join point " + ctx.getJoinpointId());
+		}
+		Method originalMethod = target.getDeclaringClass().getDeclaredMethod(
+				WeavingContext.getOriginalMethodName(target.getName()), target.getParameterTypes());
+		originalMethod.setAccessible(true);
+		MethodHandle handle = MethodHandles.lookup().unreflect(originalMethod);
+		return handle.asType(handle.type().erase());
+	}
+
+	boolean isActive() {
+		return active;
+	}
+
+	void enter(Object thisArg, Object[] interceptedArgs, long p0, long p1, long p2, long p3) {
+		this.active = true;
+		this.nextAdvice = 0;
+		this.thisArg = thisArg;
+		this.interceptedArgs = interceptedArgs;
+		this.p0 = p0;
+		this.p1 = p1;
+		this.p2 = p2;
+		this.p3 = p3;
+	}
+
+	void exit() {
+		this.active = false;
+		this.thisArg = null;
+		this.interceptedArgs = null;
+	}
+
+	private void checkActive() {
+		if (!active) {
+			throw new IllegalStateException("The proceed handle is used outside of the 'around' advice");
+		}
+	}
+
+	@Override
+	public final Object proceed() throws Throwable {
+		checkActive();
+		int adviceIdx = nextAdvice;
+		nextAdvice = adviceIdx + 1;
+		try {
+			return adviceIdx < advicesCount ? invokeAdvice(adviceIdx) : invokeOriginal();
+		} finally {
+			nextAdvice = adviceIdx;
+		}
+	}
+
+	/**
+	 * Same as {@link #proceed()}, for the methods which return primitive values.
+	 *
+	 * @return the raw bits of the result
+	 */
+	final long proceedPrimitive() throws Throwable {
+		checkActive();
+		int adviceIdx = nextAdvice;
+		nextAdvice = adviceIdx + 1;
+		try {
+			return adviceIdx < advicesCount ? invokeAdvicePrimitive(adviceIdx) : invokeOriginalPrimitive();
+		} finally {
+			nextAdvice = adviceIdx;
+		}
+	}
+
+	private long proceedPrimitive(Type expectedType) throws Throwable {
+		if (returnType.getSort() != expectedType.getSort()) {
+			throw new IllegalStateException("The intercepted method returns " + returnType.getClassName() +
+					", not " + expectedType.getClassName());
+		}
+		return proceedPrimitive();
+	}
+
+	@Override
+	public final boolean proceedBoolean() throws Throwable {
+		return proceedPrimitive(Type.BOOLEAN_TYPE) != 0;
+	}
+
+	@Override
+	public final byte proceedByte() throws Throwable {
+		return (byte) proceedPrimitive(Type.BYTE_TYPE);
+	}
+
+	@Override
+	public final char proceedChar() throws Throwable {
+		return (char) proceedPrimitive(Type.CHAR_TYPE);
+	}
+
+	@Override
+	public final short proceedShort() throws Throwable {
+		return (short) proceedPrimitive(Type.SHORT_TYPE);
+	}
+
+	@Override
+	public final int proceedInt() throws Throwable {
+		return (int) proceedPrimitive(Type.INT_TYPE);
+	}
+
+	@Override
+	public final long proceedLong() throws Throwable {
+		return proceedPrimitive(Type.LONG_TYPE);
+	}
+
+	@Override
+	public final float proceedFloat() throws Throwable {
+		return Float.intBitsToFloat((int) proceedPrimitive(Type.FLOAT_TYPE));
+	}
+
+	@Override
+	public final double proceedDouble() throws Throwable {
+		return Double.longBitsToDouble(proceedPrimitive(Type.DOUBLE_TYPE));
+	}
+
+	/**
+	 * Returns the target method, for @TargetMethod arguments.
+	 */
+	protected final Method getTargetMethod() {
+		return ctx.getTargetMethodSupplier().getSilently();
+	}
+
+	/**
+	 * Invokes the specified 'around' advice.
+	 *
+	 * @param adviceIdx the index of the advice among the 'around' advices of the join point
+	 * @return the result of the advice, boxed if primitive
+	 */
+	protected abstract Object invokeAdvice(int adviceIdx) throws Throwable;
+
+	/**
+	 * Invokes the original code with the arguments of the current invocation.
+	 *
+	 * @return the result of the original code, boxed if primitive, or {@code null} for void methods
+	 */
+	protected abstract Object invokeOriginal() throws Throwable;
+
+	/**
+	 * Same as {@link #invokeAdvice(int)}, for the methods which return primitive values. Overridden by the
+	 * generated handle of such methods.
+	 *
+	 * @return the raw bits of the result of the advice, converted to the return type of the method
+	 */
+	protected long invokeAdvicePrimitive(int adviceIdx) throws Throwable {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Same as {@link #invokeOriginal()}, for the methods which return primitive values. Overridden by the
+	 * generated handle of such methods.
+	 *
+	 * @return the raw bits of the result of the original code
+	 */
+	protected long invokeOriginalPrimitive() throws Throwable {
+		throw new UnsupportedOperationException();
+	}
+}
@@ -36,12 +36,15 @@ public class AdviceVerifier extends BasicAdviceArgumentsProcessor {
 				Argument.class, AllArguments.class, TargetMethod.class, This.class, RetVal.class)));
 		allowedArgAnnotationsByKind.put(AdviceKind.AFTER_THROW, new HashSet<>(Arrays.asList(
 				Argument.class, AllArguments.class, TargetMethod.class, This.class, Thrown.class)));
+		allowedArgAnnotationsByKind.put(AdviceKind.AROUND, new HashSet<>(Arrays.asList(
+				Argument.class, AllArguments.class, TargetMethod.class, This.class, Proceed.class)));
 	}
 
 	private static final Type OBJECT_TYPE = Type.getType(Object.class);
 	private static final Type OBJECT_ARRAY_TYPE = Type.getType(Object[].class);
 	private static final Type THROWABLE_TYPE = Type.getType(Throwable.class);
 	private static final Type METHOD_TYPE = Type.getType(Method.class);
+	private static final Type PROCEED_HANDLE_TYPE = Type.getType(IProceedHandle.class);
 
 	// "boxed" object types for primitive types
 	private static final Type BYTE_OBJTYPE = Type.getType(Byte.class);
@@ -95,8 +98,9 @@ public class AdviceVerifier extends BasicAdviceArgumentsProcessor {
 								if (idx < 0 || idx >= 255) {
 									throw new BadAdviceException(adviceCandidate, annotation, "has invalid parameter index " + idx);
 								}
-								if (annotationClass == ModifiableArgument.class && parameterType.getSort() != Type.ARRAY) {
-									throw new BadAdviceException(adviceCandidate, annotation, "requires array type");
+								if (annotationClass == ModifiableArgument.class && parameterType.getSort() != Type.ARRAY &&
+										!ArgumentHolders.isHolderType(parameterType)) {
+									throw new BadAdviceException(adviceCandidate, annotation, "requires array or holder type");
 								}
 							}
 							if (annotationClass ==  Thrown.class && !parameterType.equals(THROWABLE_TYPE)) {
@@ -105,6 +109,10 @@ public class AdviceVerifier extends BasicAdviceArgumentsProcessor {
 							if (annotationClass == TargetMethod.class && !parameterType.equals(METHOD_TYPE)) {
 								throw new BadAdviceException(adviceCandidate, annotation, "requires java.lang.reflect.Method type");
 							}
+							if (annotationClass == Proceed.class && !parameterType.equals(PROCEED_HANDLE_TYPE)) {
+								throw new BadAdviceException(adviceCandidate, annotation, "requires " +
+										IProceedHandle.class.getName() + " type");
+							}
 							if (foundArgAnnotation != null) {
 								throw new BadAdviceException(adviceCandidate, annotation, "overwrites annotation " + foundArgAnnotation);
 							}
@@ -132,12 +140,6 @@ public class AdviceVerifier extends BasicAdviceArgumentsProcessor {
 		return adviceMethods;
 	}
 
-	private static Type getArrayComponentType(Type arrType) {
-		assert arrType.getSort() == Type.ARRAY : "Array type is expected";
-		// NOTE: arrType.getElementType() does not work here, as it removes all array dimensions, not just one
-		return Type.getType(arrType.getDescriptor().substring(1));
-	}
-
 	/**
 	 * Checks whether the advice method is compatible (by types) to the specified target method. Log DEBUG-level
 	 * message if the advice is not compatible.
@@ -148,6 +150,12 @@ public class AdviceVerifier extends BasicAdviceArgumentsProcessor {
 	public boolean isAdviceCompatibleMethod(MethodDeclarationInfo advice,
 	                                        Type[] targetParamTypes, Type targetReturnType,
 	                                        String targetClassName, String targetMethodName) {
+		AnnotationInfo adviceAnnotation = advice.getAnnotation(Advice.class);
+		if (adviceAnnotation != null && adviceAnnotation.value() == AdviceKind.AROUND &&
+				!isAroundAdviceCompatible(advice, targetReturnType, targetClassName, targetMethodName)) {
+			return false;
+		}
+
 		AnnotatedTypeInfo[] parameters = advice.getParameters();
 		for (int paramIdx = 0; paramIdx < parameters.length; paramIdx++) {
 			AnnotatedTypeInfo parameter = parameters[paramIdx];
@@ -169,7 +177,7 @@ public class AdviceVerifier extends BasicAdviceArgumentsProcessor {
 				}
 				if (annoClass == ModifiableArgument.class) {
 					isModifiable = true;
-					adviceParamType = getArrayComponentType(parameterType);
+					adviceParamType = ArgumentHolders.getValueType(parameterType);
 				} else {
 					adviceParamType = parameterType;
 				}
@@ -199,6 +207,26 @@ public class AdviceVerifier extends BasicAdviceArgumentsProcessor {
 		return true;
 	}
 
+	/**
+	 * Checks that the 'around' advice is applicable to the target method, i.e. the target is not a constructor,
+	 * and the result of the advice may be used as the result of the target method.
+	 */
+	private boolean isAroundAdviceCompatible(MethodDeclarationInfo advice, Type targetReturnType,
+	                                         String targetClassName, String targetMethodName) {
+		if (targetMethodName.startsWith("<")) {
+			logger.debug("Advice method {} cannot be applied to {}.{} as 'around' advices are not applicable " +
+					"to constructors", advice, targetClassName, targetMethodName);
+			return false;
+		}
+		Type adviceReturnType = advice.getReturnType();
+		if (!adviceReturnType.equals(OBJECT_TYPE) && !adviceReturnType.equals(targetReturnType)) {
+			logger.debug("Advice method {} cannot be applied to {}.{} as its return type is not compatible " +
+					"with the target", advice, targetClassName, targetMethodName);
+			return false;
+		}
+		return true;
+	}
+
 	private boolean isBoxedTypeFor(Type primType, Type boxedType) {
 		return boxedType.equals(getBoxedTypeFor(primType));
 	}
@@ -0,0 +1,88 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.aop.impl;
+
+import com.gilecode.xmx.aop.holder.*;
+import com.gilecode.xmx.model.XmxRuntimeException;
+import org.objectweb.asm.Type;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Supports the advice parameters for {@link com.gilecode.xmx.aop.ModifiableArgument}, which are either one-element
+ * arrays, or the typed holders from {@link com.gilecode.xmx.aop.holder}.
+ */
+class ArgumentHolders {
+
+	static final String VALUE_FIELD = "value";
+
+	/**
+	 * The types of the 'value' fields, by the holder types.
+	 */
+	private static final Map<Type, Type> valueTypesByHolder = new HashMap<>();
+	static {
+		valueTypesByHolder.put(Type.getType(BooleanHolder.class), Type.BOOLEAN_TYPE);
+		valueTypesByHolder.put(Type.getType(ByteHolder.class), Type.BYTE_TYPE);
+		valueTypesByHolder.put(Type.getType(CharHolder.class), Type.CHAR_TYPE);
+		valueTypesByHolder.put(Type.getType(ShortHolder.class), Type.SHORT_TYPE);
+		valueTypesByHolder.put(Type.getType(IntHolder.class), Type.INT_TYPE);
+		valueTypesByHolder.put(Type.getType(LongHolder.class), Type.LONG_TYPE);
+		valueTypesByHolder.put(Type.getType(FloatHolder.class), Type.FLOAT_TYPE);
+		valueTypesByHolder.put(Type.getType(DoubleHolder.class), Type.DOUBLE_TYPE);
+		valueTypesByHolder.put(Type.getType(ObjectHolder.class), Type.getType(Object.class));
+	}
+
+	private ArgumentHolders() {
+	}
+
+	static boolean isHolderType(Type type) {
+		return valueTypesByHolder.containsKey(type);
+	}
+
+	/**
+	 * Returns the type of the values kept in the specified array or holder type, or {@code null} if the type
+	 * is not supported.
+	 */
+	static Type getValueType(Type holderType) {
+		if (holderType.getSort() == Type.ARRAY) {
+			// NOTE: arrType.getElementType() does not work here, as it removes all array dimensions, not just one
+			return Type.getType(holderType.getDescriptor().substring(1));
+		}
+		return valueTypesByHolder.get(holderType);
+	}
+
+	/**
+	 * Wraps the value into a new array or holder of the specified type.
+	 */
+	static Object wrap(Object value, Class<?> holderType) {
+		if (holderType.isArray()) {
+			Object arr = Array.newInstance(holderType.getComponentType(), 1);
+			Array.set(arr, 0, value);
+			return arr;
+		}
+		try {
+			Object holder = holderType.getConstructor().newInstance();
+			holderType.getField(VALUE_FIELD).set(holder, value);
+			return holder;
+		} catch (ReflectiveOperationException e) {
+			throw new XmxRuntimeException("Unsupported holder type " + holderType.getName(), e);
+		}
+	}
+
+	/**
+	 * Returns the value kept in the array or holder.
+	 */
+	static Object unwrap(Object holder) {
+		if (holder.getClass().isArray()) {
+			return Array.get(holder, 0);
+		}
+		try {
+			return holder.getClass().getField(VALUE_FIELD).get(holder);
+		} catch (ReflectiveOperationException e) {
+			throw new XmxRuntimeException("Unsupported holder type " + holder.getClass().getName(), e);
+		}
+	}
+}
@@ -18,7 +18,7 @@ class BasicAdviceArgumentsProcessor {
 
 	protected static Set<Class<? extends Annotation>> knownArgAnnotations = new HashSet<>(Arrays.asList(
 			Argument.class, ModifiableArgument.class, AllArguments.class,
-			This.class, RetVal.class, Thrown.class, TargetMethod.class));
+			This.class, RetVal.class, Thrown.class, TargetMethod.class, Proceed.class));
 
 	protected static AdviceArgument.Kind getAdviceArgumentKind(Annotation argAnnotation) {
 		if (argAnnotation instanceof This) {
@@ -31,6 +31,8 @@ class BasicAdviceArgumentsProcessor {
 			return AdviceArgument.Kind.THROWN;
 		} else if (argAnnotation instanceof TargetMethod) {
 			return AdviceArgument.Kind.TARGET;
+		} else if (argAnnotation instanceof Proceed) {
+			return AdviceArgument.Kind.PROCEED;
 		} else if (argAnnotation instanceof Argument || argAnnotation instanceof ModifiableArgument) {
 			return AdviceArgument.Kind.ARGUMENT;
 		} else {
@@ -50,6 +52,8 @@ class BasicAdviceArgumentsProcessor {
 			return AdviceArgument.Kind.THROWN;
 		} else if (aClass == TargetMethod.class) {
 			return AdviceArgument.Kind.TARGET;
+		} else if (aClass == Proceed.class) {
+			return AdviceArgument.Kind.PROCEED;
 		} else if (aClass == Argument.class || aClass == ModifiableArgument.class) {
 			return AdviceArgument.Kind.ARGUMENT;
 		} else {
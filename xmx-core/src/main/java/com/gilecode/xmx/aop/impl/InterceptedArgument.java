@@ -2,6 +2,8 @@
 
 package com.gilecode.xmx.aop.impl;
 
+import org.objectweb.asm.Type;
+
 public class InterceptedArgument {
 
 	/**
@@ -19,6 +21,23 @@ public class InterceptedArgument {
 	 */
 	private boolean isModifiableAtBefore;
 
+	/**
+	 * Whether this argument is required by any advice in the boxed form, i.e. as {@code Object}, as the
+	 * boxed type, within all arguments, or as a modifiable argument.
+	 */
+	private boolean boxingRequired;
+
+	/**
+	 * The index of the slot of the advice bridge methods used to pass this argument without boxing, or -1 if
+	 * the argument is passed in the array.
+	 */
+	private int primitiveSlot = -1;
+
+	/**
+	 * The type of the argument passed in the slot.
+	 */
+	private Type primitiveSlotType;
+
 	public InterceptedArgument(int targetMethodParameterIdx, int idxInProxyArgsArray, boolean isModifiableAtBefore) {
 		this.targetMethodParameterIdx = targetMethodParameterIdx;
 		this.idxInProxyArgsArray = idxInProxyArgsArray;
@@ -40,4 +59,25 @@ public class InterceptedArgument {
 	public int getIdxInProxyArgsArray() {
 		return idxInProxyArgsArray;
 	}
+
+	public boolean isBoxingRequired() {
+		return boxingRequired;
+	}
+
+	public void setBoxingRequired() {
+		this.boxingRequired = true;
+	}
+
+	public int getPrimitiveSlot() {
+		return primitiveSlot;
+	}
+
+	public Type getPrimitiveSlotType() {
+		return primitiveSlotType;
+	}
+
+	public void setPrimitiveSlot(int primitiveSlot, Type primitiveSlotType) {
+		this.primitiveSlot = primitiveSlot;
+		this.primitiveSlotType = primitiveSlotType;
+	}
 }
\ No newline at end of file
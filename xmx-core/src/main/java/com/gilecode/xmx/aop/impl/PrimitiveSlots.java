@@ -0,0 +1,120 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.aop.impl;
+
+import com.gilecode.xmx.boot.IXmxAdviceBridge;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.GeneratorAdapter;
+import org.objectweb.asm.commons.Method;
+
+/**
+ * Conversions of the primitive values to and from the raw {@code long} bits, used to pass the primitive arguments
+ * and return values to the advice bridges without boxing. See {@link IXmxAdviceBridge} for the details.
+ */
+public class PrimitiveSlots {
+
+	private static final Type FLOAT_OBJTYPE = Type.getType(Float.class);
+	private static final Type DOUBLE_OBJTYPE = Type.getType(Double.class);
+
+	private static final Method FLOAT_TO_BITS = Method.getMethod("int floatToRawIntBits(float)");
+	private static final Method BITS_TO_FLOAT = Method.getMethod("float intBitsToFloat(int)");
+	private static final Method DOUBLE_TO_BITS = Method.getMethod("long doubleToRawLongBits(double)");
+	private static final Method BITS_TO_DOUBLE = Method.getMethod("double longBitsToDouble(long)");
+
+	private PrimitiveSlots() {
+	}
+
+	/**
+	 * Returns whether the values of the specified type may be passed in the slots.
+	 */
+	public static boolean isSlotType(Type type) {
+		return type.getSort() >= Type.BOOLEAN && type.getSort() <= Type.DOUBLE;
+	}
+
+	/**
+	 * Generates the conversion of the value of the specified type on the stack to the raw {@code long} bits.
+	 */
+	public static void encode(GeneratorAdapter mg, Type type) {
+		switch (type.getSort()) {
+		case Type.LONG:
+			break;
+		case Type.DOUBLE:
+			mg.invokeStatic(DOUBLE_OBJTYPE, DOUBLE_TO_BITS);
+			break;
+		case Type.FLOAT:
+			mg.invokeStatic(FLOAT_OBJTYPE, FLOAT_TO_BITS);
+			mg.cast(Type.INT_TYPE, Type.LONG_TYPE);
+			break;
+		default:
+			mg.cast(Type.INT_TYPE, Type.LONG_TYPE);
+		}
+	}
+
+	/**
+	 * Generates the conversion of the raw {@code long} bits on the stack to the value of the specified type.
+	 */
+	public static void decode(GeneratorAdapter mg, Type type) {
+		switch (type.getSort()) {
+		case Type.LONG:
+			break;
+		case Type.DOUBLE:
+			mg.invokeStatic(DOUBLE_OBJTYPE, BITS_TO_DOUBLE);
+			break;
+		case Type.FLOAT:
+			mg.cast(Type.LONG_TYPE, Type.INT_TYPE);
+			mg.invokeStatic(FLOAT_OBJTYPE, BITS_TO_FLOAT);
+			break;
+		default:
+			// the bits are obtained from the value of the exact type, so no further narrowing is needed
+			mg.cast(Type.LONG_TYPE, Type.INT_TYPE);
+		}
+	}
+
+	/**
+	 * Converts the raw {@code long} bits to the boxed value of the specified type.
+	 */
+	public static Object box(long bits, Type type) {
+		switch (type.getSort()) {
+		case Type.BOOLEAN:
+			return bits != 0;
+		case Type.CHAR:
+			return (char) bits;
+		case Type.BYTE:
+			return (byte) bits;
+		case Type.SHORT:
+			return (short) bits;
+		case Type.INT:
+			return (int) bits;
+		case Type.FLOAT:
+			return Float.intBitsToFloat((int) bits);
+		case Type.LONG:
+			return bits;
+		case Type.DOUBLE:
+			return Double.longBitsToDouble(bits);
+		default:
+			throw new IllegalArgumentException("Not a primitive type: " + type);
+		}
+	}
+
+	/**
+	 * Converts the boxed value of the specified type to the raw {@code long} bits. The {@code null} value is
+	 * converted to 0.
+	 */
+	public static long unbox(Object value, Type type) {
+		if (value == null) {
+			return 0;
+		}
+		switch (type.getSort()) {
+		case Type.BOOLEAN:
+			return (Boolean) value ? 1 : 0;
+		case Type.CHAR:
+			return (Character) value;
+		case Type.FLOAT:
+			return Float.floatToRawIntBits((Float) value);
+		case Type.DOUBLE:
+			return Double.doubleToRawLongBits((Double) value);
+		default:
+			return ((Number) value).longValue();
+		}
+	}
+}
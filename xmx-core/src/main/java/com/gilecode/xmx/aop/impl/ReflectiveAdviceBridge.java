@@ -0,0 +1,163 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.aop.impl;
+
+import com.gilecode.xmx.boot.IXmxAdviceBridge;
+import org.objectweb.asm.Type;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The advice bridge which invokes the advices by reflection, through the AOP service. Used for the join points
+ * for which the direct bridge cannot be generated, e.g. if the advice classes are not public.
+ * <p/>
+ * The arguments and the return values passed in the primitive slots are boxed, as expected by the AOP service.
+ * The proceed handles for the 'around' advices are re-used by threads, same as by the generated bridges, and invoke
+ * the original code through a spreader method handle, which accepts the arguments as an array.
+ */
+class ReflectiveAdviceBridge implements IXmxAdviceBridge {
+
+	private final XmxAopManager aopService;
+	private final WeavingContext ctx;
+	private final int joinPointId;
+	private final boolean hasPrimitiveSlots;
+
+	/**
+	 * The original code of the advised method, which accepts all arguments as an array and returns the result
+	 * boxed, or {@code null} if there are no 'around' advices.
+	 */
+	private final MethodHandle originalSpreader;
+
+	/**
+	 * The return type of the advised method, if there are 'around' advices.
+	 */
+	private final Type returnType;
+
+	/**
+	 * The number of the arguments of the original code, including the target instance for non-static methods.
+	 */
+	private final int originalArgsCount;
+
+	/**
+	 * The proceed handles for the 'around' advices, by threads. The handles are referenced weakly, so that the
+	 * thread locals do not prevent unloading of the target classes, and are re-created after GC.
+	 */
+	private final ThreadLocal<WeakReference<ReflectiveProceedHandle>> proceedHandles = new ThreadLocal<>();
+
+	/**
+	 * Creates the bridge.
+	 *
+	 * @throws ReflectiveOperationException if the join point has 'around' advices, but the original code of the
+	 *                                      advised method is not found
+	 */
+	ReflectiveAdviceBridge(XmxAopManager aopService, WeavingContext ctx) throws ReflectiveOperationException {
+		this.aopService = aopService;
+		this.ctx = ctx;
+		this.joinPointId = ctx.getJoinpointId();
+		this.hasPrimitiveSlots = ctx.hasPrimitiveSlots();
+		if (ctx.hasAroundAdvices()) {
+			MethodHandle original = AdviceProceedHandle.findOriginalMethod(ctx);
+			this.originalArgsCount = original.type().parameterCount();
+			this.originalSpreader = original.asType(original.type().generic())
+					.asSpreader(Object[].class, originalArgsCount);
+			this.returnType = Type.getType(original.type().returnType());
+		} else {
+			this.originalArgsCount = 0;
+			this.originalSpreader = null;
+			this.returnType = null;
+		}
+	}
+
+	/**
+	 * Returns the array with all intercepted arguments, including the ones passed in the slots. The array passed by
+	 * the advised method is filled in-place, unless it is the shared empty array.
+	 */
+	private Object[] toProxyArgs(Object[] interceptedArgs, long p0, long p1, long p2, long p3) {
+		if (!hasPrimitiveSlots) {
+			return interceptedArgs;
+		}
+		List<InterceptedArgument> arguments = ctx.getInterceptedArguments();
+		Object[] args = interceptedArgs.length < arguments.size() ? new Object[arguments.size()] : interceptedArgs;
+		long[] slots = {p0, p1, p2, p3};
+		for (InterceptedArgument arg : arguments) {
+			if (arg.getPrimitiveSlot() >= 0) {
+				args[arg.getIdxInProxyArgsArray()] = PrimitiveSlots.box(slots[arg.getPrimitiveSlot()],
+						arg.getPrimitiveSlotType());
+			}
+		}
+		return args;
+	}
+
+	@Override
+	public Object before(Object thisArg, Object[] interceptedArgs, long p0, long p1, long p2, long p3) {
+		return aopService.before(joinPointId, thisArg, toProxyArgs(interceptedArgs, p0, p1, p2, p3));
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public Object afterReturn(Object retVal, Object adviceInstances, Object thisArg, Object[] interceptedArgs,
+	                          long p0, long p1, long p2, long p3) {
+		return aopService.afterReturn(joinPointId, (Map<Class<?>, Object>) adviceInstances, thisArg,
+				toProxyArgs(interceptedArgs, p0, p1, p2, p3), retVal);
+	}
+
+	@Override
+	public long afterReturnPrimitive(long retVal, Object adviceInstances, Object thisArg, Object[] interceptedArgs,
+	                                 long p0, long p1, long p2, long p3) {
+		Object boxedRetVal = PrimitiveSlots.box(retVal, ctx.getPrimitiveReturnType());
+		Object newRetVal = afterReturn(boxedRetVal, adviceInstances, thisArg, interceptedArgs, p0, p1, p2, p3);
+		return PrimitiveSlots.unbox(newRetVal, ctx.getPrimitiveReturnType());
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public void afterThrow(Throwable ex, Object adviceInstances, Object thisArg, Object[] interceptedArgs,
+	                       long p0, long p1, long p2, long p3) {
+		aopService.afterThrow(joinPointId, (Map<Class<?>, Object>) adviceInstances, thisArg,
+				toProxyArgs(interceptedArgs, p0, p1, p2, p3), ex);
+	}
+
+	@Override
+	public Object around(Object thisArg, Object[] interceptedArgs, long p0, long p1, long p2, long p3)
+			throws Throwable {
+		ReflectiveProceedHandle handle = getProceedHandle();
+		handle.enter(thisArg, toProxyArgs(interceptedArgs, p0, p1, p2, p3));
+		try {
+			return handle.proceed();
+		} finally {
+			handle.exit();
+		}
+	}
+
+	@Override
+	public long aroundPrimitive(Object thisArg, Object[] interceptedArgs, long p0, long p1, long p2, long p3)
+			throws Throwable {
+		ReflectiveProceedHandle handle = getProceedHandle();
+		handle.enter(thisArg, toProxyArgs(interceptedArgs, p0, p1, p2, p3));
+		try {
+			return handle.proceedPrimitive();
+		} finally {
+			handle.exit();
+		}
+	}
+
+	private ReflectiveProceedHandle getProceedHandle() {
+		WeakReference<ReflectiveProceedHandle> handleRef = proceedHandles.get();
+		ReflectiveProceedHandle handle = handleRef == null ? null : handleRef.get();
+		if (handle == null) {
+			handle = newProceedHandle();
+			proceedHandles.set(new WeakReference<>(handle));
+		} else if (handle.isActive()) {
+			// recursive invocation of the advised method, while the handle is used by the outer one
+			handle = newProceedHandle();
+		}
+		return handle;
+	}
+
+	private ReflectiveProceedHandle newProceedHandle() {
+		return new ReflectiveProceedHandle(aopService, ctx, originalSpreader, returnType, originalArgsCount);
+	}
+}
@@ -0,0 +1,174 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.aop.impl;
+
+import com.gilecode.xmx.aop.AdviceKind;
+import com.gilecode.xmx.aop.IProceedHandle;
+import com.gilecode.xmx.aop.data.WeavingAdviceInfo;
+import org.objectweb.asm.Type;
+
+import java.lang.invoke.MethodHandle;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The proceed handle used by {@link ReflectiveAdviceBridge}, which invokes the 'around' advices by reflection.
+ * Same as the generated handles, the handle is re-used by the subsequent invocations of the advised method in the
+ * same thread, along with the array of the arguments of the original code.
+ */
+class ReflectiveProceedHandle implements IProceedHandle {
+
+	private final XmxAopManager aopManager;
+	private final WeavingContext ctx;
+	private final List<WeavingAdviceInfo> advices;
+
+	/**
+	 * The original code of the advised method, which accepts all arguments as an array and returns the result
+	 * boxed, see {@link ReflectiveAdviceBridge}.
+	 */
+	private final MethodHandle originalSpreader;
+
+	/**
+	 * The return type of the advised method.
+	 */
+	private final Type returnType;
+
+	/**
+	 * The arguments of the original code, filled before each invocation.
+	 */
+	private final Object[] originalArgs;
+
+	/**
+	 * The arguments of the current invocation.
+	 */
+	private Object thisArg;
+	private Object[] interceptedArgs;
+
+	/**
+	 * The index of the 'around' advice to be invoked by {@link #proceed()}, or the number of advices if the
+	 * original code shall be invoked.
+	 */
+	private int nextAdvice;
+
+	/**
+	 * Whether the handle is used by an invocation of the advised method.
+	 */
+	private boolean active;
+
+	ReflectiveProceedHandle(XmxAopManager aopManager, WeavingContext ctx, MethodHandle originalSpreader,
+	                        Type returnType, int originalArgsCount) {
+		this.aopManager = aopManager;
+		this.ctx = ctx;
+		this.advices = ctx.getAdviceInfoByKind().get(AdviceKind.AROUND);
+		this.originalSpreader = originalSpreader;
+		this.returnType = returnType;
+		this.originalArgs = new Object[originalArgsCount];
+	}
+
+	boolean isActive() {
+		return active;
+	}
+
+	void enter(Object thisArg, Object[] interceptedArgs) {
+		this.active = true;
+		this.nextAdvice = 0;
+		this.thisArg = thisArg;
+		this.interceptedArgs = interceptedArgs;
+	}
+
+	void exit() {
+		this.active = false;
+		this.thisArg = null;
+		this.interceptedArgs = null;
+		Arrays.fill(originalArgs, null);
+	}
+
+	@Override
+	public Object proceed() throws Throwable {
+		if (!active) {
+			throw new IllegalStateException("The proceed handle is used outside of the 'around' advice");
+		}
+		int adviceIdx = nextAdvice;
+		nextAdvice = adviceIdx + 1;
+		try {
+			if (adviceIdx < advices.size()) {
+				return aopManager.invokeAroundAdvice(advices.get(adviceIdx), this, thisArg, interceptedArgs);
+			}
+			fillOriginalArguments();
+			return (Object) originalSpreader.invokeExact(originalArgs);
+		} finally {
+			nextAdvice = adviceIdx;
+		}
+	}
+
+	/**
+	 * Fills the arguments of the original code, in the order of the target method parameters. All arguments of
+	 * the methods with 'around' advices are intercepted.
+	 */
+	private void fillOriginalArguments() {
+		int offset = originalArgs.length - interceptedArgs.length;
+		if (offset > 0) {
+			originalArgs[0] = thisArg;
+		}
+		for (int i = 0; i < interceptedArgs.length; i++) {
+			originalArgs[offset + i] = interceptedArgs[ctx.findInterceptedArgument(i).getIdxInProxyArgsArray()];
+		}
+	}
+
+	/**
+	 * Same as {@link #proceed()}, for the methods which return primitive values.
+	 *
+	 * @return the raw bits of the result
+	 */
+	long proceedPrimitive() throws Throwable {
+		return PrimitiveSlots.unbox(proceed(), returnType);
+	}
+
+	private long proceedPrimitive(Type expectedType) throws Throwable {
+		if (returnType.getSort() != expectedType.getSort()) {
+			throw new IllegalStateException("The intercepted method returns " + returnType.getClassName() +
+					", not " + expectedType.getClassName());
+		}
+		return proceedPrimitive();
+	}
+
+	@Override
+	public boolean proceedBoolean() throws Throwable {
+		return proceedPrimitive(Type.BOOLEAN_TYPE) != 0;
+	}
+
+	@Override
+	public byte proceedByte() throws Throwable {
+		return (byte) proceedPrimitive(Type.BYTE_TYPE);
+	}
+
+	@Override
+	public char proceedChar() throws Throwable {
+		return (char) proceedPrimitive(Type.CHAR_TYPE);
+	}
+
+	@Override
+	public short proceedShort() throws Throwable {
+		return (short) proceedPrimitive(Type.SHORT_TYPE);
+	}
+
+	@Override
+	public int proceedInt() throws Throwable {
+		return (int) proceedPrimitive(Type.INT_TYPE);
+	}
+
+	@Override
+	public long proceedLong() throws Throwable {
+		return proceedPrimitive(Type.LONG_TYPE);
+	}
+
+	@Override
+	public float proceedFloat() throws Throwable {
+		return Float.intBitsToFloat((int) proceedPrimitive(Type.FLOAT_TYPE));
+	}
+
+	@Override
+	public double proceedDouble() throws Throwable {
+		return Double.longBitsToDouble(proceedPrimitive(Type.DOUBLE_TYPE));
+	}
+}
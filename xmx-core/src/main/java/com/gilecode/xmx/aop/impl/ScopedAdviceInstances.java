@@ -0,0 +1,61 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.aop.impl;
+
+import com.gilecode.xmx.model.XmxRuntimeException;
+
+import java.lang.reflect.Constructor;
+
+/**
+ * Holds the instances of the advice classes with {@link com.gilecode.xmx.aop.AdviceScope#SINGLETON} and
+ * {@link com.gilecode.xmx.aop.AdviceScope#PER_THREAD} scopes. The instances are attached to the advice classes, so
+ * they do not prevent unloading of the advice class loaders.
+ */
+class ScopedAdviceInstances {
+
+	private final ClassValue<Object> singletons = new ClassValue<Object>() {
+		@Override
+		protected Object computeValue(Class<?> adviceClass) {
+			return newInstance(adviceClass);
+		}
+	};
+
+	private final ClassValue<ThreadLocal<Object>> perThreadInstances = new ClassValue<ThreadLocal<Object>>() {
+		@Override
+		protected ThreadLocal<Object> computeValue(final Class<?> adviceClass) {
+			return new ThreadLocal<Object>() {
+				@Override
+				protected Object initialValue() {
+					return newInstance(adviceClass);
+				}
+			};
+		}
+	};
+
+	/**
+	 * Returns the single instance of the advice class, creating it on the first use.
+	 */
+	Object getSingleton(Class<?> adviceClass) {
+		return singletons.get(adviceClass);
+	}
+
+	/**
+	 * Returns the thread local which holds the per-thread instances of the advice class.
+	 */
+	ThreadLocal<Object> getPerThreadInstance(Class<?> adviceClass) {
+		return perThreadInstances.get(adviceClass);
+	}
+
+	/**
+	 * Creates a new instance of the advice class using the no-arg constructor, which may be non-public.
+	 */
+	static Object newInstance(Class<?> adviceClass) {
+		try {
+			Constructor<?> constr = adviceClass.getDeclaredConstructor();
+			constr.setAccessible(true);
+			return constr.newInstance();
+		} catch (ReflectiveOperationException e) {
+			throw new XmxRuntimeException("Failed to create an instance of the advice class " + adviceClass.getName(), e);
+		}
+	}
+}
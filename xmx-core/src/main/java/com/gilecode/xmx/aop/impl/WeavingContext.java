@@ -4,7 +4,9 @@ package com.gilecode.xmx.aop.impl;
 
 import com.gilecode.xmx.aop.AdviceKind;
 import com.gilecode.xmx.aop.data.WeavingAdviceInfo;
+import org.objectweb.asm.Type;
 
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.EnumMap;
@@ -19,6 +21,12 @@ import java.util.Map;
  */
 public class WeavingContext {
 
+	/**
+	 * The suffix of the name of the synthetic method which contains the original code of the method with
+	 * 'around' advices.
+	 */
+	private static final String ORIGINAL_METHOD_SUFFIX = "$xmx$original";
+
 	/**
 	 * All matching advices, for each of advice kinds.
 	 */
@@ -34,17 +42,81 @@ public class WeavingContext {
 	 */
 	private final int joinpointId;
 
+	/**
+	 * The names of the target class and method and the method descriptor, used for the description of the join
+	 * point.
+	 */
+	private final String targetClassName;
+	private final String targetMethodName;
+	private final String targetMethodDesc;
+
+	/**
+	 * Supplier of the target class.
+	 */
+	private final WeakCachedSupplier<Class<?>> targetClassSupplier;
+
 	/**
 	 * Supplier of the target method, used to implement @TargetMethod arguments.
 	 */
 	private final WeakCachedSupplier<Method> targetMethodSupplier;
 
-	public WeavingContext(int joinpointId, WeakCachedSupplier<Method> targetMethodSupplier) {
+	/**
+	 * Whether the advices shall be invoked through the advice bridge of the join point, instead of
+	 * the reflective invocation by the AOP proxy.
+	 */
+	private final boolean directInvocation;
+
+	/**
+	 * The target class which keeps the advice bridge of the join point, if the bridge is created.
+	 */
+	private volatile WeakReference<Class<?>> bridgeOwnerRef;
+
+	/**
+	 * Whether the return value is required by any advice in the boxed form.
+	 */
+	private boolean retValBoxingRequired;
+
+	/**
+	 * The primitive return type of the target method, if the return value is passed to the advice bridge
+	 * without boxing, or {@code null} otherwise.
+	 */
+	private Type primitiveReturnType;
+
+	public WeavingContext(int joinpointId, String targetClassName, String targetMethodName, String targetMethodDesc,
+			WeakCachedSupplier<Class<?>> targetClassSupplier, WeakCachedSupplier<Method> targetMethodSupplier,
+			boolean directInvocation) {
 		this.joinpointId = joinpointId;
+		this.targetClassName = targetClassName;
+		this.targetMethodName = targetMethodName;
+		this.targetMethodDesc = targetMethodDesc;
+		this.targetClassSupplier = targetClassSupplier;
 		this.targetMethodSupplier = targetMethodSupplier;
+		this.directInvocation = directInvocation;
+	}
+
+	/**
+	 * Returns the name of the synthetic method which contains the original code of the target method with
+	 * 'around' advices.
+	 */
+	public static String getOriginalMethodName(String targetMethodName) {
+		return targetMethodName + ORIGINAL_METHOD_SUFFIX;
 	}
 
-	private InterceptedArgument findInterceptedArgument(int targetMethodParameterIdx) {
+	/**
+	 * Returns the name of the target method if the specified method is the synthetic method with its original
+	 * code, or {@code null} otherwise.
+	 */
+	public static String getTargetMethodName(String methodName) {
+		return methodName.endsWith(ORIGINAL_METHOD_SUFFIX)
+				? methodName.substring(0, methodName.length() - ORIGINAL_METHOD_SUFFIX.length())
+				: null;
+	}
+
+	/**
+	 * Returns the intercepted argument for the specified parameter of the target method, or {@code null} if
+	 * the parameter is not intercepted.
+	 */
+	public InterceptedArgument findInterceptedArgument(int targetMethodParameterIdx) {
 		for (InterceptedArgument arg : interceptedArguments) {
 			if (arg.getTargetMethodParameterIdx() == targetMethodParameterIdx) {
 				return arg;
@@ -69,7 +141,7 @@ public class WeavingContext {
 
 	public void makeAllArgumentsIntercepted(boolean modifiable, int nArgs) {
 		for (int i = 0; i < nArgs; i++) {
-			addInterceptedArgument(i, modifiable);
+			addInterceptedArgument(i, modifiable).setBoxingRequired();
 		}
 	}
 
@@ -85,7 +157,77 @@ public class WeavingContext {
 		return joinpointId;
 	}
 
+	public String getTargetClassName() {
+		return targetClassName;
+	}
+
+	public String getTargetMethodName() {
+		return targetMethodName;
+	}
+
+	public String getTargetMethodDesc() {
+		return targetMethodDesc;
+	}
+
+	/**
+	 * Returns the identity of the join point which is kept when the target class is re-transformed, or
+	 * loaded again.
+	 */
+	public String getJoinPointKey() {
+		return targetClassName + '.' + targetMethodName + targetMethodDesc;
+	}
+
+	public WeakCachedSupplier<Class<?>> getTargetClassSupplier() {
+		return targetClassSupplier;
+	}
+
 	public WeakCachedSupplier<Method> getTargetMethodSupplier() {
 		return targetMethodSupplier;
 	}
+
+	public boolean isDirectInvocation() {
+		return directInvocation;
+	}
+
+	public Class<?> getBridgeOwner() {
+		WeakReference<Class<?>> ref = bridgeOwnerRef;
+		return ref == null ? null : ref.get();
+	}
+
+	public void setBridgeOwner(Class<?> bridgeOwner) {
+		this.bridgeOwnerRef = new WeakReference<Class<?>>(bridgeOwner);
+	}
+
+	public boolean hasAroundAdvices() {
+		List<WeavingAdviceInfo> aroundAdvices = adviceInfoByKind.get(AdviceKind.AROUND);
+		return aroundAdvices != null && !aroundAdvices.isEmpty();
+	}
+
+	/**
+	 * Returns whether any intercepted argument is passed to the advice bridge without boxing.
+	 */
+	public boolean hasPrimitiveSlots() {
+		for (InterceptedArgument arg : interceptedArguments) {
+			if (arg.getPrimitiveSlot() >= 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public boolean isRetValBoxingRequired() {
+		return retValBoxingRequired;
+	}
+
+	public void setRetValBoxingRequired() {
+		this.retValBoxingRequired = true;
+	}
+
+	public Type getPrimitiveReturnType() {
+		return primitiveReturnType;
+	}
+
+	public void setPrimitiveReturnType(Type primitiveReturnType) {
+		this.primitiveReturnType = primitiveReturnType;
+	}
 }
@@ -4,18 +4,20 @@ package com.gilecode.xmx.aop.impl;
 
 import com.gilecode.xmx.aop.*;
 import com.gilecode.xmx.aop.data.*;
+import com.gilecode.xmx.boot.IXmxAdviceBridge;
 import com.gilecode.xmx.boot.IXmxAopService;
+import com.gilecode.xmx.boot.XmxAopProxy;
 import com.gilecode.xmx.boot.XmxURLClassLoader;
 import com.gilecode.xmx.core.ManagedClassLoaderWeakRef;
+import com.gilecode.xmx.model.XmxJoinPointInfo;
 import com.gilecode.xmx.model.XmxRuntimeException;
 import org.objectweb.asm.Type;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.IOException;
-import java.io.InputStream;
 import java.lang.annotation.Annotation;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.*;
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -23,8 +25,6 @@ import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.jar.JarFile;
-import java.util.zip.ZipEntry;
 
 /**
  * Manages loading of advice classes, weaving and invocation of advice methods.
@@ -36,27 +36,73 @@ public class XmxAopManager extends BasicAdviceArgumentsProcessor implements IXmx
 	private final AdviceVerifier adviceVerifier = new AdviceVerifier();
 	private final AtomicInteger joinPointsCounter = new AtomicInteger(1);
 
-	// NOTE: ideally, joinpoints with GC'ed target classes need to be periodically cleared. However, it seems that
-	//   the extra efforts for implementing that (RefQueue, WeakRefs etc.) would be just useless overhead for
-	//   the most of the applications.
+	// NOTE: the joinpoints of re-transformed classes and of GC'ed class loaders are removed by XmxManager
 	private final ConcurrentMap<Integer, WeavingContext> joinpointsWeavingInfo = new ConcurrentHashMap<>();
 
 	/**
-	 * The directory for advices JARs under XMX Home.
+	 * The keys of the disabled join points, which keep the join points disabled when the target classes are
+	 * re-transformed and the join points get new IDs.
 	 */
-	private final File homeAdvicesDir;
+	private final Set<String> disabledJoinPointKeys = new HashSet<>();
 
 	/**
-	 * The directory for advices JARs under XMX Configuration.
+	 * The catalog of the advice JARs with the verified advice classes, shared by all class loaders.
 	 */
-	private final File configAdvicesDir;
+	private final AdviceJarCatalog adviceJarCatalog;
+
+	/**
+	 * Whether the advice class loaders may be shared by several target class loaders.
+	 */
+	private final boolean shareAdviceLoaders;
+
+	/**
+	 * The shared advice class loaders, by the common parent class loaders and the JAR versions. The advice class
+	 * loaders are only referenced weakly here, and are kept by smart references of the target class loaders.
+	 */
+	private final Map<ClassLoader, Map<String, WeakReference<ClassLoader>>> sharedAdviceLoaders = new WeakHashMap<>();
+
+	/**
+	 * Whether the advices are invoked through the generated advice bridges, instead of reflection.
+	 */
+	private final boolean directInvocation;
+
+	/**
+	 * The advice bridges by join point IDs, attached to the target classes. The bridges are only referenced weakly
+	 * by the callers, so they are kept alive here while the target classes are not unloaded, and the join points
+	 * are not unregistered.
+	 */
+	private final ClassValue<ConcurrentMap<Integer, IXmxAdviceBridge>> adviceBridgesByTargetClass =
+			new ClassValue<ConcurrentMap<Integer, IXmxAdviceBridge>>() {
+				@Override
+				protected ConcurrentMap<Integer, IXmxAdviceBridge> computeValue(Class<?> type) {
+					return new ConcurrentHashMap<>();
+				}
+			};
+
+	/**
+	 * The singleton and per-thread instances of the advice classes.
+	 */
+	private final ScopedAdviceInstances scopedAdviceInstances = new ScopedAdviceInstances();
 
 	/**
 	 * Creates the manager instance, with the specified home and config directories.
 	 */
 	public XmxAopManager(File homeDir, File configDir) {
-		this.homeAdvicesDir = new File(homeDir, "lib/advices/");
-		this.configAdvicesDir = new File(configDir, "advices/");
+		this(homeDir, configDir, false, false);
+	}
+
+	/**
+	 * Creates the manager instance, with the specified home and config directories.
+	 *
+	 * @param shareAdviceLoaders whether an advice JAR may be loaded once by a common ancestor of several
+	 *                           target class loaders, if all its dependencies are available there
+	 * @param directInvocation whether the advices shall be invoked through the generated advice bridges
+	 */
+	public XmxAopManager(File homeDir, File configDir, boolean shareAdviceLoaders, boolean directInvocation) {
+		this.shareAdviceLoaders = shareAdviceLoaders;
+		this.directInvocation = directInvocation;
+		this.adviceJarCatalog = new AdviceJarCatalog(adviceVerifier, new File(homeDir, "lib/advices/"),
+				new File(configDir, "advices/"));
 	}
 
 	@Override
@@ -200,29 +246,15 @@ public class XmxAopManager extends BasicAdviceArgumentsProcessor implements IXmx
 				throw new BadAdviceException("Missing JAR or class name");
 			}
 
-			List<MethodDeclarationInfo> adviceMethods;
-			File f = getJarFile(jarName);
-			try {
-				JarFile jf = new JarFile(f);
-				String entryName = className.replace('.', '/') + ".class";
-				ZipEntry classEntry = jf.getJarEntry(entryName);
-				if (classEntry == null) {
-					throw new BadAdviceException("Entry " + entryName + " is not found in the JAR file");
-				}
-
-				try (InputStream is = jf.getInputStream(classEntry)) {
-					adviceMethods = adviceVerifier.verifyAdviceClass(is, desc);
-				}
-
-			} catch (IOException e) {
-				throw new BadAdviceException("Failed to read the class file from JAR", e);
-			}
+			// the verification results are shared by all class loaders
+			AdviceJarCatalog.JarInfo jar = adviceJarCatalog.getJar(jarName);
+			List<MethodDeclarationInfo> adviceMethods = adviceJarCatalog.getAdviceMethods(jar, className, desc);
 
 			// NOTE: the advice class shall not be loaded at this moment, as it may cause too early
 			//   or duplicate loading of dependent classes!
 			WeakCachedSupplier<Class<?>> sup = new JarClassLoadingSupplier(jarName, className, classLoaderRef);
 
-			adviceClassInfo = new AdviceClassInfo(sup, adviceMethods, desc);
+			adviceClassInfo = new AdviceClassInfo(sup, adviceMethods, desc, jar.getVersion());
 			classLoaderRef.getVerifiedAdvicesByDesc().put(desc, adviceClassInfo);
 			return adviceClassInfo;
 
@@ -248,12 +280,22 @@ public class XmxAopManager extends BasicAdviceArgumentsProcessor implements IXmx
 		ManagedClassLoaderWeakRef.SmartReference<ClassLoader> jarLoaderRef = adviceJarLoaders.get(jarName);
 		ClassLoader jarLoader = jarLoaderRef == null ? null : jarLoaderRef.get();
 		if (jarLoader == null) {
-			URL jarUrl = toUrl(getJarFile(jarName));
 			ClassLoader targetCL = classLoaderRef.get();
-			ClassLoader newJarLoader = new XmxURLClassLoader(new URL[]{jarUrl}, targetCL);
+			ClassLoader newJarLoader = null;
+			if (shareAdviceLoaders) {
+				AdviceJarCatalog.JarInfo jar = adviceJarCatalog.getJar(jarName);
+				ClassLoader sharedParent = findSharedParent(targetCL, adviceJarCatalog.getExternalTypes(jar));
+				if (sharedParent != null) {
+					newJarLoader = getOrCreateSharedAdviceJarLoader(sharedParent, jar);
+				}
+			}
+			if (newJarLoader == null) {
+				URL jarUrl = toUrl(adviceJarCatalog.getJarFile(jarName));
+				newJarLoader = new XmxURLClassLoader(new URL[]{jarUrl}, targetCL);
+				logger.debug("Loaded advice JAR {} for target CL {}", jarUrl, targetCL);
+			}
 			ManagedClassLoaderWeakRef.SmartReference<ClassLoader> newJarLoaderRef =
 					classLoaderRef.createSmartReference(newJarLoader);
-			logger.debug("Loaded advice JAR {} for target CL {}", jarUrl, targetCL);
 
 			while (true) {
 				jarLoaderRef = adviceJarLoaders.putIfAbsent(jarName, newJarLoaderRef);
@@ -275,47 +317,76 @@ public class XmxAopManager extends BasicAdviceArgumentsProcessor implements IXmx
 		return jarLoader;
 	}
 
-	private URL toUrl(File f) {
-		try {
-			return f.toURI().toURL();
-		} catch (MalformedURLException e) {
-			// not expected
-			throw new XmxRuntimeException(e);
-		}
-	}
-
 	/**
-	 * Finds a JAR file by its name and return the file URL. If file is missing, throws exception.
-	 * The JAR file is searched by name in XMX_HOME/lib/advices/ and XMX_CONFIG_HOME/advices
-	 *
-	 * @param jarName the name or path to advices JAR file
+	 * Finds the top-most ancestor of the target class loader, which loads all the specified types from the same
+	 * class files as the target class loader, and so may be used as the parent of the advice class loader instead
+	 * of the target class loader.
 	 *
-	 * @return the URL of the found JAR file
+	 * @param targetCL the target class loader
+	 * @param types the internal names of the types required by the advice classes
 	 *
-	 * @throws BadAdviceException if not found
+	 * @return the found ancestor, or {@code null} if the target class loader itself is required
 	 */
-	private File getJarFile(String jarName) throws BadAdviceException {
-		List<File> candidateFiles = new ArrayList<>();
-		boolean isPath = jarName.contains("/") || jarName.contains(File.separator);
-		if (isPath) {
-			// look by absolute path
-			candidateFiles.add(new File(jarName));
-		} else {
-			// look in <xmx_home>/lib/advices and in <xmx_config>/advices
-			candidateFiles.add(new File(homeAdvicesDir, jarName));
-			candidateFiles.add(new File(configAdvicesDir, jarName));
+	private static ClassLoader findSharedParent(ClassLoader targetCL, Set<String> types) {
+		if (targetCL == null) {
+			return null;
+		}
+		List<ClassLoader> ancestors = new ArrayList<>();
+		for (ClassLoader cl = targetCL.getParent(); cl != null; cl = cl.getParent()) {
+			ancestors.add(cl);
+		}
+
+		Map<String, URL> targetResources = new HashMap<>(types.size());
+		for (String type : types) {
+			targetResources.put(type, targetCL.getResource(type + ".class"));
 		}
-		for (File candidate : candidateFiles) {
-			if (candidate.isFile()) {
+		for (int i = ancestors.size() - 1; i >= 0; i--) {
+			ClassLoader candidate = ancestors.get(i);
+			if (loadsSameResources(candidate, targetResources)) {
 				return candidate;
 			}
 		}
-		// not found
-		String message = "Jar file '" + jarName + "' is not found!";
-		if (!isPath) {
-			message += " It may be added either to " + homeAdvicesDir + " or to " + configAdvicesDir + " directory.";
+		return null;
+	}
+
+	private static boolean loadsSameResources(ClassLoader cl, Map<String, URL> expectedResources) {
+		for (Map.Entry<String, URL> e : expectedResources.entrySet()) {
+			URL expected = e.getValue();
+			URL actual = cl.getResource(e.getKey() + ".class");
+			if (expected == null ? actual != null : actual == null || !expected.toString().equals(actual.toString())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private ClassLoader getOrCreateSharedAdviceJarLoader(ClassLoader parent, AdviceJarCatalog.JarInfo jar) {
+		String key = jar.getVersion();
+		synchronized (sharedAdviceLoaders) {
+			Map<String, WeakReference<ClassLoader>> loadersByJar = sharedAdviceLoaders.get(parent);
+			if (loadersByJar == null) {
+				loadersByJar = new HashMap<>();
+				sharedAdviceLoaders.put(parent, loadersByJar);
+			}
+			WeakReference<ClassLoader> ref = loadersByJar.get(key);
+			ClassLoader loader = ref == null ? null : ref.get();
+			if (loader == null) {
+				URL jarUrl = toUrl(jar.getFile());
+				loader = new XmxURLClassLoader(new URL[]{jarUrl}, parent);
+				loadersByJar.put(key, new WeakReference<>(loader));
+				logger.debug("Loaded shared advice JAR {} for parent CL {}", jarUrl, parent);
+			}
+			return loader;
+		}
+	}
+
+	private URL toUrl(File f) {
+		try {
+			return f.toURI().toURL();
+		} catch (MalformedURLException e) {
+			// not expected
+			throw new XmxRuntimeException(e);
 		}
-		throw new BadAdviceException(message);
 	}
 
 	@Override
@@ -326,7 +397,9 @@ public class XmxAopManager extends BasicAdviceArgumentsProcessor implements IXmx
 	                                                  WeakCachedSupplier<Class<?>> targetClassSupplier) {
 		WeakCachedSupplier<Method> targetMethodSupplier = new TargetMethodSupplier(targetClassSupplier,
 				targetMethodName, targetParamTypes);
-		WeavingContext ctx = new WeavingContext(joinPointsCounter.getAndIncrement(), targetMethodSupplier);
+		WeavingContext ctx = new WeavingContext(joinPointsCounter.getAndIncrement(), targetClassName,
+				targetMethodName, Type.getMethodDescriptor(targetReturnType, targetParamTypes), targetClassSupplier,
+				targetMethodSupplier, directInvocation);
 		Map<AdviceKind, List<WeavingAdviceInfo>> adviceInfoByKind = ctx.getAdviceInfoByKind();
 		for (String desc : adviceDescs) {
 			AdviceClassInfo adviceClassInfo = adviceClassesByDesc.get(desc);
@@ -341,7 +414,12 @@ public class XmxAopManager extends BasicAdviceArgumentsProcessor implements IXmx
 
 				AdviceMethodSupplier adviceSup = new AdviceMethodSupplier(adviceClassSup, advice);
 				AdviceKind adviceKind = adviceAnnotation.value();
-				WeavingAdviceInfo adviceInfo = prepareWeaving(adviceSup, advice, adviceKind, ctx, targetParamTypes.length);
+				AdviceScope adviceScope = adviceAnnotation.get("scope");
+				if (adviceScope == null) {
+					adviceScope = AdviceScope.PER_CALL;
+				}
+				WeavingAdviceInfo adviceInfo = prepareWeaving(adviceSup, advice, adviceKind, adviceScope, ctx,
+						targetParamTypes, targetReturnType);
 
 				List<WeavingAdviceInfo> compatibleAdvices = adviceInfoByKind.get(adviceKind);
 				if (compatibleAdvices == null) {
@@ -353,20 +431,52 @@ public class XmxAopManager extends BasicAdviceArgumentsProcessor implements IXmx
 		}
 
 		if (!adviceInfoByKind.isEmpty()) {
-			joinpointsWeavingInfo.put(ctx.getJoinpointId(), ctx);
+			synchronized (disabledJoinPointKeys) {
+				joinpointsWeavingInfo.put(ctx.getJoinpointId(), ctx);
+				if (disabledJoinPointKeys.contains(ctx.getJoinPointKey())) {
+					XmxAopProxy.setJoinPointEnabled(ctx.getJoinpointId(), false);
+				}
+			}
+			if (ctx.hasAroundAdvices()) {
+				// the original code is invoked with all arguments
+				for (int i = 0; i < targetParamTypes.length; i++) {
+					ctx.addInterceptedArgument(i, false);
+				}
+			}
 			int interceptedArgumentsCount = ctx.getInterceptedArguments().size();
 			for (List<WeavingAdviceInfo> weavingAdviceInfos : adviceInfoByKind.values()) {
 				for (WeavingAdviceInfo info : weavingAdviceInfos) {
 					info.setFastProxyArgsAllowed(isFastProxyArgsAllowed(info.getAdviceArguments(), interceptedArgumentsCount));
 				}
 			}
+			if (directInvocation) {
+				assignPrimitiveSlots(ctx, targetParamTypes, targetReturnType);
+			}
 		}
 		return ctx;
 	}
 
+	/**
+	 * Selects the primitive arguments and the return value which may be passed to the advice bridge without boxing.
+	 */
+	private static void assignPrimitiveSlots(WeavingContext ctx, Type[] targetParamTypes, Type targetReturnType) {
+		int nextSlot = 0;
+		for (InterceptedArgument arg : ctx.getInterceptedArguments()) {
+			Type type = targetParamTypes[arg.getTargetMethodParameterIdx()];
+			if (nextSlot < IXmxAdviceBridge.PRIMITIVE_SLOTS && PrimitiveSlots.isSlotType(type) &&
+					!arg.isBoxingRequired() && !arg.isModifiableAtBefore()) {
+				arg.setPrimitiveSlot(nextSlot++, type);
+			}
+		}
+		if (PrimitiveSlots.isSlotType(targetReturnType) && !ctx.isRetValBoxingRequired()) {
+			ctx.setPrimitiveReturnType(targetReturnType);
+		}
+	}
+
 	// NOTE: advice class shall be verified and advice method shall be compatible! Checks are not duplicated!
 	private WeavingAdviceInfo prepareWeaving(AdviceMethodSupplier adviceSup, MethodDeclarationInfo advice,
-			AdviceKind adviceKind, WeavingContext ctx, int nTargetParams) {
+			AdviceKind adviceKind, AdviceScope adviceScope, WeavingContext ctx,
+			Type[] targetParamTypes, Type targetReturnType) {
 
 		AnnotatedTypeInfo[] parameters = advice.getParameters();
 		List<AdviceArgument> arguments = new ArrayList<>(parameters.length);
@@ -382,20 +492,31 @@ public class XmxAopManager extends BasicAdviceArgumentsProcessor implements IXmx
 			if (argAnnoClass == Argument.class || argAnnoClass == ModifiableArgument.class) {
 				int argumentIdx = getArgumentIdx(argAnnotation);
 				boolean modifiable = argAnnoClass == ModifiableArgument.class;
-				arg = AdviceArgument.interceptedArgument(ctx.addInterceptedArgument(argumentIdx, modifiable), modifiable);
+				InterceptedArgument interceptedArgument = ctx.addInterceptedArgument(argumentIdx, modifiable);
+				if (modifiable || !parameter.getType().equals(targetParamTypes[argumentIdx])) {
+					interceptedArgument.setBoxingRequired();
+				}
+				arg = AdviceArgument.interceptedArgument(interceptedArgument, modifiable);
 			} else if (argAnnoClass == AllArguments.class) {
 				boolean modifiable = argAnnotation.isFlagSet("modifiable");
 				arg = AdviceArgument.specialArgument(getAdviceArgumentKind(argAnnotation), modifiable);
-				ctx.makeAllArgumentsIntercepted(modifiable, nTargetParams);
+				ctx.makeAllArgumentsIntercepted(modifiable, targetParamTypes.length);
 			} else {
 				arg = AdviceArgument.specialArgument(getAdviceArgumentKind(argAnnotation));
+				if (arg.getKind() == AdviceArgument.Kind.RETVAL && !parameter.getType().equals(targetReturnType)) {
+					ctx.setRetValBoxingRequired();
+				}
 			}
 			arguments.add(arg);
 		}
 
 		// check @OverrideRetVal if present
 		hasOverrideRetVal = advice.getAnnotation(OverrideRetVal.class) != null;
-		return new WeavingAdviceInfo(ctx, adviceSup, adviceKind, arguments, hasOverrideRetVal, advice.getMethodDesc());
+		if (hasOverrideRetVal && !advice.getReturnType().equals(targetReturnType)) {
+			ctx.setRetValBoxingRequired();
+		}
+		return new WeavingAdviceInfo(ctx, adviceSup, adviceKind, adviceScope, arguments, hasOverrideRetVal,
+				advice.getMethodDesc());
 	}
 
 	private static boolean isFastProxyArgsAllowed(List<AdviceArgument> adviceArguments, int interceptedArgumentsCount) {
@@ -422,32 +543,118 @@ public class XmxAopManager extends BasicAdviceArgumentsProcessor implements IXmx
 		return true;
 	}
 
+	/**
+	 * Removes the weaving contexts and the advice bridges of the join points which are no more used, e.g. after
+	 * the target class is re-transformed or unloaded. The invocations of the obsolete code which are still in
+	 * progress skip the advices.
+	 */
+	public void unregisterJoinPoints(int[] joinPointIds) {
+		for (int joinPointId : joinPointIds) {
+			WeavingContext ctx = joinpointsWeavingInfo.remove(joinPointId);
+			Class<?> bridgeOwner = ctx == null ? null : ctx.getBridgeOwner();
+			if (bridgeOwner != null) {
+				adviceBridgesByTargetClass.get(bridgeOwner).remove(joinPointId);
+			}
+		}
+		XmxAopProxy.removeJoinPoints(joinPointIds);
+	}
+
+	/**
+	 * Returns the number of the advice bridges kept for the target class.
+	 */
+	int getAdviceBridgesCount(Class<?> targetClass) {
+		return adviceBridgesByTargetClass.get(targetClass).size();
+	}
+
 	public AdviceVerifier getAdviceVerifier() {
 		return adviceVerifier;
 	}
 
+	/**
+	 * Returns whether the advices are invoked through the generated advice bridges.
+	 */
+	public boolean isDirectInvocation() {
+		return directInvocation;
+	}
+
+	/**
+	 * Returns the information about all join points with advices, ordered by IDs.
+	 */
+	public List<XmxJoinPointInfo> getJoinPoints() {
+		List<XmxJoinPointInfo> joinPoints = new ArrayList<>();
+		for (WeavingContext ctx : new TreeMap<>(joinpointsWeavingInfo).values()) {
+			if (ctx.getAdviceInfoByKind().isEmpty()) {
+				continue;
+			}
+			List<String> advices = new ArrayList<>();
+			for (List<WeavingAdviceInfo> kindAdvices : ctx.getAdviceInfoByKind().values()) {
+				for (WeavingAdviceInfo adviceInfo : kindAdvices) {
+					advices.add(adviceInfo.getAdviceKind() + " " + adviceInfo.getMethodDesc());
+				}
+			}
+			int joinPointId = ctx.getJoinpointId();
+			joinPoints.add(new XmxJoinPointInfo(joinPointId, ctx.getTargetClassName(), ctx.getTargetMethodName(),
+					advices, XmxAopProxy.isJoinPointEnabled(joinPointId)));
+		}
+		return joinPoints;
+	}
+
+	/**
+	 * Enables or disables the invocation of the advices of the join point, without re-weaving. The state applies
+	 * to the target method in all class loaders, and is kept when the target class is re-transformed.
+	 *
+	 * @return {@code false} if the join point is not found
+	 */
+	public boolean setJoinPointEnabled(int joinPointId, boolean enabled) {
+		WeavingContext ctx = joinpointsWeavingInfo.get(joinPointId);
+		if (ctx == null || ctx.getAdviceInfoByKind().isEmpty()) {
+			return false;
+		}
+		String key = ctx.getJoinPointKey();
+		synchronized (disabledJoinPointKeys) {
+			if (enabled) {
+				disabledJoinPointKeys.remove(key);
+			} else {
+				disabledJoinPointKeys.add(key);
+			}
+			// the same method may be weaved in several class loaders
+			for (WeavingContext other : joinpointsWeavingInfo.values()) {
+				if (other.getJoinPointKey().equals(key)) {
+					XmxAopProxy.setJoinPointEnabled(other.getJoinpointId(), enabled);
+				}
+			}
+		}
+		logger.info("{} advices of join point {} ({}.{})", enabled ? "Enabled" : "Disabled", joinPointId,
+				ctx.getTargetClassName(), ctx.getTargetMethodName());
+		return true;
+	}
+
 	//
 	// IXmxAopService implementation
 	//
 
 	@Override
 	public Map<Class<?>, Object> before(int joinPointId, Object thisArg, Object[] interestedArgs) {
-		WeavingContext ctx = joinpointsWeavingInfo.get(joinPointId);
-		List<WeavingAdviceInfo> advices = ctx.getAdviceInfoByKind().get(AdviceKind.BEFORE);
-		Map<Class<?>, Object> adviceInstances = new HashMap<>(advices.size());
+		List<WeavingAdviceInfo> advices = getAdvices(joinPointId, AdviceKind.BEFORE);
+		// the map of per-call advice instances is only created if needed
+		Map<Class<?>, Object> adviceInstances = null;
 		for (WeavingAdviceInfo adviceInfo : advices) {
 			try {
 				Method advice = adviceInfo.getAdvice();
 				List<AdviceArgument> argInfos = adviceInfo.getAdviceArguments();
 				Object[] adviceArgs = fillAdviceArguments(adviceInfo, interestedArgs, thisArg, null);
-				Object adviceInstance = getOrCreateAdviceInstance(adviceInstances, advice);
+				if (adviceInstances == null && isPerCallInstanceRequired(adviceInfo, advice)) {
+					adviceInstances = new HashMap<>(advices.size());
+				}
+				Object adviceInstance = getAdviceInstance(adviceInstances, adviceInfo, advice);
 				advice.invoke(adviceInstance, adviceArgs);
 				for (int i = 0; i < argInfos.size(); i++) {
 					AdviceArgument argInfo = argInfos.get(i);
 					switch (argInfo.getKind()) {
 						case ARGUMENT:
 							if (argInfo.isModifiable()) {
-								interestedArgs[argInfo.getInterceptedArgument().getIdxInProxyArgsArray()] = Array.get(adviceArgs[i], 0);
+								interestedArgs[argInfo.getInterceptedArgument().getIdxInProxyArgsArray()] =
+										ArgumentHolders.unwrap(adviceArgs[i]);
 							}
 							break;
 						case ALL_ARGUMENTS:
@@ -469,16 +676,15 @@ public class XmxAopManager extends BasicAdviceArgumentsProcessor implements IXmx
 	@Override
 	public Object afterReturn(int joinPointId, Map<Class<?>, Object> adviceInstances,
 	                          Object thisArg, Object[] interestedArgs, Object retVal) {
-		WeavingContext ctx = joinpointsWeavingInfo.get(joinPointId);
-		List<WeavingAdviceInfo> advices = ctx.getAdviceInfoByKind().get(AdviceKind.AFTER_RETURN);
+		List<WeavingAdviceInfo> advices = getAdvices(joinPointId, AdviceKind.AFTER_RETURN);
 		for (WeavingAdviceInfo adviceInfo : advices) {
 			try {
 				Method advice = adviceInfo.getAdvice();
 				Object[] adviceArgs = fillAdviceArguments(adviceInfo, interestedArgs, thisArg, retVal);
-				if (adviceInstances == null) {
+				if (adviceInstances == null && isPerCallInstanceRequired(adviceInfo, advice)) {
 					adviceInstances = new HashMap<>();
 				}
-				Object adviceInstance = getOrCreateAdviceInstance(adviceInstances, advice);
+				Object adviceInstance = getAdviceInstance(adviceInstances, adviceInfo, advice);
 
 				Object newRetVal = advice.invoke(adviceInstance, adviceArgs);
 				if (adviceInfo.hasOverrideRetVal()) {
@@ -495,16 +701,15 @@ public class XmxAopManager extends BasicAdviceArgumentsProcessor implements IXmx
 	@Override
 	public void afterThrow(int joinPointId, Map<Class<?>, Object> adviceInstances,
 	                       Object thisArg, Object[] interestedArgs, Throwable ex) {
-		WeavingContext ctx = joinpointsWeavingInfo.get(joinPointId);
-		List<WeavingAdviceInfo> advices = ctx.getAdviceInfoByKind().get(AdviceKind.AFTER_THROW);
+		List<WeavingAdviceInfo> advices = getAdvices(joinPointId, AdviceKind.AFTER_THROW);
 		for (WeavingAdviceInfo adviceInfo : advices) {
 			try {
 				Method advice = adviceInfo.getAdvice();
 				Object[] adviceArgs = fillAdviceArguments(adviceInfo, interestedArgs, thisArg, ex);
-				if (adviceInstances == null) {
+				if (adviceInstances == null && isPerCallInstanceRequired(adviceInfo, advice)) {
 					adviceInstances = new HashMap<>();
 				}
-				Object adviceInstance = getOrCreateAdviceInstance(adviceInstances, advice);
+				Object adviceInstance = getAdviceInstance(adviceInstances, adviceInfo, advice);
 
 				advice.invoke(adviceInstance, adviceArgs);
 			} catch (Exception e) {
@@ -513,20 +718,110 @@ public class XmxAopManager extends BasicAdviceArgumentsProcessor implements IXmx
 		}
 	}
 
-	private Object getOrCreateAdviceInstance(Map<Class<?>, Object> adviceInstances, Method advice)
-			throws InstantiationException, IllegalAccessException, NoSuchMethodException, InvocationTargetException {
-		Object adviceInstance = null;
-		if (!Modifier.isStatic(advice.getModifiers())) {
-			Class<?> adviceClass = advice.getDeclaringClass();
-			adviceInstance = adviceInstances.get(adviceClass);
+	/**
+	 * Returns the advices of the specified kind for the join point, or an empty list if the join point is obsolete.
+	 */
+	private List<WeavingAdviceInfo> getAdvices(int joinPointId, AdviceKind kind) {
+		WeavingContext ctx = joinpointsWeavingInfo.get(joinPointId);
+		List<WeavingAdviceInfo> advices = ctx == null ? null : ctx.getAdviceInfoByKind().get(kind);
+		return advices == null ? Collections.<WeavingAdviceInfo>emptyList() : advices;
+	}
+
+	@Override
+	public IXmxAdviceBridge createAdviceBridge(int joinPointId) {
+		WeavingContext ctx = joinpointsWeavingInfo.get(joinPointId);
+		if (ctx == null) {
+			return null;
+		}
+		Class<?> targetClass = ctx.getTargetClassSupplier().getSilently();
+		if (targetClass == null) {
+			// not expected; the reflective bridge does not reference the advice classes, and is cheap to re-create
+			return createReflectiveAdviceBridge(ctx);
+		}
+
+		IXmxAdviceBridge bridge = null;
+		try {
+			bridge = AdviceBridgeGenerator.generate(ctx, scopedAdviceInstances);
+		} catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+			logger.warn("Failed to generate the advice bridge for " + targetClass.getName() +
+					", the advices are invoked by reflection", e);
+		}
+		if (bridge == null) {
+			bridge = createReflectiveAdviceBridge(ctx);
+		}
+		ctx.setBridgeOwner(targetClass);
+		ConcurrentMap<Integer, IXmxAdviceBridge> targetBridges = adviceBridgesByTargetClass.get(targetClass);
+		IXmxAdviceBridge existingBridge = targetBridges.putIfAbsent(joinPointId, bridge);
+		if (existingBridge != null) {
+			// created concurrently
+			return existingBridge;
+		}
+		if (!joinpointsWeavingInfo.containsKey(joinPointId)) {
+			// unregistered concurrently, the obsolete code may use the bridge, but it is not kept
+			targetBridges.remove(joinPointId);
+		}
+		return bridge;
+	}
+
+	private IXmxAdviceBridge createReflectiveAdviceBridge(WeavingContext ctx) {
+		try {
+			return new ReflectiveAdviceBridge(this, ctx);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			logger.warn("Failed to find the original code of the method advised at join point " +
+					ctx.getJoinpointId() + ", the advices are not invoked", e);
+			// the advised method invokes the original code directly with this bridge
+			return XmxAopProxy.NOP_BRIDGE;
+		}
+	}
+
+	/**
+	 * Invokes the 'around' advice by reflection. Unlike other advices, the exceptions thrown by the advice are
+	 * propagated.
+	 *
+	 * @return the result of the advice
+	 */
+	Object invokeAroundAdvice(WeavingAdviceInfo adviceInfo, IProceedHandle proceedHandle, Object thisArg,
+	                          Object[] interestedArgs) throws Throwable {
+		Method advice = adviceInfo.getAdvice();
+		Object[] adviceArgs = fillAdviceArguments(adviceInfo, interestedArgs, thisArg, proceedHandle);
+		Map<Class<?>, Object> adviceInstances = isPerCallInstanceRequired(adviceInfo, advice) ?
+				new HashMap<Class<?>, Object>(1) : null;
+		Object adviceInstance = getAdviceInstance(adviceInstances, adviceInfo, advice);
+		try {
+			return advice.invoke(adviceInstance, adviceArgs);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	private static boolean isPerCallInstanceRequired(WeavingAdviceInfo adviceInfo, Method advice) {
+		return adviceInfo.getAdviceScope() == AdviceScope.PER_CALL && !Modifier.isStatic(advice.getModifiers());
+	}
+
+	/**
+	 * Returns the instance of the advice class to invoke the advice, or {@code null} for static advices.
+	 *
+	 * @param adviceInstances the per-call advice instances, by the advice classes; shall be non-null
+	 *                        if {@link #isPerCallInstanceRequired(WeavingAdviceInfo, Method)}
+	 */
+	private Object getAdviceInstance(Map<Class<?>, Object> adviceInstances, WeavingAdviceInfo adviceInfo, Method advice) {
+		if (Modifier.isStatic(advice.getModifiers())) {
+			return null;
+		}
+		Class<?> adviceClass = advice.getDeclaringClass();
+		switch (adviceInfo.getAdviceScope()) {
+		case SINGLETON:
+			return scopedAdviceInstances.getSingleton(adviceClass);
+		case PER_THREAD:
+			return scopedAdviceInstances.getPerThreadInstance(adviceClass).get();
+		default:
+			Object adviceInstance = adviceInstances.get(adviceClass);
 			if (adviceInstance == null) {
-				Constructor<?> constr = adviceClass.getDeclaredConstructor();
-				constr.setAccessible(true);
-				adviceInstance = constr.newInstance();
+				adviceInstance = ScopedAdviceInstances.newInstance(adviceClass);
 				adviceInstances.put(adviceClass, adviceInstance);
 			}
+			return adviceInstance;
 		}
-		return adviceInstance;
 	}
 
 	/**
@@ -534,7 +829,8 @@ public class XmxAopManager extends BasicAdviceArgumentsProcessor implements IXmx
 	 * @param adviceInfo the advice information
 	 * @param interestedArgs the intercepted target arguments
 	 * @param thisArg 'this' argument of target method
-	 * @param afterArg additional argument for 'AFTER' advices - either @RetVal or @Thrown, depending of kind
+	 * @param afterArg additional argument for 'AFTER' advices - either @RetVal or @Thrown, depending of kind,
+	 *                 or @Proceed for 'AROUND' advices
 	 * @return the array of arguments to pass to the advice method
 	 */
 	private Object[] fillAdviceArguments(WeavingAdviceInfo adviceInfo, Object[] interestedArgs, Object thisArg, Object afterArg) {
@@ -555,7 +851,7 @@ public class XmxAopManager extends BasicAdviceArgumentsProcessor implements IXmx
 				case ARGUMENT:
 					Object interceptedArg = interestedArgs[argInfo.getInterceptedArgument().getIdxInProxyArgsArray()];
 					Object arg = argInfo.isModifiable() ?
-							wrapToArray(interceptedArg, advice.getParameterTypes()[i]) :
+							ArgumentHolders.wrap(interceptedArg, advice.getParameterTypes()[i]) :
 							interceptedArg;
 					adviceArgs[i] = arg;
 					break;
@@ -576,6 +872,10 @@ public class XmxAopManager extends BasicAdviceArgumentsProcessor implements IXmx
 				case TARGET:
 					adviceArgs[i] = adviceInfo.getContext().getTargetMethodSupplier().getSilently();
 					break;
+				case PROCEED:
+					assert adviceInfo.getAdviceKind() == AdviceKind.AROUND;
+					adviceArgs[i] = afterArg;
+					break;
 				default:
 					assert false : "Unknown argument kind";
 				}
@@ -583,12 +883,4 @@ public class XmxAopManager extends BasicAdviceArgumentsProcessor implements IXmx
 		}
 		return adviceArgs;
 	}
-
-	private Object wrapToArray(Object interceptedArg, Class<?> arrType) {
-		// wrap into array of required type - either Object[] or ExactType[]
-		assert arrType.isArray();
-		Object arr = Array.newInstance(arrType.getComponentType(), 1);
-		Array.set(arr, 0, interceptedArg);
-		return arr;
-	}
 }
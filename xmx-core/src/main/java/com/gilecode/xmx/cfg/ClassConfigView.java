@@ -0,0 +1,51 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.cfg;
+
+import com.gilecode.xmx.cfg.pattern.MethodSpec;
+
+import java.util.List;
+
+/**
+ * Resolved immutable view of the properties of a single class of some application, and of its methods.
+ * <p/>
+ * The view is computed once per class: the class patterns are matched only on creation, the class
+ * properties are resolved eagerly, and only the Method sections matching the class are kept for the
+ * lookup of the method properties. The views are obtained and cached by
+ * {@link IAppPropertiesSource#getClassConfig(String)}.
+ */
+public interface ClassConfigView {
+
+	/**
+	 * Returns the name of the class, in Java format.
+	 */
+	String getClassName();
+
+	/**
+	 * Returns whether the class is managed, i.e. the management is enabled for the application, and
+	 * the class is specified as Managed.
+	 */
+	boolean isManaged();
+
+	/**
+	 * Returns the resolved value of a class property, like "MaxInstances", or {@code null} if not specified.
+	 */
+	PropertyValue getClassProperty(String propName);
+
+	/**
+	 * Returns the value of a method property, like "Advices", for the method of this class,
+	 * or {@code null} if not specified.
+	 */
+	PropertyValue getMethodProperty(MethodSpec methodSpec, String propName);
+
+	/**
+	 * Returns all distinct values of a method property specified for any methods of this class.
+	 */
+	List<PropertyValue> getDistinctMethodPropertyValues(String propName);
+
+	/**
+	 * Returns the string which identifies the headers and the properties of all Method sections matching
+	 * this class. The equal signatures mean that the method properties of the class are the same.
+	 */
+	String getMethodSectionsSignature();
+}
@@ -21,4 +21,10 @@ public interface IAppPropertiesSource {
 	PropertyValue getFieldProperty(String className, String fieldName, String propName);
 
 	List<PropertyValue> getDistinctMethodPropertyValues(String className, String propName);
+
+	/**
+	 * Returns the resolved view of the properties of the class and its methods. The views are cached,
+	 * so the repeated calls for the same class do not re-scan the configuration.
+	 */
+	ClassConfigView getClassConfig(String className);
 }
\ No newline at end of file
@@ -3,6 +3,7 @@
 package com.gilecode.xmx.cfg;
 
 import com.gilecode.ucfg.ConfigLoadStatus;
+import com.gilecode.xmx.cfg.pattern.ClassNamePrefilter;
 
 import java.io.File;
 
@@ -41,4 +42,10 @@ public interface IXmxConfig extends IXmxPropertiesSource /*, IConfigManager */ {
 	 * Returns the loading status
 	 */
 	ConfigLoadStatus getLoadStatus();
+
+	/**
+	 * Returns the filter which quickly rejects the classes which cannot be managed in any application,
+	 * by their names in the bytecode format.
+	 */
+	ClassNamePrefilter getManagedClassesPrefilter();
 }
@@ -21,10 +21,18 @@ public final class Properties {
 	public static final String GLOBAL_EMB_SERVER_ENABLED = "EmbeddedWebServer.Enabled";
 	public static final String GLOBAL_EMB_SERVER_IMPL = "EmbeddedWebServer.Impl";
 	public static final String GLOBAL_EMB_SERVER_PORT = "EmbeddedWebServer.Port";
+	public static final String GLOBAL_EMB_SERVER_LAZY = "EmbeddedWebServer.Lazy";
+	public static final String GLOBAL_EMB_SERVER_IDLE_STOP_SEC = "EmbeddedWebServer.IdleStopSec";
 	public static final String GLOBAL_JMX_ENABLED = "JMX.Bridge.Enabled";
 	public static final String GLOBAL_LOG_LEVEL = "Log.Level";
 	public static final String GLOBAL_LOG_DIR = "Log.Dir";
 	public static final String GLOBAL_LOG_CFG_FILE = "Log.LogbackCfg.File";
+	public static final String GLOBAL_TRANSFORM_CACHE_ENABLED = "TransformCache.Enabled";
+	public static final String GLOBAL_ATTACH_RETRANSFORM_BATCH_SIZE = "Attach.Retransform.BatchSize";
+	public static final String GLOBAL_ATTACH_RETRANSFORM_PAUSE_MS = "Attach.Retransform.PauseMs";
+	public static final String GLOBAL_ATTACH_SCAN_STATIC_FIELDS = "Attach.ScanStaticFields";
+	public static final String GLOBAL_ADVICES_SHARE_LOADERS = "Advices.ShareClassLoaders";
+	public static final String GLOBAL_ADVICES_DIRECT_INVOCATION = "Advices.DirectInvocation";
 
 	//
 	// "hidden" global properties
@@ -36,6 +44,10 @@ public final class Properties {
 	// known class-level (and above) properties
 	//
 	public static final String CLASS_MAX_INSTANCES = "MaxInstances";
+	public static final String CLASS_SWEEP_CLEANUP = "SweepCleanup";
+	public static final String CLASS_SAMPLE_RATE = "SampleRate";
+	public static final String CLASS_REGISTER_AFTER_MS = "RegisterAfterMs";
+	public static final String CLASS_UNHOOK_ON_MAX_INSTANCES = "UnhookOnMaxInstances";
 	
 	//
 	// "special" class-level properties
@@ -56,13 +68,17 @@ public final class Properties {
 	
 	// all known names of System-level properties
 	private static final Set<String> ALL_SYSTEM_PROPNAMES = new HashSet<>(Arrays.asList(
-			GLOBAL_ENABLED, GLOBAL_EMB_SERVER_ENABLED, GLOBAL_EMB_SERVER_IMPL, GLOBAL_EMB_SERVER_PORT, 
-			GLOBAL_JMX_ENABLED, GLOBAL_LOG_LEVEL, GLOBAL_LOG_DIR, GLOBAL_LOG_CFG_FILE,
+			GLOBAL_ENABLED, GLOBAL_EMB_SERVER_ENABLED, GLOBAL_EMB_SERVER_IMPL, GLOBAL_EMB_SERVER_PORT,
+			GLOBAL_EMB_SERVER_LAZY, GLOBAL_EMB_SERVER_IDLE_STOP_SEC,
+			GLOBAL_JMX_ENABLED, GLOBAL_LOG_LEVEL, GLOBAL_LOG_DIR, GLOBAL_LOG_CFG_FILE, GLOBAL_TRANSFORM_CACHE_ENABLED,
+			GLOBAL_ATTACH_RETRANSFORM_BATCH_SIZE, GLOBAL_ATTACH_RETRANSFORM_PAUSE_MS, GLOBAL_ATTACH_SCAN_STATIC_FIELDS,
+			GLOBAL_ADVICES_SHARE_LOADERS, GLOBAL_ADVICES_DIRECT_INVOCATION,
 			GLOBAL_WELCOME_XMX_NAME, GLOBAL_WELCOME_SKIP_HOME));
 	
 	// all known names of Class-level properties
 	private static final Set<String> ALL_CLASS_PROPNAMES = new HashSet<>(Arrays.asList(
-			CLASS_MAX_INSTANCES, SP_MANAGED));
+			CLASS_MAX_INSTANCES, CLASS_SWEEP_CLEANUP, CLASS_SAMPLE_RATE, CLASS_REGISTER_AFTER_MS,
+			CLASS_UNHOOK_ON_MAX_INSTANCES, SP_MANAGED));
 	
 	// all known names of Method-level properties
 	private static final Set<String> ALL_METHOD_PROPNAMES = Collections.singleton(M_ADVICES);
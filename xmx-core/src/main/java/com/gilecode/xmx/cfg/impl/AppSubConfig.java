@@ -3,36 +3,109 @@
 package com.gilecode.xmx.cfg.impl;
 
 import com.gilecode.xmx.cfg.CfgEntityLevel;
+import com.gilecode.xmx.cfg.ClassConfigView;
 import com.gilecode.xmx.cfg.IAppPropertiesSource;
 import com.gilecode.xmx.cfg.Properties;
 import com.gilecode.xmx.cfg.PropertyValue;
+import com.gilecode.xmx.cfg.pattern.CompiledPatternSet;
 import com.gilecode.xmx.cfg.pattern.MethodSpec;
-import com.gilecode.xmx.cfg.pattern.PatternsSupport;
 
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 public class AppSubConfig implements IAppPropertiesSource {
-	
+
 	/**
 	 * The application name.
 	 */
 	@SuppressWarnings("unused")
 	private String appName;
-	
+
 	/**
 	 * The list of all sections with headers matching the application name,
 	 * in reversed order.
 	 */
 	private List<SectionWithHeader> matchingSectionsReversed;
-	
-	// TODO: fast path for "Managed" property
-	
+
+	/**
+	 * The Class parts of all sections, compiled into a single matcher. The pattern indices are the same
+	 * as the indices of the sections in {@link #matchingSectionsReversed}.
+	 */
+	private final CompiledPatternSet classPatterns;
+
+	/**
+	 * The indices of the sections without the Class part, i.e. matching any class.
+	 */
+	private final BitSet sectionsWithoutClassPart = new BitSet();
+
+	/**
+	 * The special class-patterns properties (like "ManagedClasses") of App sections, compiled into a
+	 * single matcher. The pattern indices are the same as the indices of the sections.
+	 */
+	private final CompiledPatternSet managedClassesPatterns;
+
+	/**
+	 * The maximal number of cached class views. The views are mostly used while the class is being
+	 * transformed, so there is no need to keep the views of all classes ever seen.
+	 */
+	private static final int MAX_CACHED_CLASS_CONFIGS = 256;
+
+	/**
+	 * The LRU cache of the resolved class views, by class name. Guarded by itself.
+	 */
+	private final Map<String, ClassConfigView> classConfigsCache =
+			new LinkedHashMap<String, ClassConfigView>(64, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, ClassConfigView> eldest) {
+					return size() > MAX_CACHED_CLASS_CONFIGS;
+				}
+			};
+
 	AppSubConfig(String appName, List<SectionWithHeader> matchingSectionsReversed) {
 		this.appName = appName;
 		this.matchingSectionsReversed = matchingSectionsReversed;
+
+		String managedClassesProp = Properties.specialClassesForm(Properties.SP_MANAGED);
+		List<String> classSpecs = new ArrayList<>(matchingSectionsReversed.size());
+		List<String> managedClassesSpecs = new ArrayList<>(matchingSectionsReversed.size());
+		for (int i = 0; i < matchingSectionsReversed.size(); i++) {
+			SectionWithHeader sh = matchingSectionsReversed.get(i);
+			SectionHeader header = sh.getHeader();
+			if (header.classSpec == null) {
+				sectionsWithoutClassPart.set(i);
+			}
+			classSpecs.add(header.classSpec);
+			managedClassesSpecs.add(header.level == CfgEntityLevel.APP ? sh.get(managedClassesProp) : null);
+		}
+		this.classPatterns = new CompiledPatternSet(classSpecs);
+		this.managedClassesPatterns = new CompiledPatternSet(managedClassesSpecs);
+	}
+
+	/**
+	 * Finds all sections with the Class part matching the class name, in one pass.
+	 *
+	 * @return the indices of the matching sections in {@link #matchingSectionsReversed}
+	 */
+	private BitSet matchClassSections(String className) {
+		BitSet result;
+		if (className == null) {
+			// higher level of property than of section
+			result = new BitSet();
+		} else if (className.equals("*")) {
+			// special case, used to collect distinct values of a property for all members
+			result = new BitSet();
+			result.set(0, matchingSectionsReversed.size());
+		} else {
+			result = classPatterns.match(className);
+		}
+		result.or(sectionsWithoutClassPart);
+		return result;
 	}
 
 	@Override
@@ -46,19 +119,30 @@ public class AppSubConfig implements IAppPropertiesSource {
 
 		return null;
 	}
-	
+
 	@Override
 	public PropertyValue getClassProperty(String className, String propName) {
 		if (Properties.isSpecial(propName)) {
 			return getSpecialClassProperty(className, propName);
 		}
 
-		for (SectionWithHeader sh : matchingSectionsReversed) {
-			SectionHeader header = sh.getHeader();
+		BitSet matchingClassSections = null;
+		for (int i = 0; i < matchingSectionsReversed.size(); i++) {
+			SectionWithHeader sh = matchingSectionsReversed.get(i);
+			if (!sh.containsKey(propName)) {
+				continue;
+			}
 			// currently. class properties are allowed both in App and Class sections
-			if (sh.containsKey(propName) &&
-					(header.level == CfgEntityLevel.APP || header.isMatchingClassSection(className))) {
+			CfgEntityLevel level = sh.getHeader().level;
+			if (level == CfgEntityLevel.APP) {
 				return PropertyValueImpl.of(sh.get(propName));
+			} else if (level == CfgEntityLevel.CLASS) {
+				if (matchingClassSections == null) {
+					matchingClassSections = matchClassSections(className);
+				}
+				if (matchingClassSections.get(i)) {
+					return PropertyValueImpl.of(sh.get(propName));
+				}
 			}
 		}
 
@@ -67,9 +151,17 @@ public class AppSubConfig implements IAppPropertiesSource {
 
 	@Override
 	public PropertyValue getMethodProperty(String className, MethodSpec methodSpec, String propName) {
-		for (SectionWithHeader sh : matchingSectionsReversed) {
-			if (sh.getHeader().isMatchingMethodSection(className, methodSpec) && sh.containsKey(propName)) {
-				return PropertyValueImpl.of(sh.get(propName));
+		BitSet matchingClassSections = null;
+		for (int i = 0; i < matchingSectionsReversed.size(); i++) {
+			SectionWithHeader sh = matchingSectionsReversed.get(i);
+			SectionHeader header = sh.getHeader();
+			if (header.level == CfgEntityLevel.METHOD && sh.containsKey(propName)) {
+				if (matchingClassSections == null) {
+					matchingClassSections = matchClassSections(className);
+				}
+				if (matchingClassSections.get(i) && header.methodMatches(methodSpec)) {
+					return PropertyValueImpl.of(sh.get(propName));
+				}
 			}
 		}
 
@@ -78,9 +170,17 @@ public class AppSubConfig implements IAppPropertiesSource {
 
 	@Override
 	public PropertyValue getFieldProperty(String className, String fieldName, String propName) {
-		for (SectionWithHeader sh : matchingSectionsReversed) {
-			if (sh.getHeader().isMatchingFieldSection(className, fieldName) && sh.containsKey(propName)) {
-				return PropertyValueImpl.of(sh.get(propName));
+		BitSet matchingClassSections = null;
+		for (int i = 0; i < matchingSectionsReversed.size(); i++) {
+			SectionWithHeader sh = matchingSectionsReversed.get(i);
+			SectionHeader header = sh.getHeader();
+			if (header.level == CfgEntityLevel.FIELD && sh.containsKey(propName)) {
+				if (matchingClassSections == null) {
+					matchingClassSections = matchClassSections(className);
+				}
+				if (matchingClassSections.get(i) && header.fieldMatches(fieldName)) {
+					return PropertyValueImpl.of(sh.get(propName));
+				}
 			}
 		}
 
@@ -90,9 +190,16 @@ public class AppSubConfig implements IAppPropertiesSource {
 	@Override
 	public List<PropertyValue> getDistinctMethodPropertyValues(String className, String propName) {
 		Set<String> distinctValues = new LinkedHashSet<>();
-		for (SectionWithHeader sh : matchingSectionsReversed) {
-			if (sh.getHeader().isMatchingMethodSection(className, null) && sh.containsKey(propName)) {
-				distinctValues.add(sh.get(propName));
+		BitSet matchingClassSections = null;
+		for (int i = 0; i < matchingSectionsReversed.size(); i++) {
+			SectionWithHeader sh = matchingSectionsReversed.get(i);
+			if (sh.getHeader().level == CfgEntityLevel.METHOD && sh.containsKey(propName)) {
+				if (matchingClassSections == null) {
+					matchingClassSections = matchClassSections(className);
+				}
+				if (matchingClassSections.get(i)) {
+					distinctValues.add(sh.get(propName));
+				}
 			}
 		}
 
@@ -104,24 +211,77 @@ public class AppSubConfig implements IAppPropertiesSource {
 		return result;
 	}
 
+	@Override
+	public ClassConfigView getClassConfig(String className) {
+		ClassConfigView view;
+		synchronized (classConfigsCache) {
+			view = classConfigsCache.get(className);
+		}
+		if (view == null) {
+			// concurrent duplicate creation is harmless, as the views are equal
+			view = createClassConfig(className);
+			synchronized (classConfigsCache) {
+				classConfigsCache.put(className, view);
+			}
+		}
+		return view;
+	}
+
+	private ClassConfigView createClassConfig(String className) {
+		BitSet matchingClassSections = matchClassSections(className);
+		Map<String, PropertyValue> classProperties = new HashMap<>();
+		List<SectionWithHeader> methodSections = new ArrayList<>();
+		for (int i = 0; i < matchingSectionsReversed.size(); i++) {
+			SectionWithHeader sh = matchingSectionsReversed.get(i);
+			CfgEntityLevel level = sh.getHeader().level;
+			if (level == CfgEntityLevel.APP || (level == CfgEntityLevel.CLASS && matchingClassSections.get(i))) {
+				// the first found value wins, as in getClassProperty()
+				for (String propName : sh.keySet()) {
+					if (!Properties.isSpecial(propName) && !classProperties.containsKey(propName)) {
+						classProperties.put(propName, PropertyValueImpl.of(sh.get(propName)));
+					}
+				}
+			} else if (level == CfgEntityLevel.METHOD && matchingClassSections.get(i)) {
+				methodSections.add(sh);
+			}
+		}
+
+		PropertyValue managedProp = getSpecialClassProperty(className, Properties.SP_MANAGED);
+		classProperties.put(Properties.SP_MANAGED, managedProp);
+		PropertyValue appEnabled = getAppProperty(Properties.APP_ENABLED);
+		boolean managed = appEnabled != null && appEnabled.asBool() && managedProp.asBool();
+
+		return new ClassConfigViewImpl(className, managed, classProperties, methodSections);
+	}
+
 	/**
 	 * Supports "special" class properties and their Class-pattern form, like Managed & ManagedClasses.
 	 */
 	private PropertyValue getSpecialClassProperty(String className, String propName) {
 		String propClassForm = Properties.specialClassesForm(propName);
-		
-		for (SectionWithHeader sh : matchingSectionsReversed) {
-			SectionHeader header = sh.getHeader();
-			if (header.level == CfgEntityLevel.APP && sh.containsKey(propClassForm)) {
-				String patternValue = sh.get(propClassForm);
-				boolean propValue = PatternsSupport.matches(patternValue, className);
+
+		BitSet matchingClassSections = null;
+		BitSet matchingClassFormValues = null;
+		for (int i = 0; i < matchingSectionsReversed.size(); i++) {
+			SectionWithHeader sh = matchingSectionsReversed.get(i);
+			CfgEntityLevel level = sh.getHeader().level;
+			if (level == CfgEntityLevel.APP && sh.containsKey(propClassForm)) {
+				if (matchingClassFormValues == null) {
+					matchingClassFormValues = managedClassesPatterns.match(className);
+				}
+				boolean propValue = matchingClassFormValues.get(i);
 				return PropertyValueImpl.of(Boolean.toString(propValue));
-			} else if (header.isMatchingClassSection(className) && sh.containsKey(propName)) {
-				return PropertyValueImpl.of(sh.get(propName));
+			} else if (level == CfgEntityLevel.CLASS && sh.containsKey(propName)) {
+				if (matchingClassSections == null) {
+					matchingClassSections = matchClassSections(className);
+				}
+				if (matchingClassSections.get(i)) {
+					return PropertyValueImpl.of(sh.get(propName));
+				}
 			}
 		}
-		
-		// default for all special boolean-based properties is "false" 
+
+		// default for all special boolean-based properties is "false"
 		return PropertyValueImpl.of(Boolean.FALSE.toString());
 	}
 }
@@ -0,0 +1,101 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.cfg.impl;
+
+import com.gilecode.xmx.cfg.ClassConfigView;
+import com.gilecode.xmx.cfg.PropertyValue;
+import com.gilecode.xmx.cfg.pattern.MethodSpec;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+final class ClassConfigViewImpl implements ClassConfigView {
+
+	private final String className;
+
+	private final boolean managed;
+
+	/**
+	 * The resolved values of all class properties specified for the class.
+	 */
+	private final Map<String, PropertyValue> classProperties;
+
+	/**
+	 * The Method sections matching the class, in reversed order.
+	 */
+	private final List<SectionWithHeader> methodSectionsReversed;
+
+	ClassConfigViewImpl(String className, boolean managed, Map<String, PropertyValue> classProperties,
+			List<SectionWithHeader> methodSectionsReversed) {
+		this.className = className;
+		this.managed = managed;
+		this.classProperties = classProperties;
+		this.methodSectionsReversed = methodSectionsReversed;
+	}
+
+	@Override
+	public String getClassName() {
+		return className;
+	}
+
+	@Override
+	public boolean isManaged() {
+		return managed;
+	}
+
+	@Override
+	public PropertyValue getClassProperty(String propName) {
+		return classProperties.get(propName);
+	}
+
+	@Override
+	public PropertyValue getMethodProperty(MethodSpec methodSpec, String propName) {
+		for (SectionWithHeader sh : methodSectionsReversed) {
+			if (sh.containsKey(propName) && sh.getHeader().methodMatches(methodSpec)) {
+				return PropertyValueImpl.of(sh.get(propName));
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public List<PropertyValue> getDistinctMethodPropertyValues(String propName) {
+		Set<String> distinctValues = new LinkedHashSet<>();
+		for (SectionWithHeader sh : methodSectionsReversed) {
+			if (sh.containsKey(propName)) {
+				distinctValues.add(sh.get(propName));
+			}
+		}
+		if (distinctValues.isEmpty()) {
+			return Collections.emptyList();
+		}
+
+		List<PropertyValue> result = new ArrayList<>(distinctValues.size());
+		for (String val : distinctValues) {
+			result.add(PropertyValueImpl.of(val));
+		}
+		return result;
+	}
+
+	@Override
+	public String getMethodSectionsSignature() {
+		StringBuilder sb = new StringBuilder();
+		for (SectionWithHeader sh : methodSectionsReversed) {
+			sb.append(sh.getHeader());
+			for (String key : new TreeSet<>(sh.keySet())) {
+				sb.append(key).append('=').append(sh.get(key)).append(';');
+			}
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public String toString() {
+		return "ClassConfigView[" + className + "]";
+	}
+}
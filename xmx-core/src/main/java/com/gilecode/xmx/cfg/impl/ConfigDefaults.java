@@ -77,12 +77,30 @@ public interface ConfigDefaults {
 			new OptionDescription(Properties.GLOBAL_EMB_SERVER_ENABLED, true, "Whether to enable the embedded web server"),
 			new OptionDescription(Properties.GLOBAL_EMB_SERVER_IMPL, "Jetty", "The embedded web server implementation. Only Jetty is supported now"),
 			new OptionDescription(Properties.GLOBAL_EMB_SERVER_PORT, 8081, "The port for the embedded web server"),
+			new OptionDescription(Properties.GLOBAL_EMB_SERVER_LAZY, false,
+				"Whether to start the embedded web server only on the first request to its port"),
+			new OptionDescription(Properties.GLOBAL_EMB_SERVER_IDLE_STOP_SEC, 0,
+				"For the lazily started web server, the idle time in seconds after which it is stopped until the next request; 0 to never stop"),
 			new OptionDescription(Properties.GLOBAL_JMX_ENABLED, false, "Whether to publish managed objects to JMX"),
 			new OptionDescription(Properties.GLOBAL_LOG_LEVEL, "INFO", "The log level: OFF, ERROR, WARN, INFO or DEBUG"),
 			new OptionDescription(Properties.GLOBAL_LOG_DIR, "${user.home}/.xmx/logs/",
 				"The directory for log files or STDOUT or STDERR"),
 			new OptionDescription(Properties.GLOBAL_LOG_CFG_FILE, "",
-				"(optional) A custom Logback configuration XML file")
+				"(optional) A custom Logback configuration XML file"),
+			new OptionDescription(Properties.GLOBAL_TRANSFORM_CACHE_ENABLED, false,
+				"Whether to cache the transformed managed classes in the 'cache' directory next to this file, for faster restarts"),
+			new OptionDescription(Properties.GLOBAL_ATTACH_RETRANSFORM_BATCH_SIZE, 50,
+				"When attached to a running JVM, the max number of already loaded classes to re-transform at once"),
+			new OptionDescription(Properties.GLOBAL_ATTACH_RETRANSFORM_PAUSE_MS, 100,
+				"When attached to a running JVM, the pause in milliseconds between the re-transformations of the batches of classes"),
+			new OptionDescription(Properties.GLOBAL_ATTACH_SCAN_STATIC_FIELDS, false,
+				"When attached to a running JVM, whether to find the existing managed objects reachable from static fields of the application classes"),
+			new OptionDescription(Properties.GLOBAL_ADVICES_SHARE_LOADERS, false,
+				"Whether to load an advice JAR once for all applications if its dependencies are available from a common parent class loader. " +
+				"Note that the static state of the advice classes is shared in this case"),
+			new OptionDescription(Properties.GLOBAL_ADVICES_DIRECT_INVOCATION, false,
+				"Whether to invoke advices through generated bridge classes instead of reflection, which allows JIT to inline " +
+				"them. Requires public advice classes and methods, otherwise reflection is used anyway")
 			);
 	
 	SectionDescription SECTION_ALLAPPS_DESC = new SectionDescription(SectionsNamespace.SECTION_ALLAPPS, 
@@ -95,7 +113,15 @@ public interface ConfigDefaults {
 
 	SectionDescription SECTION_ALLCLASSES_DESC = new SectionDescription(SectionsNamespace.SECTION_ALLCLASSES,
 			SECTION_ALLCLASSES_COMMENTS,
-			new OptionDescription(Properties.CLASS_MAX_INSTANCES, 10, "Max number of managed instances per class")
+			new OptionDescription(Properties.CLASS_MAX_INSTANCES, 10, "Max number of managed instances per class"),
+			new OptionDescription(Properties.CLASS_UNHOOK_ON_MAX_INSTANCES, false,
+				"Whether to re-transform the class to skip registration of new instances when MaxInstances is reached, until a half of instances is GC'ed"),
+			new OptionDescription(Properties.CLASS_SAMPLE_RATE, "1",
+				"The fraction of new instances to manage, like 1/1000. If less than 1, the managed instances are a sample which is refreshed as they are GC'ed"),
+			new OptionDescription(Properties.CLASS_REGISTER_AFTER_MS, 0,
+				"If positive, only the instances alive after the specified delay (in ms) are managed. Useful for short-living objects"),
+			new OptionDescription(Properties.CLASS_SWEEP_CLEANUP, false,
+				"Whether to find GC'ed instances by periodic sweeps instead of a reference queue. May be useful for high-churn classes")
 	);
 
 	SectionDescription SECTION_SAMPLECLASS_DESC = new SectionDescription("App=sampleapp; Class=com.example.SampleService",
@@ -84,8 +84,7 @@ class SectionHeader {
 	}
 
 	public boolean isMatchingFieldSection(String className, String fieldName) {
-		return level == CfgEntityLevel.FIELD && check(classPattern, className)
-				&& (fieldName == null || fieldPattern.matcher(fieldName).matches());
+		return level == CfgEntityLevel.FIELD && check(classPattern, className) && fieldMatches(fieldName);
 	}
 
 	/**
@@ -99,8 +98,25 @@ class SectionHeader {
 	 * @return whether this section is a matching Method-level section
 	 */
 	public boolean isMatchingMethodSection(String className, MethodSpec methodSpec) {
-		return level == CfgEntityLevel.METHOD && check(classPattern, className)
-				&& (methodSpec == null || methodMatcher.matches(methodSpec));
+		return level == CfgEntityLevel.METHOD && check(classPattern, className) && methodMatches(methodSpec);
+	}
+
+	/**
+	 * Checks only the method part of a Method section, ignore other parts.
+	 *
+	 * @param methodSpec the method specification to match, or {@code null} to match any method
+	 */
+	boolean methodMatches(MethodSpec methodSpec) {
+		return methodSpec == null || methodMatcher.matches(methodSpec);
+	}
+
+	/**
+	 * Checks only the field part of a Field section, ignore other parts.
+	 *
+	 * @param fieldName the field name to match, or {@code null} to match any field
+	 */
+	boolean fieldMatches(String fieldName) {
+		return fieldName == null || fieldPattern.matcher(fieldName).matches();
 	}
 
 	/**
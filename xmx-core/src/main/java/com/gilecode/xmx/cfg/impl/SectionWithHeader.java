@@ -3,6 +3,7 @@
 package com.gilecode.xmx.cfg.impl;
 
 import java.util.Map;
+import java.util.Set;
 
 class SectionWithHeader {
 	
@@ -26,6 +27,10 @@ class SectionWithHeader {
 		return optionsByName.get(key);
 	}
 
+	Set<String> keySet() {
+		return optionsByName.keySet();
+	}
+
 	@Override
 	public String toString() {
 		return "SectionWithHeader" + header;
@@ -6,9 +6,12 @@ import com.gilecode.ucfg.ConfigLoadStatus;
 import com.gilecode.ucfg.IConfigInfoProvider;
 import com.gilecode.ucfg.IUpdatingConfigLoader;
 import com.gilecode.ucfg.impl.UpdatingIniConfigLoader;
+import com.gilecode.xmx.cfg.CfgEntityLevel;
 import com.gilecode.xmx.cfg.IAppPropertiesSource;
 import com.gilecode.xmx.cfg.IXmxConfig;
+import com.gilecode.xmx.cfg.Properties;
 import com.gilecode.xmx.cfg.PropertyValue;
+import com.gilecode.xmx.cfg.pattern.ClassNamePrefilter;
 import com.gilecode.xmx.util.Pair;
 import org.ini4j.Ini;
 
@@ -42,6 +45,11 @@ public class XmxIniConfig implements IXmxConfig, SectionsNamespace {
 	private final List<SectionWithHeader> sectionsReversed;
 	private final ConfigLoadStatus loadStatus;
 
+	/**
+	 * Pre-filter built from all patterns which may make a class managed in some application.
+	 */
+	private final ClassNamePrefilter managedClassesPrefilter;
+
 	private ConcurrentHashMap<String, IAppPropertiesSource> appConfigs = new ConcurrentHashMap<>();
 
 	private static IConfigInfoProvider cfgInfoProvider = new ConfigDefaultsInfoProvider();
@@ -53,6 +61,27 @@ public class XmxIniConfig implements IXmxConfig, SectionsNamespace {
 		this.systemOptions = systemOptions;
 		this.sectionsReversed = sectionsReversed;
 		this.loadStatus = loadStatus;
+		this.managedClassesPrefilter = new ClassNamePrefilter(collectManagedClassesPatterns(sectionsReversed));
+	}
+
+	/**
+	 * Collects the class patterns which may enable management of classes, i.e. the values of
+	 * "ManagedClasses" in App sections, and the Class parts of the Class sections with "Managed=true".
+	 * The application parts are ignored.
+	 */
+	private static List<String> collectManagedClassesPatterns(List<SectionWithHeader> sections) {
+		String managedClassesProp = Properties.specialClassesForm(Properties.SP_MANAGED);
+		List<String> patterns = new ArrayList<>();
+		for (SectionWithHeader sh : sections) {
+			SectionHeader header = sh.getHeader();
+			if (header.level == CfgEntityLevel.APP && sh.containsKey(managedClassesProp)) {
+				patterns.add(sh.get(managedClassesProp));
+			} else if (header.level == CfgEntityLevel.CLASS && sh.containsKey(Properties.SP_MANAGED)
+					&& PropertyValueImpl.of(sh.get(Properties.SP_MANAGED)).asBool()) {
+				patterns.add(header.classSpec);
+			}
+		}
+		return patterns;
 	}
 
 	/**
@@ -205,6 +234,11 @@ public class XmxIniConfig implements IXmxConfig, SectionsNamespace {
 		return loadStatus;
 	}
 
+	@Override
+	public ClassNamePrefilter getManagedClassesPrefilter() {
+		return managedClassesPrefilter;
+	}
+
 	//
 	// Implementation of IConfigManager is not implemented yet
 	//
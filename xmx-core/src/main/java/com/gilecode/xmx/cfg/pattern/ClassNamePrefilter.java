@@ -0,0 +1,446 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.cfg.pattern;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Fast pre-filter for the class names in the bytecode format (like "java/lang/Object"), built from
+ * a set of class patterns in the configuration format supported by {@link PatternsSupport}.
+ * <p/>
+ * The filter is conservative: it may accept the names which do not match any pattern, but never
+ * rejects the matching ones. Each pattern (or each alternative of a simple mask) is split into
+ * a literal prefix, stored in a character trie, and an optional check of the rest of the name, which
+ * is either an exact end, a required suffix or a full Java regex. Thus, most names are rejected
+ * after a few trie steps without any allocations.
+ * <p/>
+ * The regexes which require one of the literal suffixes, like the default
+ * "^.*(Service|Manager|Engine|DataSource)\d*(Impl\d*)?$", are pre-checked by these suffixes, so that the
+ * regex matchers are only created for the names which are likely to match.
+ */
+public class ClassNamePrefilter {
+
+	/**
+	 * The check of the name which starts with a literal prefix of some pattern.
+	 */
+	private static final class Tail {
+		/**
+		 * Whether the name shall be exactly the prefix
+		 */
+		final boolean exact;
+
+		/**
+		 * The required suffix, in the bytecode format, or {@code null}
+		 */
+		final String suffix;
+
+		/**
+		 * The full Java pattern to check, or {@code null}
+		 */
+		final Pattern regex;
+
+		/**
+		 * The pre-check of the name before the regex, or {@code null}
+		 */
+		final SuffixCheck regexSuffixCheck;
+
+		Tail(boolean exact, String suffix, Pattern regex) {
+			this(exact, suffix, regex, null);
+		}
+
+		Tail(boolean exact, String suffix, Pattern regex, SuffixCheck regexSuffixCheck) {
+			this.exact = exact;
+			this.suffix = suffix;
+			this.regex = regex;
+			this.regexSuffixCheck = regexSuffixCheck;
+		}
+
+		boolean matches(String bcName, int prefixLen) {
+			int len = bcName.length();
+			if (exact) {
+				return prefixLen == len;
+			} else if (suffix != null) {
+				return len - prefixLen >= suffix.length() &&
+						bcName.regionMatches(len - suffix.length(), suffix, 0, suffix.length());
+			} else {
+				return (regexSuffixCheck == null || regexSuffixCheck.matches(bcName, prefixLen)) &&
+						regex.matcher(new JavaNameSequence(bcName)).matches();
+			}
+		}
+	}
+
+	/**
+	 * The check that the name ends with one of the literal suffixes, optionally followed by the characters which
+	 * are allowed after the suffix, like the digits in "^.*(Service|Manager)\d*$".
+	 */
+	static final class SuffixCheck {
+		/**
+		 * The alternative suffixes, in the bytecode format
+		 */
+		final String[] suffixes;
+
+		/**
+		 * All characters which may follow the suffix, in the bytecode format
+		 */
+		final String trailingChars;
+
+		SuffixCheck(String[] suffixes, String trailingChars) {
+			this.suffixes = suffixes;
+			this.trailingChars = trailingChars;
+		}
+
+		boolean matches(String bcName, int prefixLen) {
+			for (int end = bcName.length(); ; end--) {
+				for (String suffix : suffixes) {
+					if (end - prefixLen >= suffix.length() &&
+							bcName.regionMatches(end - suffix.length(), suffix, 0, suffix.length())) {
+						return true;
+					}
+				}
+				if (end == prefixLen || trailingChars.indexOf(bcName.charAt(end - 1)) < 0) {
+					return false;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Read-only view of a bytecode class name as the Java class name, used for regex checks.
+	 */
+	private static final class JavaNameSequence implements CharSequence {
+		private final String bcName;
+		private final int start, end;
+
+		JavaNameSequence(String bcName) {
+			this(bcName, 0, bcName.length());
+		}
+
+		JavaNameSequence(String bcName, int start, int end) {
+			this.bcName = bcName;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		public int length() {
+			return end - start;
+		}
+
+		@Override
+		public char charAt(int index) {
+			char c = bcName.charAt(start + index);
+			return c == '/' ? '.' : c;
+		}
+
+		@Override
+		public CharSequence subSequence(int from, int to) {
+			return new JavaNameSequence(bcName, start + from, start + to);
+		}
+
+		@Override
+		public String toString() {
+			return bcName.substring(start, end).replace('/', '.');
+		}
+	}
+
+	private final PrefixTrie<Tail> trie = new PrefixTrie<>();
+
+	/**
+	 * Creates the filter which accepts the class names matching any of the specified patterns.
+	 *
+	 * @param patternValues the class patterns, e.g. the values of "ManagedClasses" option, or the Class
+	 *                      parts of the section names
+	 */
+	public ClassNamePrefilter(Collection<String> patternValues) {
+		for (String patternValue : patternValues) {
+			addPattern(patternValue);
+		}
+	}
+
+	/**
+	 * Returns {@code false} if the class name definitely does not match any of the patterns.
+	 *
+	 * @param bcClassName the class name in the bytecode format, e.g. "java/lang/Object"
+	 */
+	public boolean mayMatch(String bcClassName) {
+		PrefixTrie.Node<Tail> node = trie.root();
+		int len = bcClassName.length();
+		for (int i = 0; ; i++) {
+			for (int j = 0; j < node.valuesCount(); j++) {
+				if (node.value(j).matches(bcClassName, i)) {
+					return true;
+				}
+			}
+			if (i == len) {
+				return false;
+			}
+			node = node.child(bcClassName.charAt(i));
+			if (node == null) {
+				return false;
+			}
+		}
+	}
+
+	private void addPattern(String patternValue) {
+		patternValue = patternValue.trim();
+		if (patternValue.startsWith("^") && patternValue.endsWith("$")) {
+			// Java pattern
+			Pattern regex;
+			try {
+				regex = Pattern.compile(patternValue);
+			} catch (PatternSyntaxException e) {
+				// reported elsewhere; accept all names to be safe
+				add("", new Tail(false, "", null));
+				return;
+			}
+			add(extractRegexPrefix(patternValue),
+					new Tail(false, null, regex, extractRegexSuffixes(patternValue)));
+		} else if (patternValue.startsWith("\"") && patternValue.endsWith("\"") && patternValue.length() > 1) {
+			// quoted literal
+			add(PatternsSupport.unquote(patternValue), new Tail(true, null, null));
+		} else {
+			// simple pattern or literal. Unrecognized patterns are handled in the same way, which is
+			// conservative, as they are rejected when actually used
+			for (String alt : patternValue.split("\\|", -1)) {
+				int firstStar = alt.indexOf('*');
+				if (firstStar < 0) {
+					add(alt, new Tail(true, null, null));
+				} else {
+					// the middle parts of masks like "a*b*c" are not checked
+					String suffix = alt.substring(alt.lastIndexOf('*') + 1);
+					add(alt.substring(0, firstStar), new Tail(false, toBytecodeForm(suffix), null));
+				}
+			}
+		}
+	}
+
+	private void add(String javaPrefix, Tail tail) {
+		trie.add(toBytecodeForm(javaPrefix), tail);
+	}
+
+	/**
+	 * Extracts the literal prefix of the Java name which is required by the regex like "^com\.example\..*$",
+	 * or returns an empty string if no such prefix is found.
+	 */
+	static String extractRegexPrefix(String regex) {
+		if (regex.indexOf('|') >= 0) {
+			// the alternatives may be not anchored
+			return "";
+		}
+		StringBuilder prefix = new StringBuilder();
+		int i = 1; // skip ^
+		int end = regex.length() - 1; // skip $
+		while (i < end) {
+			char c = regex.charAt(i);
+			if (Character.isLetterOrDigit(c) || c == '_') {
+				prefix.append(c);
+				i++;
+			} else if (c == '\\' && i + 1 < end && !Character.isLetterOrDigit(regex.charAt(i + 1))) {
+				// escaped special character, like \. or \$
+				prefix.append(regex.charAt(i + 1));
+				i += 2;
+			} else {
+				if ((c == '?' || c == '*' || c == '{') && prefix.length() > 0) {
+					// the last character is optional
+					prefix.setLength(prefix.length() - 1);
+				}
+				break;
+			}
+		}
+		return prefix.toString();
+	}
+
+	/**
+	 * Extracts the literal suffixes, one of which is required by the regex like
+	 * "^.*(Service|(?<!Reference)Manager)\d*(Impl)?$", or returns {@code null} if the regex has no such form.
+	 * <p/>
+	 * The regex shall have a top-level ".*", followed by either a literal or a group of literal alternatives
+	 * (which may start with look-behinds, ignored here), and then by the optional elements, like "\d*" or
+	 * "(Impl\d*)?", which may contain only literals and digits.
+	 */
+	static SuffixCheck extractRegexSuffixes(String regex) {
+		int end = regex.length() - 1; // skip $
+		int i = findSuffixStart(regex, end);
+		if (i < 0) {
+			return null;
+		}
+		List<String> suffixes = new ArrayList<>();
+		if (regex.charAt(i) == '(') {
+			i = regex.startsWith("(?:", i) ? i + 3 : i + 1;
+			while (true) {
+				if (regex.startsWith("(?<!", i) || regex.startsWith("(?<=", i)) {
+					i = regex.indexOf(')', i);
+					if (i < 0) {
+						return null;
+					}
+					i++;
+				}
+				StringBuilder suffix = new StringBuilder();
+				i = readLiteral(regex, i, end, suffix);
+				if (suffix.length() == 0 || i >= end || isQuantifier(regex.charAt(i))) {
+					return null;
+				}
+				suffixes.add(toBytecodeForm(suffix.toString()));
+				char c = regex.charAt(i++);
+				if (c == ')') {
+					break;
+				} else if (c != '|') {
+					return null;
+				}
+			}
+			if (i < end && isQuantifier(regex.charAt(i))) {
+				// the group is optional
+				return null;
+			}
+		} else {
+			StringBuilder suffix = new StringBuilder();
+			int next;
+			while ((next = readLiteralChar(regex, i, end)) > 0) {
+				if (next < end && isQuantifier(regex.charAt(next))) {
+					// the optional character is parsed as a trailing one
+					break;
+				}
+				suffix.append(regex.charAt(next - 1));
+				i = next;
+			}
+			if (suffix.length() == 0) {
+				return null;
+			}
+			suffixes.add(toBytecodeForm(suffix.toString()));
+		}
+
+		StringBuilder trailingChars = new StringBuilder();
+		while (i < end) {
+			char c = regex.charAt(i);
+			if (c == '(') {
+				i = regex.startsWith("(?:", i) ? i + 3 : i + 1;
+				while (i < end && regex.charAt(i) != ')') {
+					if (regex.charAt(i) == '|' || regex.charAt(i) == '+' || isOptionalQuantifier(regex.charAt(i))) {
+						// the characters are collected regardless of the alternatives and quantifiers
+						i++;
+					} else {
+						i = readTrailingAtom(regex, i, end, trailingChars);
+						if (i < 0) {
+							return null;
+						}
+					}
+				}
+				i++;
+			} else {
+				i = readTrailingAtom(regex, i, end, trailingChars);
+				if (i < 0) {
+					return null;
+				}
+			}
+			if (i >= end || !isOptionalQuantifier(regex.charAt(i))) {
+				// the required element, which is not supported
+				return null;
+			}
+			i++;
+		}
+		return new SuffixCheck(suffixes.toArray(new String[0]), toBytecodeForm(trailingChars.toString()));
+	}
+
+	/**
+	 * Returns the index after the last top-level ".*" of the regex, if the rest of the regex is not empty, and
+	 * the regex has no top-level alternatives and no flags, or -1 otherwise.
+	 */
+	private static int findSuffixStart(String regex, int end) {
+		int suffixStart = -1;
+		int depth = 0;
+		boolean inClass = false;
+		for (int i = 1; i < end; i++) {
+			char c = regex.charAt(i);
+			if (c == '\\') {
+				i++;
+			} else if (inClass) {
+				inClass = c != ']';
+			} else if (c == '[') {
+				inClass = true;
+			} else if (c == '(') {
+				if (regex.startsWith("(?", i) && i + 2 < end && Character.isLetter(regex.charAt(i + 2))) {
+					// flags like (?i) change the meaning of the literals
+					return -1;
+				}
+				depth++;
+			} else if (c == ')') {
+				depth--;
+			} else if (c == '|' && depth == 0) {
+				return -1;
+			} else if (c == '.' && depth == 0 && i + 1 < end && regex.charAt(i + 1) == '*') {
+				i++;
+				if (i + 1 < end && (regex.charAt(i + 1) == '?' || regex.charAt(i + 1) == '+')) {
+					i++;
+				}
+				suffixStart = i + 1;
+			}
+		}
+		return suffixStart < end ? suffixStart : -1;
+	}
+
+	/**
+	 * Reads the literal characters, including the escaped special characters, into the buffer.
+	 *
+	 * @return the index after the literal
+	 */
+	private static int readLiteral(String regex, int i, int end, StringBuilder buf) {
+		int next;
+		while ((next = readLiteralChar(regex, i, end)) > 0) {
+			buf.append(regex.charAt(next - 1));
+			i = next;
+		}
+		return i;
+	}
+
+	/**
+	 * Reads a single literal character, which is the last character before the returned index.
+	 *
+	 * @return the index after the character, or -1 if there is no literal character at the index
+	 */
+	private static int readLiteralChar(String regex, int i, int end) {
+		if (i >= end) {
+			return -1;
+		}
+		char c = regex.charAt(i);
+		if (Character.isLetterOrDigit(c) || c == '_') {
+			return i + 1;
+		} else if (c == '\\' && i + 1 < end && !Character.isLetterOrDigit(regex.charAt(i + 1))) {
+			return i + 2;
+		}
+		return -1;
+	}
+
+	/**
+	 * Reads a literal character or "\d" which may follow the suffix, and adds the possible characters to the
+	 * buffer.
+	 *
+	 * @return the index after the atom, or -1 if the atom is not supported
+	 */
+	private static int readTrailingAtom(String regex, int i, int end, StringBuilder trailingChars) {
+		if (regex.startsWith("\\d", i)) {
+			trailingChars.append("0123456789");
+			return i + 2;
+		}
+		int next = readLiteralChar(regex, i, end);
+		if (next > 0) {
+			trailingChars.append(regex.charAt(next - 1));
+		}
+		return next;
+	}
+
+	private static boolean isQuantifier(char c) {
+		return c == '?' || c == '*' || c == '+' || c == '{';
+	}
+
+	private static boolean isOptionalQuantifier(char c) {
+		return c == '?' || c == '*';
+	}
+
+	private static String toBytecodeForm(String javaName) {
+		return javaName.replace('.', '/');
+	}
+}
@@ -0,0 +1,181 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.cfg.pattern;
+
+import com.gilecode.xmx.cfg.impl.XmxIniParseException;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * An indexed list of name patterns in the format supported by {@link PatternsSupport}, compiled into a
+ * single matcher structure, which finds all patterns matching a name in one pass.
+ * <p/>
+ * The patterns are split by their kind:
+ * <ul>
+ * <li>literals (including the alternatives of simple patterns without '*') are stored in a hash map;
+ * <li>simple masks with '*' are stored in a prefix trie by the literal part before the first '*', and
+ * the rest of the name is matched against the remaining mask without allocations;
+ * <li>Java patterns (^...$) are stored in the same trie by their literal prefix, if any, and are
+ * checked as regular expressions only for the names having that prefix.
+ * </ul>
+ * The matching results are exactly the same as for the patterns returned by {@link PatternsSupport#parse(String)}.
+ */
+public class CompiledPatternSet {
+
+	/**
+	 * The check of the rest of the name, which starts with a literal prefix of the pattern.
+	 */
+	private static final class Tail {
+		final int index;
+
+		/**
+		 * The rest of the simple mask, which starts with '*', or {@code null}
+		 */
+		final String mask;
+
+		/**
+		 * The Java pattern to match the whole name, or {@code null}
+		 */
+		final Pattern regex;
+
+		Tail(int index, String mask, Pattern regex) {
+			this.index = index;
+			this.mask = mask;
+			this.regex = regex;
+		}
+
+		boolean matches(String name, int prefixLen) {
+			return regex != null ? regex.matcher(name).matches() : maskMatches(mask, name, prefixLen);
+		}
+	}
+
+	private final int size;
+
+	/**
+	 * Indices of the patterns by the literal names they match
+	 */
+	private final Map<String, int[]> literals = new HashMap<>();
+
+	private final PrefixTrie<Tail> trie = new PrefixTrie<>();
+
+	/**
+	 * Compiles the list of patterns.
+	 *
+	 * @param patternValues the patterns; {@code null} elements are allowed and never match
+	 *
+	 * @throws XmxIniParseException if any pattern is not recognized
+	 */
+	public CompiledPatternSet(List<String> patternValues) throws XmxIniParseException {
+		this.size = patternValues.size();
+		for (int i = 0; i < size; i++) {
+			String patternValue = patternValues.get(i);
+			if (patternValue != null) {
+				addPattern(i, patternValue);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of the patterns, including {@code null} ones.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Finds all patterns matching the name.
+	 *
+	 * @return the indices of the matching patterns
+	 */
+	public BitSet match(String name) {
+		BitSet result = new BitSet(size);
+		int[] literalIndices = literals.get(name);
+		if (literalIndices != null) {
+			for (int i : literalIndices) {
+				result.set(i);
+			}
+		}
+
+		PrefixTrie.Node<Tail> node = trie.root();
+		int len = name.length();
+		for (int i = 0; node != null; i++) {
+			for (int j = 0; j < node.valuesCount(); j++) {
+				Tail tail = node.value(j);
+				if (!result.get(tail.index) && tail.matches(name, i)) {
+					result.set(tail.index);
+				}
+			}
+			node = i < len ? node.child(name.charAt(i)) : null;
+		}
+		return result;
+	}
+
+	private void addPattern(int index, String patternValue) {
+		// fail for illegal patterns exactly as the usual parser
+		Pattern regex = PatternsSupport.parse(patternValue);
+
+		patternValue = patternValue.trim();
+		if (patternValue.startsWith("^") && patternValue.endsWith("$")) {
+			// Java pattern
+			trie.add(ClassNamePrefilter.extractRegexPrefix(patternValue), new Tail(index, null, regex));
+		} else if (patternValue.startsWith("\"") && patternValue.endsWith("\"") && patternValue.length() > 1) {
+			// quoted literal
+			addLiteral(index, PatternsSupport.unquote(patternValue));
+		} else {
+			// simple pattern or literal
+			for (String alt : patternValue.split("\\|", -1)) {
+				int firstStar = alt.indexOf('*');
+				if (firstStar < 0) {
+					addLiteral(index, alt);
+				} else {
+					trie.add(alt.substring(0, firstStar), new Tail(index, alt.substring(firstStar), null));
+				}
+			}
+		}
+	}
+
+	private void addLiteral(int index, String literal) {
+		int[] indices = literals.get(literal);
+		if (indices == null) {
+			indices = new int[]{index};
+		} else {
+			indices = Arrays.copyOf(indices, indices.length + 1);
+			indices[indices.length - 1] = index;
+		}
+		literals.put(literal, indices);
+	}
+
+	/**
+	 * Checks whether the part of the name starting from the specified position matches the simple mask,
+	 * where '*' designates any sequence of characters.
+	 */
+	static boolean maskMatches(String mask, String name, int from) {
+		int m = 0, n = from;
+		int maskLen = mask.length(), nameLen = name.length();
+		int lastStar = -1, lastStarName = 0;
+		while (n < nameLen) {
+			if (m < maskLen && mask.charAt(m) == '*') {
+				lastStar = m++;
+				lastStarName = n;
+			} else if (m < maskLen && mask.charAt(m) == name.charAt(n)) {
+				m++;
+				n++;
+			} else if (lastStar >= 0) {
+				// backtrack: let the last '*' consume one more character
+				m = lastStar + 1;
+				n = ++lastStarName;
+			} else {
+				return false;
+			}
+		}
+		while (m < maskLen && mask.charAt(m) == '*') {
+			m++;
+		}
+		return m == maskLen;
+	}
+}
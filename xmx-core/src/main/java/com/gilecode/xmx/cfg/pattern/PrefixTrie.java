@@ -0,0 +1,98 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.cfg.pattern;
+
+import java.util.Arrays;
+
+/**
+ * Simple immutable-after-build character trie, which maps literal prefixes to the associated values.
+ * Used for allocation-free matching of the names against many patterns, where each pattern is
+ * represented by its literal prefix and the check of the rest of the name.
+ * <p/>
+ * The trie is populated in a single thread, and then may be safely read by any threads if it
+ * is published safely, e.g. via a final field.
+ *
+ * @param <T> the type of values associated with the prefixes
+ */
+final class PrefixTrie<T> {
+
+	static final class Node<T> {
+		private char[] keys = new char[0];
+		private Node<T>[] children = newNodes(0);
+		private Object[] values;
+
+		/**
+		 * Returns the child node for the next character, or {@code null} if none.
+		 */
+		Node<T> child(char c) {
+			int i = Arrays.binarySearch(keys, c);
+			return i < 0 ? null : children[i];
+		}
+
+		/**
+		 * Returns the number of values associated with the prefix which ends at this node.
+		 */
+		int valuesCount() {
+			return values == null ? 0 : values.length;
+		}
+
+		@SuppressWarnings("unchecked")
+		T value(int i) {
+			return (T) values[i];
+		}
+
+		private Node<T> getOrAddChild(char c) {
+			int i = Arrays.binarySearch(keys, c);
+			if (i >= 0) {
+				return children[i];
+			}
+			i = -i - 1;
+			Node<T> child = new Node<>();
+
+			char[] newKeys = new char[keys.length + 1];
+			System.arraycopy(keys, 0, newKeys, 0, i);
+			newKeys[i] = c;
+			System.arraycopy(keys, i, newKeys, i + 1, keys.length - i);
+
+			Node<T>[] newChildren = newNodes(children.length + 1);
+			System.arraycopy(children, 0, newChildren, 0, i);
+			newChildren[i] = child;
+			System.arraycopy(children, i, newChildren, i + 1, children.length - i);
+
+			keys = newKeys;
+			children = newChildren;
+			return child;
+		}
+
+		private void addValue(T value) {
+			if (values == null) {
+				values = new Object[]{value};
+			} else {
+				values = Arrays.copyOf(values, values.length + 1);
+				values[values.length - 1] = value;
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		private static <T> Node<T>[] newNodes(int size) {
+			return new Node[size];
+		}
+	}
+
+	private final Node<T> root = new Node<>();
+
+	Node<T> root() {
+		return root;
+	}
+
+	/**
+	 * Associates the value with the prefix. Several values may be associated with the same prefix.
+	 */
+	void add(CharSequence prefix, T value) {
+		Node<T> node = root;
+		for (int i = 0; i < prefix.length(); i++) {
+			node = node.getOrAddChild(prefix.charAt(i));
+		}
+		node.addValue(value);
+	}
+}
@@ -0,0 +1,176 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Supports deferred registration of managed objects, which skips short-living objects.
+ * <p/>
+ * The constructors of the classes with deferred registration only add the new objects to a
+ * striped buffer of pending weak references. A background thread periodically promotes the
+ * pending objects which are still alive after the specified delay to the actual registry,
+ * and drops the GC'ed ones, which usually are the vast majority.
+ * <p/>
+ * The stripes are bounded, so that the pending objects do not exhaust the memory if the registrar thread
+ * cannot keep up with the constructors. If a stripe is full, the new objects are not managed.
+ */
+class DeferredObjectsRegistrar {
+
+	private final static Logger logger = LoggerFactory.getLogger(DeferredObjectsRegistrar.class);
+
+	// how many milliseconds to wait between checks of the pending objects
+	private static final int CHECK_INTERVAL = 100;
+
+	private static final int MAX_STRIPE_SIZE = 64 * 1024;
+
+	/**
+	 * The target for the promoted objects.
+	 */
+	interface IPromotionTarget {
+		void registerPromotedObject(Object obj, XmxClassManager classInfo);
+	}
+
+	private static final class PendingObject extends WeakReference<Object> {
+		final XmxClassManager classInfo;
+		final long promotionTime;
+
+		PendingObject(Object referent, XmxClassManager classInfo, long promotionTime) {
+			super(referent);
+			this.classInfo = classInfo;
+			this.promotionTime = promotionTime;
+		}
+	}
+
+	private final IPromotionTarget target;
+
+	/**
+	 * Buffers of the newly added pending objects. Each stripe is guarded by its own lock, and
+	 * selected by the current thread ID.
+	 */
+	private final List<PendingObject>[] stripes;
+	private final int maxStripeSize;
+
+	/**
+	 * Whether the registrar thread is started on the first added object, or the checks are run externally.
+	 */
+	private final boolean startOnDemand;
+
+	/**
+	 * Pending objects which are checked at least once, but are not promoted yet. Used only
+	 * in the registrar thread.
+	 */
+	private List<PendingObject> waitingObjects = new ArrayList<>();
+
+	private volatile boolean started;
+
+	private volatile boolean overflowReported;
+
+	DeferredObjectsRegistrar(IPromotionTarget target) {
+		this(target, MAX_STRIPE_SIZE, true);
+	}
+
+	@SuppressWarnings("unchecked")
+	DeferredObjectsRegistrar(IPromotionTarget target, int maxStripeSize, boolean startOnDemand) {
+		this.target = target;
+		this.maxStripeSize = maxStripeSize;
+		this.startOnDemand = startOnDemand;
+		int nStripes = Integer.highestOneBit(Math.max(Runtime.getRuntime().availableProcessors(), 1) * 2 - 1);
+		this.stripes = new List[nStripes];
+		for (int i = 0; i < nStripes; i++) {
+			stripes[i] = new ArrayList<>();
+		}
+	}
+
+	/**
+	 * Adds a new object for the deferred registration.
+	 *
+	 * @param delayMs the minimal time of the object's life required for the registration
+	 */
+	void addPendingObject(Object obj, XmxClassManager classInfo, int delayMs) {
+		if (!started && startOnDemand) {
+			startThread();
+		}
+		PendingObject pendingObject = new PendingObject(obj, classInfo, System.currentTimeMillis() + delayMs);
+		List<PendingObject> stripe = stripes[(int) Thread.currentThread().getId() & (stripes.length - 1)];
+		synchronized (stripe) {
+			if (stripe.size() < maxStripeSize) {
+				stripe.add(pendingObject);
+				return;
+			}
+		}
+		if (!overflowReported) {
+			overflowReported = true;
+			logger.warn("Too many objects are pending for the deferred registration, some objects are not managed");
+		}
+	}
+
+	private synchronized void startThread() {
+		if (started) {
+			return;
+		}
+		Thread registrarThread = new Thread("XMX-DeferredRegistrar") {
+			@Override
+			public void run() {
+				while (true) {
+					try {
+						Thread.sleep(CHECK_INTERVAL);
+						checkPendingObjects(System.currentTimeMillis());
+					} catch (InterruptedException ignored) {
+					} catch (RuntimeException e) {
+						logger.error("Failed to check pending objects", e);
+					}
+				}
+			}
+		};
+		registrarThread.setDaemon(true);
+		registrarThread.start();
+		started = true;
+	}
+
+	/**
+	 * Promotes the pending objects which are alive at the specified time, and drops the GC'ed ones. Shall be
+	 * invoked from a single thread.
+	 */
+	void checkPendingObjects(long now) {
+		List<PendingObject> checked = waitingObjects;
+		for (int i = 0; i < stripes.length; i++) {
+			List<PendingObject> stripe = stripes[i];
+			synchronized (stripe) {
+				if (!stripe.isEmpty()) {
+					checked.addAll(stripe);
+					stripe.clear();
+				}
+			}
+		}
+		if (checked.isEmpty()) {
+			return;
+		}
+
+		List<PendingObject> stillWaiting = new ArrayList<>();
+		int nPromoted = 0;
+		int nDropped = 0;
+		for (PendingObject pendingObject : checked) {
+			Object obj = pendingObject.get();
+			if (obj == null) {
+				nDropped++;
+			} else if (pendingObject.promotionTime <= now) {
+				target.registerPromotedObject(obj, pendingObject.classInfo);
+				nPromoted++;
+			} else {
+				stillWaiting.add(pendingObject);
+			}
+		}
+		waitingObjects = stillWaiting;
+
+		if (logger.isDebugEnabled() && (nPromoted > 0 || nDropped > 0)) {
+			logger.debug("Deferred registration: {} objects promoted, {} GC'ed objects skipped, {} are waiting",
+					nPromoted, nDropped, stillWaiting.size());
+		}
+	}
+}
@@ -0,0 +1,183 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.core;
+
+import com.gilecode.xmx.cfg.IXmxConfig;
+import com.gilecode.xmx.server.IXmxServerLauncher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Callable;
+
+/**
+ * Listens on the port of the embedded web server with a plain server socket, and launches the actual web
+ * server only when the first request arrives. The launcher of the web server, along with its class loader, is
+ * created on the first request as well, so nothing of the web server is loaded until the UI is used.
+ * <p/>
+ * The listening socket is closed before the launch, so that the web server may bind the port. The first
+ * request is answered with a redirect to the same path after the launch, so the browser repeats it to the
+ * started web server.
+ * <p/>
+ * Optionally, the web server is stopped after it is idle for the specified time, and the port is listened
+ * by the plain socket again.
+ */
+class LazyWebServerStarter implements Runnable {
+
+	private final static Logger logger = LoggerFactory.getLogger(LazyWebServerStarter.class);
+
+	/**
+	 * The timeout of reading the first request line from the pending connection.
+	 */
+	private static final int READ_TIMEOUT_MS = 10_000;
+
+	/**
+	 * The max interval between checks of the idle time of the web server.
+	 */
+	private static final long MAX_IDLE_CHECK_INTERVAL_MS = 10_000;
+
+	private final Callable<IXmxServerLauncher> launcherFactory;
+	private final File warFile;
+	private final IXmxConfig config;
+	private final int port;
+
+	/**
+	 * The idle time after which the web server is stopped, or 0 if it is never stopped.
+	 */
+	private final long idleStopMs;
+
+	/**
+	 * The launcher of the web server, created on the first request and re-used after the idle stops.
+	 */
+	private IXmxServerLauncher launcher;
+
+	LazyWebServerStarter(Callable<IXmxServerLauncher> launcherFactory, File warFile, IXmxConfig config, int port,
+	                     long idleStopMs) {
+		this.launcherFactory = launcherFactory;
+		this.warFile = warFile;
+		this.config = config;
+		this.port = port;
+		this.idleStopMs = idleStopMs;
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			Socket firstConnection;
+			try (ServerSocket listener = new ServerSocket()) {
+				listener.setReuseAddress(true);
+				listener.bind(new InetSocketAddress(port));
+				logger.info("XMX Web Server will be started on the first request to port {}", port);
+				firstConnection = listener.accept();
+			} catch (IOException e) {
+				logger.error("Failed to listen on port {}, XMX Web Server is not started", port, e);
+				return;
+			}
+
+			logger.debug("Starting XMX Web Server on request from {}", firstConnection.getRemoteSocketAddress());
+			boolean launched = false;
+			if (launcher == null) {
+				launcher = createLauncher();
+			}
+			if (launcher != null) {
+				launcher.launchServer(warFile, config);
+				launched = launcher.getLastActivityTime() >= 0;
+			}
+			answerFirstRequest(firstConnection, launched);
+
+			if (!launched || idleStopMs <= 0 || !waitUntilIdle()) {
+				return;
+			}
+			logger.info("Stopping XMX Web Server after {} ms of inactivity", idleStopMs);
+			launcher.stopServer();
+		}
+	}
+
+	private IXmxServerLauncher createLauncher() {
+		try {
+			return launcherFactory.call();
+		} catch (Exception e) {
+			logger.error("Failed to create the launcher of XMX Web Server", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Waits until the running web server is idle for the configured time.
+	 *
+	 * @return whether the server is idle and still running
+	 */
+	private boolean waitUntilIdle() {
+		long checkInterval = Math.min(idleStopMs, MAX_IDLE_CHECK_INTERVAL_MS);
+		while (true) {
+			try {
+				Thread.sleep(checkInterval);
+			} catch (InterruptedException e) {
+				return false;
+			}
+			long lastActivityTime = launcher.getLastActivityTime();
+			if (lastActivityTime < 0) {
+				// stopped by someone else
+				return false;
+			}
+			if (isIdleTimeElapsed(lastActivityTime, System.currentTimeMillis(), idleStopMs)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Returns whether the running web server shall be stopped, as its last activity is not later than
+	 * {@code idleStopMs} before now.
+	 */
+	static boolean isIdleTimeElapsed(long lastActivityTime, long now, long idleStopMs) {
+		return now - lastActivityTime >= idleStopMs;
+	}
+
+	/**
+	 * Answers the pending request with a redirect to the same path, or with an error if the server failed to start.
+	 */
+	private static void answerFirstRequest(Socket connection, boolean launched) {
+		try (Socket s = connection) {
+			s.setSoTimeout(READ_TIMEOUT_MS);
+			BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.ISO_8859_1));
+			String path = parseRequestPath(in.readLine());
+
+			String response;
+			if (launched) {
+				response = "HTTP/1.1 307 Temporary Redirect\r\n" +
+						"Location: " + path + "\r\n" +
+						"Connection: close\r\n" +
+						"Content-Length: 0\r\n\r\n";
+			} else {
+				String body = "XMX Web Server failed to start, see XMX logs for details\n";
+				response = "HTTP/1.1 503 Service Unavailable\r\n" +
+						"Content-Type: text/plain\r\n" +
+						"Connection: close\r\n" +
+						"Content-Length: " + body.length() + "\r\n\r\n" + body;
+			}
+			OutputStream out = s.getOutputStream();
+			out.write(response.getBytes(StandardCharsets.ISO_8859_1));
+			out.flush();
+		} catch (IOException e) {
+			logger.debug("Failed to answer the first request to XMX Web Server", e);
+		}
+	}
+
+	/**
+	 * Returns the path from the HTTP request line, e.g. "GET /path HTTP/1.1", or "/" if not available.
+	 */
+	static String parseRequestPath(String requestLine) {
+		if (requestLine != null) {
+			String[] parts = requestLine.split(" ");
+			if (parts.length >= 2 && parts[1].startsWith("/") && !parts[1].startsWith("//")) {
+				return parts[1];
+			}
+		}
+		return "/";
+	}
+}
@@ -132,6 +132,11 @@ public class ManagedClassLoaderWeakRef extends WeakReference<ClassLoader> {
 	 */
 	private final Map<String, AdviceClassInfo> verifiedAdvicesByDesc = new ConcurrentHashMap<>();
 
+	/**
+	 * The IDs of the join points weaved into the classes loaded by this class loader, mapped by class name.
+	 */
+	private final Map<String, int[]> joinPointIdsByClass = new HashMap<>();
+
 	private final ParamNamesCache paramNamesCache = new ParamNamesCache();
 
 	private ManagedClassLoaderWeakRef(ClassLoader referent, ReferenceQueue<? super ClassLoader> q, 
@@ -205,8 +210,23 @@ public class ManagedClassLoaderWeakRef extends WeakReference<ClassLoader> {
 		}
 	}
 
+	/**
+	 * Returns the count of the managed instances of all classes loaded by this class loader.
+	 */
+	public int getManagedInstancesCount() {
+		return managedInstancesCount.get();
+	}
+
 	void decrementManagedInstancesCount() {
-		if (managedInstancesCount.decrementAndGet() == 0) {
+		decrementManagedInstancesCount(1);
+	}
+
+	/**
+	 * Decrements the count of the managed instances by the specified delta, e.g. after a batch of
+	 * instances is GC'ed.
+	 */
+	void decrementManagedInstancesCount(int delta) {
+		if (delta > 0 && managedInstancesCount.addAndGet(-delta) <= 0) {
 			synchronized (this) {
 				if (managedInstancesCount.get() <= 0) { // negative is only expected in tests
 					for (Iterator<SmartReference<?>> iterator = smartReferences.iterator(); iterator.hasNext(); ) {
@@ -222,6 +242,41 @@ public class ManagedClassLoaderWeakRef extends WeakReference<ClassLoader> {
 		}
 	}
 
+	/**
+	 * Registers the IDs of the join points weaved into the specified class.
+	 *
+	 * @param replace whether the class is re-transformed, so the previously weaved join points are obsolete; otherwise,
+	 *                the class may be concurrently transformed for the initial load, and any of the transformations
+	 *                may be defined
+	 *
+	 * @return the IDs of the obsolete join points, or {@code null} if none
+	 */
+	public int[] registerClassJoinPoints(String className, int[] joinPointIds, boolean replace) {
+		synchronized (joinPointIdsByClass) {
+			int[] prevIds = joinPointIdsByClass.get(className);
+			if (prevIds == null || replace) {
+				joinPointIdsByClass.put(className, joinPointIds);
+				return prevIds;
+			}
+			int[] ids = Arrays.copyOf(prevIds, prevIds.length + joinPointIds.length);
+			System.arraycopy(joinPointIds, 0, ids, prevIds.length, joinPointIds.length);
+			joinPointIdsByClass.put(className, ids);
+			return null;
+		}
+	}
+
+	/**
+	 * Removes and returns the IDs of the join points weaved into all classes of this class loader, e.g. after it is
+	 * GC'ed.
+	 */
+	public List<int[]> removeAllJoinPoints() {
+		synchronized (joinPointIdsByClass) {
+			List<int[]> ids = new ArrayList<>(joinPointIdsByClass.values());
+			joinPointIdsByClass.clear();
+			return ids;
+		}
+	}
+
 	public ParamNamesCache getParamNamesCache() {
 		return paramNamesCache;
 	}
@@ -0,0 +1,57 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.core;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Storage of the managed classes by their IDs, which provides the lock-free {@link ManagedClassesSnapshot snapshots}
+ * of all classes for the readers.
+ */
+final class ManagedClassesRegistry {
+
+	private final ConcurrentMap<Integer, XmxClassManager> classesById = new ConcurrentHashMap<>(32*1024);
+
+	/**
+	 * The epoch of the registry, incremented after each registration or removal of classes
+	 */
+	private final AtomicInteger epoch = new AtomicInteger();
+
+	/**
+	 * The last snapshot of the managed classes, used by readers
+	 */
+	private volatile ManagedClassesSnapshot snapshot;
+
+	XmxClassManager get(int classId) {
+		return classesById.get(classId);
+	}
+
+	void register(XmxClassManager classInfo) {
+		classesById.put(classInfo.getId(), classInfo);
+		epoch.incrementAndGet();
+	}
+
+	void removeAll(Collection<Integer> classIds) {
+		classesById.keySet().removeAll(classIds);
+		epoch.incrementAndGet();
+	}
+
+	/**
+	 * Returns the immutable snapshot of the managed classes, re-building it if any classes
+	 * were registered or removed since the last snapshot. Never blocks the registering threads.
+	 */
+	ManagedClassesSnapshot getSnapshot() {
+		ManagedClassesSnapshot lastSnapshot = snapshot;
+		// NOTE: the epoch is read before the classes, so concurrent changes would only cause extra re-build
+		int curEpoch = epoch.get();
+		if (lastSnapshot != null && lastSnapshot.getEpoch() == curEpoch) {
+			return lastSnapshot;
+		}
+		ManagedClassesSnapshot newSnapshot = new ManagedClassesSnapshot(curEpoch, classesById.values());
+		snapshot = newSnapshot;
+		return newSnapshot;
+	}
+}
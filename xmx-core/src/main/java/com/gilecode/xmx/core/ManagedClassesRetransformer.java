@@ -0,0 +1,149 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.instrument.Instrumentation;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Re-transforms the managed classes in a background thread, e.g. to remove or re-add the
+ * registration of the instances in constructors, or to transform the classes loaded before
+ * XMX was attached to the running JVM.
+ * <p/>
+ * The actual transformation is performed by the usual XMX class transformer, which takes into
+ * account the current state of the class managers.
+ */
+class ManagedClassesRetransformer {
+
+	private final static Logger logger = LoggerFactory.getLogger(ManagedClassesRetransformer.class);
+
+	private volatile Instrumentation instrumentation;
+
+	private ExecutorService executor;
+
+	void setInstrumentation(Instrumentation instrumentation) {
+		this.instrumentation = instrumentation;
+	}
+
+	/**
+	 * Returns whether re-transformation of classes is supported by JVM and the agent.
+	 */
+	boolean isSupported() {
+		Instrumentation instr = instrumentation;
+		return instr != null && instr.isRetransformClassesSupported();
+	}
+
+	/**
+	 * Schedules asynchronous re-transformation of the class.
+	 */
+	void scheduleRetransform(final Class<?> c) {
+		if (c == null || !isSupported()) {
+			return;
+		}
+		getExecutor().execute(new Runnable() {
+			@Override
+			public void run() {
+				retransform(c);
+			}
+		});
+	}
+
+	/**
+	 * Returns all classes currently loaded by JVM, or an empty array if the instrumentation is not available.
+	 */
+	Class<?>[] getAllLoadedClasses() {
+		Instrumentation instr = instrumentation;
+		return instr == null ? new Class<?>[0] : instr.getAllLoadedClasses();
+	}
+
+	/**
+	 * Schedules asynchronous re-transformation of many classes. The classes are re-transformed in
+	 * batches with pauses between them, so that the application threads are not stopped for too long.
+	 *
+	 * @param classes the classes to re-transform
+	 * @param batchSize the max number of classes re-transformed at once
+	 * @param pauseMs the pause between batches, in milliseconds
+	 * @param onComplete the optional action invoked after all batches are processed
+	 */
+	void scheduleRetransformBatches(final List<Class<?>> classes, final int batchSize, final long pauseMs,
+			final Runnable onComplete) {
+		if (!isSupported()) {
+			return;
+		}
+		getExecutor().execute(new Runnable() {
+			@Override
+			public void run() {
+				int step = Math.max(1, batchSize);
+				for (int i = 0; i < classes.size(); i += step) {
+					if (i > 0 && pauseMs > 0) {
+						try {
+							Thread.sleep(pauseMs);
+						} catch (InterruptedException e) {
+							logger.warn("Re-transformation of loaded classes is interrupted");
+							Thread.currentThread().interrupt();
+							return;
+						}
+					}
+					retransformBatch(classes.subList(i, Math.min(classes.size(), i + step)));
+				}
+				logger.info("Re-transformation of {} loaded classes is completed", classes.size());
+				if (onComplete != null) {
+					onComplete.run();
+				}
+			}
+		});
+	}
+
+	private void retransformBatch(List<Class<?>> batch) {
+		List<Class<?>> modifiable = new ArrayList<>(batch.size());
+		for (Class<?> c : batch) {
+			if (instrumentation.isModifiableClass(c)) {
+				modifiable.add(c);
+			}
+		}
+		if (modifiable.isEmpty()) {
+			return;
+		}
+		try {
+			instrumentation.retransformClasses(modifiable.toArray(new Class<?>[0]));
+		} catch (Throwable e) {
+			// the whole batch is rejected if any class fails, so re-try one by one to skip only the failed classes
+			logger.debug("Failed to re-transform a batch of classes, re-try one by one", e);
+			for (Class<?> c : modifiable) {
+				retransform(c);
+			}
+		}
+	}
+
+	private void retransform(Class<?> c) {
+		try {
+			if (instrumentation.isModifiableClass(c)) {
+				instrumentation.retransformClasses(c);
+			}
+		} catch (Throwable e) {
+			// e.g. UnmodifiableClassException or VerifyError
+			logger.warn("Failed to re-transform class {}", c.getName(), e);
+		}
+	}
+
+	private synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "XMX-Retransformer");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return executor;
+	}
+}
@@ -0,0 +1,70 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.core;
+
+import java.util.*;
+
+/**
+ * Immutable snapshot of the managed classes, used by the read-only methods of the XMX service,
+ * e.g. from Web UI and JMX.
+ * <p/>
+ * The snapshot is identified by the epoch of the classes registry, which is incremented on each
+ * registration or removal of a managed class. The readers re-build the snapshot only if the epoch
+ * is changed, and never lock the registry, so the application threads are not blocked by them.
+ */
+final class ManagedClassesSnapshot {
+
+	private final int epoch;
+
+	/**
+	 * All managed classes, sorted by ID.
+	 */
+	private final List<XmxClassManager> classes;
+
+	/**
+	 * The managed classes grouped by the application name, sorted by ID.
+	 */
+	private final Map<String, List<XmxClassManager>> classesByAppName;
+
+	ManagedClassesSnapshot(int epoch, Collection<XmxClassManager> registeredClasses) {
+		this.epoch = epoch;
+
+		List<XmxClassManager> sortedClasses = new ArrayList<>(registeredClasses);
+		Collections.sort(sortedClasses, new Comparator<XmxClassManager>() {
+			@Override
+			public int compare(XmxClassManager c1, XmxClassManager c2) {
+				return Integer.compare(c1.getId(), c2.getId());
+			}
+		});
+
+		Map<String, List<XmxClassManager>> byAppName = new HashMap<>();
+		for (XmxClassManager classInfo : sortedClasses) {
+			String appName = classInfo.getAppInfo().getName();
+			List<XmxClassManager> appClasses = byAppName.get(appName);
+			if (appClasses == null) {
+				appClasses = new ArrayList<>();
+				byAppName.put(appName, appClasses);
+			}
+			appClasses.add(classInfo);
+		}
+		for (Map.Entry<String, List<XmxClassManager>> e : byAppName.entrySet()) {
+			e.setValue(Collections.unmodifiableList(e.getValue()));
+		}
+
+		this.classes = Collections.unmodifiableList(sortedClasses);
+		this.classesByAppName = byAppName;
+	}
+
+	int getEpoch() {
+		return epoch;
+	}
+
+	List<XmxClassManager> getClasses() {
+		return classes;
+	}
+
+	List<XmxClassManager> getAppClasses(String appName) {
+		List<XmxClassManager> appClasses = classesByAppName.get(appName);
+		return appClasses == null ? Collections.<XmxClassManager>emptyList() : appClasses;
+	}
+}
@@ -19,7 +19,13 @@ public class ManagedObjectWeakRef extends WeakReference<Object> {
 	final int objectId;
 	final XmxClassManager classInfo;
 
-	ObjectName jmxObjectName;
+	/**
+	 * Identity hash code of the referent, used for removal from {@link ManagedObjectsIdentityIndex}
+	 * after the referent is GC'ed.
+	 */
+	final int identityHash;
+
+	volatile ObjectName jmxObjectName;
 
 	// TODO maybe move to plugin info
 	WeakReference<Object> springProxy;
@@ -31,6 +37,7 @@ public class ManagedObjectWeakRef extends WeakReference<Object> {
 		super(referent, q);
 		this.objectId = objectId;
 		this.classInfo = classInfo;
+		this.identityHash = System.identityHashCode(referent);
 		this.jmxObjectName = jmxObjectName;
 	}
 
@@ -0,0 +1,90 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.core;
+
+import com.gilecode.xmx.util.ConcurrentIntMap;
+
+import java.util.Arrays;
+
+/**
+ * Weak identity index of the managed objects, which allows to find the managed object reference
+ * by the object itself in O(1).
+ * <p/>
+ * The references are mapped by the identity hash codes of the referents, which are saved in the
+ * references, so that GC'ed references may be removed too. Lookups are lock-free, and the
+ * modifications are synchronized on lock stripes.
+ */
+class ManagedObjectsIdentityIndex {
+
+	/**
+	 * Maps identity hash codes to the immutable arrays of references with such hash code.
+	 */
+	private final ConcurrentIntMap<ManagedObjectWeakRef[]> refsByHash;
+
+	private final Object[] locks;
+
+	ManagedObjectsIdentityIndex(int initialCapacity, int concurrencyLevel) {
+		this.refsByHash = new ConcurrentIntMap<>(initialCapacity, concurrencyLevel);
+		int nLocks = Integer.highestOneBit(Math.max(concurrencyLevel, 1) * 2 - 1);
+		this.locks = new Object[nLocks];
+		for (int i = 0; i < nLocks; i++) {
+			locks[i] = new Object();
+		}
+	}
+
+	private Object lockFor(int hash) {
+		return locks[(hash ^ (hash >>> 16)) & (locks.length - 1)];
+	}
+
+	/**
+	 * Finds the reference to the specified managed object, or returns {@code null} if the object is
+	 * not managed.
+	 */
+	ManagedObjectWeakRef find(Object obj) {
+		ManagedObjectWeakRef[] refs = refsByHash.get(System.identityHashCode(obj));
+		if (refs != null) {
+			for (ManagedObjectWeakRef ref : refs) {
+				if (ref.get() == obj) {
+					return ref;
+				}
+			}
+		}
+		return null;
+	}
+
+	void add(ManagedObjectWeakRef ref) {
+		int hash = ref.identityHash;
+		synchronized (lockFor(hash)) {
+			ManagedObjectWeakRef[] refs = refsByHash.get(hash);
+			if (refs == null) {
+				refs = new ManagedObjectWeakRef[]{ref};
+			} else {
+				refs = Arrays.copyOf(refs, refs.length + 1);
+				refs[refs.length - 1] = ref;
+			}
+			refsByHash.put(hash, refs);
+		}
+	}
+
+	void remove(ManagedObjectWeakRef ref) {
+		int hash = ref.identityHash;
+		synchronized (lockFor(hash)) {
+			ManagedObjectWeakRef[] refs = refsByHash.get(hash);
+			if (refs == null) {
+				return;
+			}
+			int n = 0;
+			ManagedObjectWeakRef[] remaining = new ManagedObjectWeakRef[refs.length];
+			for (ManagedObjectWeakRef r : refs) {
+				if (r != ref) {
+					remaining[n++] = r;
+				}
+			}
+			if (n == 0) {
+				refsByHash.remove(hash);
+			} else if (n < refs.length) {
+				refsByHash.put(hash, n == remaining.length ? remaining : Arrays.copyOf(remaining, n));
+			}
+		}
+	}
+}
@@ -0,0 +1,248 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.core;
+
+import com.gilecode.xmx.core.jmx.JmxSupport;
+import com.gilecode.xmx.service.IXmxService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Publishes managed objects to JMX asynchronously, in a background thread.
+ * <p/>
+ * The registration and unregistration requests are added to a bounded queue, and applied
+ * to the MBean server in batches, so that the constructors of the managed objects are not
+ * slowed down by the MBean server. All JMX names of the managed objects, and the JMX state of
+ * the class managers, are only assigned in the publisher thread, so no additional synchronization
+ * is required for them.
+ * <p/>
+ * If the queue is full, the registration requests are kept aside and retried once the queue is
+ * drained. The number of such delayed requests is bounded too; beyond that limit, the objects are
+ * not published to JMX at all, and only their count is reported once the backlog drains.
+ */
+class ManagedObjectsJmxPublisher {
+
+	private final static Logger logger = LoggerFactory.getLogger(ManagedObjectsJmxPublisher.class);
+
+	private static final int QUEUE_CAPACITY = 16 * 1024;
+	private static final int MAX_BATCH_SIZE = 256;
+	private static final long DROPPED_RETRY_DELAY_MS = 100;
+	private static final int MAX_DROPPED_REGISTRATIONS = 64 * 1024;
+
+	private final IXmxService xmxService;
+	private final MBeanServer jmxServer;
+	private final BlockingQueue<Event> queue;
+	private final int maxDroppedRegistrations;
+
+	/**
+	 * The objects which registration requests did not fit into the queue.
+	 */
+	private final Queue<ManagedObjectWeakRef> droppedRegistrations = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * The size of {@link #droppedRegistrations}, tracked separately as the size of the concurrent queue
+	 * is not a constant-time operation.
+	 */
+	private final AtomicInteger droppedCount = new AtomicInteger();
+
+	/**
+	 * The number of objects which are not published at all since the last overflow report.
+	 */
+	private final AtomicInteger skippedCount = new AtomicInteger();
+
+	/**
+	 * Whether the current queue overflow is reported; reset once the backlog drains, so that each
+	 * overflow is reported.
+	 */
+	private volatile boolean overflowReported;
+
+	private static final class Event {
+		final ManagedObjectWeakRef objRef;
+		final boolean register;
+
+		Event(ManagedObjectWeakRef objRef, boolean register) {
+			this.objRef = objRef;
+			this.register = register;
+		}
+	}
+
+	ManagedObjectsJmxPublisher(IXmxService xmxService, MBeanServer jmxServer) {
+		this(xmxService, jmxServer, QUEUE_CAPACITY, MAX_DROPPED_REGISTRATIONS);
+	}
+
+	ManagedObjectsJmxPublisher(IXmxService xmxService, MBeanServer jmxServer, int queueCapacity,
+			int maxDroppedRegistrations) {
+		this.xmxService = xmxService;
+		this.jmxServer = jmxServer;
+		this.queue = new ArrayBlockingQueue<>(queueCapacity);
+		this.maxDroppedRegistrations = maxDroppedRegistrations;
+	}
+
+	void start() {
+		Thread publisherThread = new Thread("XMX-JmxPublisher") {
+			@Override
+			public void run() {
+				List<Event> batch = new ArrayList<>(MAX_BATCH_SIZE);
+				while (true) {
+					try {
+						Event event = droppedRegistrations.isEmpty() ? queue.take()
+								: queue.poll(DROPPED_RETRY_DELAY_MS, TimeUnit.MILLISECONDS);
+						if (event != null) {
+							batch.add(event);
+							queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+						}
+						if (queue.isEmpty()) {
+							addDroppedRegistrations(batch);
+						}
+						processBatch(batch);
+						if (overflowReported && droppedCount.get() == 0 && queue.isEmpty()) {
+							reportOverflowEnd();
+						}
+					} catch (InterruptedException ignored) {
+					} catch (RuntimeException e) {
+						logger.error("Failed to publish managed objects to JMX", e);
+					} finally {
+						batch.clear();
+					}
+				}
+			}
+		};
+		publisherThread.setDaemon(true);
+		publisherThread.start();
+	}
+
+	/**
+	 * Requests registration of the managed object as JMX bean. Never blocks; if the queue is
+	 * full, the object is published later, or not published at all if too many publications are
+	 * delayed already.
+	 */
+	void register(ManagedObjectWeakRef objRef) {
+		if (!queue.offer(new Event(objRef, true))) {
+			if (droppedCount.incrementAndGet() <= maxDroppedRegistrations) {
+				droppedRegistrations.add(objRef);
+			} else {
+				droppedCount.decrementAndGet();
+				skippedCount.incrementAndGet();
+			}
+			if (!overflowReported) {
+				overflowReported = true;
+				logger.warn("JMX publisher queue is full, the publication of some managed objects is delayed");
+			}
+		}
+	}
+
+	/**
+	 * Requests unregistration of the (probably GC'ed) managed object from JMX. Waits for free
+	 * space in the queue if necessary, so no JMX beans are leaked.
+	 * <p/>
+	 * May be skipped for the GC'ed objects which are not published yet, i.e. have no JMX name, as
+	 * the publisher checks that the objects are alive after their registration.
+	 */
+	void unregister(ManagedObjectWeakRef objRef) throws InterruptedException {
+		queue.put(new Event(objRef, false));
+	}
+
+	private void addDroppedRegistrations(List<Event> batch) {
+		ManagedObjectWeakRef objRef;
+		while (batch.size() < MAX_BATCH_SIZE && (objRef = droppedRegistrations.poll()) != null) {
+			droppedCount.decrementAndGet();
+			batch.add(new Event(objRef, true));
+		}
+	}
+
+	private void reportOverflowEnd() {
+		overflowReported = false;
+		int skipped = skippedCount.getAndSet(0);
+		if (skipped > 0) {
+			logger.warn("JMX publisher queue is drained, {} managed objects were not published due to the overflow",
+					skipped);
+		} else {
+			logger.info("JMX publisher queue is drained, all delayed managed objects are published");
+		}
+	}
+
+	private void processBatch(List<Event> batch) {
+		// the objects which are both registered and unregistered in this batch are skipped
+		Set<ManagedObjectWeakRef> unregistered = Collections.newSetFromMap(
+				new IdentityHashMap<ManagedObjectWeakRef, Boolean>());
+		for (Event event : batch) {
+			if (!event.register) {
+				unregistered.add(event.objRef);
+			}
+		}
+
+		for (Event event : batch) {
+			ManagedObjectWeakRef objRef = event.objRef;
+			if (event.register) {
+				if (!unregistered.contains(objRef) && objRef.get() != null) {
+					publish(objRef);
+				}
+			} else {
+				unpublish(objRef);
+			}
+		}
+	}
+
+	private void publish(ManagedObjectWeakRef objRef) {
+		XmxClassManager classInfo = objRef.classInfo;
+		if (objRef.jmxObjectName != null) {
+			// already published, e.g. the registration is retried
+			return;
+		}
+
+		boolean singleton = classInfo.jmxPublishedCount == 0;
+		objRef.jmxObjectName = JmxSupport.registerBean(xmxService, jmxServer, objRef.objectId, classInfo,
+				singleton);
+		if (objRef.jmxObjectName == null) {
+			return;
+		}
+		classInfo.jmxPublishedCount++;
+
+		ManagedObjectWeakRef singletonRef = classInfo.jmxSingletonRef;
+		if (singleton) {
+			classInfo.jmxSingletonRef = objRef;
+		} else if (singletonRef != null) {
+			// another instance is registered in JMX as singleton, so re-register it with id
+			classInfo.jmxSingletonRef = null;
+			JmxSupport.unregisterBean(jmxServer, singletonRef.jmxObjectName);
+			singletonRef.jmxObjectName = JmxSupport.registerBean(xmxService, jmxServer,
+					singletonRef.objectId, classInfo, false);
+			if (singletonRef.jmxObjectName == null) {
+				classInfo.jmxPublishedCount--;
+			}
+		}
+
+		if (objRef.get() == null) {
+			// GC'ed concurrently, so its unregistration might have been skipped by the cleaner
+			unpublish(objRef);
+		}
+	}
+
+	private void unpublish(ManagedObjectWeakRef objRef) {
+		ObjectName jmxObjectName = objRef.jmxObjectName;
+		if (jmxObjectName != null) {
+			objRef.jmxObjectName = null;
+			JmxSupport.unregisterBean(jmxServer, jmxObjectName);
+
+			XmxClassManager classInfo = objRef.classInfo;
+			classInfo.jmxPublishedCount--;
+			if (classInfo.jmxSingletonRef == objRef) {
+				classInfo.jmxSingletonRef = null;
+			}
+		}
+	}
+}
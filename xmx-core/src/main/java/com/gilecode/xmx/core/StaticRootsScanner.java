@@ -0,0 +1,212 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.*;
+
+/**
+ * Walks the objects reachable from the static fields of the application classes, and passes the
+ * found objects to the visitor. Used to find the instances of the managed classes which were created
+ * before XMX was attached to the running JVM.
+ * <p/>
+ * The fields of the objects of the application classes are walked recursively, as well as the elements
+ * of arrays, collections and maps. The internals of other JDK classes are not walked. The number of
+ * visited objects is limited, so the walk is not guaranteed to find all the objects.
+ * <p/>
+ * The classes which are not initialized yet are skipped, as reading their static fields would
+ * initialize them. If the initialization state cannot be checked in the current JVM, nothing is walked.
+ */
+class StaticRootsScanner {
+
+	private final static Logger logger = LoggerFactory.getLogger(StaticRootsScanner.class);
+
+	private static final int MAX_VISITED_OBJECTS = 1_000_000;
+
+	interface IObjectVisitor {
+		void visit(Object obj);
+	}
+
+	private final IObjectVisitor visitor;
+
+	private final Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+
+	private final Deque<Object> pending = new ArrayDeque<>();
+
+	private final Map<Class<?>, List<Field>> instanceFieldsCache = new HashMap<>();
+
+	StaticRootsScanner(IObjectVisitor visitor) {
+		this.visitor = visitor;
+	}
+
+	/**
+	 * Walks the objects reachable from the static fields of the specified classes.
+	 *
+	 * @return the number of visited objects
+	 */
+	int scan(Collection<Class<?>> rootClasses) {
+		ClassInitChecker initChecker = ClassInitChecker.create();
+		if (initChecker == null) {
+			logger.warn("Cannot check whether classes are initialized, the static fields are not scanned");
+			return 0;
+		}
+		for (Class<?> c : rootClasses) {
+			if (isApplicationClass(c) && initChecker.isInitialized(c)) {
+				for (Field f : getDeclaredFields(c)) {
+					if (Modifier.isStatic(f.getModifiers())) {
+						enqueue(readField(f, null));
+					}
+				}
+				walkPending();
+				if (visited.size() >= MAX_VISITED_OBJECTS) {
+					logger.info("Reached the limit of visited objects, the scan of static fields is stopped");
+					break;
+				}
+			}
+		}
+		return visited.size();
+	}
+
+	private void walkPending() {
+		Object obj;
+		while ((obj = pending.poll()) != null) {
+			visitor.visit(obj);
+			Class<?> c = obj.getClass();
+			if (c.isArray()) {
+				if (!c.getComponentType().isPrimitive()) {
+					int len = Array.getLength(obj);
+					for (int i = 0; i < len; i++) {
+						enqueue(Array.get(obj, i));
+					}
+				}
+			} else if (obj instanceof Collection) {
+				for (Object e : safeToArray((Collection<?>) obj)) {
+					enqueue(e);
+				}
+			} else if (obj instanceof Map) {
+				Map<?, ?> map = (Map<?, ?>) obj;
+				for (Object e : safeToArray(map.keySet())) {
+					enqueue(e);
+				}
+				for (Object e : safeToArray(map.values())) {
+					enqueue(e);
+				}
+			} else if (isApplicationClass(c)) {
+				for (Field f : getInstanceFields(c)) {
+					enqueue(readField(f, obj));
+				}
+			}
+		}
+	}
+
+	private void enqueue(Object obj) {
+		if (obj != null && visited.size() < MAX_VISITED_OBJECTS && visited.add(obj)) {
+			pending.add(obj);
+		}
+	}
+
+	private List<Field> getInstanceFields(Class<?> c) {
+		List<Field> fields = instanceFieldsCache.get(c);
+		if (fields == null) {
+			fields = new ArrayList<>();
+			for (Class<?> cur = c; cur != null && isApplicationClass(cur); cur = cur.getSuperclass()) {
+				for (Field f : getDeclaredFields(cur)) {
+					if (!Modifier.isStatic(f.getModifiers())) {
+						fields.add(f);
+					}
+				}
+			}
+			instanceFieldsCache.put(c, fields);
+		}
+		return fields;
+	}
+
+	/**
+	 * Returns the accessible declared fields of non-primitive types.
+	 */
+	private static List<Field> getDeclaredFields(Class<?> c) {
+		Field[] declaredFields;
+		try {
+			declaredFields = c.getDeclaredFields();
+		} catch (Throwable e) {
+			// e.g. NoClassDefFoundError for types of fields
+			return Collections.emptyList();
+		}
+		List<Field> result = new ArrayList<>(declaredFields.length);
+		for (Field f : declaredFields) {
+			if (!f.getType().isPrimitive()) {
+				try {
+					f.setAccessible(true);
+					result.add(f);
+				} catch (RuntimeException e) {
+					// inaccessible module, skip
+				}
+			}
+		}
+		return result;
+	}
+
+	private static Object readField(Field f, Object obj) {
+		try {
+			return f.get(obj);
+		} catch (Throwable e) {
+			return null;
+		}
+	}
+
+	private static Object[] safeToArray(Collection<?> coll) {
+		try {
+			return coll.toArray();
+		} catch (RuntimeException e) {
+			// e.g. concurrent modification, or a custom collection which cannot be iterated
+			return new Object[0];
+		}
+	}
+
+	private static boolean isApplicationClass(Class<?> c) {
+		return c.getClassLoader() != null;
+	}
+
+	/**
+	 * Checks whether the classes are initialized, without initializing them.
+	 */
+	private static class ClassInitChecker {
+		private final Object unsafe;
+		private final Method shouldBeInitializedMethod;
+
+		private ClassInitChecker(Object unsafe, Method shouldBeInitializedMethod) {
+			this.unsafe = unsafe;
+			this.shouldBeInitializedMethod = shouldBeInitializedMethod;
+		}
+
+		/**
+		 * Creates the checker, or returns {@code null} if not supported by JVM.
+		 */
+		static ClassInitChecker create() {
+			try {
+				Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+				Field theUnsafeField = unsafeClass.getDeclaredField("theUnsafe");
+				theUnsafeField.setAccessible(true);
+				Method m = unsafeClass.getMethod("shouldBeInitialized", Class.class);
+				return new ClassInitChecker(theUnsafeField.get(null), m);
+			} catch (Exception e) {
+				logger.debug("Unsafe.shouldBeInitialized() is not available", e);
+				return null;
+			}
+		}
+
+		boolean isInitialized(Class<?> c) {
+			try {
+				return !(Boolean) shouldBeInitializedMethod.invoke(unsafe, c);
+			} catch (Exception e) {
+				return false;
+			}
+		}
+	}
+}
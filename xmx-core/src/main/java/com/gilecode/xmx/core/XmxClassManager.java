@@ -3,10 +3,12 @@
 package com.gilecode.xmx.core;
 
 import com.gilecode.xmx.cfg.IXmxConfig;
+import com.gilecode.xmx.core.instrument.XmxManagedClassTransformer;
 import com.gilecode.xmx.core.jmx.JmxSupport;
 import com.gilecode.xmx.service.ISignatureService;
 import com.gilecode.xmx.service.IXmxClassMembersLookup;
 import com.gilecode.xmx.service.SignatureService;
+import com.gilecode.xmx.util.ConcurrentIntMap;
 import com.gilecode.xmx.util.ReflectionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -17,6 +19,9 @@ import java.lang.ref.WeakReference;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class XmxClassManager {
 
@@ -44,6 +49,40 @@ public class XmxClassManager {
 	 */
 	private final int maxInstances;
 	
+	/**
+	 * If greater than 1, only each N-th (in average) new instance is managed, and the instances
+	 * over the max instances limit are not disabled permanently, so that the sample is refreshed
+	 * as the managed instances are GC'ed.
+	 */
+	private final int sampleRate;
+
+	/**
+	 * If positive, new instances are registered only if they are still alive after this delay (in ms).
+	 */
+	private final int registerAfterMs;
+
+	/**
+	 * Whether to remove the registration of new instances from the class bytecode when the max
+	 * instances limit is reached, and re-add it when the number of instances drops below the
+	 * low-water mark.
+	 */
+	private final boolean unhookOnMaxInstances;
+
+	/**
+	 * Whether the registration of new instances is currently removed from the class bytecode.
+	 */
+	private final AtomicBoolean unhooked = new AtomicBoolean();
+
+	/**
+	 * Whether this class manager is already stored to the registration token field of the class.
+	 */
+	private volatile boolean registrationTokenBound;
+
+	/**
+	 * Whether GC'ed instances are found by periodic sweeps rather than by the reference queue.
+	 */
+	private final boolean sweepCleanup;
+
 	/**
 	 * Part of JMX ObjectName (without object ID) used for managed 
 	 * class instances, or {@code null} if they do not need to be
@@ -52,6 +91,17 @@ public class XmxClassManager {
 	private final String jmxObjectNamePart;
 	private final IXmxConfig config;
 
+	/**
+	 * References to the managed objects of this class, mapped by object IDs.
+	 */
+	private final ConcurrentIntMap<ManagedObjectWeakRef> objects = new ConcurrentIntMap<>(2, 4);
+
+	/**
+	 * Count of the managed objects of this class, including ones for which the registration
+	 * is in progress. Used to check {@link #maxInstances} limit without locks.
+	 */
+	private final AtomicInteger instancesCount = new AtomicInteger();
+
 	//
 	// these fields are set during init()
 	//
@@ -59,14 +109,7 @@ public class XmxClassManager {
 	/**
 	 * The managed class.
 	 */
-	private Class<?> clazz;
-
-	/**
-	 * Managed objects of this class, if any.
-	 * <strong>NOTE:</strong> This set is not thread-safe, require
-	 * external synchronization.
-	 */
-	private Set<Integer> objectIds;
+	private volatile Class<?> clazz;
 
 	private IXmxClassMembersLookup membersLookup;
 
@@ -76,9 +119,10 @@ public class XmxClassManager {
 
 	/**
 	 * JMX model for managed class instances, or {@code null}
-	 * if they need not to be published to JMX.
+	 * if they need not to be published to JMX. Assigned under the lock in init(), but read
+	 * without it by the registering threads.
 	 */
-	private ModelMBeanInfoSupport jmxClassModel;
+	private volatile ModelMBeanInfoSupport jmxClassModel;
 
 	/**
 	 * Cached list of managed methods mapped by unique IDs.
@@ -91,23 +135,41 @@ public class XmxClassManager {
 	 */
 	private WeakReference<Map<String, Field>> cachedManagedFieldsRef;
 
-	private boolean disabledByMaxInstances; // TODO maybe extend to custom flags
+	//
+	// the JMX publication state is only accessed by ManagedObjectsJmxPublisher thread
+	//
+
+	/**
+	 * Count of the managed objects of this class currently published to JMX.
+	 */
+	int jmxPublishedCount;
+
+	/**
+	 * The only published managed object, if it is published as singleton, i.e. without ID in its name.
+	 */
+	ManagedObjectWeakRef jmxSingletonRef;
+
+	private volatile boolean disabledByMaxInstances; // TODO maybe extend to custom flags
 
 	public XmxClassManager(int id, String className, ManagedClassLoaderWeakRef classLoaderInfo,
-	                       int maxInstances, String jmxObjectNamePart, IXmxConfig config) {
+	                       int maxInstances, int sampleRate, int registerAfterMs, boolean unhookOnMaxInstances,
+	                       boolean sweepCleanup, String jmxObjectNamePart, IXmxConfig config) {
 		this.id = id;
 		this.className = className;
 		this.classLoaderInfo = classLoaderInfo;
 		this.maxInstances = maxInstances;
+		this.sampleRate = sampleRate;
+		this.registerAfterMs = registerAfterMs;
+		this.unhookOnMaxInstances = unhookOnMaxInstances;
+		this.sweepCleanup = sweepCleanup;
 		this.jmxObjectNamePart = jmxObjectNamePart;
 		this.config = config;
 		this.membersLookup = null;
 	}
 
-	public void init(Class<?> clazz, boolean initJmxModel) {
-		this.clazz = clazz;
-		this.objectIds = new HashSet<>(2);
+	public synchronized void init(Class<?> clazz, boolean initJmxModel) {
 		this.membersLookup = new ClassMembersLookup();
+		this.clazz = clazz;
 		if (initJmxModel) {
 			jmxClassModel = JmxSupport.createModelForClass(clazz, getAppInfo().getName(), getManagedMethods(), getManagedFields(), config);
 
@@ -116,6 +178,19 @@ public class XmxClassManager {
 		logger.debug("Initialized class info for class (classId={})", getClassName(), getId());
 	}
 
+	/**
+	 * Initializes this class info unless already initialized.
+	 */
+	public void ensureInitialized(Class<?> clazz, boolean initJmxModel) {
+		if (!isInitialized()) {
+			synchronized (this) {
+				if (!isInitialized()) {
+					init(clazz, initJmxModel);
+				}
+			}
+		}
+	}
+
 	public boolean isInitialized() {
 		return clazz != null;
 	}
@@ -124,10 +199,9 @@ public class XmxClassManager {
 	 * Resets the previous initialization, reverts to uninitialized form with only basic information about the 
 	 * class. This method may be invoked only when there are no alive managed instances of the class left.
 	 */
-	// synchronized // NOTE: actually, all uses are synchronized on XmxManager.instance, similar to all accesses to objectIds
-	public void reset() {
+	public synchronized void reset() {
 
-		if (objectIds != null && objectIds.size() > 0) {
+		if (instancesCount.get() > 0) {
 			throw new IllegalStateException("Cannot reset ManagedClassInfo while some instances are still "
 					+ "alive; class=" + className);
 		}
@@ -136,7 +210,6 @@ public class XmxClassManager {
 		this.cachedManagedMethodsRef = null;
 		this.jmxClassModel = null;
 		this.disabledByMaxInstances = false;
-		this.objectIds = null;
 		this.clazz = null; // required for Class GC
 
 		logger.debug("Reset class {} (classId={})", getClassName(), getId());
@@ -204,14 +277,171 @@ public class XmxClassManager {
 		this.disabledByMaxInstances = disabledByMaxInstances;
 	}
 
-	public Set<Integer> getObjectIds() {
-		return objectIds;
+	/**
+	 * Disables the management of new instances when the max instances limit is reached, unless the class is
+	 * sampled, so that the GC'ed instances in the sample are replaced by the new ones.
+	 *
+	 * @return whether the management is disabled by this call
+	 */
+	public boolean disableOnMaxInstances() {
+		if (isSampled() || disabledByMaxInstances) {
+			return false;
+		}
+		disabledByMaxInstances = true;
+		return true;
+	}
+
+	/**
+	 * Reserves a slot for a new managed instance, unless the max instances limit is reached.
+	 * If successful, the caller shall either add the object with {@link #addObject(ManagedObjectWeakRef)},
+	 * or release the slot with {@link #releaseInstances(int)}.
+	 *
+	 * @return the number of other instances, or {@code -1} if the limit is reached
+	 */
+	public int tryReserveInstance() {
+		while (true) {
+			int count = instancesCount.get();
+			if (count >= maxInstances) {
+				return -1;
+			}
+			if (instancesCount.compareAndSet(count, count + 1)) {
+				return count;
+			}
+		}
+	}
+
+	/**
+	 * Releases slots of the removed (or not registered) managed instances.
+	 *
+	 * @param count the number of the removed instances
+	 * @return the number of remaining instances
+	 */
+	public int releaseInstances(int count) {
+		return instancesCount.addAndGet(-count);
+	}
+
+	/**
+	 * Resets this class info if there are no managed instances left. Unlike {@link #reset()},
+	 * this method is safe to call concurrently with new instances registration.
+	 *
+	 * @return whether the reset was performed
+	 */
+	public synchronized boolean resetIfNoInstances() {
+		if (instancesCount.get() == 0 && isInitialized()) {
+			reset();
+			return true;
+		}
+		return false;
+	}
+
+	void addObject(ManagedObjectWeakRef ref) {
+		objects.put(ref.objectId, ref);
+	}
+
+	boolean removeObject(ManagedObjectWeakRef ref) {
+		return objects.remove(ref.objectId, ref);
+	}
+
+	/**
+	 * Returns the count of managed instances of this class.
+	 */
+	public int getObjectsCount() {
+		return instancesCount.get();
+	}
+
+	/**
+	 * Returns a snapshot of IDs of the managed objects of this class.
+	 */
+	public int[] getObjectIds() {
+		return objects.keys();
+	}
+
+	/**
+	 * Returns references to the managed objects of this class. The contents is not copied, and
+	 * the iteration is weakly consistent, i.e. may or may not reflect the concurrent modifications.
+	 */
+	public Iterable<ManagedObjectWeakRef> getObjectRefs() {
+		return new Iterable<ManagedObjectWeakRef>() {
+			@Override
+			public Iterator<ManagedObjectWeakRef> iterator() {
+				return objects.valuesIterator();
+			}
+		};
 	}
 	
 	public int getMaxInstances() {
 		return maxInstances;
 	}
 
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+	public boolean isSampled() {
+		return sampleRate > 1;
+	}
+
+	/**
+	 * Randomly decides whether a new instance shall be included into the managed sample.
+	 */
+	public boolean sampleNewInstance() {
+		return sampleRate <= 1 || ThreadLocalRandom.current().nextInt(sampleRate) == 0;
+	}
+
+	public int getRegisterAfterMs() {
+		return registerAfterMs;
+	}
+
+	/**
+	 * Stores this class manager as the registration token to the synthetic static field of the
+	 * managed class, so that further registrations of its instances skip the lookup by the class ID.
+	 * Only the first invocation has effect.
+	 */
+	void bindRegistrationToken(Class<?> c) {
+		if (registrationTokenBound) {
+			return;
+		}
+		registrationTokenBound = true;
+		try {
+			Field tokenField = c.getDeclaredField(XmxManagedClassTransformer.REGISTRATION_TOKEN_FIELD);
+			tokenField.setAccessible(true);
+			tokenField.set(null, this);
+		} catch (Exception e) {
+			// e.g. inaccessible module; the registration still works, but somewhat slower
+			logger.debug("Failed to bind registration token for class {}", className, e);
+		}
+	}
+
+	public boolean isUnhookOnMaxInstances() {
+		return unhookOnMaxInstances;
+	}
+
+	/**
+	 * Returns the number of instances, below which the registration of new instances is
+	 * re-added after being removed because of the max instances limit.
+	 */
+	public int getRehookInstancesCount() {
+		return maxInstances / 2;
+	}
+
+	public boolean isUnhooked() {
+		return unhooked.get();
+	}
+
+	/**
+	 * Atomically changes the "unhooked" state, i.e. whether the registration of new instances is
+	 * removed from the class bytecode.
+	 *
+	 * @return whether the state was actually changed
+	 */
+	public boolean setUnhooked(boolean unhooked) {
+		return this.unhooked.compareAndSet(!unhooked, unhooked);
+	}
+
+	public boolean isSweepCleanup() {
+		return sweepCleanup;
+	}
+
 	// NOTE: no ID and JMX info in hashCode & equals! That's OK as it not used as Map keys
 	@Override
 	public int hashCode() {
@@ -4,16 +4,23 @@ package com.gilecode.xmx.core;
 
 
 import com.gilecode.specr.SpeculativeProcessorFactory;
+import com.gilecode.xmx.aop.data.AdviceClassInfo;
 import com.gilecode.xmx.aop.data.AdviceLoadResult;
 import com.gilecode.xmx.aop.impl.XmxAopManager;
 import com.gilecode.xmx.aop.log.IAdviceLogger;
 import com.gilecode.xmx.boot.IXmxAopService;
 import com.gilecode.xmx.boot.XmxURLClassLoader;
+import com.gilecode.xmx.cfg.ClassConfigView;
 import com.gilecode.xmx.cfg.IAppPropertiesSource;
 import com.gilecode.xmx.cfg.IXmxConfig;
 import com.gilecode.xmx.cfg.Properties;
 import com.gilecode.xmx.cfg.PropertyValue;
+import com.gilecode.xmx.cfg.pattern.ClassNamePrefilter;
+import com.gilecode.xmx.core.cache.CachedTransformation;
+import com.gilecode.xmx.core.cache.TransformCache;
+import com.gilecode.xmx.core.instrument.BindableIds;
 import com.gilecode.xmx.core.instrument.ClassWriterWithCustomLoader;
+import com.gilecode.xmx.core.instrument.XmxAroundMethodSplitter;
 import com.gilecode.xmx.core.instrument.XmxManagedClassTransformer;
 import com.gilecode.xmx.core.jmx.JmxSupport;
 import com.gilecode.xmx.log.AdviceLoggerWrapper;
@@ -21,7 +28,9 @@ import com.gilecode.xmx.model.*;
 import com.gilecode.xmx.plugin.IXmxPlugin;
 import com.gilecode.xmx.server.IXmxServerLauncher;
 import com.gilecode.xmx.service.IXmxCoreService;
+import com.gilecode.xmx.service.IXmxObjectsVisitor;
 import com.gilecode.xmx.spring.XmxSpringManager;
+import com.gilecode.xmx.util.ConcurrentIntMap;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.Opcodes;
@@ -29,22 +38,24 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.management.MBeanServer;
-import javax.management.ObjectName;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.lang.instrument.Instrumentation;
 import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
 import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.jar.JarFile;
 import java.util.regex.Pattern;
 
-public final class XmxManager implements IXmxCoreService {
+public final class XmxManager implements IXmxCoreService, DeferredObjectsRegistrar.IPromotionTarget {
 
 	private final static Logger logger = LoggerFactory.getLogger(XmxManager.class);
 
@@ -53,23 +64,41 @@ public final class XmxManager implements IXmxCoreService {
 
 	private static final String LAUNCHER_CLASS_ATTR = "XMX-Server-Launcher-Class";
 
+	// max number of GC'ed objects cleaned at once
+	private static final int CLEANER_BATCH_SIZE = 4096;
+
+	// how many milliseconds to wait between sweeps of the classes with sweep cleanup
+	private static final int CLEANER_SWEEP_INTERVAL = 1_000;
+
 	private final IXmxConfig config;
+	private final ClassNamePrefilter managedClassesPrefilter;
 	private final File homeDir;
 	private final XmxAopManager xmxAopManager;
+	private final TransformCache transformCache;
 	private MBeanServer jmxServer;
+	private ManagedObjectsJmxPublisher jmxPublisher;
 	private List<IXmxPlugin> plugins = new ArrayList<>(2);
 
 	XmxManager(IXmxConfig config, File homeDir) {
 		this.config = config;
+		this.managedClassesPrefilter = config.getManagedClassesPrefilter();
 		this.homeDir = homeDir;
 		if (isEnabled()) {
-			this.xmxAopManager = new XmxAopManager(homeDir, config.getConfigurationFile().getParentFile());
-			startCleanerThreads();
+			this.xmxAopManager = new XmxAopManager(homeDir, config.getConfigurationFile().getParentFile(),
+					config.getSystemProperty(Properties.GLOBAL_ADVICES_SHARE_LOADERS).asBool(),
+					config.getSystemProperty(Properties.GLOBAL_ADVICES_DIRECT_INVOCATION).asBool());
+			this.transformCache = config.getSystemProperty(Properties.GLOBAL_TRANSFORM_CACHE_ENABLED).asBool()
+					? TransformCache.open(new File(config.getConfigurationFile().getParentFile(), "cache"))
+					: null;
 			if (config.getSystemProperty(Properties.GLOBAL_JMX_ENABLED).asBool()) {
 				// TODO maybe create a custom server instead, with custom connectors etc.
 				jmxServer = ManagementFactory.getPlatformMBeanServer();
+				jmxPublisher = new ManagedObjectsJmxPublisher(this, jmxServer);
+				jmxPublisher.start();
+				JmxSupport.registerJoinPointsControl(this, jmxServer);
 				logger.debug("JMX Bridge is started");
 			}
+			startCleanerThreads();
 			if (config.getSystemProperty(Properties.GLOBAL_EMB_SERVER_ENABLED).asBool()) {
 				startUI();
 			}
@@ -77,6 +106,7 @@ public final class XmxManager implements IXmxCoreService {
 			plugins.add(new XmxSpringManager(this));
 		} else {
 			this.xmxAopManager = null;
+			this.transformCache = null;
 			logger.warn("XMX functionality is disabled by configuration");
 		}
 	}
@@ -99,8 +129,25 @@ public final class XmxManager implements IXmxCoreService {
 	/**
 	 * Storage of weak references to each managed objects, mapped by object ID
 	 */
-	private Map<Integer, ManagedObjectWeakRef> objectsStorage = new HashMap<>(64*1024);
+	private final ConcurrentIntMap<ManagedObjectWeakRef> objectsStorage = new ConcurrentIntMap<>(64*1024,
+			4 * Runtime.getRuntime().availableProcessors());
+
+	/**
+	 * Weak identity index of the managed objects, used to find references by objects
+	 */
+	private final ManagedObjectsIdentityIndex objectsIdentityIndex = new ManagedObjectsIdentityIndex(64*1024,
+			4 * Runtime.getRuntime().availableProcessors());
 	
+	/**
+	 * Buffer and promoter for the objects with deferred registration
+	 */
+	private final DeferredObjectsRegistrar deferredRegistrar = new DeferredObjectsRegistrar(this);
+
+	/**
+	 * Used to remove and re-add registration of instances in the managed classes
+	 */
+	private final ManagedClassesRetransformer retransformer = new ManagedClassesRetransformer();
+
 	/**
 	 * Generator of unique IDs for managed objects.
 	 */
@@ -109,7 +156,7 @@ public final class XmxManager implements IXmxCoreService {
 	/**
 	 * Storage of classes info for managed objects
 	 */
-	private ConcurrentMap<Integer, XmxClassManager> classesInfoById = new ConcurrentHashMap<>(32*1024);
+	private final ManagedClassesRegistry classesRegistry = new ManagedClassesRegistry();
 	
 	/**
 	 * Maps appName -> appInfo for each app with managed classes
@@ -130,40 +177,54 @@ public final class XmxManager implements IXmxCoreService {
 	
 	ReferenceQueue<ClassLoader> managedClassLoadersRefQueue = new ReferenceQueue<>();
 
+	/**
+	 * Whether there are managed classes with sweep cleanup, i.e. whether the sweeper has any job to do.
+	 */
+	private volatile boolean sweepCleanupUsed;
+
 	private void startCleanerThreads() {
 		Thread objCleanerThread = new Thread("XMX-ObjCleaner") {
 			@Override
 			public void run() {
+				List<ManagedObjectWeakRef> batch = new ArrayList<>();
 				while (true) {
 					try {
-						ManagedObjectWeakRef objRef = (ManagedObjectWeakRef) managedObjectsRefQueue.remove();
-						synchronized(this) {
-							XmxClassManager classInfo = objRef.classInfo;
-							Set<Integer> objectIds = classInfo.getObjectIds();
-							int objectId = objRef.objectId;
-							if (objectIds != null) {
-								objectIds.remove(objectId);
-							}
-							objectsStorage.remove(objectId);
-							classInfo.getClassLoaderInfo().decrementManagedInstancesCount();
-							logger.debug("Clean GC'ed object id={} of class {}", objectId, classInfo.getClassName());
-
-							if (objRef.jmxObjectName != null) {
-								JmxSupport.unregisterBean(jmxServer, objRef.jmxObjectName);
-								logger.debug("Unregistered bean {}", objRef.jmxObjectName);
-							}
-							if (objectIds != null && objectIds.isEmpty()) {
-								// reset and init are synchronized on classInfo, so there is no race 
-								classInfo.reset();
-							}
-						}
+						batch.add((ManagedObjectWeakRef) managedObjectsRefQueue.remove());
+						drainRefQueue(managedObjectsRefQueue, batch, CLEANER_BATCH_SIZE);
+						cleanObjects(batch);
 					} catch (InterruptedException ignored) {
+					} finally {
+						batch.clear();
 					}
 				}
 			}
 		};
 		objCleanerThread.setDaemon(true);
 		objCleanerThread.start();
+
+		Thread objSweeperThread = new Thread("XMX-ObjSweeper") {
+			@Override
+			public void run() {
+				List<ManagedObjectWeakRef> batch = new ArrayList<>();
+				while (true) {
+					try {
+						Thread.sleep(CLEANER_SWEEP_INTERVAL);
+						if (!sweepCleanupUsed) {
+							continue;
+						}
+						sweepGCedObjects(classesRegistry.getSnapshot().getClasses(), batch);
+						if (!batch.isEmpty()) {
+							cleanObjects(batch);
+						}
+					} catch (InterruptedException ignored) {
+					} finally {
+						batch.clear();
+					}
+				}
+			}
+		};
+		objSweeperThread.setDaemon(true);
+		objSweeperThread.start();
 		
 		Thread classCleanerThread = new Thread("XMX-ClassCleaner") {
 			@Override
@@ -174,13 +235,16 @@ public final class XmxManager implements IXmxCoreService {
 						loaderInfo.getAppInfo().unregisterLoaderClasses(loaderInfo);
 
 						Collection<Integer> classIdsToRemove = loaderInfo.getClassIdsByName().values();
-						classesInfoById.keySet().removeAll(classIdsToRemove);
+						classesRegistry.removeAll(classIdsToRemove);
 						if (logger.isDebugEnabled()) {
 							for (Integer classId : classIdsToRemove) {
 								logger.debug("Clean GC'ed classId={}", classId);
 							}
 						}
 						loaderInfo.getClassIdsByName().clear();
+						for (int[] joinPointIds : loaderInfo.removeAllJoinPoints()) {
+							xmxAopManager.unregisterJoinPoints(joinPointIds);
+						}
 					} catch (InterruptedException ignored) {
 					}
 				}
@@ -189,6 +253,96 @@ public final class XmxManager implements IXmxCoreService {
 		classCleanerThread.setDaemon(true);
 		classCleanerThread.start();
 	}
+
+	/**
+	 * Adds the references already available in the queue to the batch, until the batch is full.
+	 */
+	static void drainRefQueue(ReferenceQueue<Object> refQueue, List<ManagedObjectWeakRef> batch, int maxBatchSize) {
+		Reference<?> ref;
+		while (batch.size() < maxBatchSize && (ref = refQueue.poll()) != null) {
+			batch.add((ManagedObjectWeakRef) ref);
+		}
+	}
+
+	/**
+	 * Adds the references to the GC'ed managed objects of the classes with sweep cleanup to the batch.
+	 */
+	static void sweepGCedObjects(Iterable<XmxClassManager> classes, List<ManagedObjectWeakRef> batch) {
+		for (XmxClassManager classInfo : classes) {
+			if (classInfo.isSweepCleanup() && classInfo.getObjectsCount() > 0) {
+				for (ManagedObjectWeakRef objRef : classInfo.getObjectRefs()) {
+					if (objRef.get() == null) {
+						batch.add(objRef);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes a batch of GC'ed managed objects from all registries. The removed instances are
+	 * counted per class and per class loader, so that the counters are updated once per batch.
+	 */
+	private void cleanObjects(List<ManagedObjectWeakRef> objRefs) throws InterruptedException {
+		Map<XmxClassManager, int[]> removedCountsByClass = new IdentityHashMap<>();
+		for (ManagedObjectWeakRef objRef : objRefs) {
+			if (!objectsStorage.remove(objRef.objectId, objRef)) {
+				// already cleaned
+				continue;
+			}
+			objectsIdentityIndex.remove(objRef);
+			XmxClassManager classInfo = objRef.classInfo;
+			classInfo.removeObject(objRef);
+
+			int[] removedCount = removedCountsByClass.get(classInfo);
+			if (removedCount == null) {
+				removedCountsByClass.put(classInfo, removedCount = new int[1]);
+			}
+			removedCount[0]++;
+		}
+
+		Map<ManagedClassLoaderWeakRef, int[]> removedCountsByLoader = new IdentityHashMap<>();
+		for (Map.Entry<XmxClassManager, int[]> e : removedCountsByClass.entrySet()) {
+			XmxClassManager classInfo = e.getKey();
+			int removedCount = e.getValue()[0];
+			logger.debug("Clean {} GC'ed objects of class {}", removedCount, classInfo.getClassName());
+
+			int remainingCount = classInfo.releaseInstances(removedCount);
+			if (classInfo.isUnhooked() && remainingCount < classInfo.getRehookInstancesCount()) {
+				// enough instances are GC'ed, so re-add registration of new instances
+				Class<?> managedClass = classInfo.getManagedClass();
+				if (classInfo.setUnhooked(false)) {
+					classInfo.setDisabledByMaxInstances(false);
+					logger.debug("Re-add registration of instances for class {}", classInfo.getClassName());
+					retransformer.scheduleRetransform(managedClass);
+				}
+			}
+			if (remainingCount == 0) {
+				// reset and init are synchronized on classInfo, and reset is skipped if
+				// a new instance is concurrently registered, so there is no race
+				classInfo.resetIfNoInstances();
+			}
+
+			ManagedClassLoaderWeakRef loaderInfo = classInfo.getClassLoaderInfo();
+			int[] loaderCount = removedCountsByLoader.get(loaderInfo);
+			if (loaderCount == null) {
+				removedCountsByLoader.put(loaderInfo, loaderCount = new int[1]);
+			}
+			loaderCount[0] += removedCount;
+		}
+		for (Map.Entry<ManagedClassLoaderWeakRef, int[]> e : removedCountsByLoader.entrySet()) {
+			e.getKey().decrementManagedInstancesCount(e.getValue()[0]);
+		}
+
+		if (jmxPublisher != null) {
+			for (ManagedObjectWeakRef objRef : objRefs) {
+				// the objects which are not published yet are skipped by the publisher, as they are GC'ed
+				if (objRef.jmxObjectName != null) {
+					jmxPublisher.unregister(objRef);
+				}
+			}
+		}
+	}
 	
 	// Inner Implementation of XmxServiceEx API
 
@@ -197,6 +351,86 @@ public final class XmxManager implements IXmxCoreService {
 		return config.getSystemProperty(Properties.GLOBAL_ENABLED).asBool();
 	}
 
+	@Override
+	public void setInstrumentation(Instrumentation instrumentation) {
+		retransformer.setInstrumentation(instrumentation);
+	}
+
+	@Override
+	public void retransformLoadedClasses() {
+		if (!retransformer.isSupported()) {
+			logger.warn("Re-transformation of classes is not supported, the already loaded classes are not managed");
+			return;
+		}
+		final List<Class<?>> candidates = new ArrayList<>();
+		for (Class<?> c : retransformer.getAllLoadedClasses()) {
+			if (isRetransformCandidate(c)) {
+				candidates.add(c);
+			}
+		}
+		logger.info("Re-transforming {} already loaded classes", candidates.size());
+
+		int batchSize = config.getSystemProperty(Properties.GLOBAL_ATTACH_RETRANSFORM_BATCH_SIZE).asInt();
+		int pauseMs = config.getSystemProperty(Properties.GLOBAL_ATTACH_RETRANSFORM_PAUSE_MS).asInt();
+		Runnable onComplete = null;
+		if (config.getSystemProperty(Properties.GLOBAL_ATTACH_SCAN_STATIC_FIELDS).asBool()) {
+			onComplete = new Runnable() {
+				@Override
+				public void run() {
+					registerExistingObjects(candidates);
+				}
+			};
+		}
+		retransformer.scheduleRetransformBatches(candidates, batchSize, pauseMs, onComplete);
+	}
+
+	/**
+	 * Checks whether the class loaded before XMX start shall be re-transformed, i.e. whether it
+	 * is a managed class.
+	 */
+	private boolean isRetransformCandidate(Class<?> c) {
+		ClassLoader loader = c.getClassLoader();
+		if (loader == null || loader instanceof XmxURLClassLoader || c.isArray() || c.isInterface()) {
+			return false;
+		}
+		String className = c.getName();
+		if (className.startsWith("com.gilecode.xmx.") || className.startsWith("com.gilecode.specr.")
+				|| !managedClassesPrefilter.mayMatch(className.replace('.', '/'))) {
+			return false;
+		}
+		return config.getAppConfig(obtainAppNameByLoader(loader)).getClassConfig(className).isManaged();
+	}
+
+	/**
+	 * Finds and registers the existing instances of the re-transformed classes, which are reachable
+	 * from the static fields of the loaded application classes.
+	 */
+	private void registerExistingObjects(List<Class<?>> retransformedClasses) {
+		final Map<Class<?>, Integer> classIds = new IdentityHashMap<>();
+		for (Class<?> c : retransformedClasses) {
+			ManagedClassLoaderWeakRef loaderInfo = getOrInitManagedClassLoader(c.getClassLoader());
+			XmxClassManager classInfo = findClassManager(loaderInfo, c.getName());
+			if (classInfo != null) {
+				classIds.put(c, classInfo.getId());
+			}
+		}
+		if (classIds.isEmpty()) {
+			return;
+		}
+
+		StaticRootsScanner scanner = new StaticRootsScanner(new StaticRootsScanner.IObjectVisitor() {
+			@Override
+			public void visit(Object obj) {
+				Integer classId = classIds.get(obj.getClass());
+				if (classId != null && objectsIdentityIndex.find(obj) == null) {
+					registerObject(obj, null, classId);
+				}
+			}
+		});
+		int visitedCount = scanner.scan(Arrays.asList(retransformer.getAllLoadedClasses()));
+		logger.info("Scanned {} objects reachable from static fields to find existing managed objects", visitedCount);
+	}
+
 	@Override
 	public IXmxAopService getAopService() {
 		return xmxAopManager;
@@ -207,107 +441,128 @@ public final class XmxManager implements IXmxCoreService {
 	 * A new unique ID is generated for an object, and a weak reference to the object is saved into the storage.
 	 */
 	@Override
-	public void registerObject(Object obj, int classId) {
+	public void registerObject(Object obj, Object registrationToken, int classId) {
 		try {
-			_registerObject(obj, classId);
+			_registerObject(obj, registrationToken, classId);
 		} catch (RuntimeException e) {
 			// not really expected. Try-catch used to make sure that XMX bugs do not break users' apps
 			logger.error("Failed to register object, classId={}", classId, e);
 		}
 	}
 
-	private void _registerObject(Object obj, int classId) {
-		Class<?> objClass = obj.getClass();
-		
-		XmxClassManager classInfo = classesInfoById.get(classId);
-		if (classInfo == null) {
-			// not managed anymore
-			return;
-		}
-		if (!classInfo.getClassName().equals(objClass.getName())) {
-			// invoked from a constructor of some superclass
-			// wait until invoked from actual class (or not invoked if it is not managed)
-			return;
+	private void _registerObject(Object obj, Object registrationToken, int classId) {
+		// NOTE: invocations from constructors of superclasses are already filtered out by the injected bytecode
+		XmxClassManager classInfo;
+		if (registrationToken instanceof XmxClassManager) {
+			classInfo = (XmxClassManager) registrationToken;
+		} else {
+			// the first registration, or the token cannot be stored to the class
+			classInfo = classesRegistry.get(classId);
+			if (classInfo == null) {
+				// not managed anymore
+				return;
+			}
+			classInfo.bindRegistrationToken(obj.getClass());
 		}
 		if (classInfo.isDisabled()) {
 			// management temporarily disabled
 			return;
 		}
+		if (!classInfo.sampleNewInstance()) {
+			// not included into the sample
+			return;
+		}
 		// ok, class id corresponds to the actual class
 
-		synchronized(this) {
-			if (!classInfo.isInitialized()) {
-				classInfo.init(objClass, jmxServer != null);
-			}
-			Set<Integer> objectIds = classInfo.getObjectIds();
-			
-			/* - not required anymore, as potential sources if duplicate registration are eliminated;  
-			// check if object is already registered, e.g. from another constructor
-			for (Integer id : objectIds) {
-				// check all registered objects of this class
-				ManagedObjectWeakRef ref = objectsStorage.get(id);
-				if (ref != null) {
-					Object existingObj = ref.get();
-					if (existingObj == obj) {
-						// already registered, skip
-						return;
-					}
-				}
-			}*/
-			
-			int otherInstancesCount = objectIds.size();
-			if (otherInstancesCount >= classInfo.getMaxInstances()) {
-				// limit exceeded
-				if (!classInfo.isDisabledByMaxInstances()) {
-					classInfo.setDisabledByMaxInstances(true);
-					logger.debug("Max instances exceeded for class {} (classId={})", classInfo.getClassName(), classId);
+		int registerAfterMs = classInfo.getRegisterAfterMs();
+		if (registerAfterMs > 0) {
+			// only register if survives the delay
+			deferredRegistrar.addPendingObject(obj, classInfo, registerAfterMs);
+		} else {
+			registerCheckedObject(obj, classInfo);
+		}
+	}
+
+	@Override
+	public void registerPromotedObject(Object obj, XmxClassManager classInfo) {
+		if (!classInfo.isDisabled() && classesRegistry.get(classInfo.getId()) == classInfo) {
+			registerCheckedObject(obj, classInfo);
+		}
+	}
+
+	/**
+	 * Registers an object of the managed class, which is already checked to be eligible for management.
+	 */
+	private void registerCheckedObject(Object obj, XmxClassManager classInfo) {
+		Class<?> objClass = obj.getClass();
+		int classId = classInfo.getId();
+
+		// NOTE: no global locks here, as this method is invoked from constructors of all managed classes
+		int otherInstancesCount = classInfo.tryReserveInstance();
+		if (otherInstancesCount < 0) {
+			// limit exceeded. Sampled classes are never disabled, to replace GC'ed instances in the sample
+			if (classInfo.disableOnMaxInstances()) {
+				logger.debug("Max instances exceeded for class {} (classId={})", classInfo.getClassName(), classId);
+
+				if (classInfo.isUnhookOnMaxInstances() && retransformer.isSupported() && classInfo.setUnhooked(true)) {
+					// remove registration of new instances from the bytecode
+					logger.debug("Remove registration of instances for class {}", classInfo.getClassName());
+					retransformer.scheduleRetransform(objClass);
 				}
-				return;
 			}
-			
-			// not registered yet, store internally and optionally register as JMX bean
-			int objectId = managedObjectsCounter.incrementAndGet();
-			ObjectName jmxObjectName = null;
-			if (jmxServer != null && classInfo.getJmxClassModel() != null) {
-				// register as JMX bean
-				jmxObjectName = JmxSupport.registerBean(this, jmxServer, objectId, classInfo, otherInstancesCount == 0);
-
-				if (otherInstancesCount == 1) {
-					// check if another instance is registered in JMX as singleton. If so,
-					// re-register it with id
-					int anotherObjectId = objectIds.iterator().next();
-					ManagedObjectWeakRef anotherObject = objectsStorage.get(anotherObjectId);
-					ObjectName anotherObjectName = anotherObject.jmxObjectName; 
-					if (anotherObjectName.getKeyProperty("id") == null) {
-						// re-register as non-singleton
-						JmxSupport.unregisterBean(jmxServer, anotherObjectName);
-						anotherObject.jmxObjectName = JmxSupport.registerBean(this, jmxServer, anotherObjectId, classInfo, false);
-					}
+			return;
+		}
+
+		if (otherInstancesCount == 0 || !classInfo.isInitialized()) {
+			// the first instance may race with reset() of the class info, so always synchronize
+			synchronized (classInfo) {
+				if (!classInfo.isInitialized()) {
+					classInfo.init(objClass, jmxServer != null);
 				}
 			}
-			
-			// store internally
-			objectsStorage.put(objectId, new ManagedObjectWeakRef(obj, managedObjectsRefQueue, 
-					objectId, classInfo, jmxObjectName));
-			objectIds.add(objectId);
-			classInfo.getClassLoaderInfo().incrementManagedInstancesCount();
+		}
 
-			if (logger.isDebugEnabled()) {
-				logger.debug("Registered new instance objId={} for class {} (classId={})", objectId,
-						classInfo.getClassName(), classId);
-			}
+		// not registered yet, store internally and optionally register as JMX bean
+		int objectId = managedObjectsCounter.incrementAndGet();
+		ManagedObjectWeakRef objRef = new ManagedObjectWeakRef(obj,
+				classInfo.isSweepCleanup() ? null : managedObjectsRefQueue, objectId, classInfo, null);
+		objectsStorage.put(objectId, objRef);
+		objectsIdentityIndex.add(objRef);
+
+		classInfo.addObject(objRef);
+		classInfo.getClassLoaderInfo().incrementManagedInstancesCount();
+
+		if (jmxPublisher != null && classInfo.getJmxClassModel() != null) {
+			// register as JMX bean asynchronously
+			jmxPublisher.register(objRef);
+		}
+
+		if (logger.isDebugEnabled()) {
+			logger.debug("Registered new instance objId={} for class {} (classId={})", objectId,
+					classInfo.getClassName(), classId);
 		}
 	}
 
-	private WeakHashMap<ClassLoader, String> appNameByLoader = new WeakHashMap<>();
+	/**
+	 * The cached application names, by class loaders. Used by the transforming threads, the re-transformation
+	 * thread and the UI, so guarded by the map itself.
+	 */
+	private final WeakHashMap<ClassLoader, String> appNameByLoader = new WeakHashMap<>();
+
 	private String obtainAppNameByLoader(ClassLoader loader) {
 		if (loader == null) {
 			return "";
 		}
-		String name = appNameByLoader.get(loader);
+		String name;
+		synchronized (appNameByLoader) {
+			name = appNameByLoader.get(loader);
+		}
 		if (name == null) {
+			// the name is extracted out of the lock, as the extractors may load classes
 			name = extractAppNameByLoader(loader);
-			appNameByLoader.put(loader, name);
+			synchronized (appNameByLoader) {
+				appNameByLoader.put(loader, name);
+			}
 		}
 		return name;
 	}
@@ -327,8 +582,48 @@ public final class XmxManager implements IXmxCoreService {
 		return "";
 	}
 	
-	private int getMaxInstances(IAppPropertiesSource appConfig, String className) {
-		int maxInstances = appConfig.getClassProperty(className, Properties.CLASS_MAX_INSTANCES).asInt();
+	/**
+	 * Returns N for the sample rate specified as '1/N' or as a decimal fraction, or 1 if not specified.
+	 */
+	private int getSampleRate(ClassConfigView classConfig) {
+		PropertyValue prop = classConfig.getClassProperty(Properties.CLASS_SAMPLE_RATE);
+		String value = prop == null ? "" : prop.asString();
+		try {
+			return parseSampleRate(value);
+		} catch (NumberFormatException e) {
+			logger.warn("Invalid {} value '{}' for class {}, all instances will be managed",
+					Properties.CLASS_SAMPLE_RATE, value, classConfig.getClassName());
+			return 1;
+		}
+	}
+
+	/**
+	 * Parses the sample rate specified as '1/N' or as a decimal fraction.
+	 *
+	 * @return N, i.e. the rounded inverse of the rate, or 1 if the value is empty
+	 * @throws NumberFormatException if the value is not a number in (0, 1] range
+	 */
+	static int parseSampleRate(String value) {
+		value = value.trim();
+		if (value.isEmpty()) {
+			return 1;
+		}
+		double rate;
+		int slashIdx = value.indexOf('/');
+		if (slashIdx >= 0) {
+			rate = Double.parseDouble(value.substring(0, slashIdx).trim()) /
+					Double.parseDouble(value.substring(slashIdx + 1).trim());
+		} else {
+			rate = Double.parseDouble(value);
+		}
+		if (!(rate > 0 && rate <= 1)) {
+			throw new NumberFormatException("The rate is not in (0, 1] range: " + value);
+		}
+		return (int) Math.min(Math.round(1 / rate), Integer.MAX_VALUE);
+	}
+
+	private int getMaxInstances(ClassConfigView classConfig) {
+		int maxInstances = classConfig.getClassProperty(Properties.CLASS_MAX_INSTANCES).asInt();
 		if (maxInstances < 0) {
 			maxInstances = Integer.MAX_VALUE;
 		}
@@ -341,11 +636,15 @@ public final class XmxManager implements IXmxCoreService {
 	@Override
 	public byte[] transformClassIfInterested(ClassLoader classLoader, String bcClassName, 
 			byte[] classBuffer, Class<?> classBeingRedefined) {
+		if (!managedClassesPrefilter.mayMatch(bcClassName)) {
+			// fast path for most classes, which cannot be managed in any app
+			return null;
+		}
 		try {
 			return _transformClassIfInterested(classLoader, bcClassName, classBuffer, classBeingRedefined);
 		} catch (RuntimeException e) {
 			logger.error("Failed to register class {}", bcClassName, e);
-			return classBuffer;
+			return null;
 		}
 	}
 
@@ -364,12 +663,11 @@ public final class XmxManager implements IXmxCoreService {
 		// convert names obtained from byte-code to Java format (one corresponding to Class.getName())
 		String className = bcClassName.replace('/', '.');
 		
-		boolean isManaged = appConfig.getAppProperty(Properties.APP_ENABLED).asBool() &&
-				config.getAppConfig(appName).getClassProperty(className, Properties.SP_MANAGED).asBool();
+		ClassConfigView classConfig = appConfig.getClassConfig(className);
 
 		// TODO: also check explicit AOP advices
-		if (!isManaged) {
-			return classBuffer;
+		if (!classConfig.isManaged()) {
+			return null;
 		}
 
 		ClassReader cr = new ClassReader(classBuffer);
@@ -377,36 +675,118 @@ public final class XmxManager implements IXmxCoreService {
 		if ((access & (Opcodes.ACC_ENUM | Opcodes.ACC_INTERFACE)) > 0) {
 			// FIXME: maybe re-consider managing abstract classes! (because of AbstractAutowireCapableBeanFactory - required for advices)
 			// only instrument non-abstract classes
-			return classBuffer;
+			return null;
 		}
 
 		ManagedClassLoaderWeakRef classLoaderInfo = getOrInitManagedClassLoader(classLoader);
 		ManagedAppInfo appInfo = classLoaderInfo.getAppInfo();
-		AdviceLoadResult adviceLoadResult = loadPotentialAdvices(appConfig, className, classLoaderInfo);
+		AdviceLoadResult adviceLoadResult = loadPotentialAdvices(classConfig, classLoaderInfo);
 
 		int classId = 0;
 		boolean isAopOnly = (access & Opcodes.ACC_ABSTRACT) > 0;
 		boolean supportAdvices = !adviceLoadResult.isEmpty();
 		if (isAopOnly) {
 			if (!supportAdvices) {
-				return classBuffer;
+				return null;
 			}
 		} else {
-			classId = registerManagedClass(classBeingRedefined, appName, appConfig, className, classLoaderInfo, appInfo);
+			classId = registerManagedClass(classBeingRedefined, appName, classConfig, classLoaderInfo, appInfo);
+		}
+
+		// the registration of instances may be temporarily removed, e.g. when MaxInstances is reached
+		XmxClassManager classInfo = classId > 0 ? classesRegistry.get(classId) : null;
+		boolean registerInstances = classInfo == null || !classInfo.isUnhooked();
+
+		// the fields cannot be added on re-transformation, so the registration token field is only
+		// available if added on the initial load
+		boolean addTokenField = classBeingRedefined == null || hasRegistrationTokenField(classBeingRedefined);
+		// the methods cannot be added or removed on re-transformation, so 'around' advices are only weaved
+		// into the methods split on the initial load
+		Set<String> splitMethods = classBeingRedefined == null ? null :
+				XmxAroundMethodSplitter.findSplitMethods(classBeingRedefined);
+
+		byte[] cacheKey = null;
+		if (transformCache != null) {
+			cacheKey = computeTransformCacheKey(classBuffer, className, classId > 0, registerInstances,
+					addTokenField, splitMethods, classConfig, adviceLoadResult);
+			CachedTransformation cached = transformCache.get(cacheKey);
+			if (cached != null) {
+				int[] joinPointIds = XmxManagedClassTransformer.registerCachedJoinPoints(xmxAopManager, cached,
+						className, adviceLoadResult, classLoaderInfo);
+				if (joinPointIds != null) {
+					logger.debug("Using cached transformation of class {}", className);
+					registerClassJoinPoints(classLoaderInfo, className, joinPointIds, classBeingRedefined != null);
+					return cached.bind(classId, joinPointIds);
+				}
+			}
 		}
 
 		// actually transform the class - add registerObject to constructors and advices
-		ClassWriter cw = new ClassWriterWithCustomLoader(
-				supportAdvices ? ClassWriter.COMPUTE_FRAMES : ClassWriter.COMPUTE_MAXS,
-				classLoader);
-		XmxManagedClassTransformer transformer = new XmxManagedClassTransformer(cw, classId, bcClassName,
-				className, adviceLoadResult, appConfig, xmxAopManager, classLoaderInfo, jmxServer != null);
+		// the original frames are kept, and only the frames for the injected code are emitted
+		ClassWriter cw = new ClassWriterWithCustomLoader(ClassWriter.COMPUTE_MAXS, classLoader);
+		BindableIds bindableIds = transformCache == null ? null : new BindableIds(cr);
+		XmxManagedClassTransformer transformer = new XmxManagedClassTransformer(cw, classId, registerInstances,
+				addTokenField, splitMethods, bcClassName, className, adviceLoadResult, classConfig, xmxAopManager,
+				classLoaderInfo, jmxServer != null, bindableIds);
+
+		// the frames are expanded to be tracked for the injected code
+		cr.accept(transformer, ClassReader.EXPAND_FRAMES);
+		registerClassJoinPoints(classLoaderInfo, className, transformer.getJoinPointIds(),
+				classBeingRedefined != null);
+		if (bindableIds == null) {
+			return cw.toByteArray();
+		}
+
+		// the IDs are replaced with the placeholders, which shall be bound both for new and cached transformations
+		CachedTransformation transformation = bindableIds.toCachedTransformation(cw.toByteArray());
+		transformCache.put(cacheKey, transformation);
+		return transformation.bind(classId, bindableIds.getJoinPointIds());
+	}
 
-		cr.accept(transformer, supportAdvices ? ClassReader.SKIP_FRAMES : 0);
-		return cw.toByteArray();
+	/**
+	 * Registers the join points weaved into the class, and removes the obsolete join points of the
+	 * re-transformed class, so that their weaving contexts are not leaked.
+	 */
+	private void registerClassJoinPoints(ManagedClassLoaderWeakRef classLoaderInfo, String className,
+			int[] joinPointIds, boolean redefined) {
+		int[] obsoleteIds = classLoaderInfo.registerClassJoinPoints(className, joinPointIds, redefined);
+		if (obsoleteIds != null) {
+			xmxAopManager.unregisterJoinPoints(obsoleteIds);
+		}
 	}
 
-	private int registerManagedClass(Class<?> classBeingRedefined, String appName, IAppPropertiesSource appConfig, String className, ManagedClassLoaderWeakRef classLoaderInfo, ManagedAppInfo appInfo) {
+	private static boolean hasRegistrationTokenField(Class<?> c) {
+		try {
+			c.getDeclaredField(XmxManagedClassTransformer.REGISTRATION_TOKEN_FIELD);
+			return true;
+		} catch (NoSuchFieldException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Computes the key of the transformation in the persistent cache, which covers all inputs of the
+	 * transformation except of the IDs bound later.
+	 */
+	private byte[] computeTransformCacheKey(byte[] classBuffer, String className, boolean isManaged,
+			boolean registerInstances, boolean addTokenField, Set<String> splitMethods, ClassConfigView classConfig,
+			AdviceLoadResult adviceLoadResult) {
+		List<String> parts = new ArrayList<>();
+		parts.add(className);
+		parts.add(Boolean.toString(isManaged));
+		parts.add(Boolean.toString(registerInstances));
+		parts.add(Boolean.toString(addTokenField));
+		parts.add(splitMethods == null ? "" : new TreeSet<>(splitMethods).toString());
+		parts.add(Boolean.toString(xmxAopManager.isDirectInvocation()));
+		parts.add(classConfig.getMethodSectionsSignature());
+		for (Map.Entry<String, AdviceClassInfo> e : new TreeMap<>(adviceLoadResult.getAdviceClassesByDesc()).entrySet()) {
+			parts.add(e.getKey() + "|" + e.getValue().getSourceVersion());
+		}
+		return transformCache.computeKey(classBuffer, parts);
+	}
+
+	private int registerManagedClass(Class<?> classBeingRedefined, String appName, ClassConfigView classConfig, ManagedClassLoaderWeakRef classLoaderInfo, ManagedAppInfo appInfo) {
+		String className = classConfig.getClassName();
 		if (classBeingRedefined != null) {
 			// currently the hot code replacement cannot add, remove or change signature of fields and methods
 			// so, we can continue using existing class manager (if any)
@@ -422,22 +802,33 @@ public final class XmxManager implements IXmxCoreService {
         // initialize known properties of managed class, e.g. class ID and name
 		// other properties may require Class itself, and will be initialized later
 		int classId = managedClassesCounter.incrementAndGet();
-		int maxInstances = getMaxInstances(appConfig, className);
+		int maxInstances = getMaxInstances(classConfig);
+		int sampleRate = getSampleRate(classConfig);
+		PropertyValue registerAfterProp = classConfig.getClassProperty(Properties.CLASS_REGISTER_AFTER_MS);
+		int registerAfterMs = registerAfterProp == null ? 0 : registerAfterProp.asInt();
+		PropertyValue unhookProp = classConfig.getClassProperty(Properties.CLASS_UNHOOK_ON_MAX_INSTANCES);
+		boolean unhookOnMaxInstances = unhookProp != null && unhookProp.asBool();
+		PropertyValue sweepCleanupProp = classConfig.getClassProperty(Properties.CLASS_SWEEP_CLEANUP);
+		boolean sweepCleanup = sweepCleanupProp != null && sweepCleanupProp.asBool();
+		if (sweepCleanup) {
+			sweepCleanupUsed = true;
+		}
 		String jmxObjectNamePart = null;
 		if (jmxServer != null) {
 			jmxObjectNamePart = JmxSupport.createClassObjectNamePart(className, appName);
 		}
 		XmxClassManager classInfo = new XmxClassManager(classId, className,
-				classLoaderInfo, maxInstances, jmxObjectNamePart, config);
+				classLoaderInfo, maxInstances, sampleRate, registerAfterMs, unhookOnMaxInstances, sweepCleanup,
+				jmxObjectNamePart, config);
 
-		classesInfoById.put(classId, classInfo);
+		classesRegistry.register(classInfo);
 		appInfo.registerClass(classLoaderInfo, className, classId);
         logger.info("transformClass: {}", className);
 		return classId;
 	}
 
-	private AdviceLoadResult loadPotentialAdvices(IAppPropertiesSource appConfig, String className, ManagedClassLoaderWeakRef classLoaderInfo) {
-		List<PropertyValue> potentialAdvices = appConfig.getDistinctMethodPropertyValues(className, Properties.M_ADVICES);
+	private AdviceLoadResult loadPotentialAdvices(ClassConfigView classConfig, ManagedClassLoaderWeakRef classLoaderInfo) {
+		List<PropertyValue> potentialAdvices = classConfig.getDistinctMethodPropertyValues(Properties.M_ADVICES);
 		if (potentialAdvices.isEmpty()) {
 			return AdviceLoadResult.empty();
 		}
@@ -478,7 +869,7 @@ public final class XmxManager implements IXmxCoreService {
 	 * Returns names (contexts) of all recognized web applications.
 	 */
 	@Override
-	synchronized public List<String> getApplicationNames() {
+	public List<String> getApplicationNames() {
 		List<String> result = new ArrayList<>(appInfosByName.size());
 		for (ManagedAppInfo appInfo : appInfosByName.values()) {
 			result.add(appInfo.getName());
@@ -497,16 +888,14 @@ public final class XmxManager implements IXmxCoreService {
 	 * @return matching classes information
 	 */
 	@Override
-	synchronized public List<XmxClassInfo> findManagedClassInfos(String appNameOrNull, String classNamePatternOrNull) {
+	public List<XmxClassInfo> findManagedClassInfos(String appNameOrNull, String classNamePatternOrNull) {
 		List<XmxClassInfo> result = new ArrayList<>();
 		Pattern classNamePattern = classNamePatternOrNull == null ? null : Pattern.compile(classNamePatternOrNull);
+		ManagedClassesSnapshot snapshot = classesRegistry.getSnapshot();
 		if (appNameOrNull != null) {
-			ManagedAppInfo appInfo = appInfosByName.get(appNameOrNull);
-			if (appInfo != null) {
-				fillXmxClassInfo(result, appInfo.getManagedClassIds(), classNamePattern);
-			}
+			fillXmxClassInfo(result, snapshot.getAppClasses(appNameOrNull), classNamePattern);
 		} else {
-			fillXmxClassInfo(result, classesInfoById.keySet(), classNamePattern);
+			fillXmxClassInfo(result, snapshot.getClasses(), classNamePattern);
 		}
 		
 		return result;
@@ -521,7 +910,7 @@ public final class XmxManager implements IXmxCoreService {
 			if (managedLoaderInfo != null) {
 				Integer classId = managedLoaderInfo.getClassIdsByName().get(c.getName());
 				if (classId != null) {
-					return classesInfoById.get(classId);
+					return classesRegistry.get(classId);
 				}
 			}
 		}
@@ -530,18 +919,16 @@ public final class XmxManager implements IXmxCoreService {
 	}
 
 	@Override
-	public synchronized XmxClassInfo getClassInfo(Class<?> c) {
+	public XmxClassInfo getClassInfo(Class<?> c) {
 		Integer classId;
 
 		XmxClassManager mci = findManagedClassInfo(c);
 		if (mci != null) {
-			if (!mci.isInitialized()) {
-				mci.init(c, jmxServer != null);
-			}
+			mci.ensureInitialized(c, jmxServer != null);
 			classId = mci.getId();
 		} else {
 			// unmanaged class
-			mci = new XmxClassManager(0, c.getName(), null, 0, null, config);
+			mci = new XmxClassManager(0, c.getName(), null, 0, 1, 0, false, false, null, config);
 			mci.init(c, false);
 			classId = null;
 		}
@@ -555,22 +942,52 @@ public final class XmxManager implements IXmxCoreService {
 	 * @param classId unique class ID (or null to return all objects)
 	 */
 	@Override
-	synchronized public List<XmxObjectInfo> getManagedObjects(Integer classId) {
-		List<XmxObjectInfo> result = new ArrayList<>();
-		
+	public List<XmxObjectInfo> getManagedObjects(Integer classId) {
+		final List<XmxObjectInfo> result = new ArrayList<>();
+		visitManagedObjects(classId, new IXmxObjectsVisitor() {
+			@Override
+			public boolean visitObject(XmxObjectInfo objectInfo) {
+				result.add(objectInfo);
+				return true;
+			}
+		});
+		return result;
+	}
+
+	@Override
+	public void visitManagedObjects(Integer classId, IXmxObjectsVisitor visitor) {
 		if (classId != null) {
-			fillLiveObjects(result, classId);
+			visitLiveObjects(classesRegistry.get(classId), visitor);
 		} else {
-			for (Integer id : classesInfoById.keySet()) {
-				fillLiveObjects(result, id);
+			for (XmxClassManager classInfo : classesRegistry.getSnapshot().getClasses()) {
+				if (!visitLiveObjects(classInfo, visitor)) {
+					return;
+				}
 			}
 		}
-		
-		return result;
 	}
 
 	@Override
-	synchronized public XmxObjectInfo getManagedObject(int objectId) throws XmxRuntimeException {
+	public int getManagedObjectsCount(int classId) {
+		XmxClassManager classInfo = classesRegistry.get(classId);
+		return classInfo == null ? 0 : classInfo.getObjectsCount();
+	}
+
+	@Override
+	public int getAppManagedObjectsCount(String appName) {
+		ManagedAppInfo appInfo = appInfosByName.get(appName);
+		if (appInfo == null) {
+			return 0;
+		}
+		int count = 0;
+		for (ManagedClassLoaderWeakRef loaderInfo : appInfo.getClassLoaderInfos().keySet()) {
+			count += loaderInfo.getManagedInstancesCount();
+		}
+		return count;
+	}
+
+	@Override
+	public XmxObjectInfo getManagedObject(int objectId) throws XmxRuntimeException {
 		ManagedObjectWeakRef ref = objectsStorage.get(objectId);
 		if (ref != null) {
 			Object obj = ref.get();
@@ -585,7 +1002,7 @@ public final class XmxManager implements IXmxCoreService {
 	public SingletonPermanentId getSingletonPermanentId(int objectId) {
 		ManagedObjectWeakRef ref = objectsStorage.get(objectId);
 		if (ref != null) {
-			if (ref.classInfo.getObjectIds().size() == 1) {
+			if (ref.classInfo.getObjectsCount() == 1) {
 				// also need to check other app classes with the same name
 				Object obj = ref.get();
 				if (obj != null) {
@@ -595,9 +1012,8 @@ public final class XmxManager implements IXmxCoreService {
 					for (int cid : classIds) {
 						if (ref.classInfo.getId() != cid) {
 							// check other (probably GC'ed) classes with the same name
-							XmxClassManager otherClassInfo = this.classesInfoById.get(cid);
-							Set<Integer> otherClassObjectIds = otherClassInfo.getObjectIds();
-							if (otherClassObjectIds != null && !otherClassObjectIds.isEmpty()) {
+							XmxClassManager otherClassInfo = this.classesRegistry.get(cid);
+							if (otherClassInfo != null && otherClassInfo.getObjectsCount() > 0) {
 								// not singleton
 								return null;
 							}
@@ -626,13 +1042,15 @@ public final class XmxManager implements IXmxCoreService {
 		List<Integer> objectIds = new ArrayList<>(2);
 		List<Integer> classIds = appInfo.getClassIdsByName(className);
 		for (int cid : classIds) {
-			XmxClassManager classInfo = this.classesInfoById.get(cid);
-			Set<Integer> classObjectIds = classInfo.getObjectIds();
-			if (classObjectIds != null && !classObjectIds.isEmpty()) {
+			XmxClassManager classInfo = this.classesRegistry.get(cid);
+			int[] classObjectIds = classInfo == null ? null : classInfo.getObjectIds();
+			if (classObjectIds != null && classObjectIds.length > 0) {
 				if (!objectIds.isEmpty()) {
 					multipleClasses = true;
 				}
-				objectIds.addAll(classObjectIds);
+				for (int id : classObjectIds) {
+					objectIds.add(id);
+				}
 			}
 		}
 		if (objectIds.size() != 1) {
@@ -642,38 +1060,59 @@ public final class XmxManager implements IXmxCoreService {
 		}
 	}
 
+	@Override
+	public List<XmxJoinPointInfo> getJoinPoints() {
+		return xmxAopManager == null ? Collections.<XmxJoinPointInfo>emptyList() : xmxAopManager.getJoinPoints();
+	}
+
+	@Override
+	public boolean setJoinPointEnabled(int joinPointId, boolean enabled) {
+		return xmxAopManager != null && xmxAopManager.setJoinPointEnabled(joinPointId, enabled);
+	}
+
 	private XmxClassManager findClassManager(ManagedClassLoaderWeakRef loaderInfo, String className) {
 		Integer classId = loaderInfo.getClassIdsByName().get(className);
 		if (classId == null) {
 			return null;
 		}
 		
-		XmxClassManager classInfo = classesInfoById.get(classId);
+		XmxClassManager classInfo = classesRegistry.get(classId);
 		assert classInfo != null;
 		return classInfo;
 	}
 
-	private void fillLiveObjects(List<XmxObjectInfo> result, Integer classId) {
-		XmxClassManager classInfo = classesInfoById.get(classId);
-		Set<Integer> objectIds;
-
-		if (classInfo == null || (objectIds = classInfo.getObjectIds()) == null) {
+	/**
+	 * Passes all live objects of the class to the visitor.
+	 *
+	 * @param classInfo the managed class, or {@code null} if not managed anymore
+	 * @return {@code false} if the visitor requested to stop, {@code true} otherwise
+	 */
+	private boolean visitLiveObjects(XmxClassManager classInfo, IXmxObjectsVisitor visitor) {
+		if (classInfo == null || classInfo.getObjectsCount() == 0) {
 			// no objects registered yet
-			return;
+			return true;
 		}
-		for (Integer id : objectIds) {
-			ManagedObjectWeakRef ref = objectsStorage.get(id);
-			if (ref != null) {
-				Object obj = ref.get();
-				if (obj != null) {
-					result.add(convertToObjectInfo(id, obj, classInfo, ref.springProxy));
+		XmxClassInfo classDto = null; // shared by all objects of the class
+		for (ManagedObjectWeakRef ref : classInfo.getObjectRefs()) {
+			Object obj = ref.get();
+			if (obj != null) {
+				if (classDto == null) {
+					classDto = toDto(classInfo);
+				}
+				if (!visitor.visitObject(convertToObjectInfo(ref.objectId, obj, classDto, ref.springProxy))) {
+					return false;
 				}
 			}
 		}
+		return true;
 	}
 
 	private XmxObjectInfo convertToObjectInfo(int id, Object obj, XmxClassManager ci, WeakReference<Object> proxyRef) {
-		return new XmxObjectInfo(id, toDto(ci), obj, proxyRef == null ? null : proxyRef.get());
+		return convertToObjectInfo(id, obj, toDto(ci), proxyRef);
+	}
+
+	private XmxObjectInfo convertToObjectInfo(int id, Object obj, XmxClassInfo classDto, WeakReference<Object> proxyRef) {
+		return new XmxObjectInfo(id, classDto, obj, proxyRef == null ? null : proxyRef.get());
 	}
 	
 	private static XmxClassInfo toDto(XmxClassManager ci) {
@@ -681,9 +1120,8 @@ public final class XmxManager implements IXmxCoreService {
 	}
 
 	private void fillXmxClassInfo(List<XmxClassInfo> result,
-			Collection<Integer> classIds, Pattern classNamePattern) {
-		for (Integer classId : classIds) {
-			XmxClassManager classInfo = classesInfoById.get(classId);
+			List<XmxClassManager> classes, Pattern classNamePattern) {
+		for (XmxClassManager classInfo : classes) {
 			if (classInfo.isInitialized()) {
 				if (classNamePattern != null) {
 					String className = classInfo.getClassName();
@@ -698,12 +1136,59 @@ public final class XmxManager implements IXmxCoreService {
 	
 	// TODO: skip if run from xmx-webui-all.war (i.e. from target app server)
 	/**
-	 * Starts Embedded Jetty Server to serve xmx-webui.war
+	 * Starts Embedded Jetty Server to serve xmx-webui.war, either after a short delay, or on the first
+	 * request in the lazy mode.
 	 */
 	private void startUI() {
 		logger.debug("Starting XMX Web UI..,");
 
 		final File uiWarFile = new File(homeDir, "bin" + File.separator + "xmx-webui.war");
+
+		if (config.getSystemProperty(Properties.GLOBAL_EMB_SERVER_LAZY).asBool()) {
+			int port = config.getSystemProperty(Properties.GLOBAL_EMB_SERVER_PORT).asInt();
+			long idleStopMs = config.getSystemProperty(Properties.GLOBAL_EMB_SERVER_IDLE_STOP_SEC).asInt() * 1000L;
+			// the server class loader and the launcher are only created on the first request
+			Callable<IXmxServerLauncher> launcherFactory = new Callable<IXmxServerLauncher>() {
+				@Override
+				public IXmxServerLauncher call() {
+					return createServerLauncher();
+				}
+			};
+			Thread listenerThread = new Thread(
+					new LazyWebServerStarter(launcherFactory, uiWarFile, config, port, idleStopMs),
+					"XMX Embedded Server Lazy Listener");
+			listenerThread.setDaemon(true);
+			listenerThread.start();
+
+			logger.debug("XMX Web UI will be started on the first request to port {}", port);
+			return;
+		}
+
+		final IXmxServerLauncher launcher = createServerLauncher();
+
+		// start asynchronously so main initialization is less affected
+		Thread startupThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				// wait a bit before starting UI to let short-living apps exit fast
+				try {
+					Thread.sleep(UI_START_DELAY);
+				} catch (InterruptedException ignored) {
+				}
+				launcher.launchServer(uiWarFile, config);
+			}
+		}, "XMX Embedded Server Startup Thread");
+		startupThread.setDaemon(true);
+		startupThread.start();
+
+		logger.debug("XMX Web UI StartupThread is started with delay {} ms", UI_START_DELAY);
+	}
+
+	/**
+	 * Finds the JAR of the configured embedded server implementation, and instantiates its launcher in a
+	 * separate class loader.
+	 */
+	private IXmxServerLauncher createServerLauncher() {
 		File xmxLibDir = new File(homeDir, "lib");
 		
 		final String serverImpl = config.getSystemProperty(Properties.GLOBAL_EMB_SERVER_IMPL).asString();
@@ -740,34 +1225,18 @@ public final class XmxManager implements IXmxCoreService {
 
 		logger.debug("XMX Web UI LauncherClass found: {} in {}", launcherClassName, implFile);
 
-		final IXmxServerLauncher launcher;
 		try {
 			// use classloader of xmx-core as parent
 			ClassLoader serverCL = new XmxURLClassLoader(urls, XmxManager.class.getClassLoader());
-			appNameByLoader.put(serverCL, IXmxServerLauncher.APPNAME);
+			synchronized (appNameByLoader) {
+				appNameByLoader.put(serverCL, IXmxServerLauncher.APPNAME);
+			}
 			Class<? extends IXmxServerLauncher> launcherClass = 
 					Class.forName(launcherClassName, true, serverCL).asSubclass(IXmxServerLauncher.class);
-			launcher = launcherClass.getConstructor().newInstance();
+			return launcherClass.getConstructor().newInstance();
 		} catch(Exception e) {
 			throw new XmxRuntimeException("Failed to instantiate XMX server launcher (" + launcherClassName + ")", e);
 		}
-	
-		// start asynchronously so main initialization is less affected
-		Thread startupThread = new Thread(new Runnable() {
-			@Override
-			public void run() {
-				// wait a bit before starting UI to let short-living apps exit fast
-				try {
-					Thread.sleep(UI_START_DELAY);
-				} catch (InterruptedException ignored) {
-				}
-				launcher.launchServer(uiWarFile, config);
-			}
-		}, "XMX Embedded Server Startup Thread");
-		startupThread.setDaemon(true);
-		startupThread.start();
-
-		logger.debug("XMX Web UI StartupThread is started with delay {} ms", UI_START_DELAY);
 	}
 
 	/**
@@ -776,21 +1245,7 @@ public final class XmxManager implements IXmxCoreService {
 	 */
 	@Override
 	public ManagedObjectWeakRef findManagedObjectRef(Object obj) {
-		XmxClassManager mci = findManagedClassInfo(obj.getClass());
-		if (mci != null) {
-			// check if the target instance is managed
-			for (Integer id : mci.getObjectIds()) {
-				ManagedObjectWeakRef ref = objectsStorage.get(id);
-				if (ref != null) {
-					Object existingObj = ref.get();
-					if (existingObj == obj) {
-						// already registered, skip
-						return ref;
-					}
-				}
-			}
-		}
-		return null;
+		return objectsIdentityIndex.find(obj);
 	}
 
 	/**
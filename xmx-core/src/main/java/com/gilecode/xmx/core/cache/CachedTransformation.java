@@ -0,0 +1,128 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.core.cache;
+
+import com.gilecode.xmx.aop.AdviceKind;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The result of the transformation of a managed class which does not depend on the IDs assigned at runtime,
+ * and so may be cached and re-used by another XMX sessions.
+ * <p/>
+ * The class ID and the join point IDs are represented in the transformed bytecode by the unique placeholder
+ * Integer constants. The offsets of these constants in the constant pool are known, so the actual IDs are bound
+ * by patching a copy of the bytecode, see {@link #bind(int, int[])}.
+ */
+public final class CachedTransformation {
+
+	/**
+	 * The description of a join point, i.e. a method with woven advices, which is sufficient to re-register
+	 * the join point in another session.
+	 */
+	public static final class JoinPoint {
+		private final String methodName;
+		private final String methodDesc;
+		private final String adviceDescs;
+		private final Set<AdviceKind> adviceKinds;
+		private final int constantOffset;
+
+		public JoinPoint(String methodName, String methodDesc, String adviceDescs, Set<AdviceKind> adviceKinds,
+				int constantOffset) {
+			this.methodName = methodName;
+			this.methodDesc = methodDesc;
+			this.adviceDescs = adviceDescs;
+			this.adviceKinds = Collections.unmodifiableSet(adviceKinds);
+			this.constantOffset = constantOffset;
+		}
+
+		public String getMethodName() {
+			return methodName;
+		}
+
+		public String getMethodDesc() {
+			return methodDesc;
+		}
+
+		/**
+		 * Returns the comma-separated advice descriptors configured for the method.
+		 */
+		public String getAdviceDescs() {
+			return adviceDescs;
+		}
+
+		/**
+		 * Returns the kinds of the advices actually weaved into the method. For example, the 'around' advices
+		 * are skipped for the methods which cannot be split.
+		 */
+		public Set<AdviceKind> getAdviceKinds() {
+			return adviceKinds;
+		}
+
+		/**
+		 * Returns the offset of the value of the join point ID constant in the bytecode.
+		 */
+		public int getConstantOffset() {
+			return constantOffset;
+		}
+	}
+
+	private final byte[] bytecode;
+
+	/**
+	 * The offset of the value of the class ID constant in the bytecode, or -1 if the class ID is not used.
+	 */
+	private final int classIdOffset;
+
+	private final List<JoinPoint> joinPoints;
+
+	public CachedTransformation(byte[] bytecode, int classIdOffset, List<JoinPoint> joinPoints) {
+		this.bytecode = bytecode;
+		this.classIdOffset = classIdOffset;
+		this.joinPoints = Collections.unmodifiableList(joinPoints);
+	}
+
+	/**
+	 * Returns the bytecode with the placeholder constants. Shall not be modified.
+	 */
+	byte[] getBytecode() {
+		return bytecode;
+	}
+
+	int getClassIdOffset() {
+		return classIdOffset;
+	}
+
+	public List<JoinPoint> getJoinPoints() {
+		return joinPoints;
+	}
+
+	/**
+	 * Returns the copy of the bytecode with the actual IDs instead of the placeholders.
+	 *
+	 * @param classId the class ID; ignored if not used in the bytecode
+	 * @param joinPointIds the join point IDs, in the order of {@link #getJoinPoints()}
+	 */
+	public byte[] bind(int classId, int[] joinPointIds) {
+		if (joinPointIds.length != joinPoints.size()) {
+			throw new IllegalArgumentException("Expected " + joinPoints.size() + " join point IDs");
+		}
+		byte[] result = bytecode.clone();
+		if (classIdOffset >= 0) {
+			writeInt(result, classIdOffset, classId);
+		}
+		for (int i = 0; i < joinPointIds.length; i++) {
+			writeInt(result, joinPoints.get(i).getConstantOffset(), joinPointIds[i]);
+		}
+		return result;
+	}
+
+	private static void writeInt(byte[] b, int offset, int value) {
+		b[offset] = (byte) (value >>> 24);
+		b[offset + 1] = (byte) (value >>> 16);
+		b[offset + 2] = (byte) (value >>> 8);
+		b[offset + 3] = (byte) value;
+	}
+}
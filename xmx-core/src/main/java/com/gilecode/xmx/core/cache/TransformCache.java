@@ -0,0 +1,371 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.core.cache;
+
+import com.gilecode.xmx.aop.AdviceKind;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent cache of the transformed classes, which allows to skip the re-transformation of the same
+ * classes with the same configuration after restarts.
+ * <p/>
+ * The cache is stored in a single append-only file, which may be shared by several processes. The file consists
+ * of a header and a sequence of records, each record contains the key, i.e. the digest of the original class
+ * bytes, the relevant configuration and the XMX version, and the {@link CachedTransformation}. The existing part of
+ * the file is memory-mapped on open, and only the index of the records is kept in the heap. New records are
+ * appended under an exclusive file lock.
+ * <p/>
+ * The records are never removed or updated. Instead, the whole file is re-created on open if it exceeds the
+ * maximal size, which drops the records of the old builds.
+ */
+public class TransformCache {
+
+	private final static Logger logger = LoggerFactory.getLogger(TransformCache.class);
+
+	/**
+	 * The name of the cache file. Includes the format version, so that different versions of XMX
+	 * never read files of each other.
+	 */
+	static final String FILE_NAME = "transform-cache-v2.bin";
+
+	private static final int MAGIC = 0x584D5843; // "XMXC"
+
+	private static final int HEADER_SIZE = 4;
+
+	/**
+	 * The size of record prefix, i.e. the length and CRC32 of the record data.
+	 */
+	private static final int RECORD_PREFIX_SIZE = 8;
+
+	private static final String KEY_DIGEST_ALGORITHM = "SHA-1";
+
+	private static final int KEY_SIZE = 20;
+
+	/**
+	 * The maximal size of the cache file, after which new records are not stored, and the file is
+	 * re-created on the next open.
+	 */
+	private static final long MAX_FILE_SIZE = 128 * 1024 * 1024;
+
+	private final File file;
+
+	private final FileChannel channel;
+
+	/**
+	 * The mapped valid part of the file which existed on open.
+	 */
+	private final MappedByteBuffer mappedRecords;
+
+	/**
+	 * The positions of records in the file, by the hex form of their keys
+	 */
+	private final Map<String, Long> recordPositions = new ConcurrentHashMap<>();
+
+	/**
+	 * The string which identifies the version of XMX classes, mixed into each key.
+	 */
+	private final String xmxVersion;
+
+	private volatile boolean full;
+
+	private TransformCache(File file, FileChannel channel, String xmxVersion) throws IOException {
+		this.file = file;
+		this.channel = channel;
+		this.xmxVersion = xmxVersion;
+		try (FileLock ignored = channel.lock()) {
+			long validSize = readIndex();
+			if (validSize < channel.size()) {
+				// the tail of the last record is incomplete, e.g. if the writing process was killed
+				channel.truncate(validSize);
+			}
+			this.mappedRecords = channel.map(FileChannel.MapMode.READ_ONLY, 0, validSize);
+		}
+	}
+
+	/**
+	 * Opens or creates the cache in the specified directory.
+	 *
+	 * @return the cache, or {@code null} if failed
+	 */
+	public static TransformCache open(File cacheDir) {
+		File file = new File(cacheDir, FILE_NAME);
+		try {
+			if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+				throw new IOException("Failed to create directory " + cacheDir);
+			}
+			if (file.length() >= MAX_FILE_SIZE && !file.delete()) {
+				logger.warn("Failed to delete the full transformation cache file {}", file);
+			}
+			FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+			try {
+				TransformCache cache = new TransformCache(file, channel, getXmxVersion());
+				logger.info("Opened transformation cache {} with {} classes", file, cache.recordPositions.size());
+				return cache;
+			} catch (IOException | RuntimeException e) {
+				channel.close();
+				throw e;
+			}
+		} catch (IOException | RuntimeException e) {
+			logger.warn("Failed to open the transformation cache " + file + ", the cache is disabled", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Reads the header and the index of the records, writes the header if the file is new.
+	 *
+	 * @return the size of the valid part of the file
+	 */
+	private long readIndex() throws IOException {
+		long size = channel.size();
+		if (size < HEADER_SIZE) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(0, MAGIC);
+			channel.write(header, 0);
+			return HEADER_SIZE;
+		}
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		readFully(header, 0);
+		if (header.getInt(0) != MAGIC) {
+			throw new IOException("Unrecognized file format");
+		}
+
+		long pos = HEADER_SIZE;
+		ByteBuffer prefix = ByteBuffer.allocate(RECORD_PREFIX_SIZE + KEY_SIZE);
+		while (pos + prefix.capacity() <= size) {
+			prefix.clear();
+			readFully(prefix, pos);
+			int length = prefix.getInt(0);
+			if (length < KEY_SIZE || pos + RECORD_PREFIX_SIZE + length > size) {
+				break;
+			}
+			byte[] key = new byte[KEY_SIZE];
+			prefix.position(RECORD_PREFIX_SIZE);
+			prefix.get(key);
+			recordPositions.put(toHex(key), pos);
+			pos += RECORD_PREFIX_SIZE + length;
+		}
+		return pos;
+	}
+
+	private void readFully(ByteBuffer buf, long pos) throws IOException {
+		while (buf.hasRemaining()) {
+			if (channel.read(buf, pos + buf.position()) < 0) {
+				throw new EOFException();
+			}
+		}
+	}
+
+	/**
+	 * Computes the cache key for the class bytes and the strings which identify all other inputs of
+	 * the transformation, like the resolved configuration.
+	 */
+	public byte[] computeKey(byte[] classBytes, List<String> parts) {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance(KEY_DIGEST_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		md.update(xmxVersion.getBytes(StandardCharsets.UTF_8));
+		for (String part : parts) {
+			md.update((byte) 0);
+			md.update(String.valueOf(part).getBytes(StandardCharsets.UTF_8));
+		}
+		md.update((byte) 0);
+		md.update(classBytes);
+		return md.digest();
+	}
+
+	/**
+	 * Finds the cached transformation by the key.
+	 *
+	 * @return the transformation, or {@code null} if not found or failed to read
+	 */
+	public CachedTransformation get(byte[] key) {
+		Long pos = recordPositions.get(toHex(key));
+		if (pos == null) {
+			return null;
+		}
+		try {
+			return readRecord(pos);
+		} catch (IOException | RuntimeException e) {
+			logger.warn("Failed to read the transformation cache record at " + pos + " in " + file, e);
+			return null;
+		}
+	}
+
+	private CachedTransformation readRecord(long pos) throws IOException {
+		ByteBuffer record;
+		if (pos < mappedRecords.limit()) {
+			record = mappedRecords.duplicate();
+			record.position((int) pos);
+			int length = record.getInt((int) pos);
+			record.limit((int) pos + RECORD_PREFIX_SIZE + length);
+			record = record.slice();
+		} else {
+			// appended after open
+			ByteBuffer prefix = ByteBuffer.allocate(RECORD_PREFIX_SIZE);
+			readFully(prefix, pos);
+			record = ByteBuffer.allocate(RECORD_PREFIX_SIZE + prefix.getInt(0));
+			readFully(record, pos);
+			record.flip();
+		}
+
+		int length = record.getInt();
+		int crc = record.getInt();
+		byte[] data = new byte[length];
+		record.get(data);
+		CRC32 crc32 = new CRC32();
+		crc32.update(data);
+		if ((int) crc32.getValue() != crc) {
+			throw new IOException("Corrupted record");
+		}
+
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, KEY_SIZE, length - KEY_SIZE));
+		byte[] bytecode = new byte[in.readInt()];
+		in.readFully(bytecode);
+		int classIdOffset = in.readInt();
+		int joinPointsCount = in.readInt();
+		List<CachedTransformation.JoinPoint> joinPoints = new ArrayList<>(joinPointsCount);
+		for (int i = 0; i < joinPointsCount; i++) {
+			joinPoints.add(new CachedTransformation.JoinPoint(in.readUTF(), in.readUTF(), in.readUTF(),
+					readAdviceKinds(in.readInt()), in.readInt()));
+		}
+		return new CachedTransformation(bytecode, classIdOffset, joinPoints);
+	}
+
+	/**
+	 * Appends the transformation to the cache. The failures are logged and ignored.
+	 */
+	public void put(byte[] key, CachedTransformation transformation) {
+		if (full) {
+			return;
+		}
+		try {
+			ByteArrayOutputStream bos = new ByteArrayOutputStream(transformation.getBytecode().length + 256);
+			DataOutputStream out = new DataOutputStream(bos);
+			out.write(key);
+			out.writeInt(transformation.getBytecode().length);
+			out.write(transformation.getBytecode());
+			out.writeInt(transformation.getClassIdOffset());
+			out.writeInt(transformation.getJoinPoints().size());
+			for (CachedTransformation.JoinPoint jp : transformation.getJoinPoints()) {
+				out.writeUTF(jp.getMethodName());
+				out.writeUTF(jp.getMethodDesc());
+				out.writeUTF(jp.getAdviceDescs());
+				out.writeInt(writeAdviceKinds(jp.getAdviceKinds()));
+				out.writeInt(jp.getConstantOffset());
+			}
+			out.flush();
+			byte[] data = bos.toByteArray();
+
+			CRC32 crc32 = new CRC32();
+			crc32.update(data);
+			ByteBuffer record = ByteBuffer.allocate(RECORD_PREFIX_SIZE + data.length);
+			record.putInt(data.length).putInt((int) crc32.getValue()).put(data);
+			record.flip();
+
+			// the file lock is held by the whole JVM, so the threads need to be synchronized too
+			synchronized (this) {
+				try (FileLock ignored = channel.lock()) {
+					long pos = channel.size();
+					if (pos >= MAX_FILE_SIZE) {
+						full = true;
+						logger.info("The transformation cache {} is full, new classes are not cached", file);
+						return;
+					}
+					while (record.hasRemaining()) {
+						channel.write(record, pos + record.position());
+					}
+					recordPositions.put(toHex(key), pos);
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			logger.warn("Failed to write the transformation cache " + file, e);
+		}
+	}
+
+	/**
+	 * Closes the cache file. The cache shall not be used after closing.
+	 */
+	public void close() {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			logger.warn("Failed to close the transformation cache " + file, e);
+		}
+	}
+
+	/**
+	 * Encodes the advice kinds as the bit mask of their ordinals.
+	 */
+	private static int writeAdviceKinds(Set<AdviceKind> kinds) {
+		int mask = 0;
+		for (AdviceKind kind : kinds) {
+			mask |= 1 << kind.ordinal();
+		}
+		return mask;
+	}
+
+	private static Set<AdviceKind> readAdviceKinds(int mask) {
+		Set<AdviceKind> kinds = EnumSet.noneOf(AdviceKind.class);
+		for (AdviceKind kind : AdviceKind.values()) {
+			if ((mask & (1 << kind.ordinal())) != 0) {
+				kinds.add(kind);
+			}
+		}
+		return kinds;
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Returns the string which identifies the build of XMX core classes, i.e. the implementation version (if any)
+	 * and the size and modification time of the JAR file.
+	 */
+	private static String getXmxVersion() {
+		StringBuilder sb = new StringBuilder();
+		Package pkg = TransformCache.class.getPackage();
+		if (pkg != null && pkg.getImplementationVersion() != null) {
+			sb.append(pkg.getImplementationVersion());
+		}
+		CodeSource codeSource = TransformCache.class.getProtectionDomain().getCodeSource();
+		URL location = codeSource == null ? null : codeSource.getLocation();
+		if (location != null && "file".equals(location.getProtocol())) {
+			try {
+				File jar = new File(location.toURI());
+				if (jar.isFile()) {
+					sb.append('|').append(jar.length()).append('|').append(jar.lastModified());
+				}
+			} catch (Exception e) {
+				// ignore, use the implementation version only
+			}
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,172 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.core.instrument;
+
+import com.gilecode.xmx.aop.AdviceKind;
+import com.gilecode.xmx.core.cache.CachedTransformation;
+import org.objectweb.asm.ClassReader;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Collects the IDs assigned at runtime which are injected into the transformed bytecode, i.e. the class ID
+ * and the join point IDs, and replaces them with the placeholder Integer constants.
+ * <p/>
+ * The placeholders are unique within the class, and are distinct from any Integer constant in the original
+ * class, so each placeholder is represented by its own constant pool entry of the transformed class, and
+ * may be found there and patched later. This allows to cache the transformed bytecode and bind it to
+ * another IDs in another session.
+ */
+public class BindableIds {
+
+	private static final int CONSTANT_INTEGER_TAG = 3;
+
+	/**
+	 * The first value of the placeholders. Shall be large enough to make the conflicts with the original
+	 * constants unlikely, and to require ldc for loading the constants.
+	 */
+	private static final int FIRST_PLACEHOLDER = 0x584D5800;
+
+	private static final class JoinPointPlaceholder {
+		final int placeholder;
+		final int joinPointId;
+		final String methodName;
+		final String methodDesc;
+		final String adviceDescs;
+		final Set<AdviceKind> adviceKinds;
+
+		JoinPointPlaceholder(int placeholder, int joinPointId, String methodName, String methodDesc,
+				String adviceDescs, Set<AdviceKind> adviceKinds) {
+			this.placeholder = placeholder;
+			this.joinPointId = joinPointId;
+			this.methodName = methodName;
+			this.methodDesc = methodDesc;
+			this.adviceDescs = adviceDescs;
+			this.adviceKinds = adviceKinds;
+		}
+	}
+
+	/**
+	 * All Integer constants of the original class, which cannot be used as placeholders.
+	 */
+	private final Set<Integer> reservedValues;
+
+	private int nextPlaceholder = FIRST_PLACEHOLDER;
+
+	/**
+	 * The placeholder for the class ID, or {@code null} if not used.
+	 */
+	private Integer classIdPlaceholder;
+
+	private final List<JoinPointPlaceholder> joinPoints = new ArrayList<>();
+
+	/**
+	 * Creates the IDs collector for the class being transformed.
+	 *
+	 * @param originalClassReader the reader of the original class
+	 */
+	public BindableIds(ClassReader originalClassReader) {
+		this.reservedValues = readIntegerConstants(originalClassReader);
+	}
+
+	/**
+	 * Returns the constant to load instead of the class ID.
+	 */
+	public Integer getClassIdConstant() {
+		if (classIdPlaceholder == null) {
+			classIdPlaceholder = newPlaceholder();
+		}
+		return classIdPlaceholder;
+	}
+
+	/**
+	 * Registers the join point of the class and returns the constant to load instead of its ID.
+	 *
+	 * @param joinPointId the actual join point ID assigned in this session
+	 * @param adviceDescs the comma-separated advice descriptors configured for the method
+	 * @param adviceKinds the kinds of the advices weaved into the method
+	 */
+	public Integer addJoinPoint(int joinPointId, String methodName, String methodDesc, String adviceDescs,
+			Set<AdviceKind> adviceKinds) {
+		int placeholder = newPlaceholder();
+		joinPoints.add(new JoinPointPlaceholder(placeholder, joinPointId, methodName, methodDesc, adviceDescs,
+				EnumSet.copyOf(adviceKinds)));
+		return placeholder;
+	}
+
+	/**
+	 * Returns the actual IDs of the registered join points, in the order of registration.
+	 */
+	public int[] getJoinPointIds() {
+		int[] ids = new int[joinPoints.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = joinPoints.get(i).joinPointId;
+		}
+		return ids;
+	}
+
+	/**
+	 * Finds the placeholders in the transformed bytecode and creates the re-usable transformation.
+	 *
+	 * @throws IllegalStateException if some placeholder is not found, e.g. if the placeholders were
+	 * 		not loaded with ldc instructions
+	 */
+	public CachedTransformation toCachedTransformation(byte[] transformedBytecode) {
+		ClassReader cr = new ClassReader(transformedBytecode);
+		int classIdOffset = -1;
+		int[] joinPointOffsets = new int[joinPoints.size()];
+		int found = 0;
+		for (int i = 1; i < cr.getItemCount(); i++) {
+			int offset = cr.getItem(i);
+			if (offset <= 0 || cr.readByte(offset - 1) != CONSTANT_INTEGER_TAG) {
+				continue;
+			}
+			int value = cr.readInt(offset);
+			if (classIdPlaceholder != null && value == classIdPlaceholder) {
+				classIdOffset = offset;
+				found++;
+			} else {
+				for (int j = 0; j < joinPoints.size(); j++) {
+					if (joinPoints.get(j).placeholder == value) {
+						joinPointOffsets[j] = offset;
+						found++;
+						break;
+					}
+				}
+			}
+		}
+		if (found != joinPoints.size() + (classIdPlaceholder == null ? 0 : 1)) {
+			throw new IllegalStateException("Not all ID placeholders are found in the transformed bytecode");
+		}
+
+		List<CachedTransformation.JoinPoint> cachedJoinPoints = new ArrayList<>(joinPoints.size());
+		for (int j = 0; j < joinPoints.size(); j++) {
+			JoinPointPlaceholder jp = joinPoints.get(j);
+			cachedJoinPoints.add(new CachedTransformation.JoinPoint(jp.methodName, jp.methodDesc, jp.adviceDescs,
+					jp.adviceKinds, joinPointOffsets[j]));
+		}
+		return new CachedTransformation(transformedBytecode, classIdOffset, cachedJoinPoints);
+	}
+
+	private int newPlaceholder() {
+		while (reservedValues.contains(nextPlaceholder)) {
+			nextPlaceholder++;
+		}
+		return nextPlaceholder++;
+	}
+
+	private static Set<Integer> readIntegerConstants(ClassReader cr) {
+		Set<Integer> values = new HashSet<>();
+		for (int i = 1; i < cr.getItemCount(); i++) {
+			int offset = cr.getItem(i);
+			if (offset > 0 && cr.readByte(offset - 1) == CONSTANT_INTEGER_TAG) {
+				values.add(cr.readInt(offset));
+			}
+		}
+		return values;
+	}
+}
@@ -0,0 +1,35 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.core.instrument;
+
+import com.gilecode.xmx.aop.impl.WeakCachedSupplier;
+import com.gilecode.xmx.core.ManagedClassLoaderWeakRef;
+
+/**
+ * Supplier of the target class of advices, used for implementing @TargetMethod advice arguments. The class
+ * is loaded lazily, as it is not available during its transformation.
+ */
+public class TargetClassSupplier extends WeakCachedSupplier<Class<?>> {
+
+	private final ManagedClassLoaderWeakRef classLoaderRef;
+	private final String javaClassName;
+
+	public TargetClassSupplier(ManagedClassLoaderWeakRef classLoaderRef, String javaClassName) {
+		this.classLoaderRef = classLoaderRef;
+		this.javaClassName = javaClassName;
+	}
+
+	@Override
+	protected Class<?> load() {
+		ClassLoader cl = classLoaderRef.get();
+		if (cl != null) {
+			try {
+				return cl.loadClass(javaClassName);
+			} catch (ClassNotFoundException e) {
+				// unexpected, give up silently
+			}
+		}
+		// unexpected, give up silently
+		return null;
+	}
+}
@@ -5,7 +5,9 @@ package com.gilecode.xmx.core.instrument;
 import com.gilecode.xmx.aop.AdviceKind;
 import com.gilecode.xmx.aop.impl.InterceptedArgument;
 import com.gilecode.xmx.aop.data.WeavingAdviceInfo;
+import com.gilecode.xmx.aop.impl.PrimitiveSlots;
 import com.gilecode.xmx.aop.impl.WeavingContext;
+import com.gilecode.xmx.boot.IXmxAdviceBridge;
 import com.gilecode.xmx.boot.XmxAopProxy;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
@@ -13,12 +15,33 @@ import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.commons.AdviceAdapter;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
 /**
  * Transformer of a method bytecode which weaves the method with all of the specified
  * advices.
+ * <p/>
+ * The original stack map frames are kept, so the class shall be read with expanded frames, and the frames
+ * shall not be re-computed by the class writer. The injected code has no branches, except for the skip of the
+ * method enter code and the 'after throw' exception handler, for which the frames are emitted.
+ * <p/>
+ * The advices of the join point may be disabled at runtime, see {@link XmxAopProxy#isJoinPointEnabled(int)}.
+ * The flag is checked once on the method enter, and if disabled, the arguments are not prepared and no advices are
+ * invoked. The locals used by the 'after' code are initialized with the markers of the disabled join point, so
+ * that the 'after' code has no branches, and the proxy or the bridge used by it does nothing.
+ * <p/>
+ * The advices are invoked either by the static methods of {@link XmxAopProxy}, or, if the direct invocation is
+ * enabled in the weaving context, by the advice bridge of the join point, which is obtained once on the method
+ * enter. In the latter case, the primitive arguments and return values may be passed to the bridge without boxing,
+ * see {@link IXmxAdviceBridge}.
+ * <p/>
+ * If there are 'around' advices, the original code of the method shall be moved to the synthetic method (see
+ * {@link XmxAroundMethodSplitter}), and this weaver generates the whole code of the method: it invokes the
+ * 'around' advices through the bridge after the 'before' advices, and returns their result. If the bridge
+ * returns {@link IXmxAdviceBridge#PROCEED}, the original code is invoked directly. The primitive results are
+ * returned by the bridge as the raw bits, and the original code is invoked directly if the join point is disabled.
  */
 public class XmxAdviceMethodWeaver extends AdviceAdapter {
 
@@ -34,67 +57,127 @@ public class XmxAdviceMethodWeaver extends AdviceAdapter {
 	private static final String PROXY_AFTER_THROW_DESC = Type.getMethodDescriptor(Type.VOID_TYPE,
 			THROWABLE_TYPE, Type.INT_TYPE, MAP_TYPE, OBJECT_TYPE, OBJECT_ARRAY_TYPE);
 
+	private static final Type BRIDGE_TYPE = Type.getType(IXmxAdviceBridge.class);
+	private static final Type SLOT = Type.LONG_TYPE;
+	private static final String PROXY_GET_BRIDGE_DESC = Type.getMethodDescriptor(BRIDGE_TYPE, Type.INT_TYPE);
+	private static final String PROXY_IS_ENABLED_DESC = Type.getMethodDescriptor(Type.BOOLEAN_TYPE, Type.INT_TYPE);
+	private static final String BRIDGE_BEFORE_DESC = Type.getMethodDescriptor(OBJECT_TYPE,
+			OBJECT_TYPE, OBJECT_ARRAY_TYPE, SLOT, SLOT, SLOT, SLOT);
+	private static final String BRIDGE_AFTER_RETURN_DESC = Type.getMethodDescriptor(OBJECT_TYPE,
+			OBJECT_TYPE, OBJECT_TYPE, OBJECT_TYPE, OBJECT_ARRAY_TYPE, SLOT, SLOT, SLOT, SLOT);
+	private static final String BRIDGE_AFTER_RETURN_PRIMITIVE_DESC = Type.getMethodDescriptor(SLOT,
+			SLOT, OBJECT_TYPE, OBJECT_TYPE, OBJECT_ARRAY_TYPE, SLOT, SLOT, SLOT, SLOT);
+	private static final String BRIDGE_AFTER_THROW_DESC = Type.getMethodDescriptor(Type.VOID_TYPE,
+			THROWABLE_TYPE, OBJECT_TYPE, OBJECT_TYPE, OBJECT_ARRAY_TYPE, SLOT, SLOT, SLOT, SLOT);
+	private static final String BRIDGE_AROUND_DESC = Type.getMethodDescriptor(OBJECT_TYPE,
+			OBJECT_TYPE, OBJECT_ARRAY_TYPE, SLOT, SLOT, SLOT, SLOT);
+	private static final String BRIDGE_AROUND_PRIMITIVE_DESC = Type.getMethodDescriptor(SLOT,
+			OBJECT_TYPE, OBJECT_ARRAY_TYPE, SLOT, SLOT, SLOT, SLOT);
+
 	private static final String PROXY_NAME = Type.getInternalName(XmxAopProxy.class);
+	private static final Type PROXY_TYPE = Type.getObjectType(PROXY_NAME);
 
 	private final WeavingContext ctx;
 
 	private int interceptedArgsLocal = -1;
 	private int adviceInstancesMapLocal = -1;
+	private int bridgeLocal = -1;
+
+	/**
+	 * The locals with the raw bits of the primitive arguments passed in the slots of the bridge methods,
+	 * or -1 for the unused slots.
+	 */
+	private final int[] slotLocals = new int[IXmxAdviceBridge.PRIMITIVE_SLOTS];
 
 	private final Label start = new Label(), handler = new Label();
 	private final boolean hasAfterThrowAdvices;
 	private final Type[] paramTypes;
 
+	/**
+	 * Whether the advices are invoked through the advice bridge.
+	 */
+	private final boolean useBridge;
+
+	/**
+	 * Whether the advice bridge is obtained on the method enter, either to invoke all advices, or only the
+	 * 'around' advices, which are always invoked through the bridge.
+	 */
+	private final boolean needBridge;
+
+	/**
+	 * Whether the method has 'around' advices, and its original code is moved to the synthetic method.
+	 */
+	private final boolean hasAroundAdvices;
+
+	private final String methodName;
+
+	/**
+	 * The name of the class being transformed, in bytecode format (e.g. "java/lang/Object").
+	 */
+	private final String bcClassName;
+
+	/**
+	 * Whether the stack map frame shall be emitted for the exception handler, i.e. whether the frames
+	 * are supported by the class version.
+	 */
+	private final boolean emitFrames;
+
+	/**
+	 * The constant to load instead of the join point ID, if the ID shall be bound later (see {@link BindableIds}),
+	 * or {@code null} to use the join point ID directly.
+	 */
+	private final Integer joinPointIdConstant;
+
 	public XmxAdviceMethodWeaver(int access, String name, String desc, MethodVisitor mv,
-	                             WeavingContext ctx) {
+	                             WeavingContext ctx, String bcClassName, int classVersion,
+	                             Integer joinPointIdConstant) {
 		super(Opcodes.ASM5, mv, access, name, desc);
 		this.ctx = ctx;
+		this.joinPointIdConstant = joinPointIdConstant;
+		this.bcClassName = bcClassName;
+		this.emitFrames = classVersion >= Opcodes.V1_6;
 		this.hasAfterThrowAdvices = hasAdvices(AdviceKind.AFTER_THROW);
+		this.useBridge = ctx.isDirectInvocation();
+		this.hasAroundAdvices = hasAdvices(AdviceKind.AROUND);
+		this.needBridge = useBridge || hasAroundAdvices;
+		this.methodName = name;
 		paramTypes = getArgumentTypes();
+		Arrays.fill(slotLocals, -1);
 	}
 
 	@Override
 	public void visitMaxs(int maxStack, int maxLocals) {
 		if (hasAfterThrowAdvices) {
 			visitLabel(handler);
-/*
-	The code to calculate the required "handler" frame is experimental.
-	While potentially can decrease startup time, it is over-complicated and requires a lot of testing.
-	In particular, it is unclear if we can rely on the fact that locals for initial parameters are alive and not
-	re-assigned to some other place by LocalsVariableSorter.
-
-	If used, the following changes in other fcode required:
-	- remove ClassWriter.COMPUTE_FRAMES
-	- change ClassReader.SKIP_FRAMES to ClassReader.EXPAND_FRAMES
-	- propagate the class name to use instead "sample/SampleClass"
-*/
-/*
-			boolean isStaticMethod = (methodAccess & Opcodes.ACC_STATIC) != 0;
-			Object[] locals = new Object[paramTypes.length + (isStaticMethod ? 0 : 1)];
-			int startLocal = 0;
-			if (!isStaticMethod) {
-				locals[0] = "sample/SampleClass"; // shall be this class name instead
-				startLocal = 1;
+			if (emitFrames) {
+				visitHandlerFrame();
 			}
-			for (int i = startLocal; i < locals.length; i++) {
-				// use TOP as locals bound to parameters potentially may be re-used
-				locals[i] = Opcodes.TOP;
-			}
-			visitFrame(Opcodes.F_NEW, locals.length, locals, 1, new Object[]{"java/lang/Throwable"});
-/**/
 			// save exception for further re-throw
 			dup();
 
-			int joinPointId = ctx.getJoinpointId();
-			push(joinPointId);
-			loadOptLocal(adviceInstancesMapLocal);
-			loadOptThis();
-			loadLocal(interceptedArgsLocal);
-			visitMethodInsn(INVOKESTATIC,
-					PROXY_NAME,
-					"afterThrow",
-					PROXY_AFTER_THROW_DESC,
-					false);
+			if (useBridge) {
+				loadLocal(bridgeLocal);
+				swap();
+				loadOptLocal(adviceInstancesMapLocal);
+				loadOptThis();
+				loadLocal(interceptedArgsLocal);
+				loadSlots();
+				visitMethodInsn(INVOKEINTERFACE,
+						BRIDGE_TYPE.getInternalName(),
+						"afterThrow",
+						BRIDGE_AFTER_THROW_DESC,
+						true);
+			} else {
+				pushJoinPointId();
+				loadOptLocal(adviceInstancesMapLocal);
+				loadOptThis();
+				loadLocal(interceptedArgsLocal);
+				visitMethodInsn(INVOKESTATIC,
+						PROXY_NAME,
+						"afterThrow",
+						PROXY_AFTER_THROW_DESC,
+						false);
+			}
 			// re-throw the same exception
 			throwException();
 
@@ -106,44 +189,145 @@ public class XmxAdviceMethodWeaver extends AdviceAdapter {
 		super.visitMaxs(maxStack, maxLocals);
 	}
 
+	/**
+	 * Emits the frame for the 'after throw' handler, which covers the whole method body after the injected
+	 * method enter code.
+	 * <p/>
+	 * The handler uses only 'this' and the locals added by this weaver, which are assigned before the
+	 * covered code and never re-assigned. All other locals, including the method parameters, may be
+	 * re-used by the method code for the values of another types, so they are marked as TOP. The new
+	 * locals are added to the frame by {@link org.objectweb.asm.commons.LocalVariablesSorter}.
+	 */
+	private void visitHandlerFrame() {
+		boolean isStaticMethod = (methodAccess & Opcodes.ACC_STATIC) != 0;
+		int paramSlots = 0;
+		for (Type paramType : paramTypes) {
+			paramSlots += paramType.getSize();
+		}
+		Object[] locals = new Object[paramSlots + (isStaticMethod ? 0 : 1)];
+		int startLocal = 0;
+		if (!isStaticMethod) {
+			// in constructors, the handler starts after the super constructor call, so 'this' is initialized
+			locals[0] = bcClassName;
+			startLocal = 1;
+		}
+		for (int i = startLocal; i < locals.length; i++) {
+			locals[i] = Opcodes.TOP;
+		}
+		visitFrame(Opcodes.F_NEW, locals.length, locals, 1, new Object[]{THROWABLE_TYPE.getInternalName()});
+	}
+
 	@Override
 	protected void onMethodEnter() {
 		List<InterceptedArgument> interceptedArguments = ctx.getInterceptedArguments();
-		int joinPointId = ctx.getJoinpointId();
 		boolean hasAfterAdvices = hasAfterThrowAdvices || hasAdvices(AdviceKind.AFTER_RETURN);
 
-		// 1) prepare array of intercepted arguments
-		push(interceptedArguments.size()); // interested args array
-		newArray(OBJECT_TYPE);
-		for (int i = 0; i < interceptedArguments.size(); i++) {
-			dup();
-			push(i);
+		// 0) initialize the added locals as for the disabled join point, and skip the rest of the method enter code
+		//   if XmxAopProxy.isJoinPointEnabled(int joinPointId) returns false
+		for (InterceptedArgument interceptedArgument : interceptedArguments) {
+			int slot = interceptedArgument.getPrimitiveSlot();
+			if (slot >= 0) {
+				push(0L);
+				slotLocals[slot] = newLocal(SLOT);
+				storeLocal(slotLocals[slot]);
+			}
+		}
+		getStatic(PROXY_TYPE, "DISABLED_ARGS", OBJECT_ARRAY_TYPE);
+		interceptedArgsLocal = newLocal(OBJECT_ARRAY_TYPE);
+		storeLocal(interceptedArgsLocal);
+		if (needBridge) {
+			getStatic(PROXY_TYPE, "NOP_BRIDGE", BRIDGE_TYPE);
+			bridgeLocal = newLocal(BRIDGE_TYPE);
+			storeLocal(bridgeLocal);
+		}
+		if (hasAdvices(AdviceKind.BEFORE) && hasAfterAdvices) {
+			pushNull();
+			adviceInstancesMapLocal = newLocal(useBridge ? OBJECT_TYPE : MAP_TYPE);
+			storeLocal(adviceInstancesMapLocal);
+		}
+		Label enterEnd = new Label();
+		pushJoinPointId();
+		visitMethodInsn(INVOKESTATIC,
+				PROXY_NAME,
+				"isJoinPointEnabled",
+				PROXY_IS_ENABLED_DESC,
+				false);
+		ifZCmp(EQ, enterEnd);
+
+		// 1) prepare array of intercepted arguments, or use the shared empty array if all intercepted arguments
+		//   (if any) are passed in the primitive slots
+		int slotsCount = 0;
+		for (InterceptedArgument interceptedArgument : interceptedArguments) {
+			int slot = interceptedArgument.getPrimitiveSlot();
+			if (slot >= 0) {
+				// save the raw bits, as the parameters may be re-assigned by the method code
+				int paramIdx = interceptedArgument.getTargetMethodParameterIdx();
+				loadArg(paramIdx);
+				PrimitiveSlots.encode(this, paramTypes[paramIdx]);
+				storeLocal(slotLocals[slot]);
+				slotsCount++;
+			}
+		}
+		if (interceptedArguments.size() == slotsCount) {
+			getStatic(PROXY_TYPE, "NO_ARGS", OBJECT_ARRAY_TYPE);
+		} else {
+			push(interceptedArguments.size()); // interested args array
+			newArray(OBJECT_TYPE);
+			for (int i = 0; i < interceptedArguments.size(); i++) {
+				InterceptedArgument interceptedArgument = interceptedArguments.get(i);
+				if (interceptedArgument.getPrimitiveSlot() >= 0) {
+					continue;
+				}
+				dup();
+				push(i);
 
-			InterceptedArgument interceptedArgument = interceptedArguments.get(i);
-			int paramIdx = interceptedArgument.getTargetMethodParameterIdx();
-			assert paramIdx >= 0 && paramIdx < paramTypes.length;
+				int paramIdx = interceptedArgument.getTargetMethodParameterIdx();
+				assert paramIdx >= 0 && paramIdx < paramTypes.length;
 
-			loadArg(paramIdx);
-			box(paramTypes[paramIdx]);
-			arrayStore(OBJECT_TYPE);
+				loadArg(paramIdx);
+				box(paramTypes[paramIdx]);
+				arrayStore(OBJECT_TYPE);
+			}
 		}
-		interceptedArgsLocal = newLocal(OBJECT_ARRAY_TYPE);
 		storeLocal(interceptedArgsLocal);
 
-		// 2) if 'before' advices exists, invoke XmxAopProxy.before(int joinPointId, Object thisArg, Object[] interestedArgs)
-		if (hasAdvices(AdviceKind.BEFORE)) {
-			push(joinPointId);
-			loadOptThis();
-			loadLocal(interceptedArgsLocal);
+		if (needBridge) {
+			// get the advice bridge once with XmxAopProxy.getAdviceBridge(int joinPointId)
+			pushJoinPointId();
 			visitMethodInsn(INVOKESTATIC,
 					PROXY_NAME,
-					"before",
-					PROXY_BEFORE_DESC,
+					"getAdviceBridge",
+					PROXY_GET_BRIDGE_DESC,
 					false);
+			storeLocal(bridgeLocal);
+		}
+
+		// 2) if 'before' advices exists, invoke XmxAopProxy.before(int joinPointId, Object thisArg, Object[] interestedArgs),
+		//   or IXmxAdviceBridge.before(Object thisArg, Object[] interestedArgs)
+		if (hasAdvices(AdviceKind.BEFORE)) {
+			if (useBridge) {
+				loadLocal(bridgeLocal);
+				loadOptThis();
+				loadLocal(interceptedArgsLocal);
+				loadSlots();
+				visitMethodInsn(INVOKEINTERFACE,
+						BRIDGE_TYPE.getInternalName(),
+						"before",
+						BRIDGE_BEFORE_DESC,
+						true);
+			} else {
+				pushJoinPointId();
+				loadOptThis();
+				loadLocal(interceptedArgsLocal);
+				visitMethodInsn(INVOKESTATIC,
+						PROXY_NAME,
+						"before",
+						PROXY_BEFORE_DESC,
+						false);
+			}
 
 			// 3) saved advice instances map for 'after' advices, if any
 			if (hasAfterAdvices) {
-				adviceInstancesMapLocal = newLocal(MAP_TYPE);
 				storeLocal(adviceInstancesMapLocal);
 			} else {
 				pop();
@@ -165,13 +349,161 @@ public class XmxAdviceMethodWeaver extends AdviceAdapter {
 			}
 		}
 
+		visitLabel(enterEnd);
+		if (emitFrames) {
+			visitParamsFrame(new Object[0]);
+			// the original code may start with a frame, which cannot share the offset with the emitted one
+			visitInsn(NOP);
+		}
+
 		if (hasAfterThrowAdvices) {
 			visitLabel(start);
 		}
 
+		if (hasAroundAdvices) {
+			invokeAroundAdvices();
+		}
+
 		super.onMethodEnter();
 	}
 
+	/**
+	 * Generates the code of the method with 'around' advices, which returns the result of the advices, or of
+	 * the original code invoked directly.
+	 */
+	private void invokeAroundAdvices() {
+		if (PrimitiveSlots.isSlotType(getReturnType())) {
+			invokeAroundAdvicesPrimitive();
+			return;
+		}
+		loadLocal(bridgeLocal);
+		loadOptThis();
+		loadLocal(interceptedArgsLocal);
+		loadSlots();
+		visitMethodInsn(INVOKEINTERFACE,
+				BRIDGE_TYPE.getInternalName(),
+				"around",
+				BRIDGE_AROUND_DESC,
+				true);
+
+		Label aroundResult = new Label();
+		dup();
+		getStatic(BRIDGE_TYPE, "PROCEED", OBJECT_TYPE);
+		ifCmp(OBJECT_TYPE, NE, aroundResult);
+		pop();
+		invokeOriginalAndReturn();
+
+		visitLabel(aroundResult);
+		if (emitFrames) {
+			visitParamsFrame(new Object[]{OBJECT_TYPE.getInternalName()});
+		}
+		if (getReturnType().getSort() == Type.VOID) {
+			pop();
+		} else {
+			unbox(getReturnType());
+		}
+		visitInsn(getReturnType().getOpcode(IRETURN));
+	}
+
+	/**
+	 * Same as {@link #invokeAroundAdvices()}, for the methods which return primitive values. The bridge returns
+	 * the raw bits of the result, and the original code is invoked directly if the bridge is
+	 * {@link XmxAopProxy#NOP_BRIDGE}.
+	 */
+	private void invokeAroundAdvicesPrimitive() {
+		Label proceed = new Label();
+		loadLocal(bridgeLocal);
+		getStatic(PROXY_TYPE, "NOP_BRIDGE", BRIDGE_TYPE);
+		ifCmp(BRIDGE_TYPE, EQ, proceed);
+
+		loadLocal(bridgeLocal);
+		loadOptThis();
+		loadLocal(interceptedArgsLocal);
+		loadSlots();
+		visitMethodInsn(INVOKEINTERFACE,
+				BRIDGE_TYPE.getInternalName(),
+				"aroundPrimitive",
+				BRIDGE_AROUND_PRIMITIVE_DESC,
+				true);
+		PrimitiveSlots.decode(this, getReturnType());
+		visitInsn(getReturnType().getOpcode(IRETURN));
+
+		visitLabel(proceed);
+		if (emitFrames) {
+			visitParamsFrame(new Object[0]);
+		}
+		invokeOriginalAndReturn();
+	}
+
+	/**
+	 * Invokes the original code of the method directly, and returns its result.
+	 */
+	private void invokeOriginalAndReturn() {
+		boolean isStaticMethod = (methodAccess & Opcodes.ACC_STATIC) != 0;
+		if (!isStaticMethod) {
+			loadThis();
+		}
+		loadArgs();
+		visitMethodInsn(isStaticMethod ? INVOKESTATIC : INVOKESPECIAL,
+				bcClassName,
+				WeavingContext.getOriginalMethodName(methodName),
+				methodDesc,
+				false);
+		// visit on this adapter to invoke 'after' advices
+		visitInsn(getReturnType().getOpcode(IRETURN));
+	}
+
+	/**
+	 * Emits the frame for the code where the parameters have their declared types, i.e. after the method enter
+	 * code, or in the generated method with 'around' advices, which has no other code. The added locals are
+	 * assigned on all paths before such code, and are added to the frame by
+	 * {@link org.objectweb.asm.commons.LocalVariablesSorter}.
+	 *
+	 * @param stack the types of the stack elements
+	 */
+	private void visitParamsFrame(Object[] stack) {
+		boolean isStaticMethod = (methodAccess & Opcodes.ACC_STATIC) != 0;
+		Object[] locals = new Object[paramTypes.length + (isStaticMethod ? 0 : 1)];
+		int startLocal = 0;
+		if (!isStaticMethod) {
+			locals[0] = bcClassName;
+			startLocal = 1;
+		}
+		for (int i = 0; i < paramTypes.length; i++) {
+			locals[startLocal + i] = toFrameType(paramTypes[i]);
+		}
+		visitFrame(Opcodes.F_NEW, locals.length, locals, stack.length, stack);
+	}
+
+	private static Object toFrameType(Type type) {
+		switch (type.getSort()) {
+		case Type.BOOLEAN:
+		case Type.CHAR:
+		case Type.BYTE:
+		case Type.SHORT:
+		case Type.INT:
+			return Opcodes.INTEGER;
+		case Type.FLOAT:
+			return Opcodes.FLOAT;
+		case Type.LONG:
+			return Opcodes.LONG;
+		case Type.DOUBLE:
+			return Opcodes.DOUBLE;
+		case Type.ARRAY:
+			return type.getDescriptor();
+		default:
+			return type.getInternalName();
+		}
+	}
+
+	private void pushJoinPointId() {
+		if (joinPointIdConstant != null) {
+			visitLdcInsn(joinPointIdConstant);
+		} else {
+			push(ctx.getJoinpointId());
+		}
+	}
+
 	private boolean hasAdvices(AdviceKind kind) {
 		List<WeavingAdviceInfo> advices = ctx.getAdviceInfoByKind().get(kind);
 		return advices != null && !advices.isEmpty();
@@ -189,6 +521,19 @@ public class XmxAdviceMethodWeaver extends AdviceAdapter {
 		visitInsn(Opcodes.ACONST_NULL);
 	}
 
+	/**
+	 * Loads the primitive slots arguments of the advice bridge methods.
+	 */
+	private void loadSlots() {
+		for (int slotLocal : slotLocals) {
+			if (slotLocal < 0) {
+				push(0L);
+			} else {
+				loadLocal(slotLocal);
+			}
+		}
+	}
+
 	private void loadOptLocal(int local) {
 		if (local < 0) {
 			pushNull();
@@ -210,6 +555,10 @@ public class XmxAdviceMethodWeaver extends AdviceAdapter {
 			// depending on return type, 0 or 1 or 2 slots on stack are return value
 			boolean isVoid = opcode == Opcodes.RETURN;
 			boolean isPrimitiveRetVal = !isVoid && opcode != Opcodes.ARETURN;
+			if (isPrimitiveRetVal && useBridge && ctx.getPrimitiveReturnType() != null) {
+				onAfterReturnPrimitive();
+				return;
+			}
 			if (isVoid) {
 				pushNull();
 			} else if (isPrimitiveRetVal) {
@@ -217,16 +566,29 @@ public class XmxAdviceMethodWeaver extends AdviceAdapter {
 				box(getReturnType());
 			}
 
-			int joinPointId = ctx.getJoinpointId();
-			push(joinPointId);
-			loadOptLocal(adviceInstancesMapLocal);
-			loadOptThis();
-			loadLocal(interceptedArgsLocal);
-			visitMethodInsn(INVOKESTATIC,
-					PROXY_NAME,
-					"afterReturn",
-					PROXY_AFTER_RETURN_DESC,
-					false);
+			if (useBridge) {
+				loadLocal(bridgeLocal);
+				swap();
+				loadOptLocal(adviceInstancesMapLocal);
+				loadOptThis();
+				loadLocal(interceptedArgsLocal);
+				loadSlots();
+				visitMethodInsn(INVOKEINTERFACE,
+						BRIDGE_TYPE.getInternalName(),
+						"afterReturn",
+						BRIDGE_AFTER_RETURN_DESC,
+						true);
+			} else {
+				pushJoinPointId();
+				loadOptLocal(adviceInstancesMapLocal);
+				loadOptThis();
+				loadLocal(interceptedArgsLocal);
+				visitMethodInsn(INVOKESTATIC,
+						PROXY_NAME,
+						"afterReturn",
+						PROXY_AFTER_RETURN_DESC,
+						false);
+			}
 			// use return value from advices (if not overridden, same value will be returned)
 			if (isPrimitiveRetVal) {
 				unbox(getReturnType());
@@ -240,4 +602,25 @@ public class XmxAdviceMethodWeaver extends AdviceAdapter {
 			}
 		}
 	}
+
+	/**
+	 * Invokes the 'after return' advices through the bridge, with the primitive return value on the stack
+	 * passed without boxing.
+	 */
+	private void onAfterReturnPrimitive() {
+		Type returnType = getReturnType();
+		PrimitiveSlots.encode(this, returnType);
+		loadLocal(bridgeLocal);
+		swap(SLOT, BRIDGE_TYPE);
+		loadOptLocal(adviceInstancesMapLocal);
+		loadOptThis();
+		loadLocal(interceptedArgsLocal);
+		loadSlots();
+		visitMethodInsn(INVOKEINTERFACE,
+				BRIDGE_TYPE.getInternalName(),
+				"afterReturnPrimitive",
+				BRIDGE_AFTER_RETURN_PRIMITIVE_DESC,
+				true);
+		PrimitiveSlots.decode(this, returnType);
+	}
 }
@@ -0,0 +1,119 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.core.instrument;
+
+import com.gilecode.xmx.aop.impl.WeavingContext;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.Attribute;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.TypePath;
+
+import java.lang.reflect.Method;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Splits a method with 'around' advices into the synthetic private method with the original code, and the
+ * method with the original name, signature and annotations, which code is generated by {@link XmxAdviceMethodWeaver}.
+ * <p/>
+ * The code events are passed to the visitor of the synthetic method, and all other events to the visitor of the
+ * advised method. When the original method ends, the advised method is visited as one with the empty code, so
+ * that the weaver generates its whole code on the method enter.
+ */
+public class XmxAroundMethodSplitter extends MethodVisitor {
+
+	private final MethodVisitor advisedMethodVisitor;
+
+	/**
+	 * Creates the splitter.
+	 *
+	 * @param advisedMethodVisitor the visitor of the advised method, i.e. the weaver
+	 * @param originalCodeVisitor the visitor of the synthetic method, see {@link #visitOriginalCodeMethod}
+	 */
+	public XmxAroundMethodSplitter(MethodVisitor advisedMethodVisitor, MethodVisitor originalCodeVisitor) {
+		super(Opcodes.ASM5, originalCodeVisitor);
+		this.advisedMethodVisitor = advisedMethodVisitor;
+	}
+
+	/**
+	 * Adds the synthetic method for the original code of the specified method to the class.
+	 *
+	 * @return the visitor of the added method
+	 */
+	public static MethodVisitor visitOriginalCodeMethod(ClassVisitor cv, int access, String name, String desc,
+	                                                    String signature, String[] exceptions) {
+		int originalAccess = Opcodes.ACC_PRIVATE | Opcodes.ACC_SYNTHETIC |
+				(access & (Opcodes.ACC_STATIC | Opcodes.ACC_STRICT));
+		return cv.visitMethod(originalAccess, WeavingContext.getOriginalMethodName(name), desc, signature, exceptions);
+	}
+
+	/**
+	 * Finds the methods of the loaded class which original code is moved to the synthetic methods.
+	 *
+	 * @return the names of the methods with their descriptors, e.g. "foo(I)V"
+	 */
+	public static Set<String> findSplitMethods(Class<?> c) {
+		Set<String> splitMethods = new HashSet<>();
+		for (Method m : c.getDeclaredMethods()) {
+			String targetName = WeavingContext.getTargetMethodName(m.getName());
+			if (targetName != null && m.isSynthetic()) {
+				splitMethods.add(targetName + Type.getMethodDescriptor(m));
+			}
+		}
+		return splitMethods;
+	}
+
+	/**
+	 * Returns whether the code of the method may be moved to the synthetic method.
+	 */
+	public static boolean isApplicable(int classAccess, int methodAccess) {
+		return (classAccess & Opcodes.ACC_INTERFACE) == 0 &&
+				(methodAccess & (Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE)) == 0;
+	}
+
+	@Override
+	public void visitParameter(String name, int access) {
+		advisedMethodVisitor.visitParameter(name, access);
+	}
+
+	@Override
+	public AnnotationVisitor visitAnnotationDefault() {
+		return advisedMethodVisitor.visitAnnotationDefault();
+	}
+
+	@Override
+	public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+		return advisedMethodVisitor.visitAnnotation(descriptor, visible);
+	}
+
+	@Override
+	public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
+		return advisedMethodVisitor.visitTypeAnnotation(typeRef, typePath, descriptor, visible);
+	}
+
+	@Override
+	public void visitAnnotableParameterCount(int parameterCount, boolean visible) {
+		advisedMethodVisitor.visitAnnotableParameterCount(parameterCount, visible);
+	}
+
+	@Override
+	public AnnotationVisitor visitParameterAnnotation(int parameter, String descriptor, boolean visible) {
+		return advisedMethodVisitor.visitParameterAnnotation(parameter, descriptor, visible);
+	}
+
+	@Override
+	public void visitAttribute(Attribute attribute) {
+		advisedMethodVisitor.visitAttribute(attribute);
+	}
+
+	@Override
+	public void visitEnd() {
+		super.visitEnd();
+		advisedMethodVisitor.visitCode();
+		advisedMethodVisitor.visitMaxs(0, 0);
+		advisedMethodVisitor.visitEnd();
+	}
+}
@@ -2,16 +2,19 @@
 
 package com.gilecode.xmx.core.instrument;
 
+import com.gilecode.xmx.aop.AdviceKind;
 import com.gilecode.xmx.aop.IXmxAopLoader;
 import com.gilecode.xmx.aop.data.AdviceLoadResult;
 import com.gilecode.xmx.aop.impl.AdviceVerifier;
 import com.gilecode.xmx.aop.impl.WeakCachedSupplier;
 import com.gilecode.xmx.aop.impl.WeavingContext;
-import com.gilecode.xmx.cfg.IAppPropertiesSource;
+import com.gilecode.xmx.aop.impl.XmxAopManager;
+import com.gilecode.xmx.cfg.ClassConfigView;
 import com.gilecode.xmx.cfg.Properties;
 import com.gilecode.xmx.cfg.PropertyValue;
 import com.gilecode.xmx.cfg.pattern.MethodSpec;
 import com.gilecode.xmx.core.ManagedClassLoaderWeakRef;
+import com.gilecode.xmx.core.cache.CachedTransformation;
 import com.gilecode.xmx.core.params.IParamNamesConsumer;
 import com.gilecode.xmx.core.params.ParamNamesCache;
 import org.objectweb.asm.ClassVisitor;
@@ -21,21 +24,64 @@ import org.objectweb.asm.Type;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
 
 public class XmxManagedClassTransformer extends ClassVisitor {
 
     private final static Logger logger = LoggerFactory.getLogger(XmxManagedClassTransformer.class);
 
 	private static final String CONSTR_NAME = "<init>";
-	
+
+	/**
+	 * The name of the synthetic static field added to each managed class. It holds the registration
+	 * token, i.e. the class manager, which is bound by XMX core on the first registration of an instance.
+	 * <p/>
+	 * The field is added whenever the class is managed, even if the registration of instances is
+	 * currently disabled, so that the fields do not change on re-transformation. However, the field
+	 * is not added to the classes loaded before XMX start, as re-transformation cannot add fields.
+	 */
+	public static final String REGISTRATION_TOKEN_FIELD = "__xmx_registrationToken";
+	static final String REGISTRATION_TOKEN_DESC = "Ljava/lang/Object;";
+
 	/**
-	 * The internal class ID assigned to the class being transformed.
+	 * The internal class ID assigned to the class being transformed, or {@code 0} if its
+	 * instances are not managed.
 	 * <p/>
-	 * registerObject() uses this ID to prevent duplicate or undesired registration 
-	 * from superclasses. 
+	 * registerObject() uses this ID to find the class manager until the registration token is bound.
 	 */
 	private final int classId;
+
+	/**
+	 * Whether the registration of instances shall be added to the constructors.
+	 */
+	private final boolean registerInstances;
+
+	/**
+	 * Whether the synthetic registration token field is added to the managed class.
+	 */
+	private final boolean addTokenField;
+
+	/**
+	 * The methods of the class being re-transformed which original code was moved to the synthetic methods for
+	 * 'around' advices on the initial load, as names with descriptors, or {@code null} on the initial load.
+	 * <p/>
+	 * Re-transformation cannot add or remove methods, so the 'around' advices are weaved on re-transformation
+	 * exactly into these methods, see {@link XmxAroundMethodSplitter#findSplitMethods(Class)}.
+	 */
+	private final Set<String> splitMethods;
+
+	/**
+	 * The version of the class file being transformed.
+	 */
+	private int classVersion;
+
+	/**
+	 * The access flags of the class being transformed.
+	 */
+	private int classAccess;
 	
 	/**
 	 * The name of the class being transformed, in bytecode format (e.g. "java/lang/Object").
@@ -45,7 +91,7 @@ public class XmxManagedClassTransformer extends ClassVisitor {
 	/**
 	 * Config which is used to check which methods need to be intercepted with advices.
 	 */
-	private final IAppPropertiesSource appConfig;
+	private final ClassConfigView classConfig;
 
 	private final String javaClassName;
 	/**
@@ -84,22 +130,47 @@ public class XmxManagedClassTransformer extends ClassVisitor {
 	 */
 	private boolean advicesWeaved;
 
-	public XmxManagedClassTransformer(ClassVisitor cv, int classId, String bcClassName,
+	/**
+	 * The IDs of all join points registered for the methods of the class.
+	 */
+	private final List<Integer> joinPointIds = new ArrayList<>();
+
+	/**
+	 * The collector of the IDs which shall be bound later, if the transformed bytecode is cached, or {@code null}
+	 */
+	private final BindableIds bindableIds;
+
+	public XmxManagedClassTransformer(ClassVisitor cv, int classId, boolean registerInstances,
+			boolean addTokenField,
+			Set<String> splitMethods,
+			String bcClassName,
 			String javaClassName,
 			AdviceLoadResult loadedAdvices,
-			IAppPropertiesSource appConfig,
+			ClassConfigView classConfig,
 			IXmxAopLoader xmxAopManager,
 			ManagedClassLoaderWeakRef classLoaderRef,
-			boolean extractParamNames) {
+			boolean extractParamNames,
+			BindableIds bindableIds) {
 		super(Opcodes.ASM5, cv);
 		this.classId = classId;
+		this.registerInstances = registerInstances;
+		this.addTokenField = addTokenField;
+		this.splitMethods = splitMethods;
 		this.bcClassName = bcClassName;
 		this.javaClassName = javaClassName;
 		this.loadedAdvices = loadedAdvices;
-		this.appConfig = appConfig;
+		this.classConfig = classConfig;
 		this.xmxAopManager = xmxAopManager;
 		this.classLoaderRef = classLoaderRef;
 		this.extractParamNames = extractParamNames;
+		this.bindableIds = bindableIds;
+	}
+
+	@Override
+	public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+		this.classVersion = version;
+		this.classAccess = access;
+		super.visit(version, access, name, signature, superName, interfaces);
 	}
 
 	@Override
@@ -109,13 +180,26 @@ public class XmxManagedClassTransformer extends ClassVisitor {
 		boolean isConstructor = name.startsWith(CONSTR_NAME);
 		if (isConstructor && needTraceInstances()) {
 			// add registering managed objects to constructors
-			parentVisitor = new XmxManagedConstructorTransformer(classId, bcClassName, parentVisitor);
+			Integer classIdConstant = bindableIds == null ? null : bindableIds.getClassIdConstant();
+			parentVisitor = new XmxManagedConstructorTransformer(classId, classIdConstant, bcClassName, classVersion,
+					true, addTokenField, access, desc, parentVisitor);
 		}
 
+		// the methods without code cannot be advised, and shall not get the join points
+		boolean hasCode = (access & (Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE)) == 0;
+		PropertyValue advices = loadedAdvices.isEmpty() || !hasCode ? null :
+				getAdvicesProperty(access, name, desc, isConstructor);
+		WeavingContext ctx = advices == null ? null : prepareAdvicesWeaving(advices, access, name, desc);
+		boolean splitAroundMethod = ctx != null && ctx.hasAroundAdvices();
+
+		// the visitor of the original code, which is moved to the synthetic method for 'around' advices
+		MethodVisitor codeVisitor = splitAroundMethod
+				? XmxAroundMethodSplitter.visitOriginalCodeMethod(cv, access, name, desc, signature, exceptions)
+				: parentVisitor;
 		if (!isConstructor) {
 			Type[] argumentTypes = Type.getArgumentTypes(desc);
 			if (extractParamNames && argumentTypes.length > 0) {
-				parentVisitor = new LocalVariableTableParamNamesExtractor(access, parentVisitor, argumentTypes,
+				codeVisitor = new LocalVariableTableParamNamesExtractor(access, codeVisitor, argumentTypes,
 						new IParamNamesConsumer() {
 							@Override
 							public void consume(String[] argNames) {
@@ -132,62 +216,132 @@ public class XmxManagedClassTransformer extends ClassVisitor {
 			}
 		}
 
-		if (!loadedAdvices.isEmpty()) {
-			// weave advices
-			MethodSpec spec = isConstructor
-					? MethodSpec.special(access, getSimpleClassName(), desc, CONSTR_NAME)
-					: MethodSpec.of(access, name, desc);
-			PropertyValue advices = appConfig.getMethodProperty(javaClassName, spec, Properties.M_ADVICES);
-			if (advices != null) {
-				String[] adviceDescs = advices.asString().split(",");
-				WeavingContext ctx = xmxAopManager.prepareMethodAdvicesWeaving(Arrays.asList(adviceDescs),
-						loadedAdvices.getAdviceClassesByDesc(),
-						Type.getArgumentTypes(desc), Type.getReturnType(desc),
-						javaClassName, name, getTargetClassSupplier());
-
-				if (!ctx.getAdviceInfoByKind().isEmpty()) {
-				    logger.debug("Injecting advices invocation into method {}.{}() : {}",
-							javaClassName, name, ctx.getAdviceInfoByKind());
-				    advicesWeaved = true;
-					return new XmxAdviceMethodWeaver(access, name, desc, parentVisitor, ctx);
-				}
+		if (ctx == null) {
+			return codeVisitor;
+		}
+		logger.debug("Injecting advices invocation into method {}.{}() : {}",
+				javaClassName, name, ctx.getAdviceInfoByKind());
+		advicesWeaved = true;
+		Integer joinPointIdConstant = bindableIds == null ? null :
+				bindableIds.addJoinPoint(ctx.getJoinpointId(), name, desc, advices.asString(),
+						ctx.getAdviceInfoByKind().keySet());
+		if (splitAroundMethod) {
+			MethodVisitor weaver = new XmxAdviceMethodWeaver(access, name, desc, parentVisitor, ctx, bcClassName,
+					classVersion, joinPointIdConstant);
+			return new XmxAroundMethodSplitter(weaver, codeVisitor);
+		}
+		return new XmxAdviceMethodWeaver(access, name, desc, codeVisitor, ctx, bcClassName, classVersion,
+				joinPointIdConstant);
+	}
+
+	private PropertyValue getAdvicesProperty(int access, String name, String desc, boolean isConstructor) {
+		MethodSpec spec = isConstructor
+				? MethodSpec.special(access, getSimpleClassName(), desc, CONSTR_NAME)
+				: MethodSpec.of(access, name, desc);
+		return classConfig.getMethodProperty(spec, Properties.M_ADVICES);
+	}
+
+	/**
+	 * Prepares the weaving of the advices configured for the method.
+	 *
+	 * @return the weaving context, or {@code null} if no advices shall be weaved
+	 */
+	private WeavingContext prepareAdvicesWeaving(PropertyValue advices, int access, String name, String desc) {
+		String[] adviceDescs = advices.asString().split(",");
+		WeavingContext ctx = xmxAopManager.prepareMethodAdvicesWeaving(Arrays.asList(adviceDescs),
+				loadedAdvices.getAdviceClassesByDesc(),
+				Type.getArgumentTypes(desc), Type.getReturnType(desc),
+				javaClassName, name, getTargetClassSupplier());
+		if (!ctx.getAdviceInfoByKind().isEmpty()) {
+			joinPointIds.add(ctx.getJoinpointId());
+		}
+		if (ctx.hasAroundAdvices() && !isSplitAllowed(access, name, desc)) {
+			logger.warn("The 'around' advices are not applicable to abstract, native and interface methods, and " +
+					"to the classes loaded before XMX start, skipped for {}.{}()", javaClassName, name);
+			ctx.getAdviceInfoByKind().remove(AdviceKind.AROUND);
+		}
+		return ctx.getAdviceInfoByKind().isEmpty() ? null : ctx;
+	}
+
+	/**
+	 * Re-registers the join points of the cached transformation in the AOP manager. The weaving contexts are
+	 * restricted to the advice kinds actually weaved by the cached transformation, same as prepared by the
+	 * transformer, e.g. with 'around' advices skipped for the methods which cannot be split.
+	 *
+	 * @return the new IDs of the join points, or {@code null} if some join point cannot be registered, so
+	 * 		the cached transformation cannot be used
+	 */
+	public static int[] registerCachedJoinPoints(XmxAopManager xmxAopManager, CachedTransformation cached,
+			String className, AdviceLoadResult adviceLoadResult, ManagedClassLoaderWeakRef classLoaderInfo) {
+		List<CachedTransformation.JoinPoint> joinPoints = cached.getJoinPoints();
+		int[] joinPointIds = new int[joinPoints.size()];
+		TargetClassSupplier targetClassSupplier = joinPoints.isEmpty() ? null :
+				new TargetClassSupplier(classLoaderInfo, className);
+		for (int i = 0; i < joinPointIds.length; i++) {
+			CachedTransformation.JoinPoint jp = joinPoints.get(i);
+			WeavingContext ctx = xmxAopManager.prepareMethodAdvicesWeaving(
+					Arrays.asList(jp.getAdviceDescs().split(",")), adviceLoadResult.getAdviceClassesByDesc(),
+					Type.getArgumentTypes(jp.getMethodDesc()), Type.getReturnType(jp.getMethodDesc()),
+					className, jp.getMethodName(), targetClassSupplier);
+			joinPointIds[i] = ctx.getJoinpointId();
+			ctx.getAdviceInfoByKind().keySet().retainAll(jp.getAdviceKinds());
+			if (!ctx.getAdviceInfoByKind().keySet().equals(jp.getAdviceKinds())) {
+				logger.warn("Failed to re-register cached join point {}.{}{}, the class will be transformed again",
+						className, jp.getMethodName(), jp.getMethodDesc());
+				xmxAopManager.unregisterJoinPoints(Arrays.copyOf(joinPointIds, i + 1));
+				return null;
 			}
 		}
+		return joinPointIds;
+	}
 
-		return parentVisitor;
+	/**
+	 * Returns whether the original code of the method may be moved to the synthetic method for 'around' advices.
+	 * On re-transformation, the synthetic methods shall be the same as in the class being re-transformed.
+	 */
+	private boolean isSplitAllowed(int access, String name, String desc) {
+		if (splitMethods != null) {
+			return splitMethods.contains(name + desc);
+		}
+		return XmxAroundMethodSplitter.isApplicable(classAccess, access);
+	}
+
+	/**
+	 * Returns the IDs of all join points registered for the methods of the class.
+	 */
+	public int[] getJoinPointIds() {
+		int[] ids = new int[joinPointIds.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = joinPointIds.get(i);
+		}
+		return ids;
 	}
 
 	private String getSimpleClassName() {
 		return javaClassName.substring(1 + javaClassName.lastIndexOf('.'));
 	}
 
-	private boolean needTraceInstances() {
+	private boolean isManagedClass() {
 		return classId > 0;
 	}
 
+	private boolean needTraceInstances() {
+		return isManagedClass() && registerInstances;
+	}
+
 	private WeakCachedSupplier<Class<?>> getTargetClassSupplier() {
 		if (targetClassSupplier == null) {
-			targetClassSupplier = new WeakCachedSupplier<Class<?>>() {
-				@Override
-				protected Class<?> load() {
-					ClassLoader cl = classLoaderRef.get();
-					if (cl != null) {
-						try {
-							return cl.loadClass(javaClassName);
-						} catch (ClassNotFoundException e) {
-							// unexpected, give up silently
-						}
-					}
-					// unexpected, give up silently
-					return null;
-				}
-			};
+			targetClassSupplier = new TargetClassSupplier(classLoaderRef, javaClassName);
 		}
 		return targetClassSupplier;
 	}
 
 	@Override
 	public void visitEnd() {
+		if (isManagedClass() && addTokenField) {
+			super.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_SYNTHETIC,
+					REGISTRATION_TOKEN_FIELD, REGISTRATION_TOKEN_DESC, null, null).visitEnd();
+		}
 		super.visitEnd();
 		if (!loadedAdvices.isEmpty() && !advicesWeaved && logger.isDebugEnabled()) {
 			logger.debug("Advices were registered for class {}, but none were weaved (probably, " +
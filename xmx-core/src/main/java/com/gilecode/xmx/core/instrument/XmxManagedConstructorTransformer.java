@@ -2,30 +2,69 @@
 
 package com.gilecode.xmx.core.instrument;
 
+import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.AnalyzerAdapter;
+
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Transforms constructors of managed objects - adds calls to
- * {@link com.gilecode.xmx.boot.XmxProxy#registerObject(Object, int)}
+ * {@link com.gilecode.xmx.boot.XmxProxy#registerObject(Object, Object, int)}
+ * <p/>
+ * The call is guarded by a check that the class of the object is exactly the class being
+ * transformed, so the constructors invoked as superclass constructors of another class
+ * do not call XMX at all. The registration token is passed from the synthetic static field
+ * of the class, see {@link XmxManagedClassTransformer#REGISTRATION_TOKEN_FIELD}, or {@code null}
+ * is passed if the field cannot be added.
+ * <p/>
+ * As the injected check is a branch, the stack map frame for its target is required. It is
+ * built from the state tracked by {@link AnalyzerAdapter}, which requires the class to be
+ * read with expanded frames.
  */
-public class XmxManagedConstructorTransformer extends MethodVisitor {
+public class XmxManagedConstructorTransformer extends AnalyzerAdapter {
 
 	private static final String CONSTR_NAME = "<init>";
 
 	/**
 	 * The internal class ID assigned to the class being transformed.
 	 * <p/>
-	 * registerObject() uses this ID to prevent duplicate or undesired registration
-	 * from superclasses.
+	 * registerObject() uses this ID to find the class if the registration token is not
+	 * bound yet.
 	 */
 	private final int classId;
 
+	/**
+	 * The constant to load instead of the class ID, if the ID shall be bound later (see {@link BindableIds}),
+	 * or {@code null} to use the class ID directly.
+	 */
+	private final Integer classIdConstant;
+
 	/**
 	 * The name of the class being transformed, in bytecode format (e.g. "java/lang/Object").
 	 */
 	private final String bcClassName;
 
+	/**
+	 * The version of the class file being transformed.
+	 */
+	private final int classVersion;
+
+	/**
+	 * Whether the stack map frames shall be emitted for the injected code. Not needed if
+	 * the frames are computed by the class writer, or are not supported by the class version.
+	 */
+	private final boolean emitFrames;
+
+	/**
+	 * Whether the registration token is read from the synthetic static field. Shall be {@code false}
+	 * if the field is missing, e.g. if a class loaded before XMX start is re-transformed.
+	 */
+	private final boolean useTokenField;
+
 	/**
 	 * Whether invocation of another this(...) constructor is found.
 	 * <p/>
@@ -34,10 +73,16 @@ public class XmxManagedConstructorTransformer extends MethodVisitor {
 	 */
 	private boolean foundInvokeThis = false;
 
-	public XmxManagedConstructorTransformer(int classId, String bcClassName, MethodVisitor parentVisitor) {
-		super(Opcodes.ASM5, parentVisitor);
+	public XmxManagedConstructorTransformer(int classId, Integer classIdConstant, String bcClassName,
+	                                        int classVersion, boolean emitFrames, boolean useTokenField,
+	                                        int access, String desc, MethodVisitor parentVisitor) {
+		super(Opcodes.ASM5, bcClassName, access, CONSTR_NAME, desc, parentVisitor);
 		this.classId = classId;
+		this.classIdConstant = classIdConstant;
 		this.bcClassName = bcClassName;
+		this.classVersion = classVersion;
+		this.emitFrames = emitFrames && classVersion >= Opcodes.V1_6;
+		this.useTokenField = useTokenField;
 	}
 
 	/**
@@ -55,8 +100,39 @@ public class XmxManagedConstructorTransformer extends MethodVisitor {
 	@Override
 	public void visitInsn(int opcode) {
 		if (opcode == Opcodes.RETURN && !foundInvokeThis) {
+			Object[] frameLocals = emitFrames && locals != null ? toFrameTypes(locals) : null;
+			Object[] frameStack = emitFrames && stack != null ? toFrameTypes(stack) : null;
+			Label skipRegistration = new Label();
+
+			// if (this.getClass() == ThisClass.class)
 			super.visitVarInsn(Opcodes.ALOAD, 0);
-			if (classId <= Byte.MAX_VALUE) {
+			super.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/Object", "getClass",
+					"()Ljava/lang/Class;", false);
+			if (classVersion >= Opcodes.V1_5) {
+				super.visitLdcInsn(Type.getObjectType(bcClassName));
+				super.visitJumpInsn(Opcodes.IF_ACMPNE, skipRegistration);
+			} else {
+				// class literals are not supported by LDC in old class files, so compare names
+				super.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/Class", "getName",
+						"()Ljava/lang/String;", false);
+				super.visitLdcInsn(bcClassName.replace('/', '.'));
+				super.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/String", "equals",
+						"(Ljava/lang/Object;)Z", false);
+				super.visitJumpInsn(Opcodes.IFEQ, skipRegistration);
+			}
+
+			// XmxProxy.registerObject(this, REGISTRATION_TOKEN_FIELD, classId)
+			super.visitVarInsn(Opcodes.ALOAD, 0);
+			if (useTokenField) {
+				super.visitFieldInsn(Opcodes.GETSTATIC, bcClassName,
+						XmxManagedClassTransformer.REGISTRATION_TOKEN_FIELD,
+						XmxManagedClassTransformer.REGISTRATION_TOKEN_DESC);
+			} else {
+				super.visitInsn(Opcodes.ACONST_NULL);
+			}
+			if (classIdConstant != null) {
+				super.visitLdcInsn(classIdConstant);
+			} else if (classId <= Byte.MAX_VALUE) {
 				super.visitIntInsn(Opcodes.BIPUSH, classId);
 			} else if (classId <= Short.MAX_VALUE){
 				super.visitIntInsn(Opcodes.SIPUSH, classId);
@@ -64,14 +140,34 @@ public class XmxManagedConstructorTransformer extends MethodVisitor {
 				assert false : "Current limit of managed classes is 32767";
 				super.visitIntInsn(Opcodes.BIPUSH, -1);
 			}
-
 			super.visitMethodInsn(Opcodes.INVOKESTATIC,
 					"com/gilecode/xmx/boot/XmxProxy",
 					"registerObject",
-					"(Ljava/lang/Object;I)V",
+					"(Ljava/lang/Object;Ljava/lang/Object;I)V",
 					false);
+
+			super.visitLabel(skipRegistration);
+			if (frameLocals != null && frameStack != null) {
+				super.visitFrame(Opcodes.F_NEW, frameLocals.length, frameLocals, frameStack.length, frameStack);
+			}
 		}
 		super.visitInsn(opcode);
 	}
 
+	/**
+	 * Converts the types tracked by {@link AnalyzerAdapter} to the format of the expanded frames,
+	 * where long and double values use a single element instead of two.
+	 */
+	private static Object[] toFrameTypes(List<Object> types) {
+		List<Object> result = new ArrayList<>(types.size());
+		for (int i = 0; i < types.size(); i++) {
+			Object type = types.get(i);
+			result.add(type);
+			if (type == Opcodes.LONG || type == Opcodes.DOUBLE) {
+				// skip the second (TOP) element
+				i++;
+			}
+		}
+		return result.toArray();
+	}
 }
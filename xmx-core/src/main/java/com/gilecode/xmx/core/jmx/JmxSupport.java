@@ -194,6 +194,18 @@ public class JmxSupport {
 		}
 	}
 
+	/**
+	 * Registers the MBean which enables or disables the weaved advices, see {@link JoinPointsControl}.
+	 */
+	public static void registerJoinPointsControl(IXmxService xmxService, MBeanServer jmxServer) {
+		try {
+			jmxServer.registerMBean(new JoinPointsControl(xmxService), new ObjectName(JoinPointsControl.OBJECT_NAME));
+			logger.debug("Registered JMX bean \"{}\"", JoinPointsControl.OBJECT_NAME);
+		} catch (Exception e) {
+			logger.error("Failed to register JMX bean \"{}\"", JoinPointsControl.OBJECT_NAME, e);
+		}
+	}
+
 	public static ObjectName makeObjectName(int objectId, XmxClassManager classInfo, boolean singleton) {
 		try {
 			// add id for non-singletons
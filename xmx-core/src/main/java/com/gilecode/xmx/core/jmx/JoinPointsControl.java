@@ -0,0 +1,43 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.core.jmx;
+
+import com.gilecode.xmx.model.XmxJoinPointInfo;
+import com.gilecode.xmx.service.IXmxService;
+
+import java.util.List;
+
+/**
+ * Standard MBean which allows to enable or disable the weaved advices at runtime, see
+ * {@link IXmxService#setJoinPointEnabled(int, boolean)}.
+ */
+public class JoinPointsControl implements JoinPointsControlMBean {
+
+	public static final String OBJECT_NAME = "XMX:name=JoinPoints";
+
+	private final IXmxService xmxService;
+
+	public JoinPointsControl(IXmxService xmxService) {
+		this.xmxService = xmxService;
+	}
+
+	@Override
+	public String[] getJoinPoints() {
+		List<XmxJoinPointInfo> joinPoints = xmxService.getJoinPoints();
+		String[] result = new String[joinPoints.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = joinPoints.get(i).toString();
+		}
+		return result;
+	}
+
+	@Override
+	public boolean enableJoinPoint(int joinPointId) {
+		return xmxService.setJoinPointEnabled(joinPointId, true);
+	}
+
+	@Override
+	public boolean disableJoinPoint(int joinPointId) {
+		return xmxService.setJoinPointEnabled(joinPointId, false);
+	}
+}
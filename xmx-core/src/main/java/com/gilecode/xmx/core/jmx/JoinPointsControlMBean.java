@@ -0,0 +1,28 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.core.jmx;
+
+/**
+ * JMX interface to enable or disable the weaved advices at runtime.
+ */
+public interface JoinPointsControlMBean {
+
+	/**
+	 * Returns the descriptions of all join points, i.e. the methods weaved with advices, with their IDs and states.
+	 */
+	String[] getJoinPoints();
+
+	/**
+	 * Enables the invocation of the advices of the join point.
+	 *
+	 * @return {@code false} if the join point is not found
+	 */
+	boolean enableJoinPoint(int joinPointId);
+
+	/**
+	 * Disables the invocation of the advices of the join point.
+	 *
+	 * @return {@code false} if the join point is not found
+	 */
+	boolean disableJoinPoint(int joinPointId);
+}
@@ -0,0 +1,69 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.model;
+
+import java.util.List;
+
+/**
+ * DTO information about the join point, i.e. the method weaved with advices.
+ */
+public class XmxJoinPointInfo {
+
+	/**
+	 * Unique ID of the join point
+	 */
+	private final int id;
+
+	/**
+	 * Name of the target class
+	 */
+	private final String className;
+
+	/**
+	 * Name of the target method
+	 */
+	private final String methodName;
+
+	/**
+	 * Descriptions of the weaved advices, with their kinds
+	 */
+	private final List<String> advices;
+
+	/**
+	 * Whether the advices are currently invoked
+	 */
+	private final boolean enabled;
+
+	public XmxJoinPointInfo(int id, String className, String methodName, List<String> advices, boolean enabled) {
+		this.id = id;
+		this.className = className;
+		this.methodName = methodName;
+		this.advices = advices;
+		this.enabled = enabled;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public String getClassName() {
+		return className;
+	}
+
+	public String getMethodName() {
+		return methodName;
+	}
+
+	public List<String> getAdvices() {
+		return advices;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	@Override
+	public String toString() {
+		return id + ": " + className + "." + methodName + " " + advices + (enabled ? "" : " (disabled)");
+	}
+}
@@ -28,5 +28,17 @@ public interface IXmxServerLauncher {
 	 * @param config the XMX configuration which specifies which port to use and possibly other parameters
 	 */
 	void launchServer(File warFile, IXmxConfig config);
-	
+
+	/**
+	 * Stops the server started by {@link #launchServer(File, IXmxConfig)}, if running. The server may be
+	 * launched again after that.
+	 */
+	void stopServer();
+
+	/**
+	 * Returns the time of the last request to the running server, or the time of the server start if there
+	 * were no requests yet, in milliseconds; or -1 if the server is not running.
+	 */
+	long getLastActivityTime();
+
 }
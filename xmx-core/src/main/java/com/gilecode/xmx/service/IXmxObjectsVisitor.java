@@ -0,0 +1,23 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.service;
+
+import com.gilecode.xmx.model.XmxObjectInfo;
+
+/**
+ * Visitor of managed objects, used to stream the objects without building
+ * intermediate lists.
+ *
+ * @see IXmxService#visitManagedObjects(Integer, IXmxObjectsVisitor)
+ */
+public interface IXmxObjectsVisitor {
+
+	/**
+	 * Visits a next 'live' managed object.
+	 *
+	 * @param objectInfo the object along with a brief meta-information
+	 *
+	 * @return {@code true} to continue visiting, {@code false} to stop
+	 */
+	boolean visitObject(XmxObjectInfo objectInfo);
+}
@@ -44,6 +44,31 @@ public interface IXmxService {
 	 */
 	List<XmxObjectInfo> getManagedObjects(Integer classId) throws XmxRuntimeException;
 
+	/**
+	 * Streams all 'live' objects of the specified class (or all classes) to the visitor, class by class,
+	 * without building intermediate lists. Stops when the visitor returns {@code false}.
+	 *
+	 * @param classId unique class ID (or null to visit all objects)
+	 * @param visitor the visitor to pass the objects to
+	 */
+	void visitManagedObjects(Integer classId, IXmxObjectsVisitor visitor) throws XmxRuntimeException;
+
+	/**
+	 * Returns the number of managed objects of the specified class, without obtaining the objects.
+	 * The result may include recently GC'ed objects which are not cleaned yet.
+	 *
+	 * @param classId unique class ID
+	 */
+	int getManagedObjectsCount(int classId);
+
+	/**
+	 * Returns the number of managed objects of all classes of the specified application, without
+	 * obtaining the objects. The result may include recently GC'ed objects which are not cleaned yet.
+	 *
+	 * @param appName the application name as returned by {@link #getApplicationNames()}
+	 */
+	int getAppManagedObjectsCount(String appName);
+
 	/**
 	 * Returns an managed object (along with a brief meta-information) by its ID.
 	 * If this object is already GC'ed, returns null.
@@ -76,4 +101,21 @@ public interface IXmxService {
 	 * @throws NotSingletonException if the singleton object can not be found, or not singleton anymore
 	 */
 	XmxObjectInfo getSingletonObject(SingletonPermanentId permanentId) throws NotSingletonException;
+
+	/**
+	 * Returns information about all join points, i.e. the methods weaved with advices, ordered by IDs.
+	 */
+	List<XmxJoinPointInfo> getJoinPoints();
+
+	/**
+	 * Enables or disables the invocation of the advices of the join point at runtime, without re-weaving.
+	 * The disabled join point skips the preparation of the advice arguments and all advices calls, and the
+	 * change affects the invocations of the advised method started after it.
+	 *
+	 * @param joinPointId unique join point ID, as returned by {@link #getJoinPoints()}
+	 * @param enabled whether the advices shall be invoked
+	 *
+	 * @return {@code false} if the join point is not found
+	 */
+	boolean setJoinPointEnabled(int joinPointId, boolean enabled);
 }
@@ -0,0 +1,369 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A concurrent map with primitive {@code int} keys, which does not box the keys.
+ * <p/>
+ * The map is split into a fixed number of independently locked segments (stripes),
+ * selected by the key hash. Modifications lock only the corresponding segment, while
+ * reads ({@link #get(int)}, {@link #size()}, iteration snapshots) do not lock at all,
+ * as the hash chains are never modified in-place after being published.
+ * <p/>
+ * {@code null} values are not allowed.
+ *
+ * @author Andrey Mogilev
+ */
+public class ConcurrentIntMap<V> {
+
+	private static final int MAX_SEGMENTS = 1 << 16;
+
+	private final Segment<V>[] segments;
+	private final int segmentShift;
+	private final int segmentMask;
+
+	/**
+	 * Creates a map with the specified expected capacity and the concurrency level, which
+	 * is the estimated number of concurrently modifying threads.
+	 */
+	@SuppressWarnings("unchecked")
+	public ConcurrentIntMap(int initialCapacity, int concurrencyLevel) {
+		if (initialCapacity < 0 || concurrencyLevel <= 0) {
+			throw new IllegalArgumentException();
+		}
+		int nSegments = 1;
+		int shift = 0;
+		while (nSegments < concurrencyLevel && nSegments < MAX_SEGMENTS) {
+			nSegments <<= 1;
+			shift++;
+		}
+		this.segmentShift = 32 - shift;
+		this.segmentMask = nSegments - 1;
+
+		int segmentCapacity = 2;
+		while (segmentCapacity * nSegments < initialCapacity) {
+			segmentCapacity <<= 1;
+		}
+		this.segments = new Segment[nSegments];
+		for (int i = 0; i < nSegments; i++) {
+			segments[i] = new Segment<>(segmentCapacity);
+		}
+	}
+
+	public ConcurrentIntMap() {
+		this(16, 16);
+	}
+
+	private static int hash(int key) {
+		// spread bits, as keys are usually sequential IDs
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private Segment<V> segmentFor(int hash) {
+		return segments[(hash >>> segmentShift) & segmentMask];
+	}
+
+	public V get(int key) {
+		int hash = hash(key);
+		return segmentFor(hash).get(key, hash);
+	}
+
+	public boolean containsKey(int key) {
+		return get(key) != null;
+	}
+
+	/**
+	 * Associates the value with the key.
+	 *
+	 * @return the previous value associated with the key, or {@code null}
+	 */
+	public V put(int key, V value) {
+		if (value == null) {
+			throw new NullPointerException();
+		}
+		int hash = hash(key);
+		return segmentFor(hash).put(key, hash, value, false);
+	}
+
+	/**
+	 * Associates the value with the key, unless the key is already present.
+	 *
+	 * @return the existing value associated with the key, or {@code null} if the new value was added
+	 */
+	public V putIfAbsent(int key, V value) {
+		if (value == null) {
+			throw new NullPointerException();
+		}
+		int hash = hash(key);
+		return segmentFor(hash).put(key, hash, value, true);
+	}
+
+	/**
+	 * Removes the key from the map.
+	 *
+	 * @return the removed value, or {@code null} if the key was not present
+	 */
+	public V remove(int key) {
+		int hash = hash(key);
+		return segmentFor(hash).remove(key, hash, null);
+	}
+
+	/**
+	 * Removes the key only if it is currently mapped to the specified value (compared by identity).
+	 *
+	 * @return whether the value was removed
+	 */
+	public boolean remove(int key, V value) {
+		if (value == null) {
+			return false;
+		}
+		int hash = hash(key);
+		return segmentFor(hash).remove(key, hash, value) != null;
+	}
+
+	/**
+	 * Returns the number of the mappings. As the map may be concurrently modified, the result is
+	 * only an estimate, which is exact in absence of concurrent modifications.
+	 */
+	public int size() {
+		long sum = 0;
+		for (Segment<V> segment : segments) {
+			sum += segment.count;
+		}
+		return (int) Math.min(sum, Integer.MAX_VALUE);
+	}
+
+	public boolean isEmpty() {
+		for (Segment<V> segment : segments) {
+			if (segment.count != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public void clear() {
+		for (Segment<V> segment : segments) {
+			segment.clear();
+		}
+	}
+
+	/**
+	 * Returns a snapshot of the keys. The snapshot is weakly consistent, i.e. it contains all keys
+	 * present before the call, and may or may not contain the keys concurrently added or removed.
+	 */
+	public int[] keys() {
+		int[] result = new int[Math.max(size(), 4)];
+		int n = 0;
+		for (Segment<V> segment : segments) {
+			AtomicReferenceArray<Node<V>> table = segment.table;
+			for (int i = 0; i < table.length(); i++) {
+				for (Node<V> node = table.get(i); node != null; node = node.next) {
+					if (n == result.length) {
+						result = Arrays.copyOf(result, n * 2);
+					}
+					result[n++] = node.key;
+				}
+			}
+		}
+		return n == result.length ? result : Arrays.copyOf(result, n);
+	}
+
+	/**
+	 * Returns a snapshot of the values, which is weakly consistent similar to {@link #keys()}.
+	 */
+	public List<V> values() {
+		List<V> result = new ArrayList<>(size());
+		for (Segment<V> segment : segments) {
+			AtomicReferenceArray<Node<V>> table = segment.table;
+			for (int i = 0; i < table.length(); i++) {
+				for (Node<V> node = table.get(i); node != null; node = node.next) {
+					result.add(node.value);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns an iterator over the values, which does not copy the map contents. The iterator is
+	 * weakly consistent similar to {@link #keys()}, and does not support removal.
+	 */
+	public Iterator<V> valuesIterator() {
+		return new ValuesIterator();
+	}
+
+	private final class ValuesIterator implements Iterator<V> {
+
+		private int segmentIdx = 0;
+		private AtomicReferenceArray<Node<V>> table = segments[0].table;
+		private int tableIdx = 0;
+		private Node<V> next;
+
+		ValuesIterator() {
+			advance(null);
+		}
+
+		private void advance(Node<V> current) {
+			Node<V> node = current == null ? null : current.next;
+			while (node == null) {
+				if (tableIdx == table.length()) {
+					if (++segmentIdx == segments.length) {
+						break;
+					}
+					table = segments[segmentIdx].table;
+					tableIdx = 0;
+				} else {
+					node = table.get(tableIdx++);
+				}
+			}
+			next = node;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override
+		public V next() {
+			Node<V> current = next;
+			if (current == null) {
+				throw new NoSuchElementException();
+			}
+			advance(current);
+			return current.value;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * Immutable hash chain node. The chains are modified by copying the prefix of
+	 * the chain, so concurrent readers always see a consistent chain.
+	 */
+	private static final class Node<V> {
+		final int key;
+		final int hash;
+		final V value;
+		final Node<V> next;
+
+		Node(int key, int hash, V value, Node<V> next) {
+			this.key = key;
+			this.hash = hash;
+			this.value = value;
+			this.next = next;
+		}
+	}
+
+	private static final class Segment<V> {
+
+		private volatile AtomicReferenceArray<Node<V>> table;
+
+		/**
+		 * The count of nodes in this segment, modified only under the segment lock.
+		 */
+		private volatile int count;
+
+		Segment(int capacity) {
+			this.table = new AtomicReferenceArray<>(capacity);
+		}
+
+		V get(int key, int hash) {
+			AtomicReferenceArray<Node<V>> tab = table;
+			for (Node<V> node = tab.get(hash & (tab.length() - 1)); node != null; node = node.next) {
+				if (node.key == key) {
+					return node.value;
+				}
+			}
+			return null;
+		}
+
+		synchronized V put(int key, int hash, V value, boolean onlyIfAbsent) {
+			AtomicReferenceArray<Node<V>> tab = table;
+			int idx = hash & (tab.length() - 1);
+			Node<V> first = tab.get(idx);
+			for (Node<V> node = first; node != null; node = node.next) {
+				if (node.key == key) {
+					V oldValue = node.value;
+					if (!onlyIfAbsent) {
+						tab.set(idx, replaceNode(first, node, new Node<>(key, hash, value, node.next)));
+					}
+					return oldValue;
+				}
+			}
+
+			tab.set(idx, new Node<>(key, hash, value, first));
+			int c = count + 1;
+			count = c;
+			if (c > tab.length() - (tab.length() >>> 2)) {
+				rehash(tab);
+			}
+			return null;
+		}
+
+		synchronized V remove(int key, int hash, V expectedValue) {
+			AtomicReferenceArray<Node<V>> tab = table;
+			int idx = hash & (tab.length() - 1);
+			Node<V> first = tab.get(idx);
+			for (Node<V> node = first; node != null; node = node.next) {
+				if (node.key == key) {
+					if (expectedValue != null && node.value != expectedValue) {
+						return null;
+					}
+					tab.set(idx, replaceNode(first, node, node.next));
+					count = count - 1;
+					return node.value;
+				}
+			}
+			return null;
+		}
+
+		synchronized void clear() {
+			if (count > 0) {
+				count = 0;
+				table = new AtomicReferenceArray<>(table.length());
+			}
+		}
+
+		/**
+		 * Returns a copy of the chain started from {@code first} where the node {@code target}
+		 * is replaced by the chain {@code replacement}.
+		 */
+		private Node<V> replaceNode(Node<V> first, Node<V> target, Node<V> replacement) {
+			Node<V> result = replacement;
+			for (Node<V> node = first; node != target; node = node.next) {
+				result = new Node<>(node.key, node.hash, node.value, result);
+			}
+			return result;
+		}
+
+		private void rehash(AtomicReferenceArray<Node<V>> oldTable) {
+			int oldCapacity = oldTable.length();
+			if (oldCapacity >= (1 << 30)) {
+				return;
+			}
+			int newCapacity = oldCapacity << 1;
+			int mask = newCapacity - 1;
+			AtomicReferenceArray<Node<V>> newTable = new AtomicReferenceArray<>(newCapacity);
+			for (int i = 0; i < oldCapacity; i++) {
+				for (Node<V> node = oldTable.get(i); node != null; node = node.next) {
+					int idx = node.hash & mask;
+					newTable.set(idx, new Node<>(node.key, node.hash, node.value, newTable.get(idx)));
+				}
+			}
+			table = newTable;
+		}
+	}
+}
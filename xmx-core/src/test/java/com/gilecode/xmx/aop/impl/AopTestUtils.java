@@ -54,6 +54,21 @@ public class AopTestUtils {
 
 	public static  WeavingContext prepareTestWeavingContext(XmxAopManager aopManager, final Method target,
 	                                                        final Class<?>...adviceClasses) throws IOException {
+		WeakCachedSupplier<Class<?>> targetClassSupplier = new WeakCachedSupplier<Class<?>>() {
+			@Override
+			protected Class<?> load() {
+				return target.getDeclaringClass();
+			}
+		};
+		return prepareTestWeavingContext(aopManager, target, targetClassSupplier, adviceClasses);
+	}
+
+	/**
+	 * Prepares the weaving context with the specified supplier of the target class, e.g. the weaved class.
+	 */
+	public static  WeavingContext prepareTestWeavingContext(XmxAopManager aopManager, final Method target,
+	                                                        WeakCachedSupplier<Class<?>> targetClassSupplier,
+	                                                        final Class<?>...adviceClasses) throws IOException {
 		List<String> adviceDescs = new ArrayList<>();
 		Map<String, AdviceClassInfo> adviceClassesByDesc = new HashMap<>();
 		for (int i = 0; i < adviceClasses.length; i++) {
@@ -71,13 +86,6 @@ public class AopTestUtils {
 					desc));
 		}
 
-
-		WeakCachedSupplier<Class<?>> targetClassSupplier = new WeakCachedSupplier<Class<?>>() {
-			@Override
-			protected Class<?> load() {
-				return target.getDeclaringClass();
-			}
-		};
 		return aopManager.prepareMethodAdvicesWeaving(adviceDescs, adviceClassesByDesc,
 				Type.getArgumentTypes(target), Type.getReturnType(target),
 				target.getDeclaringClass().getName(), target.getName(), targetClassSupplier);
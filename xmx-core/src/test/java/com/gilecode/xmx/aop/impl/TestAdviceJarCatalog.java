@@ -0,0 +1,112 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.aop.impl;
+
+import com.gilecode.xmx.aop.Advice;
+import com.gilecode.xmx.aop.AdviceKind;
+import com.gilecode.xmx.aop.BadAdviceException;
+import com.gilecode.xmx.aop.data.MethodDeclarationInfo;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.objectweb.asm.Type;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import static org.junit.Assert.*;
+
+public class TestAdviceJarCatalog {
+
+	@SuppressWarnings("unused")
+	public static class SampleAdvice {
+		@Advice(AdviceKind.BEFORE)
+		public void before() {}
+	}
+
+	private File advicesDir;
+	private File jarFile;
+	private AdviceJarCatalog uut;
+
+	@Before
+	public void setUp() throws IOException {
+		advicesDir = Files.createTempDirectory("xmxadvices").toFile();
+		jarFile = new File(advicesDir, "test-advices.jar");
+		writeJar(SampleAdvice.class);
+		uut = new AdviceJarCatalog(new AdviceVerifier(), advicesDir, advicesDir);
+	}
+
+	@After
+	public void tearDown() {
+		assertTrue(jarFile.delete());
+		assertTrue(advicesDir.delete());
+	}
+
+	private void writeJar(Class<?>... classes) throws IOException {
+		try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jarFile))) {
+			for (Class<?> c : classes) {
+				out.putNextEntry(new ZipEntry(Type.getInternalName(c) + ".class"));
+				try (InputStream in = AopTestUtils.getClassAsStream(c)) {
+					byte[] buf = new byte[8192];
+					int n;
+					while ((n = in.read(buf)) > 0) {
+						out.write(buf, 0, n);
+					}
+				}
+				out.closeEntry();
+			}
+		}
+	}
+
+	@Test
+	public void testVerificationIsShared() throws Exception {
+		String className = SampleAdvice.class.getName();
+		AdviceJarCatalog.JarInfo jar = uut.getJar(jarFile.getName());
+		List<MethodDeclarationInfo> methods = uut.getAdviceMethods(jar, className, "test-advices.jar:" + className);
+		assertEquals(1, methods.size());
+		assertEquals("before", methods.get(0).getMethodName());
+
+		// cached for the same version of the JAR
+		assertSame(jar, uut.getJar(jarFile.getName()));
+		assertSame(methods, uut.getAdviceMethods(jar, className, "test-advices.jar:" + className));
+	}
+
+	@Test
+	public void testModifiedJar() throws Exception {
+		AdviceJarCatalog.JarInfo jar = uut.getJar(jarFile.getName());
+
+		writeJar(SampleAdvice.class, TestAdviceJarCatalog.class);
+		assertTrue(jarFile.setLastModified(jarFile.lastModified() - 10_000));
+		AdviceJarCatalog.JarInfo newJar = uut.getJar(jarFile.getName());
+		assertNotSame(jar, newJar);
+		assertNotEquals(jar.getVersion(), newJar.getVersion());
+	}
+
+	@Test
+	public void testExternalTypes() throws Exception {
+		AdviceJarCatalog.JarInfo jar = uut.getJar(jarFile.getName());
+		Set<String> externalTypes = uut.getExternalTypes(jar);
+		assertTrue(externalTypes.contains(Type.getInternalName(Advice.class)));
+		assertTrue(externalTypes.contains(Type.getInternalName(AdviceKind.class)));
+		assertFalse(externalTypes.contains(Type.getInternalName(SampleAdvice.class)));
+		assertFalse(externalTypes.contains("java/lang/Object"));
+	}
+
+	@Test(expected = BadAdviceException.class)
+	public void testMissingClass() throws Exception {
+		AdviceJarCatalog.JarInfo jar = uut.getJar(jarFile.getName());
+		uut.getAdviceMethods(jar, "com.example.NoSuchAdvice", "test-advices.jar:com.example.NoSuchAdvice");
+	}
+
+	@Test(expected = BadAdviceException.class)
+	public void testMissingJar() throws Exception {
+		uut.getJar("no-such-advices.jar");
+	}
+}
@@ -108,6 +108,27 @@ public class TestAdviceVerifier {
 		}
 	}
 
+	// bad: annotation not allowed for AROUND, or @Proceed not allowed for other kinds
+	private static class SampleBadAdvice_NotAroundAnno {
+		@Advice(AdviceKind.AROUND)
+		public static Object foo(@RetVal Object arg1) {
+			return arg1;
+		}
+	}
+	private static class SampleBadAdvice_ProceedNotAround {
+		@Advice(AdviceKind.BEFORE)
+		public static void foo(@Proceed IProceedHandle arg1) {
+		}
+	}
+
+	// bad: @Proceed requires IProceedHandle type
+	private static class SampleBadAdvice_ProceedNotHandle {
+		@Advice(AdviceKind.AROUND)
+		public static Object foo(@Proceed Object arg1) {
+			return null;
+		}
+	}
+
 	// bad: array is required for modifiable argument
 	private static class SampleBadAdvice_ModArgNotArray1 {
 		@Advice(AdviceKind.BEFORE)
@@ -234,13 +255,39 @@ public class TestAdviceVerifier {
 		}
 	}
 
+	@Test
+	public void testVerifyBad_IllegalAnnoAtAround() throws Exception {
+		try {
+			verify(SampleBadAdvice_NotAroundAnno.class);
+			fail("Expected BadAdviceException");
+		} catch (BadAdviceException e) {
+			checkMessage(e, " is not allowed for advice kind AROUND");
+		}
+		try {
+			verify(SampleBadAdvice_ProceedNotAround.class);
+			fail("Expected BadAdviceException");
+		} catch (BadAdviceException e) {
+			checkMessage(e, " is not allowed for advice kind BEFORE");
+		}
+	}
+
+	@Test
+	public void testVerifyBad_ProceedNotHandle() throws IOException {
+		try {
+			verify(SampleBadAdvice_ProceedNotHandle.class);
+			fail("Expected BadAdviceException");
+		} catch (BadAdviceException e) {
+			checkMessage(e, " requires com.gilecode.xmx.aop.IProceedHandle type");
+		}
+	}
+
 	@Test
 	public void testVerifyBad_ModifiableRequiresArray() throws Exception {
 		try {
 			verify(SampleBadAdvice_ModArgNotArray1.class);
 			fail("Expected BadAdviceException");
 		} catch (BadAdviceException e) {
-			checkMessage(e, " requires array type");
+			checkMessage(e, " requires array or holder type");
 		}
 		try {
 			verify(SampleBadAdvice_ModArgNotArray2.class);
@@ -410,6 +457,35 @@ public class TestAdviceVerifier {
 		assertTrue(checkCompatibility(SampleAdvice_Generic.class, "adviceAfterThrow", "target2"));
 	}
 
+	private static class SampleAdvice_Around {
+
+		@Advice(AdviceKind.AROUND)
+		Object aroundAny(@Proceed IProceedHandle handle) throws Throwable {
+			return handle.proceed();
+		}
+
+		@Advice(AdviceKind.AROUND)
+		int aroundExact(@Argument(1) double arg2, @Proceed IProceedHandle handle) throws Throwable {
+			return (Integer) handle.proceed();
+		}
+
+		@Advice(AdviceKind.AROUND)
+		long aroundBadType(@Proceed IProceedHandle handle) {
+			return 0;
+		}
+	}
+
+	@Test
+	public void testCompatibility_Around() throws Exception {
+		assertTrue(checkCompatibility(SampleAdvice_Around.class, "aroundAny", "target1"));
+		assertFalse(checkCompatibility(SampleAdvice_Around.class, "aroundExact", "target1"));
+		assertFalse(checkCompatibility(SampleAdvice_Around.class, "aroundBadType", "target1"));
+
+		assertTrue(checkCompatibility(SampleAdvice_Around.class, "aroundAny", "target2"));
+		assertTrue(checkCompatibility(SampleAdvice_Around.class, "aroundExact", "target2"));
+		assertFalse(checkCompatibility(SampleAdvice_Around.class, "aroundBadType", "target2"));
+	}
+
 	private static class SampleAdvice_ArgNum {
 
 		@Advice(AdviceKind.BEFORE)
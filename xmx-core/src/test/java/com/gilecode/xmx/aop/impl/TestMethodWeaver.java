@@ -3,9 +3,13 @@
 package com.gilecode.xmx.aop.impl;
 
 import com.gilecode.xmx.aop.*;
+import com.gilecode.xmx.aop.holder.LongHolder;
+import com.gilecode.xmx.aop.holder.ObjectHolder;
 import com.gilecode.xmx.boot.IXmxAopService;
 import com.gilecode.xmx.boot.XmxAopProxy;
 import com.gilecode.xmx.core.instrument.XmxAdviceMethodWeaver;
+import com.gilecode.xmx.core.instrument.XmxAroundMethodSplitter;
+import com.gilecode.xmx.model.XmxJoinPointInfo;
 import com.gilecode.xmx.model.XmxRuntimeException;
 import org.easymock.Capture;
 import org.easymock.CaptureType;
@@ -30,7 +34,12 @@ import static org.junit.Assert.*;
 
 public class TestMethodWeaver {
 
-	private XmxAopManager aopManager;
+	protected XmxAopManager aopManager;
+
+	/**
+	 * The weaving context of the last weaved method.
+	 */
+	protected WeavingContext weavingContext;
 
 	static Capture<String> testEventsCap = Capture.newInstance(CaptureType.ALL);
 	static Capture<Object[]> testArgsCap = Capture.newInstance(CaptureType.ALL);
@@ -39,7 +48,7 @@ public class TestMethodWeaver {
 
 	@Before
 	public void setUp() throws Exception {
-		aopManager = new XmxAopManager(null, null);
+		aopManager = createAopManager();
 
 		Method setAopService = XmxAopProxy.class.getDeclaredMethod("setAopService", IXmxAopService.class);
 		setAopService.setAccessible(true);
@@ -52,6 +61,10 @@ public class TestMethodWeaver {
 	}
 
 
+	protected XmxAopManager createAopManager() {
+		return new XmxAopManager(null, null);
+	}
+
 	private static class TestClassLoader extends ClassLoader {
 
 		public TestClassLoader(ClassLoader parent) {
@@ -76,25 +89,42 @@ public class TestMethodWeaver {
 
 		private byte[] transformClassMethod(byte[] ba, final String targetMethodName, final WeavingContext wctx) {
 			ClassReader cr = new ClassReader(ba);
-			ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+			ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
 			ClassVisitor cv = new ClassVisitor(Opcodes.ASM6, cw) {
+				private String bcClassName;
+				private int classVersion;
+
+				@Override
+				public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+					this.bcClassName = name;
+					this.classVersion = version;
+					super.visit(version, access, name, signature, superName, interfaces);
+				}
+
 				@Override
 				public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
 					MethodVisitor parentVisitor = super.visitMethod(access, name, desc, signature, exceptions);
 					if (name.equals(targetMethodName)) {
-						return new XmxAdviceMethodWeaver(access, name, desc, parentVisitor, wctx);
+						if (wctx.hasAroundAdvices()) {
+							MethodVisitor originalCodeVisitor = XmxAroundMethodSplitter.visitOriginalCodeMethod(cv,
+									access, name, desc, signature, exceptions);
+							return new XmxAroundMethodSplitter(new XmxAdviceMethodWeaver(access, name, desc,
+									parentVisitor, wctx, bcClassName, classVersion, null), originalCodeVisitor);
+						}
+						return new XmxAdviceMethodWeaver(access, name, desc, parentVisitor, wctx,
+								bcClassName, classVersion, null);
 					} else {
 						return parentVisitor;
 					}
 				}
 			};
 
-			cr.accept(cv, ClassReader.SKIP_FRAMES);
+			cr.accept(cv, ClassReader.EXPAND_FRAMES);
 			return cw.toByteArray();
 		}
 	}
 
-	private Class<?> weaveClass(XmxAopManager aopManager, Class<?> targetClass, String targetMethodName,
+	protected Class<?> weaveClass(XmxAopManager aopManager, Class<?> targetClass, String targetMethodName,
 	                            Class<?>...adviceClasses) throws Exception {
 		ClassLoader thisCL = TestMethodWeaver.class.getClassLoader();
 		TestClassLoader testCL = new TestClassLoader(thisCL);
@@ -108,13 +138,25 @@ public class TestMethodWeaver {
 		Method targetMethod = findMethod(targetClass, targetMethodName);
 		assertNotNull(targetMethod);
 
-		WeavingContext wctx = AopTestUtils.prepareTestWeavingContext(aopManager, targetMethod, adviceClasses);
+		// 'around' advices require the weaved target class, as the original code is moved to a synthetic method
+		final Class<?>[] advisedClassHolder = new Class<?>[1];
+		final Class<?> originalClass = targetClass;
+		WeakCachedSupplier<Class<?>> advisedClassSupplier = new WeakCachedSupplier<Class<?>>() {
+			@Override
+			protected Class<?> load() {
+				return weavingContext.hasAroundAdvices() ? advisedClassHolder[0] : originalClass;
+			}
+		};
+		WeavingContext wctx = AopTestUtils.prepareTestWeavingContext(aopManager, targetMethod, advisedClassSupplier,
+				adviceClasses);
+		weavingContext = wctx;
 		Class<?> advisedClass = testCL.defineTestClassWithWeaving(targetClass.getName(),
 				targetMethodName, wctx);
+		advisedClassHolder[0] = advisedClass;
 		return advisedClass;
 	}
 
-	private static class SampleAdvice_Empty {
+	public static class SampleAdvice_Empty {
 
 		@Advice(AdviceKind.BEFORE)
 		public void before() {
@@ -135,7 +177,57 @@ public class TestMethodWeaver {
 		}
 	}
 
-	private static class SampleAdvice_Generic_Before {
+	public static class SampleAdvice_Singleton {
+
+		@Advice(value = AdviceKind.BEFORE, scope = AdviceScope.SINGLETON)
+		public void before() {
+			testInstanceCap.setValue(this);
+		}
+
+		@Advice(value = AdviceKind.AFTER_RETURN, scope = AdviceScope.SINGLETON)
+		public void afterReturn() {
+			testInstanceCap.setValue(this);
+		}
+	}
+
+	public static class SampleAdvice_PerThread {
+
+		@Advice(value = AdviceKind.BEFORE, scope = AdviceScope.PER_THREAD)
+		public void before() {
+			testInstanceCap.setValue(this);
+		}
+
+		@Advice(value = AdviceKind.AFTER_RETURN, scope = AdviceScope.PER_THREAD)
+		public void afterReturn() {
+			testInstanceCap.setValue(this);
+		}
+	}
+
+	public static class SampleAdvice_Primitive {
+
+		@Advice(AdviceKind.BEFORE)
+		public static void before(@Argument(0) long arg1, @ModifiableArgument(1) ObjectHolder<Long> arg2) {
+			testObjectsCap.setValue(arg1);
+			arg2.value = arg2.value + 1;
+		}
+
+		@Advice(AdviceKind.AFTER_RETURN)
+		@OverrideRetVal
+		public static long afterReturn(@Argument(0) long arg1, @RetVal long retVal) {
+			testObjectsCap.setValue(retVal);
+			return retVal + 100 * arg1;
+		}
+	}
+
+	public static class SampleAdvice_LongHolder {
+
+		@Advice(AdviceKind.BEFORE)
+		public static void before(@ModifiableArgument(0) LongHolder arg1) {
+			arg1.value = arg1.value * 10;
+		}
+	}
+
+	public static class SampleAdvice_Generic_Before {
 		@Advice(AdviceKind.BEFORE)
 		public void before(@AllArguments Object[] args, @This Object target, @TargetMethod Method tm) {
 			testEventsCap.setValue("UniversalAdvice_Before");
@@ -146,7 +238,7 @@ public class TestMethodWeaver {
 		}
 	}
 
-	private static class SampleAdvice_Generic_Before_Static {
+	public static class SampleAdvice_Generic_Before_Static {
 		@Advice(AdviceKind.BEFORE)
 		public static void before(@AllArguments Object[] args, @This Object target, @TargetMethod Method tm) {
 			testEventsCap.setValue("UniversalAdvice_Before_Static");
@@ -156,7 +248,7 @@ public class TestMethodWeaver {
 		}
 	}
 
-	private static class SampleAdvice_Generic_AfterRet {
+	public static class SampleAdvice_Generic_AfterRet {
 		@Advice(AdviceKind.AFTER_RETURN)
 		public void afterReturn(@AllArguments Object[] args, @This Object target, @TargetMethod Method tm,
 				@RetVal Object retVal) {
@@ -169,7 +261,7 @@ public class TestMethodWeaver {
 		}
 	}
 
-	private static class SampleAdvice_Generic_AfterThrow {
+	public static class SampleAdvice_Generic_AfterThrow {
 		@Advice(AdviceKind.AFTER_THROW)
 		public void afterThrow(@AllArguments Object[] args, @This Object target, @TargetMethod Method tm,
 				@Thrown Throwable ex) {
@@ -265,7 +357,7 @@ public class TestMethodWeaver {
 	Test 4: check various arguments for BEFORE
 	 */
 
-	private static class SampleAdvice_CustomArgsBefore1 {
+	public static class SampleAdvice_CustomArgsBefore1 {
 		@Advice(AdviceKind.BEFORE)
 		public void before(@AllArguments Object[] args, @This Object target,
 		                   @ModifiableArgument(0) long[] arg0, @Argument(1) Long arg1) {
@@ -276,7 +368,7 @@ public class TestMethodWeaver {
 			arg0[0] += 100L;
 		}
 	}
-	private static class SampleAdvice_CustomArgsBefore2 {
+	public static class SampleAdvice_CustomArgsBefore2 {
 		@Advice(AdviceKind.BEFORE)
 		public void before(@AllArguments(modifiable = true) Object[] args, @This Object target, @Argument(0) long arg0) {
 			testEventsCap.setValue("CustomArgsBefore2");
@@ -326,7 +418,7 @@ public class TestMethodWeaver {
 	Test 5: check various arguments for AFTER_RETURN
 	 */
 
-	private static class SampleAdvice_CustomAfterReturn1 {
+	public static class SampleAdvice_CustomAfterReturn1 {
 		@Advice(AdviceKind.AFTER_RETURN)
 		public long afterReturn(@AllArguments Object[] args, @This Object target, @RetVal long retVal) {
 			testEventsCap.setValue("CustomAfterRet1");
@@ -336,7 +428,7 @@ public class TestMethodWeaver {
 			return retVal + 1000;
 		}
 	}
-	private static class SampleAdvice_CustomAfterReturn2 {
+	public static class SampleAdvice_CustomAfterReturn2 {
 		@Advice(AdviceKind.AFTER_RETURN)
 		@OverrideRetVal
 		public long afterReturn(@AllArguments Object[] args, @This Object target, @RetVal long retVal) {
@@ -348,7 +440,7 @@ public class TestMethodWeaver {
 		}
 	}
 
-	private static class SampleAdvice_CustomAfterReturn3 {
+	public static class SampleAdvice_CustomAfterReturn3 {
 		@Advice(AdviceKind.AFTER_RETURN)
 		@OverrideRetVal
 		public Long afterReturn(@AllArguments Object[] args, @This Object target, @RetVal Long retVal) {
@@ -481,4 +573,262 @@ public class TestMethodWeaver {
 		assertTrue(testEventsCap.hasCaptured());
 		assertEquals("UniversalAdvice_Before_Static", testEventsCap.getValue());
 	}
-}
\ No newline at end of file
+
+	/*
+	Test 9: singleton advice instances are shared by all calls
+	 */
+	@Test
+	public void testSingletonScope() throws Exception {
+		String methodName = "empty";
+		Class<?> advisedClass = weaveClass(aopManager, SampleClass.class, methodName,
+				SampleAdvice_Singleton.class);
+
+		Object sampleInst = advisedClass.getDeclaredConstructor().newInstance();
+		findMethod(advisedClass, methodName).invoke(sampleInst);
+		findMethod(advisedClass, methodName).invoke(sampleInst);
+
+		List<Object> instances = testInstanceCap.getValues();
+		assertEquals(4, instances.size());
+		for (Object instance : instances) {
+			assertTrue(instance instanceof SampleAdvice_Singleton);
+			assertSame(instances.get(0), instance);
+		}
+	}
+
+	/*
+	Test 10: per-thread advice instances are shared by all calls in the same thread
+	 */
+	@Test
+	public void testPerThreadScope() throws Exception {
+		String methodName = "empty";
+		Class<?> advisedClass = weaveClass(aopManager, SampleClass.class, methodName,
+				SampleAdvice_PerThread.class);
+
+		final Object sampleInst = advisedClass.getDeclaredConstructor().newInstance();
+		final Method advisedMethod = findMethod(advisedClass, methodName);
+		advisedMethod.invoke(sampleInst);
+		advisedMethod.invoke(sampleInst);
+
+		Thread otherThread = new Thread() {
+			@Override
+			public void run() {
+				try {
+					advisedMethod.invoke(sampleInst);
+				} catch (ReflectiveOperationException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+		otherThread.start();
+		otherThread.join();
+
+		List<Object> instances = testInstanceCap.getValues();
+		assertEquals(6, instances.size());
+		for (int i = 0; i < 4; i++) {
+			assertSame(instances.get(0), instances.get(i));
+		}
+		assertSame(instances.get(4), instances.get(5));
+		assertNotSame(instances.get(0), instances.get(4));
+	}
+
+	/*
+	Test 11: primitive arguments and return value, and modifiable arguments with holders
+	 */
+	@Test
+	public void testPrimitiveArgs() throws Exception {
+		String methodName = "primitiveRet";
+		Class<?> advisedClass = weaveClass(aopManager, SampleClass.class, methodName,
+				SampleAdvice_Primitive.class, SampleAdvice_LongHolder.class);
+
+		Object sampleInst = advisedClass.getDeclaredConstructor().newInstance();
+		Object retVal = findMethod(advisedClass, methodName).invoke(sampleInst, 1L, 20L);
+
+		// the advices run in order, so the second argument is modified before the first one: (1*10 + (20+1)) + 100*10
+		assertEquals(1031L, retVal);
+		assertEquals(asList((Object) 1L, 31L), testObjectsCap.getValues());
+	}
+
+	public static class SampleAdvice_AroundShortCircuit {
+
+		@Advice(AdviceKind.AROUND)
+		public Object around(@Proceed IProceedHandle handle) {
+			testEventsCap.setValue("ShortCircuit.around");
+			return "cached";
+		}
+	}
+
+	public static class SampleAdvice_AroundRetry {
+
+		@Advice(AdviceKind.AROUND)
+		public static Object around(@This Object target, @Proceed IProceedHandle handle) throws Throwable {
+			testObjectsCap.setValue(target);
+			try {
+				testEventsCap.setValue("Retry.try1");
+				return handle.proceed();
+			} catch (XmxRuntimeException e) {
+				testEventsCap.setValue("Retry.try2");
+				return handle.proceed();
+			}
+		}
+	}
+
+	public static class SampleAdvice_AroundOuter {
+
+		@Advice(value = AdviceKind.AROUND, scope = AdviceScope.SINGLETON)
+		public long around(@Proceed IProceedHandle handle) throws Throwable {
+			testEventsCap.setValue("Outer.around");
+			return (Long) handle.proceed() * 2;
+		}
+	}
+
+	public static class SampleAdvice_AroundInner {
+
+		@Advice(AdviceKind.AROUND)
+		public static Object around(@Argument(0) long arg1, @Argument(1) Long arg2, @Proceed IProceedHandle handle)
+				throws Throwable {
+			testEventsCap.setValue("Inner.around");
+			testArgsCap.setValue(new Object[]{arg1, arg2});
+			return (Long) handle.proceed() + 100;
+		}
+	}
+
+	public static class SampleAdvice_AroundTyped {
+
+		@Advice(AdviceKind.AROUND)
+		public long around(@Proceed IProceedHandle handle) throws Throwable {
+			testEventsCap.setValue("Typed.around");
+			return handle.proceedLong() * 2;
+		}
+	}
+
+	public static class SampleAdvice_AroundMismatchedType {
+
+		@Advice(AdviceKind.AROUND)
+		public static Object around(@Proceed IProceedHandle handle) throws Throwable {
+			return handle.proceedInt();
+		}
+	}
+
+	/*
+	Test 12: 'around' advices, including short-circuit, repeated and chained invocations of the original code
+	 */
+	@Test
+	public void testAroundShortCircuit() throws Exception {
+		String methodName = "emptyStatic";
+		Class<?> advisedClass = weaveClass(aopManager, SampleClass.class, methodName,
+				SampleAdvice_AroundShortCircuit.class, SampleAdvice_Empty.class);
+
+		Object retVal = findMethod(advisedClass, methodName).invoke(null);
+		assertEquals("cached", retVal);
+		assertEquals(asList("EmptyAdvice.before", "ShortCircuit.around", "EmptyAdvice.afterReturn"),
+				testEventsCap.getValues());
+	}
+
+	@Test
+	public void testAroundRetry() throws Exception {
+		String methodName = "simpleThrow";
+		Class<?> advisedClass = weaveClass(aopManager, SampleClass.class, methodName,
+				SampleAdvice_AroundRetry.class, SampleAdvice_Empty.class);
+
+		Object sampleInst = advisedClass.getDeclaredConstructor().newInstance();
+		try {
+			findMethod(advisedClass, methodName).invoke(sampleInst);
+			fail("Exception expected");
+		} catch (InvocationTargetException e) {
+			assertTrue(e.getCause() instanceof XmxRuntimeException);
+			assertEquals("sampleException", e.getCause().getMessage());
+		}
+		assertEquals(asList("EmptyAdvice.before", "Retry.try1", "Retry.try2", "EmptyAdvice.afterThrow"),
+				testEventsCap.getValues());
+		assertSame(sampleInst, testObjectsCap.getValue());
+	}
+
+	@Test
+	public void testAroundChain() throws Exception {
+		String methodName = "primitiveRet";
+		Class<?> advisedClass = weaveClass(aopManager, SampleClass.class, methodName,
+				SampleAdvice_AroundOuter.class, SampleAdvice_AroundInner.class);
+
+		Method advisedMethod = findMethod(advisedClass, methodName);
+		Object sampleInst = advisedClass.getDeclaredConstructor().newInstance();
+		assertEquals(242L, advisedMethod.invoke(sampleInst, 1L, 20L));
+		assertEquals(asList("Outer.around", "Inner.around"), testEventsCap.getValues());
+		assertArrayEquals(new Object[]{1L, 20L}, testArgsCap.getValue());
+
+		// the proceed handles are re-used by the subsequent invocations
+		assertEquals(2 * (2L + 3L + 100), advisedMethod.invoke(sampleInst, 2L, 3L));
+	}
+
+	@Test
+	public void testAroundTypedProceed() throws Exception {
+		String methodName = "primitiveRet";
+		Class<?> advisedClass = weaveClass(aopManager, SampleClass.class, methodName,
+				SampleAdvice_AroundTyped.class, SampleAdvice_AroundInner.class);
+
+		Method advisedMethod = findMethod(advisedClass, methodName);
+		Object sampleInst = advisedClass.getDeclaredConstructor().newInstance();
+		assertEquals(242L, advisedMethod.invoke(sampleInst, 1L, 20L));
+		assertEquals(asList("Typed.around", "Inner.around"), testEventsCap.getValues());
+	}
+
+	@Test
+	public void testAroundMismatchedTypedProceed() throws Exception {
+		String methodName = "primitiveRet";
+		Class<?> advisedClass = weaveClass(aopManager, SampleClass.class, methodName,
+				SampleAdvice_AroundMismatchedType.class);
+
+		try {
+			findMethod(advisedClass, methodName).invoke(advisedClass.getDeclaredConstructor().newInstance(), 1L, 20L);
+			fail("Exception expected");
+		} catch (InvocationTargetException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+	}
+
+	/*
+	Test 13: join points disabled and re-enabled at runtime
+	 */
+	@Test
+	public void testDisabledJoinPoint() throws Exception {
+		String methodName = "primitiveRet";
+		Class<?> advisedClass = weaveClass(aopManager, SampleClass.class, methodName,
+				SampleAdvice_Primitive.class, SampleAdvice_LongHolder.class, SampleAdvice_Empty.class);
+		int joinPointId = weavingContext.getJoinpointId();
+		Object sampleInst = advisedClass.getDeclaredConstructor().newInstance();
+		Method advisedMethod = findMethod(advisedClass, methodName);
+
+		assertTrue(aopManager.setJoinPointEnabled(joinPointId, false));
+		assertFalse(aopManager.setJoinPointEnabled(-1, false));
+		List<XmxJoinPointInfo> joinPoints = aopManager.getJoinPoints();
+		assertEquals(1, joinPoints.size());
+		assertEquals(joinPointId, joinPoints.get(0).getId());
+		assertEquals(methodName, joinPoints.get(0).getMethodName());
+		assertFalse(joinPoints.get(0).isEnabled());
+
+		// neither the arguments are modified, nor the advices are invoked
+		assertEquals(21L, advisedMethod.invoke(sampleInst, 1L, 20L));
+		assertTrue(testEventsCap.getValues().isEmpty());
+		assertTrue(testObjectsCap.getValues().isEmpty());
+
+		assertTrue(aopManager.setJoinPointEnabled(joinPointId, true));
+		assertTrue(aopManager.getJoinPoints().get(0).isEnabled());
+		assertEquals(1031L, advisedMethod.invoke(sampleInst, 1L, 20L));
+		assertEquals(asList("EmptyAdvice.before", "EmptyAdvice.afterReturn"), testEventsCap.getValues());
+	}
+
+	@Test
+	public void testDisabledAroundJoinPoint() throws Exception {
+		String methodName = "simpleThrow";
+		Class<?> advisedClass = weaveClass(aopManager, SampleClass.class, methodName,
+				SampleAdvice_AroundRetry.class, SampleAdvice_Empty.class);
+		assertTrue(aopManager.setJoinPointEnabled(weavingContext.getJoinpointId(), false));
+
+		try {
+			findMethod(advisedClass, methodName).invoke(advisedClass.getDeclaredConstructor().newInstance());
+			fail("Exception expected");
+		} catch (InvocationTargetException e) {
+			assertTrue(e.getCause() instanceof XmxRuntimeException);
+		}
+		assertTrue(testEventsCap.getValues().isEmpty());
+	}
+}
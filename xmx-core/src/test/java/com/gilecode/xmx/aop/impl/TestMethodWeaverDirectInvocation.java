@@ -0,0 +1,335 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.aop.impl;
+
+import com.gilecode.xmx.aop.Advice;
+import com.gilecode.xmx.aop.AdviceKind;
+import com.gilecode.xmx.aop.AdviceScope;
+import com.gilecode.xmx.aop.AllArguments;
+import com.gilecode.xmx.aop.Argument;
+import com.gilecode.xmx.aop.IProceedHandle;
+import com.gilecode.xmx.aop.OverrideRetVal;
+import com.gilecode.xmx.aop.Proceed;
+import com.gilecode.xmx.aop.RetVal;
+import com.gilecode.xmx.aop.This;
+import com.gilecode.xmx.aop.Thrown;
+import com.gilecode.xmx.boot.IXmxAdviceBridge;
+import com.gilecode.xmx.boot.XmxAopProxy;
+import org.junit.Assume;
+import org.junit.Test;
+import org.objectweb.asm.Type;
+import sample.ISampleScorer;
+import sample.SampleClass;
+import sample.SampleScorer;
+import sample.SampleTask;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+import static com.gilecode.xmx.aop.impl.AopTestUtils.findMethod;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+
+/**
+ * Runs all weaving tests with the advices invoked through the generated advice bridges.
+ */
+public class TestMethodWeaverDirectInvocation extends TestMethodWeaver {
+
+	@Override
+	protected XmxAopManager createAopManager() {
+		return new XmxAopManager(null, null, false, true);
+	}
+
+	@Test
+	public void testGeneratedBridge() throws Exception {
+		String methodName = "empty";
+		Class<?> advisedClass = weaveClass(aopManager, SampleClass.class, methodName,
+				SampleAdvice_Empty.class);
+		advisedClass.getDeclaredMethod(methodName).invoke(advisedClass.getDeclaredConstructor().newInstance());
+
+		IXmxAdviceBridge bridge = XmxAopProxy.getAdviceBridge(weavingContext.getJoinpointId());
+		assertTrue(bridge instanceof AdviceBridge);
+		assertSame(bridge, XmxAopProxy.getAdviceBridge(weavingContext.getJoinpointId()));
+		assertEquals(asList("EmptyAdvice.before", "EmptyAdvice.afterReturn"), testEventsCap.getValues());
+	}
+
+	private static class SampleAdvice_NonPublic {
+		@Advice(AdviceKind.BEFORE)
+		public void before(@Argument(0) long arg0) {
+			testEventsCap.setValue("NonPublic.before");
+			testObjectsCap.setValue(arg0);
+		}
+	}
+
+	@Test
+	public void testNonPublicAdvice() throws Exception {
+		String methodName = "primitiveRet";
+		Class<?> advisedClass = weaveClass(aopManager, SampleClass.class, methodName,
+				SampleAdvice_NonPublic.class);
+		Object retVal = findMethod(advisedClass, methodName).invoke(advisedClass.getDeclaredConstructor().newInstance(),
+				1L, 20L);
+		assertEquals(21L, retVal);
+
+		IXmxAdviceBridge bridge = XmxAopProxy.getAdviceBridge(weavingContext.getJoinpointId());
+		assertTrue(bridge instanceof ReflectiveAdviceBridge);
+		assertEquals("NonPublic.before", testEventsCap.getValue());
+		assertEquals(1L, testObjectsCap.getValue());
+	}
+
+	public static class SampleAdvice_NoAllocation {
+		static int staticCalls;
+		int calls;
+
+		@Advice(value = AdviceKind.BEFORE, scope = AdviceScope.SINGLETON)
+		public void before(@This Object target) {
+			calls++;
+		}
+
+		@Advice(value = AdviceKind.AFTER_RETURN, scope = AdviceScope.PER_THREAD)
+		public void afterReturn() {
+			calls++;
+		}
+
+		@Advice(AdviceKind.AFTER_THROW)
+		public static void afterThrow(@Thrown Throwable ex) {
+			staticCalls++;
+		}
+	}
+
+	public static class SampleAdvice_Scorer {
+		@Advice(AdviceKind.BEFORE)
+		public static void before(@Argument(0) double weight, @Argument(1) long count) {
+			if (weight < 0 || count < 0) {
+				throw new IllegalArgumentException();
+			}
+		}
+
+		@Advice(value = AdviceKind.AFTER_RETURN, scope = AdviceScope.SINGLETON)
+		@OverrideRetVal
+		public double afterReturn(@Argument(1) long count, @RetVal double score) {
+			return score + count;
+		}
+	}
+
+	@Test
+	public void testNoAllocationsPerCall() throws Exception {
+		final Runnable task = (Runnable) weaveClass(aopManager, SampleTask.class, "run",
+				SampleAdvice_NoAllocation.class).getDeclaredConstructor().newInstance();
+
+		long allocated = measureAllocatedBytes(new Runnable() {
+			@Override
+			public void run() {
+				task.run();
+			}
+		});
+		// even a single allocation per call would take more than 1.6 MB
+		assertTrue("Allocated " + allocated + " bytes", allocated < 100_000);
+		assertTrue(XmxAopProxy.getAdviceBridge(weavingContext.getJoinpointId()) instanceof AdviceBridge);
+	}
+
+	public static class SampleAdvice_AroundTimer {
+		long totalNanos;
+
+		@Advice(value = AdviceKind.AROUND, scope = AdviceScope.SINGLETON)
+		public Object around(@Proceed IProceedHandle handle) throws Throwable {
+			long start = System.nanoTime();
+			try {
+				return handle.proceed();
+			} finally {
+				totalNanos += System.nanoTime() - start;
+			}
+		}
+	}
+
+	@Test
+	public void testNoAllocationsPerAroundCall() throws Exception {
+		final Runnable task = (Runnable) weaveClass(aopManager, SampleTask.class, "run",
+				SampleAdvice_AroundTimer.class).getDeclaredConstructor().newInstance();
+
+		long allocated = measureAllocatedBytes(new Runnable() {
+			@Override
+			public void run() {
+				task.run();
+			}
+		});
+		assertTrue("Allocated " + allocated + " bytes", allocated < 100_000);
+		assertTrue(XmxAopProxy.getAdviceBridge(weavingContext.getJoinpointId()) instanceof AdviceBridge);
+	}
+
+	@Test
+	public void testNoBoxingOfPrimitives() throws Exception {
+		final ISampleScorer scorer = (ISampleScorer) weaveClass(aopManager, SampleScorer.class, "score",
+				SampleAdvice_Scorer.class).getDeclaredConstructor().newInstance();
+		assertEquals(0, weavingContext.getInterceptedArguments().get(0).getPrimitiveSlot());
+		assertEquals(1, weavingContext.getInterceptedArguments().get(1).getPrimitiveSlot());
+		assertEquals(Type.DOUBLE_TYPE, weavingContext.getPrimitiveReturnType());
+		assertEquals(2.5 * 1000 + 1000, scorer.score(2.5, 1000), 0.0);
+
+		long allocated = measureAllocatedBytes(new Runnable() {
+			@Override
+			public void run() {
+				scorer.score(1.5, 1000);
+			}
+		});
+		assertTrue("Allocated " + allocated + " bytes", allocated < 100_000);
+	}
+
+	public static class SampleAdvice_ScorerAround {
+		@Advice(value = AdviceKind.AROUND, scope = AdviceScope.SINGLETON)
+		public double around(@Argument(1) long count, @Proceed IProceedHandle handle) throws Throwable {
+			return handle.proceedDouble() + count;
+		}
+	}
+
+	@Test
+	public void testNoBoxingOfAroundResults() throws Exception {
+		final ISampleScorer scorer = (ISampleScorer) weaveClass(aopManager, SampleScorer.class, "score",
+				SampleAdvice_ScorerAround.class).getDeclaredConstructor().newInstance();
+		assertEquals(2.5 * 1000 + 1000, scorer.score(2.5, 1000), 0.0);
+
+		long allocated = measureAllocatedBytes(new Runnable() {
+			@Override
+			public void run() {
+				scorer.score(1.5, 1000);
+			}
+		});
+		assertTrue("Allocated " + allocated + " bytes", allocated < 100_000);
+		assertTrue(XmxAopProxy.getAdviceBridge(weavingContext.getJoinpointId()) instanceof AdviceBridge);
+	}
+
+	private static class SampleAdvice_NonPublicAround {
+		@Advice(AdviceKind.AROUND)
+		public long around(@Proceed IProceedHandle handle) throws Throwable {
+			testEventsCap.setValue("NonPublic.around");
+			return handle.proceedLong() + 1;
+		}
+	}
+
+	@Test
+	public void testNonPublicAroundAdvice() throws Exception {
+		String methodName = "primitiveRet";
+		Class<?> advisedClass = weaveClass(aopManager, SampleClass.class, methodName,
+				SampleAdvice_NonPublicAround.class);
+		Method advisedMethod = findMethod(advisedClass, methodName);
+		Object sampleInst = advisedClass.getDeclaredConstructor().newInstance();
+		assertEquals(22L, advisedMethod.invoke(sampleInst, 1L, 20L));
+
+		IXmxAdviceBridge bridge = XmxAopProxy.getAdviceBridge(weavingContext.getJoinpointId());
+		assertTrue(bridge instanceof ReflectiveAdviceBridge);
+		// the reflective proceed handles are re-used by the subsequent invocations
+		assertEquals(6L, advisedMethod.invoke(sampleInst, 2L, 3L));
+		assertEquals(asList("NonPublic.around", "NonPublic.around"), testEventsCap.getValues());
+	}
+
+	public static class SampleAdvice_ScorerAllArgs {
+		@Advice(AdviceKind.BEFORE)
+		public static void before(@AllArguments Object[] args) {
+			testEventsCap.setValue("ScorerAllArgs.before");
+		}
+	}
+
+	@Test
+	public void testNoAllocationsIfDisabled() throws Exception {
+		final ISampleScorer scorer = (ISampleScorer) weaveClass(aopManager, SampleScorer.class, "score",
+				SampleAdvice_ScorerAllArgs.class).getDeclaredConstructor().newInstance();
+		assertTrue(aopManager.setJoinPointEnabled(weavingContext.getJoinpointId(), false));
+
+		// the arguments would be boxed, if enabled
+		long allocated = measureAllocatedBytes(new Runnable() {
+			@Override
+			public void run() {
+				scorer.score(1.5, 1000);
+			}
+		});
+		assertTrue("Allocated " + allocated + " bytes", allocated < 100_000);
+		assertTrue(testEventsCap.getValues().isEmpty());
+	}
+
+	@Test
+	public void testBridgesRemovedOnRetransform() throws Exception {
+		final Class<?> advisedClass = weaveClass(aopManager, SampleClass.class, "empty", SampleAdvice_Empty.class);
+		WeakCachedSupplier<Class<?>> advisedClassSupplier = new WeakCachedSupplier<Class<?>>() {
+			@Override
+			protected Class<?> load() {
+				return advisedClass;
+			}
+		};
+		Method targetMethod = findMethod(advisedClass, "empty");
+		int joinPointId = weavingContext.getJoinpointId();
+		assertTrue(XmxAopProxy.getAdviceBridge(joinPointId) instanceof AdviceBridge);
+		assertTrue(aopManager.setJoinPointEnabled(joinPointId, false));
+
+		for (int i = 0; i < 5; i++) {
+			// re-transformation of the target class assigns new join point IDs
+			int newJoinPointId = AopTestUtils.prepareTestWeavingContext(aopManager, targetMethod, advisedClassSupplier,
+					SampleAdvice_Empty.class).getJoinpointId();
+			assertTrue(XmxAopProxy.getAdviceBridge(newJoinPointId) instanceof AdviceBridge);
+			assertFalse(XmxAopProxy.isJoinPointEnabled(newJoinPointId));
+			aopManager.unregisterJoinPoints(new int[]{joinPointId});
+
+			assertEquals(1, aopManager.getAdviceBridgesCount(advisedClass));
+			assertEquals(1, countProxyBridges());
+			assertEquals(1, countDisabledJoinPoints());
+			assertTrue(XmxAopProxy.isJoinPointEnabled(joinPointId));
+			assertSame(XmxAopProxy.NOP_BRIDGE, XmxAopProxy.getAdviceBridge(joinPointId));
+			joinPointId = newJoinPointId;
+		}
+
+		aopManager.unregisterJoinPoints(new int[]{joinPointId});
+		assertEquals(0, aopManager.getAdviceBridgesCount(advisedClass));
+		assertEquals(0, countProxyBridges());
+		assertEquals(0, countDisabledJoinPoints());
+	}
+
+	private static int countProxyBridges() throws Exception {
+		Field bridgesField = XmxAopProxy.class.getDeclaredField("adviceBridges");
+		bridgesField.setAccessible(true);
+		int count = 0;
+		for (WeakReference<?> ref : (WeakReference<?>[]) bridgesField.get(null)) {
+			if (ref != null) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private static int countDisabledJoinPoints() throws Exception {
+		Field disabledField = XmxAopProxy.class.getDeclaredField("disabledJoinPoints");
+		disabledField.setAccessible(true);
+		int count = 0;
+		for (boolean disabled : (boolean[]) disabledField.get(null)) {
+			if (disabled) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the number of bytes allocated by the current thread in 100000 runs of the task, after a warm-up.
+	 */
+	private static long measureAllocatedBytes(Runnable task) {
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(threadBean instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+		Assume.assumeTrue(allocationBean.isThreadAllocatedMemorySupported());
+		allocationBean.setThreadAllocatedMemoryEnabled(true);
+
+		// warm up, including the creation of the bridge and the advice instances
+		runTimes(task, 100_000);
+
+		long threadId = Thread.currentThread().getId();
+		long allocatedBefore = allocationBean.getThreadAllocatedBytes(threadId);
+		runTimes(task, 100_000);
+		return allocationBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+	}
+
+	private static void runTimes(Runnable task, int n) {
+		for (int i = 0; i < n; i++) {
+			task.run();
+		}
+	}
+}
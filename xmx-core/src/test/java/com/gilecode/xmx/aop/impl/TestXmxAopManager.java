@@ -4,8 +4,12 @@ package com.gilecode.xmx.aop.impl;
 
 import com.gilecode.xmx.aop.*;
 import com.gilecode.xmx.aop.data.WeavingAdviceInfo;
+import com.gilecode.xmx.boot.IXmxAopService;
+import com.gilecode.xmx.boot.XmxAopProxy;
+import com.gilecode.xmx.model.XmxJoinPointInfo;
 import org.easymock.Capture;
 import org.easymock.CaptureType;
+import org.junit.After;
 import org.junit.Test;
 
 import java.io.IOException;
@@ -20,6 +24,14 @@ public class TestXmxAopManager {
 
 	private XmxAopManager uut = new XmxAopManager(null, null);
 
+	@After
+	public void tearDown() throws Exception {
+		// reset the join point flags
+		Method setAopService = XmxAopProxy.class.getDeclaredMethod("setAopService", IXmxAopService.class);
+		setAopService.setAccessible(true);
+		setAopService.invoke(null, (Object) null);
+	}
+
 	private int target(Long arg0, String arg1, double arg2) {
 		return 0;
 	}
@@ -254,6 +266,54 @@ public class TestXmxAopManager {
 	}
 
 
+	@Test
+	public void testUnregisterJoinPoints() throws IOException {
+		Method target = AopTestUtils.findMethod(this.getClass(), "target");
+		WeavingContext ctx = doPrepareWeavingContext(target, SampleAdvice_CheckFast1.class);
+		WeavingContext ctx2 = doPrepareWeavingContext(target, SampleAdvice_CheckFast1.class);
+		assertEquals(2, uut.getJoinPoints().size());
+
+		uut.unregisterJoinPoints(new int[]{ctx.getJoinpointId()});
+		assertEquals(1, uut.getJoinPoints().size());
+		assertEquals(ctx2.getJoinpointId(), uut.getJoinPoints().get(0).getId());
+
+		// the invocations of the obsolete code skip the advices
+		Object[] args = {1L, "", 2.0};
+		assertNull(uut.before(ctx.getJoinpointId(), this, args));
+		assertEquals(3, uut.afterReturn(ctx.getJoinpointId(), null, this, args, 3));
+		uut.afterThrow(ctx.getJoinpointId(), null, this, args, new RuntimeException());
+		assertNull(uut.createAdviceBridge(ctx.getJoinpointId()));
+		assertFalse(uut.setJoinPointEnabled(ctx.getJoinpointId(), false));
+	}
+
+	@Test
+	public void testJoinPointDisabledAfterRetransform() throws IOException {
+		Method target = AopTestUtils.findMethod(this.getClass(), "target");
+		WeavingContext ctx = doPrepareWeavingContext(target, SampleAdvice_CheckFast1.class);
+		assertTrue(uut.setJoinPointEnabled(ctx.getJoinpointId(), false));
+
+		// re-transformation of the target class
+		uut.unregisterJoinPoints(new int[]{ctx.getJoinpointId()});
+		WeavingContext newCtx = doPrepareWeavingContext(target, SampleAdvice_CheckFast1.class);
+		assertNotEquals(ctx.getJoinpointId(), newCtx.getJoinpointId());
+		assertFalse(XmxAopProxy.isJoinPointEnabled(newCtx.getJoinpointId()));
+
+		List<XmxJoinPointInfo> joinPoints = uut.getJoinPoints();
+		assertEquals(1, joinPoints.size());
+		assertEquals(newCtx.getJoinpointId(), joinPoints.get(0).getId());
+		assertFalse(joinPoints.get(0).isEnabled());
+
+		// the same method loaded by another class loader shares the state
+		WeavingContext otherCtx = doPrepareWeavingContext(target, SampleAdvice_CheckFast1.class);
+		assertFalse(XmxAopProxy.isJoinPointEnabled(otherCtx.getJoinpointId()));
+		assertTrue(uut.setJoinPointEnabled(newCtx.getJoinpointId(), true));
+		assertTrue(XmxAopProxy.isJoinPointEnabled(otherCtx.getJoinpointId()));
+
+		uut.unregisterJoinPoints(new int[]{newCtx.getJoinpointId(), otherCtx.getJoinpointId()});
+		assertTrue(XmxAopProxy.isJoinPointEnabled(
+				doPrepareWeavingContext(target, SampleAdvice_CheckFast1.class).getJoinpointId()));
+	}
+
 	//
 	// Tests for before() and afterX() proxying
 	//
@@ -2,6 +2,8 @@
 
 package com.gilecode.xmx.cfg.impl;
 
+import com.gilecode.xmx.cfg.ClassConfigView;
+import com.gilecode.xmx.cfg.IAppPropertiesSource;
 import com.gilecode.xmx.cfg.Properties;
 import org.junit.After;
 import org.junit.Before;
@@ -104,4 +106,24 @@ public class TestCustomXmxIniConfig {
 		assertEquals("val5", uut.getAppConfig("App2").getClassProperty("Class21", "TestProp").asString());
 		assertEquals("val6", uut.getAppConfig("other").getClassProperty("Class21", "TestProp").asString());
 	}
+
+	@Test
+	public void testClassConfigViews() {
+		String[][] appsAndClasses = {
+				{"App1", "Class11"}, {"App1", "Bad"}, {"AnotherApp", "Bad"}, {"App1", "Class$9"},
+				{"App1", "Class2"}, {"App1", "Class21"}, {"App1", "Class22"}, {"App2", "Class21"},
+				{"other", "Class21"}};
+		for (String[] appAndClass : appsAndClasses) {
+			IAppPropertiesSource appConfig = uut.getAppConfig(appAndClass[0]);
+			String className = appAndClass[1];
+			ClassConfigView view = appConfig.getClassConfig(className);
+
+			assertSame(view, appConfig.getClassConfig(className));
+			assertEquals(className, view.getClassName());
+			for (String propName : Arrays.asList(SP_MANAGED, "TestProp")) {
+				assertEquals(appConfig.getClassProperty(className, propName).asString(),
+						view.getClassProperty(propName).asString());
+			}
+		}
+	}
 }
@@ -4,6 +4,7 @@ package com.gilecode.xmx.cfg.impl;
 
 import com.gilecode.xmx.cfg.IAppPropertiesSource;
 import com.gilecode.xmx.cfg.Properties;
+import com.gilecode.xmx.cfg.pattern.ClassNamePrefilter;
 import org.junit.After;
 import org.junit.Test;
 
@@ -79,6 +80,12 @@ public class TestDefaultXmxIniConfig {
 		assertTrue(appConfig.getClassProperty("com.gilecode.SomeService", Properties.SP_MANAGED).asBool());
 		assertTrue(appConfig.getClassProperty("com.gilecode.SomeServiceImpl", Properties.SP_MANAGED).asBool());
 		assertTrue(appConfig.getClassProperty("MyManager", Properties.SP_MANAGED).asBool());
+
+		// check pre-filter of managed classes
+		ClassNamePrefilter prefilter = uut.getManagedClassesPrefilter();
+		assertFalse(prefilter.mayMatch("java/lang/Integer"));
+		assertTrue(prefilter.mayMatch("com/gilecode/SomeServiceImpl"));
+		assertTrue(prefilter.mayMatch("org/springframework/context/support/ClassPathXmlApplicationContext"));
 	}
 
 	private void checkIniFile(Path iniFile) throws IOException {
@@ -0,0 +1,105 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.cfg.pattern;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class TestClassNamePrefilter {
+
+	private static ClassNamePrefilter prefilter(String...patterns) {
+		return new ClassNamePrefilter(Arrays.asList(patterns));
+	}
+
+	@Test
+	public void testEmpty() {
+		ClassNamePrefilter uut = new ClassNamePrefilter(Collections.<String>emptyList());
+		assertFalse(uut.mayMatch("java/lang/Object"));
+		assertFalse(uut.mayMatch(""));
+	}
+
+	@Test
+	public void testLiteralsAndMasks() {
+		ClassNamePrefilter uut = prefilter("com.example.Foo", "\"org.example.Bar$Inner\"",
+				"com.example.service.*|*Impl", "net.*.Engine");
+
+		assertTrue(uut.mayMatch("com/example/Foo"));
+		assertFalse(uut.mayMatch("com/example/Foo2"));
+		assertFalse(uut.mayMatch("com/example/Fo"));
+		assertTrue(uut.mayMatch("org/example/Bar$Inner"));
+		assertFalse(uut.mayMatch("org/example/Bar"));
+
+		assertTrue(uut.mayMatch("com/example/service/Any"));
+		assertTrue(uut.mayMatch("any/ServiceImpl"));
+		assertFalse(uut.mayMatch("any/Service"));
+
+		assertTrue(uut.mayMatch("net/foo/Engine"));
+		assertFalse(uut.mayMatch("net/foo/Engines"));
+		assertFalse(uut.mayMatch("java/lang/Object"));
+	}
+
+	@Test
+	public void testRegex() {
+		ClassNamePrefilter uut = prefilter("^com\\.example\\.[A-Z]\\w*Service$", "^.*Manager\\d*$");
+
+		assertTrue(uut.mayMatch("com/example/MyService"));
+		assertFalse(uut.mayMatch("com/example/sub/MyService"));
+		assertTrue(uut.mayMatch("org/SomeManager2"));
+		assertFalse(uut.mayMatch("org/SomeManagers"));
+	}
+
+	@Test
+	public void testDefaultManagedClassesRegex() {
+		String defaultPattern = "^.*(Service|(?<![rR]eference)Manager|Engine|DataSource)\\d*(Impl\\d*)?$";
+		ClassNamePrefilter uut = prefilter(defaultPattern);
+
+		assertTrue(uut.mayMatch("com/example/MyService"));
+		assertTrue(uut.mayMatch("com/example/MyService2Impl"));
+		assertTrue(uut.mayMatch("com/example/UserManagerImpl12"));
+		assertTrue(uut.mayMatch("Engine"));
+		assertTrue(uut.mayMatch("org/DataSource3"));
+		assertFalse(uut.mayMatch("java/lang/Object"));
+		assertFalse(uut.mayMatch("com/example/ServiceHelper"));
+		assertFalse(uut.mayMatch("com/example/Managers"));
+		// passes the suffix pre-check, but is rejected by the look-behind of the regex
+		assertFalse(uut.mayMatch("com/example/ReferenceManager"));
+	}
+
+	@Test
+	public void testExtractRegexSuffixes() {
+		ClassNamePrefilter.SuffixCheck check = ClassNamePrefilter.extractRegexSuffixes(
+				"^.*(Service|(?<![rR]eference)Manager|Engine|DataSource)\\d*(Impl\\d*)?$");
+		assertNotNull(check);
+		assertArrayEquals(new String[]{"Service", "Manager", "Engine", "DataSource"}, check.suffixes);
+		assertEquals("0123456789Impl0123456789", check.trailingChars);
+
+		check = ClassNamePrefilter.extractRegexSuffixes("^com\\.example\\..*\\.[A-Z]\\w*\\.Bar$");
+		assertNull(check);
+		check = ClassNamePrefilter.extractRegexSuffixes("^com\\.example\\..*\\.Bar$");
+		assertNotNull(check);
+		assertArrayEquals(new String[]{"/Bar"}, check.suffixes);
+		check = ClassNamePrefilter.extractRegexSuffixes("^.*Services?$");
+		assertNotNull(check);
+		assertArrayEquals(new String[]{"Service"}, check.suffixes);
+		assertEquals("s", check.trailingChars);
+
+		assertNull(ClassNamePrefilter.extractRegexSuffixes("^.*(Service|Manager)?$"));
+		assertNull(ClassNamePrefilter.extractRegexSuffixes("^.*(?i)Service$"));
+		assertNull(ClassNamePrefilter.extractRegexSuffixes("^.*Service\\w+$"));
+		assertNull(ClassNamePrefilter.extractRegexSuffixes("^com\\.a.*X|org\\.b.*Y$"));
+		assertNull(ClassNamePrefilter.extractRegexSuffixes("^com\\.example\\..*$"));
+	}
+
+	@Test
+	public void testExtractRegexPrefix() {
+		assertEquals("com.example.", ClassNamePrefilter.extractRegexPrefix("^com\\.example\\..*$"));
+		assertEquals("", ClassNamePrefilter.extractRegexPrefix("^.*Service$"));
+		assertEquals("", ClassNamePrefilter.extractRegexPrefix("^com\\.a|org\\.b$"));
+		assertEquals("ab", ClassNamePrefilter.extractRegexPrefix("^abc?d$"));
+		assertEquals("a", ClassNamePrefilter.extractRegexPrefix("^a\\d+$"));
+	}
+}
@@ -0,0 +1,55 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.cfg.pattern;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TestCompiledPatternSet {
+
+	private static final List<String> PATTERNS = Arrays.asList(
+			"com.example.Foo",
+			null,
+			"\"com.example.Foo$Bar\"",
+			"*Service|*Manager*Impl",
+			"com.example.*",
+			"*",
+			"^com\\.example\\.[A-Z]\\w*Service$",
+			"^.*(Service|(?<![rR]eference)Manager|Engine|DataSource)\\d*(Impl\\d*)?$",
+			"a*b*c");
+
+	private static final List<String> NAMES = Arrays.asList(
+			"com.example.Foo", "com.example.Foo$Bar", "com.example.FooService", "org.SomeManagerImpl",
+			"org.ReferenceManager", "org.SomeManager2Impl", "abc", "abbbc", "axbyc", "acb", "", "*");
+
+	@Test
+	public void testSameResultsAsPatterns() {
+		CompiledPatternSet uut = new CompiledPatternSet(PATTERNS);
+		assertEquals(PATTERNS.size(), uut.size());
+
+		for (String name : NAMES) {
+			BitSet expected = new BitSet();
+			for (int i = 0; i < PATTERNS.size(); i++) {
+				String pattern = PATTERNS.get(i);
+				if (pattern != null && PatternsSupport.parse(pattern).matcher(name).matches()) {
+					expected.set(i);
+				}
+			}
+			assertEquals("Name: " + name, expected, uut.match(name));
+		}
+	}
+
+	@Test
+	public void testMaskMatches() {
+		assertTrue(CompiledPatternSet.maskMatches("*", "", 0));
+		assertTrue(CompiledPatternSet.maskMatches("*Impl", "com.FooImpl", 4));
+		assertFalse(CompiledPatternSet.maskMatches("*Impl", "com.FooImpl2", 4));
+		assertTrue(CompiledPatternSet.maskMatches("*a*a", "xaaa", 0));
+		assertFalse(CompiledPatternSet.maskMatches("*a*b", "xaaa", 0));
+	}
+}
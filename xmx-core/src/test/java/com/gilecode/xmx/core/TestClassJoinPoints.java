@@ -0,0 +1,38 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.core;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TestClassJoinPoints {
+
+	private ManagedClassLoaderWeakRef uut = new ManagedClassLoaderWeakRef(
+			TestClassJoinPoints.class.getClassLoader(), null, null);
+
+	@Test
+	public void testInitialLoadKeepsConcurrentTransformations() {
+		assertNull(uut.registerClassJoinPoints("a.A", new int[]{1, 2}, false));
+		assertNull(uut.registerClassJoinPoints("a.A", new int[]{3}, false));
+
+		List<int[]> all = uut.removeAllJoinPoints();
+		assertEquals(1, all.size());
+		assertArrayEquals(new int[]{1, 2, 3}, all.get(0));
+	}
+
+	@Test
+	public void testRetransformReplacesJoinPoints() {
+		uut.registerClassJoinPoints("a.A", new int[]{1, 2}, false);
+		uut.registerClassJoinPoints("a.B", new int[]{3}, false);
+
+		assertArrayEquals(new int[]{1, 2}, uut.registerClassJoinPoints("a.A", new int[]{4}, true));
+		assertArrayEquals(new int[]{4}, uut.registerClassJoinPoints("a.A", new int[0], true));
+		assertNull(uut.registerClassJoinPoints("a.C", new int[]{5}, true));
+
+		assertEquals(3, uut.removeAllJoinPoints().size());
+		assertTrue(uut.removeAllJoinPoints().isEmpty());
+	}
+}
@@ -0,0 +1,87 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.core;
+
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TestDeferredObjectsRegistrar {
+
+	private static final int DELAY_MS = 1000;
+
+	private final XmxClassManager classInfo = new XmxClassManager(1, "com.example.SampleService", null,
+			Integer.MAX_VALUE, 1, DELAY_MS, false, false, null, null);
+
+	private final List<Object> promotedObjects = new ArrayList<>();
+
+	private final DeferredObjectsRegistrar.IPromotionTarget target = new DeferredObjectsRegistrar.IPromotionTarget() {
+		@Override
+		public void registerPromotedObject(Object obj, XmxClassManager classInfo) {
+			assertSame(TestDeferredObjectsRegistrar.this.classInfo, classInfo);
+			promotedObjects.add(obj);
+		}
+	};
+
+	@Test
+	public void testSurvivorsPromotedAfterDelay() {
+		DeferredObjectsRegistrar uut = new DeferredObjectsRegistrar(target, 100, false);
+		Object obj = new Object();
+		long start = System.currentTimeMillis();
+		uut.addPendingObject(obj, classInfo, DELAY_MS);
+
+		uut.checkPendingObjects(start);
+		assertTrue(promotedObjects.isEmpty());
+
+		uut.checkPendingObjects(start + DELAY_MS * 2);
+		assertEquals(1, promotedObjects.size());
+		assertSame(obj, promotedObjects.get(0));
+
+		// promoted only once
+		uut.checkPendingObjects(start + DELAY_MS * 3);
+		assertEquals(1, promotedObjects.size());
+	}
+
+	@Test
+	public void testShortLivedObjectsNotPromoted() throws Exception {
+		DeferredObjectsRegistrar uut = new DeferredObjectsRegistrar(target, 100, false);
+		Object obj = new Object();
+		WeakReference<Object> probe = new WeakReference<>(obj);
+		long start = System.currentTimeMillis();
+		uut.addPendingObject(obj, classInfo, DELAY_MS);
+		uut.checkPendingObjects(start);
+
+		obj = null;
+		for (int i = 0; i < 100 && probe.get() != null; i++) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		assertNull("The object is not GC'ed", probe.get());
+
+		uut.checkPendingObjects(start + DELAY_MS * 2);
+		assertTrue(promotedObjects.isEmpty());
+	}
+
+	@Test
+	public void testStripesBounded() {
+		DeferredObjectsRegistrar uut = new DeferredObjectsRegistrar(target, 10, false);
+		List<Object> objects = new ArrayList<>();
+		for (int i = 0; i < 15; i++) {
+			Object obj = new Object();
+			objects.add(obj);
+			uut.addPendingObject(obj, classInfo, 0);
+		}
+		uut.checkPendingObjects(System.currentTimeMillis() + DELAY_MS);
+		assertEquals(objects.subList(0, 10), promotedObjects);
+
+		// the stripe is drained by the check, so the new objects are accepted again
+		Object obj = new Object();
+		uut.addPendingObject(obj, classInfo, 0);
+		uut.checkPendingObjects(System.currentTimeMillis() + DELAY_MS);
+		assertSame(obj, promotedObjects.get(10));
+	}
+}
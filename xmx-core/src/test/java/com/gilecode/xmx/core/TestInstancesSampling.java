@@ -0,0 +1,89 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestInstancesSampling {
+
+	private static XmxClassManager classManager(int maxInstances, int sampleRate) {
+		return new XmxClassManager(1, "com.example.SampleService", null, maxInstances, sampleRate, 0,
+				false, false, null, null);
+	}
+
+	@Test
+	public void testParseSampleRate() {
+		assertEquals(1, XmxManager.parseSampleRate(""));
+		assertEquals(1, XmxManager.parseSampleRate(" "));
+		assertEquals(1, XmxManager.parseSampleRate("1"));
+		assertEquals(1000, XmxManager.parseSampleRate("1/1000"));
+		assertEquals(1000, XmxManager.parseSampleRate(" 1 / 1000 "));
+		assertEquals(50, XmxManager.parseSampleRate("2/100"));
+		assertEquals(10, XmxManager.parseSampleRate("0.1"));
+		assertEquals(3, XmxManager.parseSampleRate("1/3"));
+	}
+
+	@Test
+	public void testParseInvalidSampleRate() {
+		for (String value : new String[]{"abc", "1/", "/10", "0", "1/0", "2", "-1/10", "1/x"}) {
+			try {
+				XmxManager.parseSampleRate(value);
+				fail("NumberFormatException expected for '" + value + "'");
+			} catch (NumberFormatException expected) {
+			}
+		}
+	}
+
+	@Test
+	public void testSampleNewInstanceRatio() {
+		XmxClassManager uut = classManager(Integer.MAX_VALUE, 10);
+		assertTrue(uut.isSampled());
+		int n = 100_000;
+		int sampled = 0;
+		for (int i = 0; i < n; i++) {
+			if (uut.sampleNewInstance()) {
+				sampled++;
+			}
+		}
+		// the expected count is 10000 with the standard deviation of ~95
+		assertTrue("Sampled " + sampled, sampled > 9000 && sampled < 11000);
+	}
+
+	@Test
+	public void testNotSampled() {
+		XmxClassManager uut = classManager(Integer.MAX_VALUE, 1);
+		assertFalse(uut.isSampled());
+		for (int i = 0; i < 1000; i++) {
+			assertTrue(uut.sampleNewInstance());
+		}
+	}
+
+	@Test
+	public void testSampleRefreshedAfterGC() {
+		XmxClassManager uut = classManager(2, 10);
+		assertEquals(0, uut.tryReserveInstance());
+		assertEquals(1, uut.tryReserveInstance());
+		assertEquals(-1, uut.tryReserveInstance());
+
+		// the sampled class is not disabled, so that the GC'ed instances are replaced
+		assertFalse(uut.disableOnMaxInstances());
+		assertFalse(uut.isDisabled());
+		assertEquals(1, uut.releaseInstances(1));
+		assertEquals(1, uut.tryReserveInstance());
+		assertEquals(-1, uut.tryReserveInstance());
+	}
+
+	@Test
+	public void testDisabledOnMaxInstancesIfNotSampled() {
+		XmxClassManager uut = classManager(1, 1);
+		assertEquals(0, uut.tryReserveInstance());
+		assertEquals(-1, uut.tryReserveInstance());
+
+		assertTrue(uut.disableOnMaxInstances());
+		assertTrue(uut.isDisabled());
+		// disabled only once
+		assertFalse(uut.disableOnMaxInstances());
+	}
+}
@@ -0,0 +1,125 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.core;
+
+import com.gilecode.xmx.cfg.IXmxConfig;
+import com.gilecode.xmx.server.IXmxServerLauncher;
+import org.junit.Test;
+
+import java.io.*;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TestLazyWebServerStarter {
+
+	private static final long TIMEOUT_MS = 10000;
+
+	/**
+	 * The launcher which starts successfully only once.
+	 */
+	private static class SampleLauncher implements IXmxServerLauncher {
+		volatile int launches;
+		volatile int stops;
+		volatile long lastActivityTime = -1;
+
+		@Override
+		public void launchServer(File warFile, IXmxConfig config) {
+			if (++launches == 1) {
+				lastActivityTime = System.currentTimeMillis();
+			}
+		}
+
+		@Override
+		public void stopServer() {
+			stops++;
+			lastActivityTime = -1;
+		}
+
+		@Override
+		public long getLastActivityTime() {
+			return lastActivityTime;
+		}
+	}
+
+	@Test
+	public void testParseRequestPath() {
+		assertEquals("/xmx/classes?app=1", LazyWebServerStarter.parseRequestPath("GET /xmx/classes?app=1 HTTP/1.1"));
+		assertEquals("/", LazyWebServerStarter.parseRequestPath("GET / HTTP/1.1"));
+		assertEquals("/", LazyWebServerStarter.parseRequestPath(null));
+		assertEquals("/", LazyWebServerStarter.parseRequestPath(""));
+		assertEquals("/", LazyWebServerStarter.parseRequestPath("GET"));
+		assertEquals("/", LazyWebServerStarter.parseRequestPath("GET http://example.com/ HTTP/1.1"));
+		// protocol-relative redirects to other hosts are not allowed
+		assertEquals("/", LazyWebServerStarter.parseRequestPath("GET //example.com/ HTTP/1.1"));
+	}
+
+	@Test
+	public void testIdleTimeElapsed() {
+		assertFalse(LazyWebServerStarter.isIdleTimeElapsed(1000, 1000, 500));
+		assertFalse(LazyWebServerStarter.isIdleTimeElapsed(1000, 1499, 500));
+		assertTrue(LazyWebServerStarter.isIdleTimeElapsed(1000, 1500, 500));
+		assertTrue(LazyWebServerStarter.isIdleTimeElapsed(1000, 5000, 500));
+	}
+
+	@Test
+	public void testLauncherCreatedOnFirstRequest() throws Exception {
+		final SampleLauncher launcher = new SampleLauncher();
+		final AtomicInteger factoryCalls = new AtomicInteger();
+		Callable<IXmxServerLauncher> launcherFactory = new Callable<IXmxServerLauncher>() {
+			@Override
+			public IXmxServerLauncher call() {
+				factoryCalls.incrementAndGet();
+				return launcher;
+			}
+		};
+		int port = findFreePort();
+		Thread starterThread = new Thread(new LazyWebServerStarter(launcherFactory, null, null, port, 50));
+		starterThread.setDaemon(true);
+		starterThread.start();
+
+		assertEquals("HTTP/1.1 307 Temporary Redirect", request(port, "/xmx/"));
+		assertEquals(1, factoryCalls.get());
+		assertEquals(1, launcher.launches);
+
+		// the idle server is stopped, and the port is listened again; the launcher is re-used on the next request
+		assertEquals("HTTP/1.1 503 Service Unavailable", request(port, "/xmx/"));
+		starterThread.join(TIMEOUT_MS);
+		assertFalse(starterThread.isAlive());
+		assertEquals(1, factoryCalls.get());
+		assertEquals(2, launcher.launches);
+		assertEquals(1, launcher.stops);
+	}
+
+	private static int findFreePort() throws IOException {
+		try (ServerSocket s = new ServerSocket(0)) {
+			return s.getLocalPort();
+		}
+	}
+
+	/**
+	 * Sends the request to the port once it is listened, and returns the status line of the response.
+	 */
+	private static String request(int port, String path) throws Exception {
+		long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+		while (true) {
+			try (Socket s = new Socket("localhost", port)) {
+				s.setSoTimeout((int) TIMEOUT_MS);
+				OutputStream out = s.getOutputStream();
+				out.write(("GET " + path + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+				out.flush();
+				BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(),
+						StandardCharsets.ISO_8859_1));
+				return in.readLine();
+			} catch (ConnectException e) {
+				assertTrue("Timeout", System.currentTimeMillis() < deadline);
+				Thread.sleep(10);
+			}
+		}
+	}
+}
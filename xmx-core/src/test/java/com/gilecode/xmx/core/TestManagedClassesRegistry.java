@@ -0,0 +1,72 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class TestManagedClassesRegistry {
+
+	private final ManagedAppInfo app1 = new ManagedAppInfo(1, "app1");
+	private final ManagedAppInfo app2 = new ManagedAppInfo(2, "app2");
+
+	private final ManagedClassesRegistry uut = new ManagedClassesRegistry();
+
+	private static XmxClassManager classManager(int id, ManagedAppInfo appInfo) {
+		ManagedClassLoaderWeakRef loaderInfo = new ManagedClassLoaderWeakRef(null, null, appInfo);
+		return new XmxClassManager(id, "com.example.SampleService" + id, loaderInfo, Integer.MAX_VALUE, 1, 0,
+				false, false, null, null);
+	}
+
+	@Test
+	public void testSnapshotReusedForSameEpoch() {
+		uut.register(classManager(1, app1));
+		ManagedClassesSnapshot snapshot = uut.getSnapshot();
+		assertSame(snapshot, uut.getSnapshot());
+		assertSame(snapshot, uut.getSnapshot());
+	}
+
+	@Test
+	public void testSnapshotRebuiltAfterRegistration() {
+		XmxClassManager c2 = classManager(2, app1);
+		uut.register(c2);
+		ManagedClassesSnapshot snapshot = uut.getSnapshot();
+		assertEquals(Collections.singletonList(c2), snapshot.getClasses());
+
+		XmxClassManager c1 = classManager(1, app1);
+		XmxClassManager c3 = classManager(3, app2);
+		uut.register(c1);
+		uut.register(c3);
+		ManagedClassesSnapshot newSnapshot = uut.getSnapshot();
+		assertNotSame(snapshot, newSnapshot);
+		assertEquals(Arrays.asList(c1, c2, c3), newSnapshot.getClasses());
+		assertEquals(Arrays.asList(c1, c2), newSnapshot.getAppClasses("app1"));
+		assertEquals(Collections.singletonList(c3), newSnapshot.getAppClasses("app2"));
+		assertTrue(newSnapshot.getAppClasses("app3").isEmpty());
+
+		// the old snapshot is not changed
+		assertEquals(Collections.singletonList(c2), snapshot.getClasses());
+	}
+
+	@Test
+	public void testSnapshotRebuiltAfterCleanup() {
+		XmxClassManager c1 = classManager(1, app1);
+		XmxClassManager c2 = classManager(2, app2);
+		uut.register(c1);
+		uut.register(c2);
+		ManagedClassesSnapshot snapshot = uut.getSnapshot();
+		assertEquals(Arrays.asList(c1, c2), snapshot.getClasses());
+
+		uut.removeAll(Collections.singletonList(2));
+		assertNull(uut.get(2));
+		ManagedClassesSnapshot newSnapshot = uut.getSnapshot();
+		assertNotSame(snapshot, newSnapshot);
+		assertEquals(Collections.singletonList(c1), newSnapshot.getClasses());
+		assertTrue(newSnapshot.getAppClasses("app2").isEmpty());
+		assertSame(newSnapshot, uut.getSnapshot());
+	}
+}
@@ -0,0 +1,109 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.core;
+
+import org.junit.Test;
+
+import java.lang.instrument.Instrumentation;
+import java.lang.instrument.UnmodifiableClassException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+
+public class TestManagedClassesRetransformer {
+
+	/**
+	 * The calls of {@link Instrumentation#retransformClasses(Class[])}, including the rejected ones.
+	 */
+	private final List<List<Class<?>>> retransformCalls = Collections.synchronizedList(new ArrayList<List<Class<?>>>());
+
+	/**
+	 * The classes which are successfully re-transformed.
+	 */
+	private final List<Class<?>> retransformed = Collections.synchronizedList(new ArrayList<Class<?>>());
+
+	/**
+	 * Creates the instrumentation which rejects the re-transformation of the specified class.
+	 */
+	private Instrumentation createInstrumentation(final Class<?> unmodifiableClass) {
+		return (Instrumentation) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[]{Instrumentation.class}, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						switch (method.getName()) {
+						case "isRetransformClassesSupported":
+						case "isModifiableClass":
+							return true;
+						case "retransformClasses":
+							List<Class<?>> classes = asList((Class<?>[]) args[0]);
+							retransformCalls.add(classes);
+							if (classes.contains(unmodifiableClass)) {
+								throw new UnmodifiableClassException(unmodifiableClass.getName());
+							}
+							retransformed.addAll(classes);
+							return null;
+						default:
+							throw new UnsupportedOperationException(method.getName());
+						}
+					}
+				});
+	}
+
+	private void retransformBatches(ManagedClassesRetransformer uut, List<Class<?>> classes, int batchSize)
+			throws InterruptedException {
+		final CountDownLatch completed = new CountDownLatch(1);
+		uut.scheduleRetransformBatches(classes, batchSize, 1, new Runnable() {
+			@Override
+			public void run() {
+				completed.countDown();
+			}
+		});
+		assertTrue("Timeout", completed.await(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testRetransformInBatches() throws Exception {
+		ManagedClassesRetransformer uut = new ManagedClassesRetransformer();
+		uut.setInstrumentation(createInstrumentation(null));
+
+		List<Class<?>> classes = Arrays.<Class<?>>asList(String.class, Integer.class, Long.class, Double.class,
+				Float.class);
+		retransformBatches(uut, classes, 2);
+		assertEquals(Arrays.<List<Class<?>>>asList(
+				Arrays.<Class<?>>asList(String.class, Integer.class),
+				Arrays.<Class<?>>asList(Long.class, Double.class),
+				Collections.<Class<?>>singletonList(Float.class)), retransformCalls);
+		assertEquals(classes, retransformed);
+	}
+
+	@Test
+	public void testFailedBatchRetriedByClass() throws Exception {
+		ManagedClassesRetransformer uut = new ManagedClassesRetransformer();
+		uut.setInstrumentation(createInstrumentation(Long.class));
+
+		List<Class<?>> classes = Arrays.<Class<?>>asList(String.class, Integer.class, Long.class, Double.class,
+				Float.class);
+		retransformBatches(uut, classes, 2);
+		// the batch with the unmodifiable class is re-tried one by one, and the next batches are processed
+		assertEquals(Arrays.<Class<?>>asList(String.class, Integer.class, Double.class, Float.class), retransformed);
+		assertEquals(Arrays.<List<Class<?>>>asList(
+				Arrays.<Class<?>>asList(String.class, Integer.class),
+				Arrays.<Class<?>>asList(Long.class, Double.class),
+				Collections.<Class<?>>singletonList(Long.class),
+				Collections.<Class<?>>singletonList(Double.class),
+				Collections.<Class<?>>singletonList(Float.class)), retransformCalls);
+	}
+
+	@Test
+	public void testNotSupportedWithoutInstrumentation() {
+		ManagedClassesRetransformer uut = new ManagedClassesRetransformer();
+		assertFalse(uut.isSupported());
+		assertEquals(0, uut.getAllLoadedClasses().length);
+	}
+}
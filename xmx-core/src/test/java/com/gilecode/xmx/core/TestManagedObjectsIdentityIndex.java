@@ -0,0 +1,67 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.core;
+
+import org.junit.Test;
+
+import java.lang.ref.ReferenceQueue;
+
+import static org.junit.Assert.*;
+
+public class TestManagedObjectsIdentityIndex {
+
+	private final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+	private final ManagedObjectsIdentityIndex uut = new ManagedObjectsIdentityIndex(16, 4);
+
+	/**
+	 * Objects which are equal, and have the same hash code, but are not identical.
+	 */
+	static class EqualObject {
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof EqualObject;
+		}
+
+		@Override
+		public int hashCode() {
+			return 1;
+		}
+	}
+
+	@Test
+	public void testFindByIdentity() {
+		Object obj1 = new EqualObject();
+		Object obj2 = new EqualObject();
+		ManagedObjectWeakRef ref1 = new ManagedObjectWeakRef(obj1, queue, 1, null, null);
+
+		assertNull(uut.find(obj1));
+		uut.add(ref1);
+		assertSame(ref1, uut.find(obj1));
+		assertNull(uut.find(obj2));
+
+		ManagedObjectWeakRef ref2 = new ManagedObjectWeakRef(obj2, queue, 2, null, null);
+		uut.add(ref2);
+		assertSame(ref1, uut.find(obj1));
+		assertSame(ref2, uut.find(obj2));
+
+		uut.remove(ref1);
+		assertNull(uut.find(obj1));
+		assertSame(ref2, uut.find(obj2));
+	}
+
+	@Test
+	public void testRemoveClearedReference() {
+		Object obj = new Object();
+		ManagedObjectWeakRef ref = new ManagedObjectWeakRef(obj, queue, 1, null, null);
+		uut.add(ref);
+
+		// emulate GC
+		ref.clear();
+		assertNull(uut.find(obj));
+		uut.remove(ref);
+
+		ManagedObjectWeakRef newRef = new ManagedObjectWeakRef(obj, queue, 2, null, null);
+		uut.add(newRef);
+		assertSame(newRef, uut.find(obj));
+	}
+}
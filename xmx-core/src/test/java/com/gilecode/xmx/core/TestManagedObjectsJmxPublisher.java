@@ -0,0 +1,185 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.core;
+
+import com.gilecode.xmx.core.jmx.JmxSupport;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.management.modelmbean.*;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TestManagedObjectsJmxPublisher {
+
+	private static final long TIMEOUT_MS = 10000;
+
+	public static class Sample {
+	}
+
+	private MBeanServer jmxServer = MBeanServerFactory.newMBeanServer();
+	private XmxClassManager classInfo;
+	private List<Object> objects = new ArrayList<>();
+	private int lastObjectId;
+
+	@Before
+	public void setUp() throws Exception {
+		String className = Sample.class.getName();
+		classInfo = new XmxClassManager(1, className, null, -1, 1, 0, false, false,
+				JmxSupport.createClassObjectNamePart(className, "app"), null);
+		Field modelField = XmxClassManager.class.getDeclaredField("jmxClassModel");
+		modelField.setAccessible(true);
+		modelField.set(classInfo, new ModelMBeanInfoSupport(className, "", new ModelMBeanAttributeInfo[0],
+				new ModelMBeanConstructorInfo[0], new ModelMBeanOperationInfo[0], new ModelMBeanNotificationInfo[0]));
+	}
+
+	private ManagedObjectWeakRef newObjectRef() {
+		Object obj = new Sample();
+		objects.add(obj);
+		return new ManagedObjectWeakRef(obj, null, ++lastObjectId, classInfo, null);
+	}
+
+	private static void awaitPublished(ManagedObjectWeakRef objRef, boolean published) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+		while ((objRef.jmxObjectName != null) != published) {
+			assertTrue("Timeout", System.currentTimeMillis() < deadline);
+			Thread.sleep(10);
+		}
+	}
+
+	private static boolean isSingletonName(ObjectName name) {
+		return name.getKeyProperty("id") == null;
+	}
+
+	@Test
+	public void testSingletonNames() throws Exception {
+		ManagedObjectsJmxPublisher uut = new ManagedObjectsJmxPublisher(null, jmxServer);
+		uut.start();
+
+		ManagedObjectWeakRef ref1 = newObjectRef();
+		uut.register(ref1);
+		awaitPublished(ref1, true);
+		assertTrue(isSingletonName(ref1.jmxObjectName));
+
+		ManagedObjectWeakRef ref2 = newObjectRef();
+		ManagedObjectWeakRef ref3 = newObjectRef();
+		uut.register(ref2);
+		uut.register(ref3);
+		awaitPublished(ref3, true);
+		assertFalse(isSingletonName(ref1.jmxObjectName));
+		assertFalse(isSingletonName(ref2.jmxObjectName));
+		assertFalse(isSingletonName(ref3.jmxObjectName));
+		assertEquals(3, classInfo.jmxPublishedCount);
+		assertTrue(jmxServer.isRegistered(ref1.jmxObjectName));
+		assertFalse(jmxServer.isRegistered(JmxSupport.makeObjectName(0, classInfo, true)));
+
+		uut.unregister(ref1);
+		uut.unregister(ref2);
+		uut.unregister(ref3);
+		awaitPublished(ref3, false);
+		assertEquals(0, classInfo.jmxPublishedCount);
+		assertNull(classInfo.jmxSingletonRef);
+
+		// the count is tracked, so the next object is published as singleton again
+		ManagedObjectWeakRef ref4 = newObjectRef();
+		uut.register(ref4);
+		awaitPublished(ref4, true);
+		assertTrue(isSingletonName(ref4.jmxObjectName));
+		assertSame(ref4, classInfo.jmxSingletonRef);
+	}
+
+	@Test
+	public void testObjectGCedDuringPublicationUnpublished() throws Exception {
+		ManagedObjectsJmxPublisher uut = new ManagedObjectsJmxPublisher(null, jmxServer);
+		uut.start();
+
+		// the object is alive when checked before the registration, but GC'ed right after it
+		Object obj = new Sample();
+		ManagedObjectWeakRef gcedRef = new ManagedObjectWeakRef(obj, null, ++lastObjectId, classInfo, null) {
+			int getCalls;
+
+			@Override
+			public Object get() {
+				return ++getCalls == 1 ? super.get() : null;
+			}
+		};
+		uut.register(gcedRef);
+		ManagedObjectWeakRef ref = newObjectRef();
+		uut.register(ref);
+		awaitPublished(ref, true);
+
+		assertNull(gcedRef.jmxObjectName);
+		assertEquals(1, classInfo.jmxPublishedCount);
+		assertTrue(isSingletonName(ref.jmxObjectName));
+		assertEquals(1, jmxServer.queryNames(new ObjectName(classInfo.getJmxObjectNamePart() + ",*"), null).size());
+	}
+
+	@Test
+	public void testDroppedRegistrationsRetried() throws Exception {
+		ManagedObjectsJmxPublisher uut = new ManagedObjectsJmxPublisher(null, jmxServer, 4, 100);
+
+		// the queue overflows before the publisher is started
+		List<ManagedObjectWeakRef> refs = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			ManagedObjectWeakRef ref = newObjectRef();
+			refs.add(ref);
+			uut.register(ref);
+		}
+		uut.start();
+
+		// the first published object is re-registered with id once the next one is published
+		long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+		while (jmxServer.queryNames(new ObjectName(classInfo.getJmxObjectNamePart() + ",id=*"), null).size() < 10) {
+			assertTrue("Timeout", System.currentTimeMillis() < deadline);
+			Thread.sleep(10);
+		}
+		for (ManagedObjectWeakRef ref : refs) {
+			awaitPublished(ref, true);
+			assertFalse(isSingletonName(ref.jmxObjectName));
+			assertTrue(jmxServer.isRegistered(ref.jmxObjectName));
+		}
+		assertEquals(10, classInfo.jmxPublishedCount);
+	}
+
+	@Test
+	public void testDroppedRegistrationsBounded() throws Exception {
+		ManagedObjectsJmxPublisher uut = new ManagedObjectsJmxPublisher(null, jmxServer, 2, 3);
+
+		// 2 registrations fit into the queue, 3 are delayed, and the rest are skipped
+		List<ManagedObjectWeakRef> refs = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			ManagedObjectWeakRef ref = newObjectRef();
+			refs.add(ref);
+			uut.register(ref);
+		}
+		assertTrue(getOverflowReported(uut));
+		uut.start();
+
+		// the overflow flag is reset once the backlog is drained
+		long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+		while (getOverflowReported(uut)) {
+			assertTrue("Timeout", System.currentTimeMillis() < deadline);
+			Thread.sleep(10);
+		}
+		for (int i = 0; i < 5; i++) {
+			assertNotNull(refs.get(i).jmxObjectName);
+		}
+		for (int i = 5; i < 10; i++) {
+			assertNull(refs.get(i).jmxObjectName);
+		}
+		assertEquals(5, classInfo.jmxPublishedCount);
+		assertEquals(5, jmxServer.queryNames(new ObjectName(classInfo.getJmxObjectNamePart() + ",*"), null).size());
+	}
+
+	private static boolean getOverflowReported(ManagedObjectsJmxPublisher publisher) throws Exception {
+		Field field = ManagedObjectsJmxPublisher.class.getDeclaredField("overflowReported");
+		field.setAccessible(true);
+		return field.getBoolean(publisher);
+	}
+}
@@ -0,0 +1,164 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.core;
+
+import com.gilecode.xmx.cfg.impl.XmxIniConfig;
+import com.gilecode.xmx.model.XmxObjectInfo;
+import com.gilecode.xmx.service.IXmxObjectsVisitor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class TestManagedObjectsVisitor {
+
+	public static class VisitSampleA {
+	}
+
+	public static class VisitSampleB {
+	}
+
+	private Path tempDir;
+	private XmxManager uut;
+
+	private final List<Object> objectsA = new ArrayList<>();
+	private final List<Object> objectsB = new ArrayList<>();
+	private XmxClassManager classA;
+	private XmxClassManager classB;
+
+	@Before
+	public void setUp() throws Exception {
+		tempDir = Files.createTempDirectory("xmx-visitor");
+		File iniFile = tempDir.resolve("xmx.ini").toFile();
+		Files.write(iniFile.toPath(), Arrays.asList(
+				"[System]",
+				"EmbeddedWebServer.Enabled = false",
+				"JMX.Bridge.Enabled = false",
+				"TransformCache.Enabled = false",
+				"[App=*]",
+				"ManagedClasses = ^.*VisitSample[AB]$"), Charset.defaultCharset());
+		uut = new XmxManager(XmxIniConfig.load(iniFile, false), tempDir.toFile());
+
+		classA = registerClass(VisitSampleA.class);
+		classB = registerClass(VisitSampleB.class);
+		for (int i = 0; i < 3; i++) {
+			registerObject(new VisitSampleA(), classA, objectsA);
+		}
+		for (int i = 0; i < 2; i++) {
+			registerObject(new VisitSampleB(), classB, objectsB);
+		}
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		Files.delete(tempDir.resolve("xmx.ini"));
+		Files.delete(tempDir);
+	}
+
+	private XmxClassManager registerClass(Class<?> c) throws IOException {
+		String bcClassName = c.getName().replace('.', '/');
+		try (InputStream in = getClass().getClassLoader().getResourceAsStream(bcClassName + ".class")) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buf = new byte[4096];
+			int n;
+			while ((n = in.read(buf)) > 0) {
+				out.write(buf, 0, n);
+			}
+			assertNotNull(uut.transformClassIfInterested(c.getClassLoader(), bcClassName, out.toByteArray(), null));
+		}
+		XmxClassManager classInfo = uut.findManagedClassInfo(c);
+		assertNotNull(classInfo);
+		return classInfo;
+	}
+
+	private void registerObject(Object obj, XmxClassManager classInfo, List<Object> objects) {
+		objects.add(obj);
+		// the registration token is passed, as it cannot be bound to the not transformed class
+		uut.registerObject(obj, classInfo, classInfo.getId());
+	}
+
+	private List<Object> visitValues(Integer classId, final int maxCount) {
+		final List<Object> values = new ArrayList<>();
+		uut.visitManagedObjects(classId, new IXmxObjectsVisitor() {
+			@Override
+			public boolean visitObject(XmxObjectInfo objectInfo) {
+				values.add(objectInfo.getValue());
+				return values.size() < maxCount;
+			}
+		});
+		return values;
+	}
+
+	private static void assertSameElements(List<Object> expected, List<Object> actual) {
+		Set<Object> expectedSet = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+		expectedSet.addAll(expected);
+		Set<Object> actualSet = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+		actualSet.addAll(actual);
+		assertEquals(expected.size(), actual.size());
+		assertEquals(expectedSet, actualSet);
+	}
+
+	@Test
+	public void testCountsMatchRegistry() {
+		assertEquals(3, uut.getManagedObjectsCount(classA.getId()));
+		assertEquals(2, uut.getManagedObjectsCount(classB.getId()));
+		assertEquals(0, uut.getManagedObjectsCount(Integer.MAX_VALUE));
+
+		String appName = classA.getClassLoaderInfo().getAppInfo().getName();
+		assertEquals(5, uut.getAppManagedObjectsCount(appName));
+		assertEquals(0, uut.getAppManagedObjectsCount("no-such-app"));
+
+		assertEquals(uut.getManagedObjectsCount(classA.getId()), uut.getManagedObjects(classA.getId()).size());
+		assertEquals(uut.getManagedObjectsCount(classB.getId()), uut.getManagedObjects(classB.getId()).size());
+	}
+
+	@Test
+	public void testVisitAll() {
+		assertSameElements(objectsA, visitValues(classA.getId(), Integer.MAX_VALUE));
+		assertSameElements(objectsB, visitValues(classB.getId(), Integer.MAX_VALUE));
+
+		List<Object> all = new ArrayList<>(objectsA);
+		all.addAll(objectsB);
+		assertSameElements(all, visitValues(null, Integer.MAX_VALUE));
+	}
+
+	@Test
+	public void testVisitorStopsEarly() {
+		assertEquals(2, visitValues(classA.getId(), 2).size());
+		// the visiting of all objects stops in the middle of the first class
+		assertEquals(1, visitValues(null, 1).size());
+		assertEquals(4, visitValues(null, 4).size());
+	}
+
+	@Test
+	public void testObjectsGCedDuringVisitSkipped() {
+		final List<Object> values = new ArrayList<>();
+		uut.visitManagedObjects(classA.getId(), new IXmxObjectsVisitor() {
+			@Override
+			public boolean visitObject(XmxObjectInfo objectInfo) {
+				if (values.isEmpty()) {
+					// simulate GC of the other objects, before they are cleaned from the registry
+					for (Object obj : objectsA) {
+						if (obj != objectInfo.getValue()) {
+							uut.findManagedObjectRef(obj).clear();
+						}
+					}
+				}
+				values.add(objectInfo.getValue());
+				return true;
+			}
+		});
+		assertEquals(1, values.size());
+		assertEquals(1, uut.getManagedObjects(classA.getId()).size());
+	}
+}
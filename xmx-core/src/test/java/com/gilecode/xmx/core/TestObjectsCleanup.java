@@ -0,0 +1,85 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.core;
+
+import org.junit.Test;
+
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TestObjectsCleanup {
+
+	private final List<Object> objects = new ArrayList<>();
+	private int lastObjectId;
+
+	private static XmxClassManager classManager(boolean sweepCleanup) {
+		return new XmxClassManager(1, "com.example.SampleService", null, Integer.MAX_VALUE, 1, 0,
+				false, sweepCleanup, null, null);
+	}
+
+	private ManagedObjectWeakRef addObject(XmxClassManager classInfo, ReferenceQueue<Object> refQueue) {
+		Object obj = new Object();
+		objects.add(obj);
+		ManagedObjectWeakRef objRef = new ManagedObjectWeakRef(obj, refQueue, ++lastObjectId, classInfo, null);
+		assertTrue(classInfo.tryReserveInstance() >= 0);
+		classInfo.addObject(objRef);
+		return objRef;
+	}
+
+	@Test
+	public void testDrainRefQueueInBatches() {
+		ReferenceQueue<Object> refQueue = new ReferenceQueue<>();
+		XmxClassManager classInfo = classManager(false);
+		List<ManagedObjectWeakRef> enqueued = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			ManagedObjectWeakRef objRef = addObject(classInfo, refQueue);
+			assertTrue(objRef.enqueue());
+			enqueued.add(objRef);
+		}
+
+		List<ManagedObjectWeakRef> drained = new ArrayList<>();
+		List<ManagedObjectWeakRef> batch = new ArrayList<>();
+		for (int expectedSize : new int[]{4, 4, 2, 0}) {
+			XmxManager.drainRefQueue(refQueue, batch, 4);
+			assertEquals(expectedSize, batch.size());
+			drained.addAll(batch);
+			batch.clear();
+		}
+		assertEquals(enqueued.size(), drained.size());
+		assertTrue(drained.containsAll(enqueued));
+
+		// the batch which already has the reference obtained by the blocking removal is topped up to the max size
+		for (int i = 0; i < 3; i++) {
+			assertTrue(addObject(classInfo, refQueue).enqueue());
+		}
+		batch.add(enqueued.get(0));
+		XmxManager.drainRefQueue(refQueue, batch, 3);
+		assertEquals(3, batch.size());
+		assertNotNull(refQueue.poll());
+		assertNull(refQueue.poll());
+	}
+
+	@Test
+	public void testSweepGCedObjects() {
+		XmxClassManager sweptClass = classManager(true);
+		ManagedObjectWeakRef alive = addObject(sweptClass, null);
+		ManagedObjectWeakRef gced = addObject(sweptClass, null);
+		gced.clear();
+
+		// the GC'ed objects of the classes with reference queue cleanup are skipped
+		XmxClassManager queuedClass = classManager(false);
+		addObject(queuedClass, new ReferenceQueue<>()).clear();
+
+		// the classes without objects are skipped
+		XmxClassManager emptyClass = classManager(true);
+
+		List<ManagedObjectWeakRef> batch = new ArrayList<>();
+		XmxManager.sweepGCedObjects(Arrays.asList(sweptClass, queuedClass, emptyClass), batch);
+		assertEquals(Arrays.asList(gced), batch);
+		assertNotNull(alive.get());
+	}
+}
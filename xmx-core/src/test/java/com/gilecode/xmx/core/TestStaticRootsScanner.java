@@ -0,0 +1,108 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.core;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class TestStaticRootsScanner {
+
+	static class Node {
+		Node next;
+		Object[] items;
+		int value;
+	}
+
+	static class Item {
+	}
+
+	static class Roots {
+		static final Node CYCLE;
+		static final Item[] ARRAY = {new Item(), null, new Item()};
+		static final List<Object> LIST = new ArrayList<>();
+		static final Map<Object, Object> MAP = new HashMap<>();
+		static int counter = 1;
+
+		static {
+			Node first = new Node();
+			Node second = new Node();
+			first.next = second;
+			second.next = first;
+			second.items = new Object[]{new Item(), first};
+			CYCLE = first;
+			LIST.add(new Item());
+			MAP.put(new Item(), new Item());
+		}
+	}
+
+	/**
+	 * Set by the initializer of {@link NotInitialized}, so that it may be checked without initializing it.
+	 */
+	static boolean notInitializedClassInitialized;
+
+	static class NotInitialized {
+		static final Item ITEM = new Item();
+
+		static {
+			notInitializedClassInitialized = true;
+		}
+	}
+
+	private final List<Object> visited = new ArrayList<>();
+
+	private final StaticRootsScanner uut = new StaticRootsScanner(new StaticRootsScanner.IObjectVisitor() {
+		@Override
+		public void visit(Object obj) {
+			visited.add(obj);
+		}
+	});
+
+	@Test
+	public void testReachableObjectsFound() {
+		// initializes the class
+		Node first = Roots.CYCLE;
+
+		int count = uut.scan(Collections.<Class<?>>singletonList(Roots.class));
+		assertEquals(visited.size(), count);
+
+		Node second = first.next;
+		List<Object> expected = Arrays.asList(first, second, second.items, second.items[0],
+				Roots.ARRAY, Roots.ARRAY[0], Roots.ARRAY[2],
+				Roots.LIST, Roots.LIST.get(0),
+				Roots.MAP, Roots.MAP.keySet().iterator().next(), Roots.MAP.values().iterator().next());
+		for (Object obj : expected) {
+			assertTrue("Not found " + obj, containsSame(visited, obj));
+		}
+
+		// each object is visited once, even if it is reachable several times
+		Set<Object> unique = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+		unique.addAll(visited);
+		assertEquals(visited.size(), unique.size());
+	}
+
+	@Test
+	public void testNotInitializedClassSkipped() throws Exception {
+		Class<?> c = Class.forName(NotInitialized.class.getName(), false, getClass().getClassLoader());
+		assertEquals(0, uut.scan(Collections.<Class<?>>singletonList(c)));
+		assertTrue(visited.isEmpty());
+		assertFalse(notInitializedClassInitialized);
+	}
+
+	@Test
+	public void testSystemClassesSkipped() {
+		assertEquals(0, uut.scan(Arrays.<Class<?>>asList(System.class, Collections.class)));
+		assertTrue(visited.isEmpty());
+	}
+
+	private static boolean containsSame(List<Object> list, Object obj) {
+		for (Object e : list) {
+			if (e == obj) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
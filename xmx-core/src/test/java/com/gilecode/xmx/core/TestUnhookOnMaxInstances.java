@@ -0,0 +1,172 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.core;
+
+import com.gilecode.xmx.cfg.impl.XmxIniConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.instrument.Instrumentation;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TestUnhookOnMaxInstances {
+
+	private static final int MAX_INSTANCES = 4;
+
+	public static class UnhookSampleService {
+	}
+
+	private Path tempDir;
+	private XmxManager uut;
+
+	/**
+	 * The results of the re-transformations, which are {@code true} if the registration of instances
+	 * is kept in the bytecode.
+	 */
+	private final BlockingQueue<Boolean> retransformResults = new LinkedBlockingQueue<>();
+
+	private final Instrumentation instr = (Instrumentation) Proxy.newProxyInstance(getClass().getClassLoader(),
+			new Class<?>[]{Instrumentation.class}, new InvocationHandler() {
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+					switch (method.getName()) {
+					case "isRetransformClassesSupported":
+					case "isModifiableClass":
+						return true;
+					case "retransformClasses":
+						for (Class<?> c : (Class<?>[]) args[0]) {
+							byte[] transformed = transform(c);
+							assertNotNull(transformed);
+							retransformResults.add(hasRegisterObjectCalls(transformed));
+						}
+						return null;
+					default:
+						throw new UnsupportedOperationException(method.getName());
+					}
+				}
+			});
+
+	@Before
+	public void setUp() throws Exception {
+		tempDir = Files.createTempDirectory("xmx-unhook");
+		File iniFile = tempDir.resolve("xmx.ini").toFile();
+		Files.write(iniFile.toPath(), Arrays.asList(
+				"[System]",
+				"EmbeddedWebServer.Enabled = false",
+				"JMX.Bridge.Enabled = false",
+				"TransformCache.Enabled = false",
+				"[App=*]",
+				"ManagedClasses = ^.*UnhookSampleService$",
+				"[App=*; Class=*]",
+				"MaxInstances = " + MAX_INSTANCES,
+				"UnhookOnMaxInstances = true"), Charset.defaultCharset());
+		uut = new XmxManager(XmxIniConfig.load(iniFile, false), tempDir.toFile());
+		uut.setInstrumentation(instr);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		Files.delete(tempDir.resolve("xmx.ini"));
+		Files.delete(tempDir);
+	}
+
+	private byte[] transform(Class<?> classBeingRedefined) throws IOException {
+		String bcClassName = UnhookSampleService.class.getName().replace('.', '/');
+		try (InputStream in = getClass().getClassLoader().getResourceAsStream(bcClassName + ".class")) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buf = new byte[4096];
+			int n;
+			while ((n = in.read(buf)) > 0) {
+				out.write(buf, 0, n);
+			}
+			return uut.transformClassIfInterested(getClass().getClassLoader(), bcClassName, out.toByteArray(),
+					classBeingRedefined);
+		}
+	}
+
+	private static boolean hasRegisterObjectCalls(byte[] classBuffer) {
+		final boolean[] found = new boolean[1];
+		new ClassReader(classBuffer).accept(new ClassVisitor(Opcodes.ASM6) {
+			@Override
+			public MethodVisitor visitMethod(int access, String name, String descriptor, String signature,
+					String[] exceptions) {
+				return new MethodVisitor(Opcodes.ASM6) {
+					@Override
+					public void visitMethodInsn(int opcode, String owner, String name, String descriptor,
+							boolean isInterface) {
+						if (name.equals("registerObject")) {
+							found[0] = true;
+						}
+					}
+				};
+			}
+		}, 0);
+		return found[0];
+	}
+
+	private void registerObjects(List<Object> objects, int count, XmxClassManager classInfo) {
+		for (int i = 0; i < count; i++) {
+			Object obj = new UnhookSampleService();
+			objects.add(obj);
+			// the registration token is passed, as it cannot be bound to the not transformed class
+			uut.registerObject(obj, classInfo, classInfo.getId());
+		}
+	}
+
+	@Test
+	public void testUnhookAndRehook() throws Exception {
+		// the initial load of the class
+		byte[] transformed = transform(null);
+		assertNotNull(transformed);
+		assertTrue(hasRegisterObjectCalls(transformed));
+		XmxClassManager classInfo = uut.findManagedClassInfo(UnhookSampleService.class);
+		assertNotNull(classInfo);
+		int classId = classInfo.getId();
+
+		// exceeding MaxInstances removes the registration of instances from the class
+		List<Object> objects = new ArrayList<>();
+		registerObjects(objects, MAX_INSTANCES + 1, classInfo);
+		assertEquals(MAX_INSTANCES, uut.getManagedObjectsCount(classId));
+		assertEquals(Boolean.FALSE, retransformResults.poll(10, TimeUnit.SECONDS));
+		assertTrue(classInfo.isUnhooked());
+
+		// once enough instances are GC'ed, the registration is re-added
+		objects.clear();
+		Boolean rehooked = null;
+		for (int i = 0; i < 100 && rehooked == null; i++) {
+			System.gc();
+			rehooked = retransformResults.poll(100, TimeUnit.MILLISECONDS);
+		}
+		assertNotNull("Failed to test, as System.gc() did not collect objects in a reasonable time", rehooked);
+		assertTrue(rehooked);
+		assertFalse(classInfo.isUnhooked());
+
+		// the new instances are registered again
+		int count = uut.getManagedObjectsCount(classId);
+		assertTrue(count < MAX_INSTANCES / 2);
+		registerObjects(objects, 1, classInfo);
+		assertEquals(count + 1, uut.getManagedObjectsCount(classId));
+	}
+}
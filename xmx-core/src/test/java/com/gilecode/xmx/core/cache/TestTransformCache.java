@@ -0,0 +1,95 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.core.cache;
+
+import com.gilecode.xmx.aop.AdviceKind;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+
+import static org.junit.Assert.*;
+
+public class TestTransformCache {
+
+	private File cacheDir;
+	private TransformCache cache;
+
+	@Before
+	public void setUp() throws IOException {
+		cacheDir = Files.createTempDirectory("xmxcache").toFile();
+		cache = TransformCache.open(cacheDir);
+		assertNotNull(cache);
+	}
+
+	@After
+	public void tearDown() {
+		if (cache != null) {
+			cache.close();
+		}
+		File file = new File(cacheDir, TransformCache.FILE_NAME);
+		assertTrue(!file.exists() || file.delete());
+		assertTrue(cacheDir.delete());
+	}
+
+	private static CachedTransformation sampleTransformation() {
+		byte[] bytecode = new byte[16];
+		CachedTransformation.JoinPoint jp = new CachedTransformation.JoinPoint("foo", "(I)V", "a.jar:A,b.jar:B",
+				EnumSet.of(AdviceKind.BEFORE, AdviceKind.AROUND), 8);
+		return new CachedTransformation(bytecode, 2, Collections.singletonList(jp));
+	}
+
+	@Test
+	public void testPutGet() {
+		byte[] key = cache.computeKey(new byte[]{1, 2, 3}, Arrays.asList("Foo", "true"));
+		assertNull(cache.get(key));
+
+		cache.put(key, sampleTransformation());
+		CachedTransformation cached = cache.get(key);
+		assertNotNull(cached);
+		assertEquals(1, cached.getJoinPoints().size());
+		assertEquals("a.jar:A,b.jar:B", cached.getJoinPoints().get(0).getAdviceDescs());
+		assertEquals(EnumSet.of(AdviceKind.BEFORE, AdviceKind.AROUND), cached.getJoinPoints().get(0).getAdviceKinds());
+
+		byte[] bound = cached.bind(0x01020304, new int[]{0x0A0B0C0D});
+		assertArrayEquals(new byte[]{0, 0, 1, 2, 3, 4, 0, 0, 0x0A, 0x0B, 0x0C, 0x0D, 0, 0, 0, 0}, bound);
+	}
+
+	@Test
+	public void testKeys() {
+		byte[] key = cache.computeKey(new byte[]{1, 2, 3}, Arrays.asList("Foo", "true"));
+		assertArrayEquals(key, cache.computeKey(new byte[]{1, 2, 3}, Arrays.asList("Foo", "true")));
+		assertFalse(Arrays.equals(key, cache.computeKey(new byte[]{1, 2, 3}, Arrays.asList("Foo", "false"))));
+		assertFalse(Arrays.equals(key, cache.computeKey(new byte[]{1, 2, 4}, Arrays.asList("Foo", "true"))));
+	}
+
+	@Test
+	public void testReopen() throws IOException {
+		byte[] key1 = cache.computeKey(new byte[]{1}, Collections.<String>emptyList());
+		byte[] key2 = cache.computeKey(new byte[]{2}, Collections.<String>emptyList());
+		cache.put(key1, sampleTransformation());
+		cache.put(key2, sampleTransformation());
+		cache.close();
+
+		// simulate the incomplete last record
+		File file = new File(cacheDir, TransformCache.FILE_NAME);
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(raf.length() - 1);
+		}
+
+		cache = TransformCache.open(cacheDir);
+		assertNotNull(cache);
+		assertNotNull(cache.get(key1));
+		assertNull(cache.get(key2));
+
+		cache.put(key2, sampleTransformation());
+		assertNotNull(cache.get(key2));
+	}
+}
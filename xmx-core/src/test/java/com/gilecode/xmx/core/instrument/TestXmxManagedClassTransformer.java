@@ -0,0 +1,449 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.core.instrument;
+
+import com.gilecode.xmx.aop.Advice;
+import com.gilecode.xmx.aop.AdviceKind;
+import com.gilecode.xmx.aop.IProceedHandle;
+import com.gilecode.xmx.aop.Proceed;
+import com.gilecode.xmx.aop.data.AdviceClassInfo;
+import com.gilecode.xmx.aop.data.AdviceLoadResult;
+import com.gilecode.xmx.aop.impl.AopTestUtils;
+import com.gilecode.xmx.aop.impl.TestMethodWeaverDirectInvocation;
+import com.gilecode.xmx.aop.impl.WeakCachedSupplier;
+import com.gilecode.xmx.aop.impl.XmxAopManager;
+import com.gilecode.xmx.boot.IXmxBootService;
+import com.gilecode.xmx.boot.XmxProxy;
+import com.gilecode.xmx.cfg.ClassConfigView;
+import com.gilecode.xmx.cfg.PropertyValue;
+import com.gilecode.xmx.cfg.pattern.MethodSpec;
+import com.gilecode.xmx.core.cache.CachedTransformation;
+import com.gilecode.xmx.model.XmxJoinPointInfo;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class TestXmxManagedClassTransformer {
+
+	private static final int BASE_CLASS_ID = 1;
+	private static final int DERIVED_CLASS_ID = 2;
+
+	public static class SampleBase {
+		long l;
+
+		public SampleBase() {
+			this(1L);
+		}
+
+		public SampleBase(long l) {
+			double d = l * 2.0;
+			if (d > 1) {
+				this.l = l;
+			} else {
+				this.l = 0;
+			}
+		}
+	}
+
+	public static class SampleDerived extends SampleBase {
+		public SampleDerived() {
+			super(3L);
+			String s = "x";
+			if (s.length() > 0) {
+				l++;
+			}
+		}
+	}
+
+	public static abstract class SampleAbstractService {
+		public String process(String arg) {
+			return "processed " + arg;
+		}
+
+		public abstract void other();
+	}
+
+	/**
+	 * Defines the transformed sample classes.
+	 */
+	private static class TestClassLoader extends ClassLoader {
+
+		/**
+		 * If positive, the class IDs are replaced with placeholders, and then bound to the IDs
+		 * shifted by this value.
+		 */
+		private final int boundClassIdShift;
+
+		/**
+		 * Whether the registration token field is added, i.e. the class is not re-transformed.
+		 */
+		private final boolean addTokenField;
+
+		TestClassLoader() {
+			this(0, true);
+		}
+
+		TestClassLoader(int boundClassIdShift, boolean addTokenField) {
+			super(TestXmxManagedClassTransformer.class.getClassLoader());
+			this.boundClassIdShift = boundClassIdShift;
+			this.addTokenField = addTokenField;
+		}
+
+		@Override
+		protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+			int classId = name.equals(SampleBase.class.getName()) ? BASE_CLASS_ID
+					: name.equals(SampleDerived.class.getName()) ? DERIVED_CLASS_ID : 0;
+			if (classId == 0) {
+				return super.loadClass(name, resolve);
+			}
+			synchronized (getClassLoadingLock(name)) {
+				Class<?> c = findLoadedClass(name);
+				if (c == null) {
+					byte[] transformed = transform(name, classId);
+					c = defineClass(name, transformed, 0, transformed.length);
+				}
+				return c;
+			}
+		}
+
+		private byte[] transform(String className, int classId) throws ClassNotFoundException {
+			try (InputStream in = getParent().getResourceAsStream(className.replace('.', '/') + ".class")) {
+				ClassReader cr = new ClassReader(in);
+				ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+				BindableIds bindableIds = boundClassIdShift > 0 ? new BindableIds(cr) : null;
+				XmxManagedClassTransformer transformer = new XmxManagedClassTransformer(cw, classId, true, addTokenField,
+						null, className.replace('.', '/'), className, AdviceLoadResult.empty(), null, null, null, false,
+						bindableIds);
+				cr.accept(transformer, ClassReader.EXPAND_FRAMES);
+				if (bindableIds != null) {
+					return bindableIds.toCachedTransformation(cw.toByteArray())
+							.bind(classId + boundClassIdShift, new int[0]);
+				}
+				return cw.toByteArray();
+			} catch (IOException e) {
+				throw new ClassNotFoundException(className, e);
+			}
+		}
+	}
+
+	private final List<Object[]> registrations = new ArrayList<>();
+
+	@Before
+	public void setUp() throws Exception {
+		IXmxBootService service = (IXmxBootService) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[]{IXmxBootService.class}, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						if (method.getName().equals("registerObject")) {
+							registrations.add(args);
+						}
+						return null;
+					}
+				});
+		setXmxService(service);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		setXmxService(null);
+	}
+
+	private static void setXmxService(IXmxBootService service) throws Exception {
+		Field serviceField = XmxProxy.class.getDeclaredField("xmxService");
+		serviceField.setAccessible(true);
+		serviceField.set(null, service);
+	}
+
+	@Test
+	public void testRegistrationFromExactClassOnly() throws Exception {
+		TestClassLoader cl = new TestClassLoader();
+		Class<?> baseClass = cl.loadClass(SampleBase.class.getName());
+		Class<?> derivedClass = cl.loadClass(SampleDerived.class.getName());
+
+		Object base = baseClass.getConstructor().newInstance();
+		assertEquals(1, registrations.size());
+		assertSame(base, registrations.get(0)[0]);
+		assertNull(registrations.get(0)[1]);
+		assertEquals(BASE_CLASS_ID, registrations.get(0)[2]);
+
+		registrations.clear();
+		Object derived = derivedClass.getConstructor().newInstance();
+		assertEquals(1, registrations.size());
+		assertSame(derived, registrations.get(0)[0]);
+		assertEquals(DERIVED_CLASS_ID, registrations.get(0)[2]);
+	}
+
+	@Test
+	public void testRegistrationTokenField() throws Exception {
+		TestClassLoader cl = new TestClassLoader();
+		Class<?> derivedClass = cl.loadClass(SampleDerived.class.getName());
+
+		Field tokenField = derivedClass.getDeclaredField(XmxManagedClassTransformer.REGISTRATION_TOKEN_FIELD);
+		int modifiers = tokenField.getModifiers();
+		assertTrue(Modifier.isPrivate(modifiers));
+		assertTrue(Modifier.isStatic(modifiers));
+		assertTrue(tokenField.isSynthetic());
+
+		Object token = new Object();
+		tokenField.setAccessible(true);
+		tokenField.set(null, token);
+
+		derivedClass.getConstructor().newInstance();
+		assertEquals(1, registrations.size());
+		assertSame(token, registrations.get(0)[1]);
+	}
+
+	@Test
+	public void testBoundClassIds() throws Exception {
+		TestClassLoader cl = new TestClassLoader(1000, true);
+		Class<?> baseClass = cl.loadClass(SampleBase.class.getName());
+		Class<?> derivedClass = cl.loadClass(SampleDerived.class.getName());
+
+		baseClass.getConstructor().newInstance();
+		derivedClass.getConstructor().newInstance();
+		assertEquals(2, registrations.size());
+		assertEquals(BASE_CLASS_ID + 1000, registrations.get(0)[2]);
+		assertEquals(DERIVED_CLASS_ID + 1000, registrations.get(1)[2]);
+	}
+
+	@Test
+	public void testWithoutRegistrationTokenField() throws Exception {
+		TestClassLoader cl = new TestClassLoader(0, false);
+		Class<?> derivedClass = cl.loadClass(SampleDerived.class.getName());
+
+		try {
+			derivedClass.getDeclaredField(XmxManagedClassTransformer.REGISTRATION_TOKEN_FIELD);
+			fail("Registration token field is not expected");
+		} catch (NoSuchFieldException e) {
+			// expected
+		}
+
+		Object derived = derivedClass.getConstructor().newInstance();
+		assertEquals(1, registrations.size());
+		assertSame(derived, registrations.get(0)[0]);
+		assertNull(registrations.get(0)[1]);
+		assertEquals(DERIVED_CLASS_ID, registrations.get(0)[2]);
+	}
+
+	@Test
+	public void testAroundSplitInAbstractClass() throws Exception {
+		byte[] transformed = transformWithAroundAdvice(SampleAbstractService.class, null);
+
+		Set<String> methods = readDeclaredMethods(transformed);
+		assertTrue(methods.contains("process$xmx$original(Ljava/lang/String;)Ljava/lang/String;"));
+		assertFalse(methods.contains("other$xmx$original()V"));
+
+		Class<?> loaded = defineClass(SampleAbstractService.class.getName(), transformed);
+		assertEquals(Collections.singleton("process(Ljava/lang/String;)Ljava/lang/String;"),
+				XmxAroundMethodSplitter.findSplitMethods(loaded));
+	}
+
+	@Test
+	public void testAroundSplitKeptOnRetransform() throws Exception {
+		byte[] transformed = transformWithAroundAdvice(SampleAbstractService.class, null);
+		Class<?> loaded = defineClass(SampleAbstractService.class.getName(), transformed);
+
+		// the abstract class is not managed, so no registration token field exists on re-transformation
+		byte[] retransformed = transformWithAroundAdvice(SampleAbstractService.class,
+				XmxAroundMethodSplitter.findSplitMethods(loaded));
+		assertEquals(readDeclaredMethods(transformed), readDeclaredMethods(retransformed));
+	}
+
+	@Test
+	public void testNoAroundSplitOnRetransformOfUnsplitClass() throws Exception {
+		byte[] retransformed = transformWithAroundAdvice(SampleAbstractService.class,
+				Collections.<String>emptySet());
+		assertEquals(readDeclaredMethods(readClass(SampleAbstractService.class)), readDeclaredMethods(retransformed));
+	}
+
+	public static class SampleAdvice_AroundAndBefore {
+		@Advice(AdviceKind.AROUND)
+		public Object around(@Proceed IProceedHandle handle) throws Throwable {
+			return handle.proceed();
+		}
+
+		@Advice(AdviceKind.BEFORE)
+		public void before() {
+		}
+	}
+
+	@Test
+	public void testCachedRetransformOfUnsplitClass() throws Exception {
+		XmxAopManager aopManager = new XmxAopManager(null, null, false, true);
+		Class<?> adviceClass = SampleAdvice_AroundAndBefore.class;
+		AdviceLoadResult loadedAdvices = loadAdvices(adviceClass);
+		ClassReader cr = new ClassReader(readClass(SampleAbstractService.class));
+		BindableIds bindableIds = new BindableIds(cr);
+
+		// the method was not split on the initial load, so only the 'before' advice is weaved
+		byte[] transformed = transform(cr, Collections.<String>emptySet(), adviceClass, loadedAdvices, aopManager,
+				bindableIds);
+		List<XmxJoinPointInfo> freshJoinPoints = aopManager.getJoinPoints();
+		assertEquals(1, freshJoinPoints.size());
+		assertEquals("process", freshJoinPoints.get(0).getMethodName());
+		List<String> freshAdvices = freshJoinPoints.get(0).getAdvices();
+		assertEquals(1, freshAdvices.size());
+		assertTrue(freshAdvices.get(0).startsWith("BEFORE "));
+
+		CachedTransformation cached = bindableIds.toCachedTransformation(transformed);
+		assertEquals(1, cached.getJoinPoints().size());
+		assertEquals(EnumSet.of(AdviceKind.BEFORE), cached.getJoinPoints().get(0).getAdviceKinds());
+		aopManager.unregisterJoinPoints(bindableIds.getJoinPointIds());
+
+		// the cache hit registers the same advices
+		int[] cachedIds = XmxManagedClassTransformer.registerCachedJoinPoints(aopManager, cached,
+				SampleAbstractService.class.getName(), loadedAdvices, null);
+		assertNotNull(cachedIds);
+		List<XmxJoinPointInfo> cachedJoinPoints = aopManager.getJoinPoints();
+		assertEquals(1, cachedJoinPoints.size());
+		assertEquals(cachedIds[0], cachedJoinPoints.get(0).getId());
+		assertEquals(freshAdvices, cachedJoinPoints.get(0).getAdvices());
+	}
+
+	private static byte[] transformWithAroundAdvice(Class<?> c, Set<String> splitMethods) throws IOException {
+		Class<?> adviceClass = TestMethodWeaverDirectInvocation.SampleAdvice_AroundTimer.class;
+		return transform(new ClassReader(readClass(c)), splitMethods, adviceClass, loadAdvices(adviceClass),
+				new XmxAopManager(null, null), null);
+	}
+
+	private static byte[] transform(ClassReader cr, Set<String> splitMethods, Class<?> adviceClass,
+	                                AdviceLoadResult loadedAdvices, XmxAopManager aopManager,
+	                                BindableIds bindableIds) {
+		ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+		XmxManagedClassTransformer transformer = new XmxManagedClassTransformer(cw, 0, false, true,
+				splitMethods, cr.getClassName(), cr.getClassName().replace('/', '.'), loadedAdvices,
+				new AdvicesConfig(getAdviceDesc(adviceClass)), aopManager, null, false, bindableIds);
+		cr.accept(transformer, ClassReader.EXPAND_FRAMES);
+		return cw.toByteArray();
+	}
+
+	private static String getAdviceDesc(Class<?> adviceClass) {
+		return ":" + adviceClass.getName();
+	}
+
+	private static AdviceLoadResult loadAdvices(final Class<?> adviceClass) throws IOException {
+		String adviceDesc = getAdviceDesc(adviceClass);
+		WeakCachedSupplier<Class<?>> adviceClassSupplier = new WeakCachedSupplier<Class<?>>() {
+			@Override
+			protected Class<?> load() {
+				return adviceClass;
+			}
+		};
+		return new AdviceLoadResult(Collections.singletonMap(adviceDesc,
+				new AdviceClassInfo(adviceClassSupplier, AopTestUtils.getMethodDeclarations(adviceClass), adviceDesc)));
+	}
+
+	private static byte[] readClass(Class<?> c) throws IOException {
+		try (InputStream in = AopTestUtils.getClassAsStream(c)) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buf = new byte[4096];
+			int n;
+			while ((n = in.read(buf)) > 0) {
+				out.write(buf, 0, n);
+			}
+			return out.toByteArray();
+		}
+	}
+
+	private static Set<String> readDeclaredMethods(byte[] classBytes) {
+		final Set<String> methods = new HashSet<>();
+		new ClassReader(classBytes).accept(new ClassVisitor(Opcodes.ASM7) {
+			@Override
+			public MethodVisitor visitMethod(int access, String name, String descriptor, String signature,
+			                                 String[] exceptions) {
+				methods.add(name + descriptor);
+				return null;
+			}
+		}, ClassReader.SKIP_CODE);
+		return methods;
+	}
+
+	private static Class<?> defineClass(final String name, final byte[] classBytes) throws ClassNotFoundException {
+		return new ClassLoader(TestXmxManagedClassTransformer.class.getClassLoader()) {
+			@Override
+			protected Class<?> findClass(String className) throws ClassNotFoundException {
+				if (className.equals(name)) {
+					return defineClass(name, classBytes, 0, classBytes.length);
+				}
+				return super.findClass(className);
+			}
+
+			Class<?> define() throws ClassNotFoundException {
+				return findClass(name);
+			}
+		}.define();
+	}
+
+	/**
+	 * Configures the specified advices for all non-constructor methods.
+	 */
+	private static class AdvicesConfig implements ClassConfigView {
+
+		private final String advices;
+
+		AdvicesConfig(String advices) {
+			this.advices = advices;
+		}
+
+		@Override
+		public String getClassName() {
+			return null;
+		}
+
+		@Override
+		public boolean isManaged() {
+			return false;
+		}
+
+		@Override
+		public PropertyValue getClassProperty(String propName) {
+			return null;
+		}
+
+		@Override
+		public PropertyValue getMethodProperty(MethodSpec methodSpec, String propName) {
+			if (methodSpec.isSpecial()) {
+				return null;
+			}
+			return new PropertyValue() {
+				@Override
+				public String asString() {
+					return advices;
+				}
+
+				@Override
+				public int asInt() {
+					return 0;
+				}
+
+				@Override
+				public boolean asBool() {
+					return false;
+				}
+			};
+		}
+
+		@Override
+		public List<PropertyValue> getDistinctMethodPropertyValues(String propName) {
+			return Collections.emptyList();
+		}
+
+		@Override
+		public String getMethodSectionsSignature() {
+			return "";
+		}
+	}
+}
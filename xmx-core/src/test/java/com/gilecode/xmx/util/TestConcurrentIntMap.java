@@ -0,0 +1,108 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package com.gilecode.xmx.util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class TestConcurrentIntMap {
+
+	@Test
+	public void testBasicOperations() {
+		ConcurrentIntMap<String> map = new ConcurrentIntMap<>(2, 4);
+		assertTrue(map.isEmpty());
+		assertNull(map.put(1, "a"));
+		assertNull(map.put(-7, "b"));
+		assertEquals("a", map.put(1, "c"));
+		assertEquals("c", map.putIfAbsent(1, "d"));
+		assertEquals(2, map.size());
+		assertEquals("c", map.get(1));
+		assertEquals("b", map.get(-7));
+		assertNull(map.get(2));
+
+		assertFalse(map.remove(1, "a"));
+		assertTrue(map.remove(1, "c"));
+		assertNull(map.remove(1));
+		assertEquals("b", map.remove(-7));
+		assertTrue(map.isEmpty());
+	}
+
+	@Test
+	public void testGrowAndSnapshots() {
+		ConcurrentIntMap<Integer> map = new ConcurrentIntMap<>(0, 1);
+		int n = 10000;
+		for (int i = 0; i < n; i++) {
+			map.put(i, i);
+		}
+		assertEquals(n, map.size());
+		int[] keys = map.keys();
+		Arrays.sort(keys);
+		assertEquals(n, keys.length);
+		for (int i = 0; i < n; i++) {
+			assertEquals(i, keys[i]);
+			assertEquals(Integer.valueOf(i), map.get(i));
+		}
+		assertEquals(n, map.values().size());
+
+		Set<Integer> iterated = new HashSet<>();
+		for (Iterator<Integer> it = map.valuesIterator(); it.hasNext(); ) {
+			assertTrue(iterated.add(it.next()));
+		}
+		assertEquals(n, iterated.size());
+
+		map.clear();
+		assertEquals(0, map.size());
+		assertEquals(0, map.keys().length);
+		assertFalse(map.valuesIterator().hasNext());
+	}
+
+	@Test
+	public void testConcurrentModifications() throws Exception {
+		final ConcurrentIntMap<Integer> map = new ConcurrentIntMap<>(16, 16);
+		final int nThreads = 8;
+		final int perThread = 20000;
+		ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+		try {
+			Future<?>[] futures = new Future<?>[nThreads];
+			for (int t = 0; t < nThreads; t++) {
+				final int base = t * perThread;
+				futures[t] = executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() {
+						for (int i = base; i < base + perThread; i++) {
+							map.put(i, i);
+							// remove every other key
+							if ((i & 1) == 0) {
+								assertEquals(Integer.valueOf(i), map.remove(i));
+							}
+						}
+						return null;
+					}
+				});
+			}
+			for (Future<?> f : futures) {
+				f.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		assertEquals(nThreads * perThread / 2, map.size());
+		Set<Integer> keys = new HashSet<>();
+		for (int key : map.keys()) {
+			assertEquals(1, key & 1);
+			keys.add(key);
+		}
+		assertEquals(nThreads * perThread / 2, keys.size());
+	}
+}
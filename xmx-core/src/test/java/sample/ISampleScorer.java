@@ -0,0 +1,9 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package sample;
+
+// sample interface used for AOP testing of primitive arguments, without reflection
+public interface ISampleScorer {
+
+	double score(double weight, long count);
+}
@@ -0,0 +1,12 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package sample;
+
+// sample class used for AOP testing of primitive arguments
+public class SampleScorer implements ISampleScorer {
+
+	@Override
+	public double score(double weight, long count) {
+		return weight * count;
+	}
+}
@@ -0,0 +1,14 @@
+// Copyright © 2019 Andrey Mogilev. All rights reserved.
+
+package sample;
+
+// sample task used for AOP testing, which may be invoked without reflection
+public class SampleTask implements Runnable {
+
+	private int runs;
+
+	@Override
+	public void run() {
+		runs++;
+	}
+}
@@ -11,8 +11,10 @@ import org.eclipse.jetty.apache.jsp.JettyJasperInitializer;
 import org.eclipse.jetty.plus.annotation.ContainerInitializer;
 import org.eclipse.jetty.server.Connector;
 import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.HandlerWrapper;
 import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import org.eclipse.jetty.util.thread.ScheduledExecutorScheduler;
 import org.eclipse.jetty.util.thread.Scheduler;
@@ -20,7 +22,11 @@ import org.eclipse.jetty.webapp.WebAppContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.io.File;
+import java.io.IOException;
 import java.util.Arrays;
 
 /**
@@ -32,8 +38,34 @@ public class XmxEmbeddedJettyLauncher implements IXmxServerLauncher {
 
 	private final static Logger logger = LoggerFactory.getLogger(XmxEmbeddedJettyLauncher.class);
 
+	/**
+	 * The running server, or {@code null} if not started or stopped.
+	 */
+	private volatile Server server;
+
+	/**
+	 * The time of the last request to the running server, or of the server start.
+	 */
+	private volatile long lastActivityTime;
+
+	/**
+	 * Records the time of each request before handling it by the web application.
+	 */
+	private class ActivityTrackingHandler extends HandlerWrapper {
+		@Override
+		public void handle(String target, Request baseRequest, HttpServletRequest request,
+				HttpServletResponse response) throws IOException, ServletException {
+			lastActivityTime = System.currentTimeMillis();
+			super.handle(target, baseRequest, request, response);
+		}
+	}
+
 	@Override
-	public void launchServer(File warFile, IXmxConfig config) {
+	public synchronized void launchServer(File warFile, IXmxConfig config) {
+		if (server != null) {
+			logger.warn("XMX Web Server is already started");
+			return;
+		}
 		try {
 			Thread.currentThread().setContextClassLoader(XmxEmbeddedJettyLauncher.class.getClassLoader());
 
@@ -77,8 +109,12 @@ public class XmxEmbeddedJettyLauncher implements IXmxServerLauncher {
 	        webapp.addBean(new ServletContainerInitializersStarter(webapp), true);
 /**/			        
 	 
-	        server.setHandler(webapp);
+	        ActivityTrackingHandler activityTracker = new ActivityTrackingHandler();
+	        activityTracker.setHandler(webapp);
+	        server.setHandler(activityTracker);
 	        server.start();
+	        lastActivityTime = System.currentTimeMillis();
+	        this.server = server;
 
 	        logger.info("Started XMX Web Server at http://localhost:{}", port);
 
@@ -87,4 +123,24 @@ public class XmxEmbeddedJettyLauncher implements IXmxServerLauncher {
 			logger.error("Failed to launch XMX Web Server", e);
 		}
 	}
+
+	@Override
+	public synchronized void stopServer() {
+		Server runningServer = server;
+		if (runningServer == null) {
+			return;
+		}
+		server = null;
+		try {
+			runningServer.stop();
+			logger.info("Stopped XMX Web Server");
+		} catch (Exception e) {
+			logger.error("Failed to stop XMX Web Server", e);
+		}
+	}
+
+	@Override
+	public long getLastActivityTime() {
+		return server == null ? -1 : lastActivityTime;
+	}
 }
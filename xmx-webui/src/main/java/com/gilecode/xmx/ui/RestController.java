@@ -238,6 +238,22 @@ public class RestController implements UIConstants {
 		return "methodResult";
 	}
 
+	@RequestMapping(value = "getJoinPoints", method = RequestMethod.GET)
+	public String handleGetJoinPoints(ModelMap model, @RequestParam(ATTR_SESSION_ID) String sessionId) {
+		checkSessionId(sessionId, "");
+		model.addAttribute("joinPoints", xmxUiService.getJoinPoints());
+		model.addAttribute(ATTR_SESSION_ID, sessionId);
+		return "joinPoints";
+	}
+
+	@RequestMapping(value = "setJoinPointEnabled", method = RequestMethod.POST)
+	public String handleSetJoinPointEnabled(@RequestParam int joinPointId, @RequestParam boolean enabled,
+			@RequestParam(ATTR_SESSION_ID) String sessionId) {
+		checkSessionId(sessionId, "");
+		xmxUiService.setJoinPointEnabled(joinPointId, enabled);
+		return "redirect:/getJoinPoints?" + ATTR_SESSION_ID + "=" + sessionId;
+	}
+
 	@RequestMapping(value = "reportAllObjects", method = RequestMethod.GET)
 	@ResponseStatus(HttpStatus.OK)
 	public void getAllObjectsReport(HttpServletResponse resp) throws IOException {
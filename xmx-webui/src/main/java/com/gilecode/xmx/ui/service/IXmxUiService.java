@@ -3,6 +3,7 @@
 package com.gilecode.xmx.ui.service;
 
 import com.gilecode.xmx.model.NotSingletonException;
+import com.gilecode.xmx.model.XmxJoinPointInfo;
 import com.gilecode.xmx.model.XmxObjectInfo;
 import com.gilecode.xmx.service.IXmxService;
 import com.gilecode.xmx.ui.dto.ExtendedClassInfoDto;
@@ -79,4 +80,16 @@ public interface IXmxUiService {
 	void printFullObjectJson(String refpath, String fid, PrintWriter out) throws IOException, RefPathSyntaxException, MissingObjectException, NotSingletonException, MissingProxyException;
 
 	String getCurrentSessionId();
+
+	/**
+	 * Returns information about all join points, i.e. the methods weaved with advices.
+	 */
+	List<XmxJoinPointInfo> getJoinPoints();
+
+	/**
+	 * Enables or disables the invocation of the advices of the join point.
+	 *
+	 * @return {@code false} if the join point is not found
+	 */
+	boolean setJoinPointEnabled(int joinPointId, boolean enabled);
 }
@@ -7,6 +7,7 @@ import com.gilecode.reflection.ReflectionAccessor;
 import com.gilecode.xmx.core.type.IMethodInfoService;
 import com.gilecode.xmx.model.*;
 import com.gilecode.xmx.service.IMapperService;
+import com.gilecode.xmx.service.IXmxObjectsVisitor;
 import com.gilecode.xmx.service.IXmxService;
 import com.gilecode.xmx.ui.UIConstants;
 import com.gilecode.xmx.ui.dto.*;
@@ -69,12 +70,12 @@ public class XmxUiService implements IXmxUiService, UIConstants {
 				if (CollectionUtils.isNotEmpty(managedClassInfos)) {
 					List<ExtendedClassInfoDto> extendedXmxClassInfos = new ArrayList<>(managedClassInfos.size());
 					for (XmxClassInfo managedClassInfo : managedClassInfos) {
-						List<XmxObjectInfo> managedObjects = xmxService.getManagedObjects(managedClassInfo.getId());
-						int numObjects = managedObjects.size();
+						int numObjects = xmxService.getManagedObjectsCount(managedClassInfo.getId());
 						String proxyClass = null;
 						if (numObjects == 1) {
 							// special case - check if proxy is detected
-							Object proxy = managedObjects.get(0).getProxy();
+							XmxObjectInfo singleInstance = getManagedClassSingleInstance(managedClassInfo.getId());
+							Object proxy = singleInstance == null ? null : singleInstance.getProxy();
 							proxyClass = proxy == null ? null : proxy.getClass().getName();
 						}
 						ExtendedClassInfoDto extendedXmxClassInfo = new ExtendedClassInfoDto(managedClassInfo, numObjects, proxyClass);
@@ -90,6 +91,9 @@ public class XmxUiService implements IXmxUiService, UIConstants {
 
 	@Override
 	public XmxObjectInfo getManagedClassSingleInstance(int classId) {
+		if (xmxService.getManagedObjectsCount(classId) != 1) {
+			return null;
+		}
 		List<XmxObjectInfo> managedObjects = xmxService.getManagedObjects(classId);
 		if (managedObjects.size() == 1) {
 			return managedObjects.get(0);
@@ -471,11 +475,12 @@ public class XmxUiService implements IXmxUiService, UIConstants {
 	}
 
 	@Override
-	public void printAllObjectsReport(PrintWriter out) {
+	public void printAllObjectsReport(final PrintWriter out) {
 		List<String> applicationNames = xmxService.getApplicationNames();
 		Collections.sort(applicationNames);
 		for (String applicationName : applicationNames) {
-			out.println("Application: " + applicationName);
+			out.println("Application: " + applicationName + " (" +
+					xmxService.getAppManagedObjectsCount(applicationName) + " instances)");
 			List<XmxClassInfo> managedClassInfos = xmxService.findManagedClassInfos(applicationName, null);
 			Collections.sort(managedClassInfos, new Comparator<XmxClassInfo>() {
 				@Override
@@ -484,11 +489,15 @@ public class XmxUiService implements IXmxUiService, UIConstants {
 				}
 			});
 			for (XmxClassInfo managedClassInfo : managedClassInfos) {
-				List<XmxObjectInfo> managedObjects = xmxService.getManagedObjects(managedClassInfo.getId());
-				out.println("Class: " + managedClassInfo.getClassName() + " (" + managedObjects.size() + " instances)");
-				for (XmxObjectInfo objectInfo : managedObjects) {
-					out.println("  id=" + objectInfo.getObjectId() + ", json=" + mapperService.safeToJson(objectInfo.getValue()));
-				}
+				int numObjects = xmxService.getManagedObjectsCount(managedClassInfo.getId());
+				out.println("Class: " + managedClassInfo.getClassName() + " (" + numObjects + " instances)");
+				xmxService.visitManagedObjects(managedClassInfo.getId(), new IXmxObjectsVisitor() {
+					@Override
+					public boolean visitObject(XmxObjectInfo objectInfo) {
+						out.println("  id=" + objectInfo.getObjectId() + ", json=" + mapperService.safeToJson(objectInfo.getValue()));
+						return true;
+					}
+				});
 				out.println("-------------");
 			}
 			out.println("=============\n");
@@ -630,4 +639,14 @@ public class XmxUiService implements IXmxUiService, UIConstants {
 	public String getCurrentSessionId() {
 		return sessionId;
 	}
+
+	@Override
+	public List<XmxJoinPointInfo> getJoinPoints() {
+		return xmxService.getJoinPoints();
+	}
+
+	@Override
+	public boolean setJoinPointEnabled(int joinPointId, boolean enabled) {
+		return xmxService.setJoinPointEnabled(joinPointId, enabled);
+	}
 }
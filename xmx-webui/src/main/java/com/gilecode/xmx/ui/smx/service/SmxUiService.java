@@ -4,6 +4,7 @@ package com.gilecode.xmx.ui.smx.service;
 
 import com.gilecode.xmx.model.XmxClassInfo;
 import com.gilecode.xmx.model.XmxObjectInfo;
+import com.gilecode.xmx.service.IXmxObjectsVisitor;
 import com.gilecode.xmx.service.IXmxService;
 import com.gilecode.xmx.spring.IXmxSpringService;
 import com.gilecode.xmx.spring.ResolvedValueKind;
@@ -127,7 +128,7 @@ public class SmxUiService implements ISmxUiService {
 
     private boolean hasAnyContext(String appName) {
         for (XmxClassInfo classInfo : getContextClasses(appName)) {
-            if (!xmxService.getManagedObjects(classInfo.getId()).isEmpty()) {
+            if (xmxService.getManagedObjectsCount(classInfo.getId()) > 0) {
                 return true;
             }
         }
@@ -146,15 +147,19 @@ public class SmxUiService implements ISmxUiService {
         return ctxObjectInfos;
     }
 
-    private void fillBeans(String appName, Map<String, Integer> beanNamesAndCounts) {
+    private void fillBeans(String appName, final Map<String, Integer> beanNamesAndCounts) {
         for (XmxClassInfo classInfo : getContextClasses(appName)) {
-            for (XmxObjectInfo ctxObjInfo : xmxService.getManagedObjects(classInfo.getId())) {
-                String[] bdNames = contextDataExtractor.getBeanDefinitionNames(ctxObjInfo);
-                for (String beanName : bdNames) {
-                    Integer count = beanNamesAndCounts.get(beanName);
-                    beanNamesAndCounts.put(beanName, count == null ? 1 : count + 1);
+            xmxService.visitManagedObjects(classInfo.getId(), new IXmxObjectsVisitor() {
+                @Override
+                public boolean visitObject(XmxObjectInfo ctxObjInfo) {
+                    String[] bdNames = contextDataExtractor.getBeanDefinitionNames(ctxObjInfo);
+                    for (String beanName : bdNames) {
+                        Integer count = beanNamesAndCounts.get(beanName);
+                        beanNamesAndCounts.put(beanName, count == null ? 1 : count + 1);
+                    }
+                    return true;
                 }
-            }
+            });
         }
     }
 }
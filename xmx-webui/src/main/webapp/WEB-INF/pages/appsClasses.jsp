@@ -2,6 +2,7 @@
 <html>
 <body>
 <h1>List of applications and their classes</h1>
+<p><a href="${pageContext.request.contextPath}/getJoinPoints?sid=${sid}">Advised methods</a></p>
 <table border="2">
     <thead style="font-style: italic">
     <tr>
@@ -0,0 +1,37 @@
+<%@ taglib prefix="c" uri="http://java.sun.com/jsp/jstl/core" %>
+<html>
+<body>
+<h1>List of advised methods</h1>
+<table border="2">
+    <thead style="font-style: italic">
+    <tr>
+        <td>ID</td>
+        <td>Method</td>
+        <td>Advices</td>
+        <td>State</td>
+    </tr>
+    </thead>
+    <c:forEach items="${joinPoints}" var="joinPoint">
+        <tr>
+            <td>${joinPoint.id}</td>
+            <td><c:out value="${joinPoint.className}.${joinPoint.methodName}"/></td>
+            <td>
+                <c:forEach items="${joinPoint.advices}" var="advice">
+                    <c:out value="${advice}"/><br/>
+                </c:forEach>
+            </td>
+            <td>
+                <form method="POST" action="${pageContext.request.contextPath}/setJoinPointEnabled">
+                    ${joinPoint.enabled ? 'Enabled' : 'Disabled'}
+                    <input type="hidden" name="joinPointId" value="${joinPoint.id}"/>
+                    <input type="hidden" name="enabled" value="${!joinPoint.enabled}"/>
+                    <input type="hidden" name="sid" value="${sid}"/>
+                    <input type="submit" value="${joinPoint.enabled ? 'Disable' : 'Enable'}"/>
+                </form>
+            </td>
+        </tr>
+    </c:forEach>
+</table>
+<p><a href="${pageContext.request.contextPath}/">Back to classes</a></p>
+</body>
+</html>